@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.api.outbound;
+
+import network.oxalis.api.tag.Tag;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Defines a transmission service accepting many documents, returning a future response for each document.
+ * <p>
+ * Implementations are expected to limit the number of documents in progress, making the sending thread wait
+ * when the limit is reached. Responses are retained by the returned futures, so when sending large batches the
+ * single document methods should be used to handle each response as it completes.
+ *
+ * @since 6.5.1
+ */
+public interface BulkTransmissionService {
+
+    /**
+     * Sends content found in the InputStream. The InputStream is closed when its content is read.
+     *
+     * @param inputStream InputStream containing content to be sent.
+     * @param tag         Tag defined by client.
+     * @return Future transmission response, completed exceptionally if transmission failed.
+     */
+    CompletableFuture<TransmissionResponse> send(InputStream inputStream, Tag tag);
+
+    /**
+     * Sends content found in the InputStream. The InputStream is closed when its content is read.
+     *
+     * @param inputStream InputStream containing content to be sent.
+     * @return Future transmission response, completed exceptionally if transmission failed.
+     */
+    default CompletableFuture<TransmissionResponse> send(InputStream inputStream) {
+        return send(inputStream, Tag.NONE);
+    }
+
+    /**
+     * Sends a prepared transmission message. Lookup is not performed for instances of {@link TransmissionRequest}.
+     *
+     * @param transmissionMessage Message to be sent.
+     * @return Future transmission response, completed exceptionally if transmission failed.
+     */
+    CompletableFuture<TransmissionResponse> send(TransmissionMessage transmissionMessage);
+
+    /**
+     * Sends content found in each of the InputStreams, in order of the stream.
+     *
+     * @param inputStreams Stream of InputStreams containing content to be sent.
+     * @return Future transmission responses in order of the stream.
+     */
+    default List<CompletableFuture<TransmissionResponse>> send(Stream<InputStream> inputStreams) {
+        return inputStreams.map(this::send).collect(Collectors.toList());
+    }
+
+    /**
+     * Sends content found in each of the InputStreams, in order of the collection.
+     *
+     * @param inputStreams Collection of InputStreams containing content to be sent.
+     * @return Future transmission responses in order of the collection.
+     */
+    default List<CompletableFuture<TransmissionResponse>> send(Collection<InputStream> inputStreams) {
+        return send(inputStreams.stream());
+    }
+}
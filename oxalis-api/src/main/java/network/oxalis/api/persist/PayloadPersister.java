@@ -23,6 +23,7 @@
 package network.oxalis.api.persist;
 
 import network.oxalis.api.model.TransmissionIdentifier;
+import network.oxalis.vefa.peppol.common.model.Digest;
 import network.oxalis.vefa.peppol.common.model.Header;
 
 import java.io.IOException;
@@ -39,4 +40,14 @@ public interface PayloadPersister {
     Path persist(TransmissionIdentifier transmissionIdentifier, Header header, InputStream inputStream)
             throws IOException;
 
+    /**
+     * Persists payload of which the digest of the received content is already known, allowing implementations to
+     * recognize content received before.
+     *
+     * @since 6.5.1
+     */
+    default Path persist(TransmissionIdentifier transmissionIdentifier, Header header, InputStream inputStream,
+                         Digest digest) throws IOException {
+        return persist(transmissionIdentifier, header, inputStream);
+    }
 }
@@ -34,6 +34,12 @@ import java.io.InputStream;
  */
 public interface ContentWrapper {
 
+    /**
+     * Returns content wrapped for transmission. Implementations may wrap content while the returned stream is read,
+     * in which case only errors found before content is handed out are thrown here. Errors found later, such as
+     * malformed content after the start of the document, are thrown as {@link IOException} when reading the
+     * returned stream, and so surface as failures of the transmission.
+     */
     InputStream wrap(InputStream inputStream, Header header) throws IOException, OxalisContentException;
 
 }
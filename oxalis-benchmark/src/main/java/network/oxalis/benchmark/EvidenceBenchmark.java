@@ -0,0 +1,151 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.benchmark;
+
+import com.google.common.io.ByteStreams;
+import com.google.inject.Injector;
+import network.oxalis.api.evidence.EvidenceFactory;
+import network.oxalis.api.model.TransmissionIdentifier;
+import network.oxalis.api.transmission.TransmissionResult;
+import network.oxalis.commons.guice.GuiceModuleLoader;
+import network.oxalis.vefa.peppol.common.code.DigestMethod;
+import network.oxalis.vefa.peppol.common.model.*;
+import network.oxalis.vefa.peppol.evidence.jaxb.receipt.TransmissionRole;
+import network.oxalis.vefa.peppol.evidence.rem.EventCode;
+import network.oxalis.vefa.peppol.evidence.rem.Evidence;
+import network.oxalis.vefa.peppol.evidence.rem.EvidenceTypeInstance;
+import network.oxalis.vefa.peppol.evidence.rem.SignedEvidenceWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures throughput of signed REM evidence, as created for each inbound message, comparing the evidence factory
+ * to writing with a new signing context for each evidence.
+ *
+ * @since 6.5.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(4)
+@Fork(value = 1, jvmArgs = {"-Xmx1g", Payloads.JAXB_NO_OPTIMIZE})
+public class EvidenceBenchmark {
+
+    private KeyStore.PrivateKeyEntry privateKeyEntry;
+
+    private EvidenceFactory evidenceFactory;
+
+    private TransmissionResult transmissionResult;
+
+    @Setup
+    public void setup() {
+        Injector injector = GuiceModuleLoader.initiate();
+        privateKeyEntry = injector.getInstance(KeyStore.PrivateKeyEntry.class);
+        evidenceFactory = injector.getInstance(EvidenceFactory.class);
+
+        transmissionResult = new BenchmarkTransmissionResult();
+    }
+
+    @Benchmark
+    public void factory() throws Exception {
+        evidenceFactory.write(ByteStreams.nullOutputStream(), transmissionResult);
+    }
+
+    @Benchmark
+    public void writer() throws Exception {
+        Evidence evidence = Evidence.newInstance()
+                .type(EvidenceTypeInstance.DELIVERY_NON_DELIVERY_TO_RECIPIENT)
+                .eventCode(EventCode.DELIVERY)
+                .issuer("Oxalis")
+                .evidenceIdentifier(InstanceIdentifier.generateUUID())
+                .timestamp(transmissionResult.getTimestamp())
+                .header(transmissionResult.getHeader())
+                .digest(transmissionResult.getDigest())
+                .messageIdentifier(transmissionResult.getTransmissionIdentifier())
+                .transportProtocol(transmissionResult.getTransportProtocol())
+                .transmissionRole(TransmissionRole.C_3)
+                .originalReceipts(transmissionResult.getReceipts());
+
+        SignedEvidenceWriter.write(ByteStreams.nullOutputStream(), privateKeyEntry, evidence);
+    }
+
+    private static class BenchmarkTransmissionResult implements TransmissionResult {
+
+        private final TransmissionIdentifier transmissionIdentifier = TransmissionIdentifier.generateUUID();
+
+        private final Date timestamp = new Date();
+
+        private final Digest digest = Digest.of(DigestMethod.SHA256, new byte[32]);
+
+        private final Receipt mdn = Receipt.of("message/disposition-notification",
+                "Disposition: automatic-action/MDN-sent-automatically; processed".getBytes(StandardCharsets.UTF_8));
+
+        @Override
+        public TransmissionIdentifier getTransmissionIdentifier() {
+            return transmissionIdentifier;
+        }
+
+        @Override
+        public Header getHeader() {
+            return Payloads.HEADER;
+        }
+
+        @Override
+        public Date getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public Digest getDigest() {
+            return digest;
+        }
+
+        @Override
+        public TransportProtocol getTransportProtocol() {
+            return TransportProtocol.AS2;
+        }
+
+        @Override
+        public TransportProfile getProtocol() {
+            return TransportProfile.PEPPOL_AS2_2_0;
+        }
+
+        @Override
+        public List<Receipt> getReceipts() {
+            return Collections.singletonList(mdn);
+        }
+
+        @Override
+        public Receipt primaryReceipt() {
+            return mdn;
+        }
+    }
+}
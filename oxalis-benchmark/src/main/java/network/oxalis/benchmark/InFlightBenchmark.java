@@ -0,0 +1,194 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.benchmark;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import com.google.inject.servlet.GuiceFilter;
+import com.google.inject.servlet.GuiceServletContextListener;
+import com.google.inject.util.Modules;
+import network.oxalis.api.outbound.MessageSender;
+import network.oxalis.api.outbound.TransmissionRequest;
+import network.oxalis.api.outbound.TransmissionResponse;
+import network.oxalis.api.persist.ReceiptPersister;
+import network.oxalis.as2.inbound.As2InboundModule;
+import network.oxalis.as2.outbound.As2OutboundModule;
+import network.oxalis.commons.executor.VirtualThreadExecutors;
+import network.oxalis.commons.guice.GuiceModuleLoader;
+import network.oxalis.commons.guice.OxalisModule;
+import network.oxalis.vefa.peppol.common.model.Endpoint;
+import network.oxalis.vefa.peppol.common.model.Header;
+import network.oxalis.vefa.peppol.common.model.TransportProfile;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures time to complete a number of concurrent transmissions using the transmission executor, with its fixed
+ * thread pool compared to virtual threads ({@code oxalis.executor.mode = virtual}).
+ * <p>
+ * Each transmission is sent by {@code As2MessageSender} to {@code As2Servlet} on an embedded Jetty, delaying every
+ * request to simulate a remote access point. The connection pool allows a connection per transmission in flight,
+ * so only the executor limits the number of transmissions in progress. Virtual threads require Java 21 or later,
+ * use {@code -jvm} to run the benchmark using such a runtime.
+ *
+ * @since 6.5.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g", Payloads.JAXB_NO_OPTIMIZE})
+public class InFlightBenchmark {
+
+    @Param({"fixed", "virtual"})
+    private String mode;
+
+    @Param({"20", "200", "1000"})
+    private int inFlight;
+
+    /**
+     * Delay (milliseconds) added by the receiving access point.
+     */
+    @Param("200")
+    private int latency;
+
+    private Server server;
+
+    private ExecutorService executor;
+
+    private MessageSender messageSender;
+
+    private Endpoint endpoint;
+
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws Exception {
+        if (VirtualThreadExecutors.MODE.equals(mode) && !VirtualThreadExecutors.isSupported())
+            throw new IllegalStateException("Virtual threads are not supported by this runtime.");
+
+        // Settings are read from system properties, set for the forked runtime of this benchmark only.
+        System.setProperty("oxalis.executor.mode", mode);
+        System.setProperty("oxalis.http.pool.total", String.valueOf(inFlight));
+        System.setProperty("oxalis.http.pool.max_route", String.valueOf(inFlight));
+        System.setProperty("oxalis.http.pool.scale.max_route", String.valueOf(inFlight));
+
+        Injector injector = Guice.createInjector(
+                new As2OutboundModule(),
+                new As2InboundModule(),
+                Modules.override(new GuiceModuleLoader()).with(new OxalisModule() {
+                    @Override
+                    protected void configure() {
+                        bind(ReceiptPersister.class).toInstance((m, p) -> {
+                        });
+                    }
+                }));
+
+        // Enough server threads to have every transmission waiting at the same time.
+        server = new Server(new QueuedThreadPool(inFlight + 50));
+        server.addConnector(new ServerConnector(server));
+
+        Filter delay = (request, response, chain) -> {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            chain.doFilter(request, response);
+        };
+
+        ServletContextHandler handler = new ServletContextHandler(server, "/");
+        handler.addFilter(new FilterHolder(delay), "/*", EnumSet.of(DispatcherType.REQUEST));
+        handler.addFilter(GuiceFilter.class, "/*", EnumSet.allOf(DispatcherType.class));
+        handler.addEventListener(new GuiceServletContextListener() {
+            @Override
+            protected Injector getInjector() {
+                return injector;
+            }
+        });
+
+        server.start();
+
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+
+        executor = injector.getInstance(Key.get(ExecutorService.class, Names.named("transmission")));
+        messageSender = injector.getInstance(Key.get(MessageSender.class, Names.named("oxalis-as2")));
+        endpoint = Endpoint.of(TransportProfile.PEPPOL_AS2_2_0, URI.create("http://localhost:" + port + "/as2"),
+                injector.getInstance(X509Certificate.class));
+        payload = Payloads.sbdh(10240);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        server.stop();
+    }
+
+    @Benchmark
+    public List<TransmissionResponse> transmit() throws Exception {
+        List<Future<TransmissionResponse>> futures = new ArrayList<>(inFlight);
+        for (int i = 0; i < inFlight; i++)
+            futures.add(executor.submit(() -> messageSender.send(new TransmissionRequest() {
+                @Override
+                public Endpoint getEndpoint() {
+                    return endpoint;
+                }
+
+                @Override
+                public Header getHeader() {
+                    return Payloads.HEADER;
+                }
+
+                @Override
+                public InputStream getPayload() {
+                    return new ByteArrayInputStream(payload);
+                }
+            })));
+
+        List<TransmissionResponse> responses = new ArrayList<>(inFlight);
+        for (Future<TransmissionResponse> future : futures)
+            responses.add(future.get());
+
+        return responses;
+    }
+}
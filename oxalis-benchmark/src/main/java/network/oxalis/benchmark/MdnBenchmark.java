@@ -0,0 +1,164 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.benchmark;
+
+import com.google.common.io.ByteStreams;
+import com.google.inject.Injector;
+import network.oxalis.as2.code.Disposition;
+import network.oxalis.as2.code.MdnHeader;
+import network.oxalis.as2.model.Mic;
+import network.oxalis.as2.util.MdnBuilder;
+import network.oxalis.as2.util.MdnMimeMessageInspector;
+import network.oxalis.as2.util.MimeMessageHelper;
+import network.oxalis.as2.util.SMimeDigestMethod;
+import network.oxalis.as2.util.SMimeMessageFactory;
+import network.oxalis.as2.util.SignedMdn;
+import network.oxalis.as2.util.SignedMessage;
+import network.oxalis.commons.guice.GuiceModuleLoader;
+import org.openjdk.jmh.annotations.*;
+
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures creation of signed MDNs on the receiving side and inspection of MDNs on the sending side.
+ * <p>
+ * Handling of a received MDN, as done by the sender to verify the MDN and create the transmission response, is
+ * measured both parsing the MDN using JavaMail and using {@link SignedMdn}. Run using {@code -prof gc} to compare
+ * allocation.
+ * <p>
+ * The MDN carries the MIC of the payload, not the payload itself, so these benchmarks are not run over
+ * payload sizes.
+ *
+ * @since 6.5.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g", Payloads.JAXB_NO_OPTIMIZE})
+public class MdnBenchmark {
+
+    @Param("sha256")
+    private SMimeDigestMethod digestMethod;
+
+    private SMimeMessageFactory sMimeMessageFactory;
+
+    private InternetHeaders headers;
+
+    private X509Certificate certificate;
+
+    private Mic mic;
+
+    private byte[] mdn;
+
+    @Setup
+    public void setup() throws Exception {
+        Injector injector = GuiceModuleLoader.initiate();
+        certificate = injector.getInstance(X509Certificate.class);
+        sMimeMessageFactory = new SMimeMessageFactory(injector.getInstance(PrivateKey.class), certificate);
+
+        headers = new InternetHeaders();
+        headers.addHeader("AS2-To", "APP_1000000001");
+        headers.addHeader("AS2-From", "APP_1000000002");
+        headers.addHeader("Message-ID", "<benchmark@oxalis>");
+        headers.addHeader("Disposition-Notification-Options",
+                "signed-receipt-protocol=required, pkcs7-signature; signed-receipt-micalg=required,sha-256");
+
+        mic = new Mic(MimeMessageHelper.calculateMic(MimeMessageHelper.createMimeBodyPart(
+                new ByteArrayInputStream(Payloads.sbdh(10240)), "application/xml"), digestMethod));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        createMdn().writeTo(outputStream);
+        mdn = outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public void build() throws Exception {
+        createMdn().writeTo(ByteStreams.nullOutputStream());
+    }
+
+    @Benchmark
+    public boolean inspect() throws Exception {
+        MimeMessage mimeMessage = MimeMessageHelper.parse(new ByteArrayInputStream(mdn));
+        MdnMimeMessageInspector inspector = new MdnMimeMessageInspector(mimeMessage);
+        Map<String, String> fields = inspector.getMdnFields();
+        return inspector.isOkOrWarning(mic) && fields != null;
+    }
+
+    /**
+     * Handling of received MDN parsing the MDN using JavaMail, as done before {@link SignedMdn}.
+     */
+    @Benchmark
+    public byte[] handleMimeMessage() throws Exception {
+        MimeMessage mimeMessage = MimeMessageHelper.parse(new ByteArrayInputStream(mdn));
+
+        SignedMessage message = SignedMessage.load(mimeMessage);
+        message.validate(certificate);
+
+        MdnMimeMessageInspector inspector = new MdnMimeMessageInspector(mimeMessage);
+        String text = inspector.getPlainTextPartAsText();
+        if (!inspector.isOkOrWarning(mic))
+            throw new IllegalStateException(text);
+
+        MimeBodyPart mimeBodyPart = (MimeBodyPart) inspector.getMessageDispositionNotificationPart();
+        InternetHeaders internetHeaders = new InternetHeaders((InputStream) mimeBodyPart.getContent());
+        if (internetHeaders.getHeader(MdnHeader.DATE) == null)
+            throw new IllegalStateException("Date not found.");
+
+        return MimeMessageHelper.toBytes(mimeMessage);
+    }
+
+    @Benchmark
+    public byte[] handleSignedMdn() throws Exception {
+        SignedMdn signedMdn = SignedMdn.decode(mdn);
+        signedMdn.verify(certificate);
+
+        if (!signedMdn.isOkOrWarning(mic))
+            throw new IllegalStateException(signedMdn.getText());
+        if (signedMdn.getDate() == null)
+            throw new IllegalStateException("Date not found.");
+
+        return signedMdn.getBytes();
+    }
+
+    private MimeMessage createMdn() throws Exception {
+        MdnBuilder mdnBuilder = MdnBuilder.newInstance(headers);
+        mdnBuilder.addHeader(MdnHeader.DATE, new Date());
+        mdnBuilder.addHeader(MdnHeader.ORIGINAL_MESSAGE_ID, "<benchmark@oxalis>");
+        mdnBuilder.addHeader(MdnHeader.RECEIVED_CONTENT_MIC, mic);
+        mdnBuilder.addHeader(MdnHeader.DISPOSITION, Disposition.PROCESSED);
+        MimeBodyPart mdnPart = mdnBuilder.build();
+        return sMimeMessageFactory.createSignedMimeMessage(mdnPart, digestMethod);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.benchmark;
+
+import network.oxalis.vefa.peppol.common.model.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Creates PEPPOL BIS invoices of a given size, with and without SBDH. Size is reached by adding invoice lines.
+ *
+ * @since 6.5.1
+ */
+public class Payloads {
+
+    /**
+     * Bytecode optimization of JAXB relies on {@code sun.misc.Unsafe.defineClass}, which is not available on
+     * recent runtimes when running from the benchmark jar.
+     */
+    public static final String JAXB_NO_OPTIMIZE = "-Dcom.sun.xml.bind.v2.bytecode.ClassTailor.noOptimize=true";
+
+    public static final Header HEADER = Header.newInstance()
+            .sender(ParticipantIdentifier.of("0007:5567125082"))
+            .receiver(ParticipantIdentifier.of("0007:4455454480"))
+            .process(ProcessIdentifier.of("urn:fdc:peppol.eu:2017:poacc:billing:01:1.0"))
+            .documentType(DocumentTypeIdentifier.of(
+                    "urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##" +
+                            "urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0::2.1"))
+            .c1CountryIdentifier(C1CountryIdentifier.of("NO"))
+            .identifier(InstanceIdentifier.of("1070e7f0-3bae-11e3-aa6e-0800200c9a66"))
+            .instanceType(InstanceType.of("urn:oasis:names:specification:ubl:schema:xsd:Invoice-2", "Invoice", "2.1"))
+            .creationTimestamp(new Date(1_514_764_800_000L));
+
+    private static final String SBDH_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<StandardBusinessDocument xmlns=\"http://www.unece.org/cefact/namespaces/StandardBusinessDocumentHeader\">\n" +
+            "    <StandardBusinessDocumentHeader>\n" +
+            "        <HeaderVersion>1.0</HeaderVersion>\n" +
+            "        <Sender>\n" +
+            "            <Identifier Authority=\"iso6523-actorid-upis\">0007:5567125082</Identifier>\n" +
+            "        </Sender>\n" +
+            "        <Receiver>\n" +
+            "            <Identifier Authority=\"iso6523-actorid-upis\">0007:4455454480</Identifier>\n" +
+            "        </Receiver>\n" +
+            "        <DocumentIdentification>\n" +
+            "            <Standard>urn:oasis:names:specification:ubl:schema:xsd:Invoice-2</Standard>\n" +
+            "            <TypeVersion>2.1</TypeVersion>\n" +
+            "            <InstanceIdentifier>1070e7f0-3bae-11e3-aa6e-0800200c9a66</InstanceIdentifier>\n" +
+            "            <Type>Invoice</Type>\n" +
+            "            <CreationDateAndTime>2018-01-01T00:00:00Z</CreationDateAndTime>\n" +
+            "        </DocumentIdentification>\n" +
+            "        <BusinessScope>\n" +
+            "            <Scope>\n" +
+            "                <Type>DOCUMENTID</Type>\n" +
+            "                <InstanceIdentifier>" + HEADER.getDocumentType().getIdentifier() + "</InstanceIdentifier>\n" +
+            "                <Identifier>busdox-docid-qns</Identifier>\n" +
+            "            </Scope>\n" +
+            "            <Scope>\n" +
+            "                <Type>PROCESSID</Type>\n" +
+            "                <InstanceIdentifier>" + HEADER.getProcess().getIdentifier() + "</InstanceIdentifier>\n" +
+            "                <Identifier>cenbii-procid-ubl</Identifier>\n" +
+            "            </Scope>\n" +
+            "            <Scope>\n" +
+            "                <Type>COUNTRY_C1</Type>\n" +
+            "                <InstanceIdentifier>" + HEADER.getC1CountryIdentifier().getIdentifier() + "</InstanceIdentifier>\n" +
+            "            </Scope>\n" +
+            "        </BusinessScope>\n" +
+            "    </StandardBusinessDocumentHeader>\n";
+
+    private static final String SBDH_END = "</StandardBusinessDocument>\n";
+
+    private static final String INVOICE_START = "<Invoice xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\"\n" +
+            "         xmlns:cac=\"urn:oasis:names:specification:ubl:schema:xsd:CommonAggregateComponents-2\"\n" +
+            "         xmlns:cbc=\"urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2\">\n" +
+            "    <cbc:CustomizationID>urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0</cbc:CustomizationID>\n" +
+            "    <cbc:ProfileID>urn:fdc:peppol.eu:2017:poacc:billing:01:1.0</cbc:ProfileID>\n" +
+            "    <cbc:ID>Snippet1</cbc:ID>\n" +
+            "    <cbc:IssueDate>2018-01-01</cbc:IssueDate>\n" +
+            "    <cbc:InvoiceTypeCode>380</cbc:InvoiceTypeCode>\n" +
+            "    <cbc:DocumentCurrencyCode>NOK</cbc:DocumentCurrencyCode>\n";
+
+    private static final String INVOICE_LINE = "    <cac:InvoiceLine>\n" +
+            "        <cbc:ID>%d</cbc:ID>\n" +
+            "        <cbc:InvoicedQuantity unitCode=\"C62\">7</cbc:InvoicedQuantity>\n" +
+            "        <cbc:LineExtensionAmount currencyID=\"NOK\">2800</cbc:LineExtensionAmount>\n" +
+            "        <cac:Item>\n" +
+            "            <cbc:Name>Benchmark item</cbc:Name>\n" +
+            "            <cac:ClassifiedTaxCategory>\n" +
+            "                <cbc:ID>S</cbc:ID>\n" +
+            "                <cbc:Percent>25</cbc:Percent>\n" +
+            "            </cac:ClassifiedTaxCategory>\n" +
+            "        </cac:Item>\n" +
+            "        <cac:Price>\n" +
+            "            <cbc:PriceAmount currencyID=\"NOK\">400</cbc:PriceAmount>\n" +
+            "        </cac:Price>\n" +
+            "    </cac:InvoiceLine>\n";
+
+    private static final String INVOICE_END = "</Invoice>\n";
+
+    private Payloads() {
+        // No action.
+    }
+
+    /**
+     * Creates an invoice wrapped in SBDH of at least the given size in bytes.
+     */
+    public static byte[] sbdh(int size) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(size + 1024);
+        write(outputStream, SBDH_START);
+        writeInvoice(outputStream, size - SBDH_START.length() - SBDH_END.length());
+        write(outputStream, SBDH_END);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Creates an invoice without SBDH of at least the given size in bytes.
+     */
+    public static byte[] invoice(int size) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(size + 1024);
+        writeInvoice(outputStream, size);
+        return outputStream.toByteArray();
+    }
+
+    private static void writeInvoice(ByteArrayOutputStream outputStream, int size) {
+        int start = outputStream.size();
+        write(outputStream, INVOICE_START);
+        for (int line = 1; outputStream.size() - start + INVOICE_END.length() < size; line++)
+            write(outputStream, String.format(INVOICE_LINE, line));
+        write(outputStream, INVOICE_END);
+    }
+
+    private static void write(ByteArrayOutputStream outputStream, String value) {
+        outputStream.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.benchmark;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import com.google.inject.servlet.GuiceFilter;
+import com.google.inject.servlet.GuiceServletContextListener;
+import com.google.inject.util.Modules;
+import network.oxalis.api.outbound.MessageSender;
+import network.oxalis.api.outbound.TransmissionRequest;
+import network.oxalis.api.outbound.TransmissionResponse;
+import network.oxalis.api.persist.ReceiptPersister;
+import network.oxalis.as2.inbound.As2InboundModule;
+import network.oxalis.as2.outbound.As2OutboundModule;
+import network.oxalis.commons.guice.GuiceModuleLoader;
+import network.oxalis.commons.guice.OxalisModule;
+import network.oxalis.vefa.peppol.common.model.Endpoint;
+import network.oxalis.vefa.peppol.common.model.Header;
+import network.oxalis.vefa.peppol.common.model.TransportProfile;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.DispatcherType;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a full transmission from {@code As2MessageSender} to {@code As2Servlet} on an embedded Jetty,
+ * including signing, verification, persisting (no-op) and returning and verifying the MDN.
+ *
+ * @since 6.5.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g", Payloads.JAXB_NO_OPTIMIZE})
+public class RoundTripBenchmark {
+
+    @Param({"10240", "1048576", "10485760", "104857600"})
+    private int size;
+
+    private Server server;
+
+    private MessageSender messageSender;
+
+    private Endpoint endpoint;
+
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws Exception {
+        Injector injector = Guice.createInjector(
+                new As2OutboundModule(),
+                new As2InboundModule(),
+                Modules.override(new GuiceModuleLoader()).with(new OxalisModule() {
+                    @Override
+                    protected void configure() {
+                        bind(ReceiptPersister.class).toInstance((m, p) -> {
+                        });
+                    }
+                }));
+
+        server = new Server(0);
+
+        ServletContextHandler handler = new ServletContextHandler(server, "/");
+        handler.addFilter(GuiceFilter.class, "/*", EnumSet.allOf(DispatcherType.class));
+        handler.addEventListener(new GuiceServletContextListener() {
+            @Override
+            protected Injector getInjector() {
+                return injector;
+            }
+        });
+
+        server.start();
+
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+
+        messageSender = injector.getInstance(Key.get(MessageSender.class, Names.named("oxalis-as2")));
+        endpoint = Endpoint.of(TransportProfile.PEPPOL_AS2_2_0, URI.create("http://localhost:" + port + "/as2"),
+                injector.getInstance(X509Certificate.class));
+        payload = Payloads.sbdh(size);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Benchmark
+    public TransmissionResponse send() throws Exception {
+        return messageSender.send(new TransmissionRequest() {
+            @Override
+            public Endpoint getEndpoint() {
+                return endpoint;
+            }
+
+            @Override
+            public Header getHeader() {
+                return Payloads.HEADER;
+            }
+
+            @Override
+            public InputStream getPayload() {
+                return new ByteArrayInputStream(payload);
+            }
+        });
+    }
+}
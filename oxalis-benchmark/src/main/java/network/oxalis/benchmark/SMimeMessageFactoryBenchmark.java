@@ -0,0 +1,150 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.benchmark;
+
+import com.google.common.io.ByteStreams;
+import com.google.inject.Injector;
+import network.oxalis.as2.code.Disposition;
+import network.oxalis.as2.code.MdnHeader;
+import network.oxalis.as2.util.MdnBuilder;
+import network.oxalis.as2.util.MimeMessageHelper;
+import network.oxalis.as2.util.SMimeDigestMethod;
+import network.oxalis.as2.util.SMimeMessageFactory;
+import network.oxalis.commons.guice.GuiceModuleLoader;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.mail.smime.SMIMESignedGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import javax.activation.MimeType;
+import javax.mail.Session;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayInputStream;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures signing of outbound messages and MDNs, compared to preparing the signer for every message.
+ *
+ * @since 6.5.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = Payloads.JAXB_NO_OPTIMIZE)
+public class SMimeMessageFactoryBenchmark {
+
+    @Param({"sha1", "sha256"})
+    private SMimeDigestMethod digestMethod;
+
+    private PrivateKey privateKey;
+
+    private X509Certificate certificate;
+
+    private SMimeMessageFactory sMimeMessageFactory;
+
+    private byte[] payload;
+
+    private InternetHeaders headers;
+
+    @Setup
+    public void setup() throws Exception {
+        Injector injector = GuiceModuleLoader.initiate();
+        privateKey = injector.getInstance(PrivateKey.class);
+        certificate = injector.getInstance(X509Certificate.class);
+        sMimeMessageFactory = new SMimeMessageFactory(privateKey, certificate);
+
+        payload = Payloads.sbdh(10240);
+
+        headers = new InternetHeaders();
+        headers.addHeader("AS2-To", "APP_1000000001");
+        headers.addHeader("AS2-From", "APP_1000000002");
+        headers.addHeader("Message-ID", "<benchmark@oxalis>");
+        headers.addHeader("Disposition-Notification-Options",
+                "signed-receipt-protocol=required, pkcs7-signature; signed-receipt-micalg=required,sha-256");
+    }
+
+    @Benchmark
+    public void outbound() throws Exception {
+        sMimeMessageFactory.createSignedMimeMessage(payloadPart(), digestMethod)
+                .writeTo(ByteStreams.nullOutputStream());
+    }
+
+    @Benchmark
+    public void outboundPreparedPerMessage() throws Exception {
+        signPreparedPerMessage(payloadPart()).writeTo(ByteStreams.nullOutputStream());
+    }
+
+    @Benchmark
+    public void mdn() throws Exception {
+        sMimeMessageFactory.createSignedMimeMessage(mdnPart(), digestMethod)
+                .writeTo(ByteStreams.nullOutputStream());
+    }
+
+    @Benchmark
+    public void mdnPreparedPerMessage() throws Exception {
+        signPreparedPerMessage(mdnPart()).writeTo(ByteStreams.nullOutputStream());
+    }
+
+    private MimeBodyPart payloadPart() throws Exception {
+        return MimeMessageHelper.createMimeBodyPart(new ByteArrayInputStream(payload),
+                new MimeType("application", "xml").toString());
+    }
+
+    private MimeBodyPart mdnPart() throws Exception {
+        MdnBuilder mdnBuilder = MdnBuilder.newInstance(headers);
+        mdnBuilder.addHeader(MdnHeader.ORIGINAL_MESSAGE_ID, "<benchmark@oxalis>");
+        mdnBuilder.addHeader(MdnHeader.DISPOSITION, Disposition.PROCESSED);
+        return mdnBuilder.build();
+    }
+
+    /**
+     * Signing as done by {@link SMimeMessageFactory} before signer infrastructure was prepared once.
+     */
+    private MimeMessage signPreparedPerMessage(MimeBodyPart mimeBodyPart) throws Exception {
+        SMIMESignedGenerator smimeSignedGenerator = new SMIMESignedGenerator("binary");
+        smimeSignedGenerator.addSignerInfoGenerator(new JcaSimpleSignerInfoGeneratorBuilder()
+                .setProvider(BouncyCastleProvider.PROVIDER_NAME)
+                .setSignedAttributeGenerator(new AttributeTable(new ASN1EncodableVector()))
+                .build(digestMethod.getMethod(), privateKey, certificate));
+        smimeSignedGenerator.addCertificates(new JcaCertStore(Collections.singleton(certificate)));
+
+        MimeMultipart mimeMultipart = smimeSignedGenerator.generate(mimeBodyPart);
+
+        MimeMessage mimeMessage = new MimeMessage(Session.getDefaultInstance(System.getProperties(), null));
+        mimeMessage.setContent(mimeMultipart, mimeMultipart.getContentType());
+        mimeMessage.saveChanges();
+
+        return mimeMessage;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.benchmark;
+
+import com.google.common.io.ByteStreams;
+import network.oxalis.commons.header.SbdhHeaderParser;
+import network.oxalis.outbound.transformer.XmlContentWrapper;
+import network.oxalis.vefa.peppol.common.model.Header;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading of SBDH from received payloads and wrapping of outbound payloads in SBDH.
+ *
+ * @since 6.5.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g", Payloads.JAXB_NO_OPTIMIZE})
+public class SbdhBenchmark {
+
+    @Param({"10240", "1048576", "10485760", "104857600"})
+    private int size;
+
+    private final SbdhHeaderParser sbdhHeaderParser = new SbdhHeaderParser();
+
+    private final XmlContentWrapper xmlContentWrapper = new XmlContentWrapper();
+
+    private byte[] sbdh;
+
+    private byte[] invoice;
+
+    @Setup
+    public void setup() {
+        sbdh = Payloads.sbdh(size);
+        invoice = Payloads.invoice(size);
+    }
+
+    @Benchmark
+    public Header parse() throws Exception {
+        return sbdhHeaderParser.parse(new ByteArrayInputStream(sbdh));
+    }
+
+    @Benchmark
+    public long wrap() throws Exception {
+        try (InputStream inputStream = xmlContentWrapper.wrap(new ByteArrayInputStream(invoice), Payloads.HEADER)) {
+            return ByteStreams.exhaust(inputStream);
+        }
+    }
+}
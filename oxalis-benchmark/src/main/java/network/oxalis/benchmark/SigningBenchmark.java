@@ -0,0 +1,103 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.benchmark;
+
+import com.google.common.io.ByteStreams;
+import com.google.inject.Injector;
+import network.oxalis.as2.util.MimeMessageHelper;
+import network.oxalis.as2.util.SMimeDigestMethod;
+import network.oxalis.as2.util.SMimeMessageFactory;
+import network.oxalis.as2.util.SignedMessage;
+import network.oxalis.commons.guice.GuiceModuleLoader;
+import network.oxalis.vefa.peppol.common.model.Digest;
+import org.openjdk.jmh.annotations.*;
+
+import javax.mail.internet.MimeBodyPart;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures signing of outbound messages, verification of received messages and calculation of MIC.
+ *
+ * @since 6.5.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g", Payloads.JAXB_NO_OPTIMIZE})
+public class SigningBenchmark {
+
+    @Param({"10240", "1048576", "10485760", "104857600"})
+    private int size;
+
+    @Param("sha256")
+    private SMimeDigestMethod digestMethod;
+
+    private X509Certificate certificate;
+
+    private SMimeMessageFactory sMimeMessageFactory;
+
+    private byte[] payload;
+
+    private byte[] signed;
+
+    @Setup
+    public void setup() throws Exception {
+        Injector injector = GuiceModuleLoader.initiate();
+        certificate = injector.getInstance(X509Certificate.class);
+        sMimeMessageFactory = new SMimeMessageFactory(injector.getInstance(PrivateKey.class), certificate);
+
+        payload = Payloads.sbdh(size);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(size + 8192);
+        sMimeMessageFactory.createSignedMimeMessage(payloadPart(), digestMethod).writeTo(outputStream);
+        signed = outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public void sign() throws Exception {
+        sMimeMessageFactory.createSignedMimeMessage(payloadPart(), digestMethod)
+                .writeTo(ByteStreams.nullOutputStream());
+    }
+
+    @Benchmark
+    public SignedMessage verify() throws Exception {
+        SignedMessage signedMessage = SignedMessage.load(new ByteArrayInputStream(signed));
+        signedMessage.validate(certificate);
+        return signedMessage;
+    }
+
+    @Benchmark
+    public Digest mic() {
+        return MimeMessageHelper.calculateMic(payloadPart(), digestMethod);
+    }
+
+    private MimeBodyPart payloadPart() {
+        return MimeMessageHelper.createMimeBodyPart(new ByteArrayInputStream(payload), "application/xml");
+    }
+}
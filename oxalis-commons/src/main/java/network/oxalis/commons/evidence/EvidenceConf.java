@@ -34,5 +34,33 @@ public enum EvidenceConf {
 
     @Path("oxalis.evidence.service")
     @DefaultValue("rem")
-    SERVICE
+    SERVICE,
+
+    /**
+     * Number of workers creating receipts of inbound messages after the MDN is returned, zero to create receipts
+     * before returning the MDN.
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.evidence.async.workers")
+    @DefaultValue("0")
+    ASYNC_WORKERS,
+
+    /**
+     * Folder holding receipts waiting to be created, relative to home folder.
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.evidence.async.path")
+    @DefaultValue("evidence-queue")
+    ASYNC_PATH,
+
+    /**
+     * Initial delay in milliseconds before retrying creation of a receipt, doubled for each attempt.
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.evidence.async.backoff")
+    @DefaultValue("1000")
+    ASYNC_BACKOFF,
 }
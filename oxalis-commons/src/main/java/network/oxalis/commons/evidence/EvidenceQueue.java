@@ -0,0 +1,499 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.evidence;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.evidence.EvidenceFactory;
+import network.oxalis.api.model.TransmissionIdentifier;
+import network.oxalis.api.settings.Settings;
+import network.oxalis.api.transmission.TransmissionResult;
+import network.oxalis.commons.notification.NotificationDispatcher;
+import network.oxalis.vefa.peppol.common.api.QualifiedIdentifier;
+import network.oxalis.vefa.peppol.common.code.DigestMethod;
+import network.oxalis.vefa.peppol.common.lang.PeppolException;
+import network.oxalis.vefa.peppol.common.model.*;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Creates receipts of inbound messages after the MDN is returned.
+ * <p>
+ * A work item holding metadata of the transmission, path of the receipt and the notification to dispatch when the
+ * receipt is created, is written to the queue folder before the MDN is returned. Workers create receipts using the
+ * configured {@link EvidenceFactory}, dispatch the notification and remove the work item. Work items and receipts are
+ * forced to disk before they are moved in place. Failing work items are retried after a delay doubled for each
+ * attempt, and work items not completed before shutdown are picked up again on startup.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+@Singleton
+public class EvidenceQueue {
+
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".item";
+
+    /**
+     * Highest number of times the delay before retrying is doubled.
+     */
+    private static final int MAX_DOUBLINGS = 10;
+
+    private final EvidenceFactory evidenceFactory;
+
+    private final NotificationDispatcher notificationDispatcher;
+
+    private final Path folder;
+
+    private final BlockingQueue<Path> queue = new LinkedBlockingQueue<>();
+
+    private final Map<Path, Integer> attempts = new ConcurrentHashMap<>();
+
+    private final long backoff;
+
+    private final ExecutorService executorService;
+
+    private final ScheduledExecutorService retryService;
+
+    @Inject
+    public EvidenceQueue(Settings<EvidenceConf> settings, @Named("home") Path homeFolder,
+                         EvidenceFactory evidenceFactory, NotificationDispatcher notificationDispatcher)
+            throws IOException {
+        this(evidenceFactory, notificationDispatcher, settings.getPath(EvidenceConf.ASYNC_PATH, homeFolder),
+                settings.getInt(EvidenceConf.ASYNC_WORKERS), settings.getInt(EvidenceConf.ASYNC_BACKOFF));
+    }
+
+    EvidenceQueue(EvidenceFactory evidenceFactory, NotificationDispatcher notificationDispatcher, Path folder,
+                  int workers, long backoff) throws IOException {
+        this.evidenceFactory = evidenceFactory;
+        this.notificationDispatcher = notificationDispatcher;
+        this.folder = folder;
+        this.backoff = backoff;
+
+        if (workers <= 0) {
+            this.executorService = null;
+            this.retryService = null;
+            return;
+        }
+
+        Files.createDirectories(folder);
+
+        // Work items not completed before last shutdown
+        try (Stream<Path> paths = Files.list(folder)) {
+            for (Path path : paths.sorted().collect(Collectors.toList())) {
+                if (path.toString().endsWith(SUFFIX))
+                    queue.add(path);
+                else
+                    Files.delete(path);
+            }
+        }
+
+        if (!queue.isEmpty())
+            log.info("Found {} receipt(s) waiting to be created.", queue.size());
+
+        this.executorService = Executors.newFixedThreadPool(workers, new ThreadFactoryBuilder()
+                .setNameFormat("oxalis-evidence-%d")
+                .setDaemon(true)
+                .build());
+        for (int i = 0; i < workers; i++)
+            executorService.submit(this::work);
+        executorService.shutdown();
+
+        this.retryService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("oxalis-evidence-retry-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Whether receipts are to be created using this queue.
+     */
+    public boolean isEnabled() {
+        return executorService != null;
+    }
+
+    /**
+     * Schedules creation of receipt. Returns as soon as the work item is written to the queue folder.
+     *
+     * @param receiptPath  Path of the receipt to create.
+     * @param result       Transmission to create receipt for.
+     * @param notification Notification to dispatch when receipt is created, or {@code null}.
+     */
+    public void submit(Path receiptPath, TransmissionResult result, String notification) throws IOException {
+        String name = String.format("%013d-%s", System.currentTimeMillis(), UUID.randomUUID());
+        Path temp = folder.resolve(name + ".tmp");
+        Path item = folder.resolve(name + SUFFIX);
+
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                 DataOutputStream outputStream = new DataOutputStream(
+                         new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+                outputStream.writeInt(VERSION);
+                writeString(outputStream, receiptPath.toAbsolutePath().toString());
+                writeString(outputStream, notification);
+                writeResult(outputStream, result);
+
+                outputStream.flush();
+                channel.force(true);
+            }
+
+            Files.move(temp, item, StandardCopyOption.ATOMIC_MOVE);
+            forceFolder(folder);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        queue.add(item);
+    }
+
+    /**
+     * Stops workers, leaving work items not completed in the queue folder.
+     */
+    void stop() throws InterruptedException {
+        if (executorService != null) {
+            retryService.shutdownNow();
+            executorService.shutdownNow();
+            executorService.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                process(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void process(Path item) {
+        try {
+            Path receiptPath;
+            String notification;
+            TransmissionResult result;
+
+            try (DataInputStream inputStream = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(item)))) {
+                if (inputStream.readInt() != VERSION)
+                    throw new IOException("Unknown version of work item.");
+
+                receiptPath = Paths.get(readString(inputStream));
+                notification = readString(inputStream);
+                result = readResult(inputStream);
+            }
+
+            Path temp = receiptPath.resolveSibling(receiptPath.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                 OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(channel))) {
+                evidenceFactory.write(outputStream, result);
+
+                outputStream.flush();
+                channel.force(true);
+            }
+            Files.move(temp, receiptPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            forceFolder(receiptPath.toAbsolutePath().getParent());
+
+            log.debug("Receipt persisted to: {}", receiptPath);
+
+            if (notification != null)
+                notificationDispatcher.dispatch(notification);
+
+            Files.delete(item);
+            attempts.remove(item);
+        } catch (Exception e) {
+            int attempt = attempts.merge(item, 1, Integer::sum);
+            long delay = backoff << Math.min(attempt - 1, MAX_DOUBLINGS);
+            log.error("Unable to create receipt of work item '{}' (attempt {}), retrying in {} ms.",
+                    item, attempt, delay, e);
+
+            try {
+                retryService.schedule(() -> queue.add(item), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                // Stopping, work item is picked up again on startup.
+            }
+        }
+    }
+
+    /**
+     * Forces the entries of a folder to disk, making a file moved into the folder durable. Not supported on all
+     * platforms, in which case the folder is left to the file system.
+     */
+    private static void forceFolder(Path folder) {
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Unable to force folder '{}' to disk.", folder, e);
+        }
+    }
+
+    private static void writeResult(DataOutputStream outputStream, TransmissionResult result) throws IOException {
+        writeString(outputStream, result.getTransmissionIdentifier().getIdentifier());
+
+        Header header = result.getHeader();
+        writeIdentifier(outputStream, header.getSender());
+        writeIdentifier(outputStream, header.getReceiver());
+        outputStream.writeInt(header.getCopyReceiver().size());
+        for (ParticipantIdentifier copyReceiver : header.getCopyReceiver())
+            writeIdentifier(outputStream, copyReceiver);
+        writeIdentifier(outputStream, header.getProcess());
+        writeIdentifier(outputStream, header.getDocumentType());
+        writeString(outputStream, header.getC1CountryIdentifier() == null ?
+                null : header.getC1CountryIdentifier().getIdentifier());
+        writeString(outputStream, header.getIdentifier() == null ? null : header.getIdentifier().getIdentifier());
+        outputStream.writeBoolean(header.getInstanceType() != null);
+        if (header.getInstanceType() != null) {
+            writeString(outputStream, header.getInstanceType().getStandard());
+            writeString(outputStream, header.getInstanceType().getType());
+            writeString(outputStream, header.getInstanceType().getVersion());
+        }
+        writeDate(outputStream, header.getCreationTimestamp());
+        outputStream.writeInt(header.getArguments().size());
+        for (ArgumentIdentifier argument : header.getArguments()) {
+            writeString(outputStream, argument.getKey());
+            writeString(outputStream, argument.getIdentifier());
+        }
+
+        writeDate(outputStream, result.getTimestamp());
+        writeString(outputStream, result.getDigest().getMethod().name());
+        writeBytes(outputStream, result.getDigest().getValue());
+        writeString(outputStream, result.getTransportProtocol().getIdentifier());
+        writeString(outputStream, result.getProtocol() == null ? null : result.getProtocol().getIdentifier());
+
+        // Primary receipt is stored as index in list of receipts when found there.
+        List<Receipt> receipts = result.getReceipts();
+        outputStream.writeInt(receipts.size());
+        for (Receipt receipt : receipts)
+            writeReceipt(outputStream, receipt);
+        int primary = receipts.indexOf(result.primaryReceipt());
+        outputStream.writeInt(primary);
+        if (primary < 0)
+            writeReceipt(outputStream, result.primaryReceipt());
+    }
+
+    private static TransmissionResult readResult(DataInputStream inputStream) throws IOException {
+        TransmissionIdentifier transmissionIdentifier = TransmissionIdentifier.of(readString(inputStream));
+
+        Header header = Header.newInstance()
+                .sender(ParticipantIdentifier.of(readString(inputStream), readScheme(inputStream)))
+                .receiver(ParticipantIdentifier.of(readString(inputStream), readScheme(inputStream)));
+        for (int i = inputStream.readInt(); i > 0; i--)
+            header = header.cc(ParticipantIdentifier.of(readString(inputStream), readScheme(inputStream)));
+        String process = readString(inputStream);
+        Scheme processScheme = readScheme(inputStream);
+        if (process != null)
+            header = header.process(ProcessIdentifier.of(process, processScheme));
+        header = header.documentType(DocumentTypeIdentifier.of(readString(inputStream), readScheme(inputStream)));
+        String c1CountryIdentifier = readString(inputStream);
+        if (c1CountryIdentifier != null)
+            header = header.c1CountryIdentifier(C1CountryIdentifier.of(c1CountryIdentifier));
+        String identifier = readString(inputStream);
+        if (identifier != null)
+            header = header.identifier(InstanceIdentifier.of(identifier));
+        if (inputStream.readBoolean())
+            header = header.instanceType(InstanceType.of(
+                    readString(inputStream), readString(inputStream), readString(inputStream)));
+        header = header.creationTimestamp(readDate(inputStream));
+        for (int i = inputStream.readInt(); i > 0; i--)
+            header = header.argument(ArgumentIdentifier.of(readString(inputStream), readString(inputStream)));
+
+        Date timestamp = readDate(inputStream);
+        Digest digest = Digest.of(DigestMethod.valueOf(readString(inputStream)), readBytes(inputStream));
+
+        TransportProtocol transportProtocol;
+        try {
+            transportProtocol = TransportProtocol.of(readString(inputStream));
+        } catch (PeppolException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        String protocol = readString(inputStream);
+
+        List<Receipt> receipts = new ArrayList<>();
+        for (int i = inputStream.readInt(); i > 0; i--)
+            receipts.add(readReceipt(inputStream));
+        int primary = inputStream.readInt();
+        Receipt primaryReceipt = primary < 0 ? readReceipt(inputStream) : receipts.get(primary);
+
+        return new QueuedTransmissionResult(transmissionIdentifier, header, timestamp, digest, transportProtocol,
+                protocol == null ? null : TransportProfile.of(protocol), receipts, primaryReceipt);
+    }
+
+    private static void writeIdentifier(DataOutputStream outputStream, QualifiedIdentifier identifier)
+            throws IOException {
+        writeString(outputStream, identifier == null ? null : identifier.getIdentifier());
+        writeString(outputStream, identifier == null || identifier.getScheme() == null ?
+                null : identifier.getScheme().getIdentifier());
+    }
+
+    private static Scheme readScheme(DataInputStream inputStream) throws IOException {
+        String scheme = readString(inputStream);
+        return scheme == null ? null : Scheme.of(scheme);
+    }
+
+    private static void writeReceipt(DataOutputStream outputStream, Receipt receipt) throws IOException {
+        writeString(outputStream, receipt.getType());
+        writeBytes(outputStream, receipt.getValue());
+    }
+
+    private static Receipt readReceipt(DataInputStream inputStream) throws IOException {
+        return Receipt.of(readString(inputStream), readBytes(inputStream));
+    }
+
+    private static void writeDate(DataOutputStream outputStream, Date date) throws IOException {
+        outputStream.writeLong(date == null ? Long.MIN_VALUE : date.getTime());
+    }
+
+    private static Date readDate(DataInputStream inputStream) throws IOException {
+        long time = inputStream.readLong();
+        return time == Long.MIN_VALUE ? null : new Date(time);
+    }
+
+    private static void writeString(DataOutputStream outputStream, String value) throws IOException {
+        writeBytes(outputStream, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream inputStream) throws IOException {
+        byte[] bytes = readBytes(inputStream);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream outputStream, byte[] value) throws IOException {
+        if (value == null) {
+            outputStream.writeInt(-1);
+        } else {
+            outputStream.writeInt(value.length);
+            outputStream.write(value);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream inputStream) throws IOException {
+        int length = inputStream.readInt();
+        if (length < 0)
+            return null;
+
+        byte[] bytes = new byte[length];
+        inputStream.readFully(bytes);
+        return bytes;
+    }
+
+    private static class QueuedTransmissionResult implements TransmissionResult {
+
+        private final TransmissionIdentifier transmissionIdentifier;
+
+        private final Header header;
+
+        private final Date timestamp;
+
+        private final Digest digest;
+
+        private final TransportProtocol transportProtocol;
+
+        private final TransportProfile protocol;
+
+        private final List<Receipt> receipts;
+
+        private final Receipt primaryReceipt;
+
+        public QueuedTransmissionResult(TransmissionIdentifier transmissionIdentifier, Header header, Date timestamp,
+                                        Digest digest, TransportProtocol transportProtocol,
+                                        TransportProfile protocol, List<Receipt> receipts, Receipt primaryReceipt) {
+            this.transmissionIdentifier = transmissionIdentifier;
+            this.header = header;
+            this.timestamp = timestamp;
+            this.digest = digest;
+            this.transportProtocol = transportProtocol;
+            this.protocol = protocol;
+            this.receipts = receipts;
+            this.primaryReceipt = primaryReceipt;
+        }
+
+        @Override
+        public TransmissionIdentifier getTransmissionIdentifier() {
+            return transmissionIdentifier;
+        }
+
+        @Override
+        public Header getHeader() {
+            return header;
+        }
+
+        @Override
+        public Date getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public Digest getDigest() {
+            return digest;
+        }
+
+        @Override
+        public TransportProtocol getTransportProtocol() {
+            return transportProtocol;
+        }
+
+        @Override
+        public TransportProfile getProtocol() {
+            return protocol;
+        }
+
+        @Override
+        public List<Receipt> getReceipts() {
+            return receipts;
+        }
+
+        @Override
+        public Receipt primaryReceipt() {
+            return primaryReceipt;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.evidence;
+
+import network.oxalis.api.lang.EvidenceException;
+import network.oxalis.vefa.peppol.evidence.lang.RemEvidenceException;
+import network.oxalis.vefa.peppol.evidence.rem.Evidence;
+import network.oxalis.vefa.peppol.evidence.rem.EvidenceWriter;
+import org.w3c.dom.Document;
+
+import javax.xml.XMLConstants;
+import javax.xml.crypto.MarshalException;
+import javax.xml.crypto.dsig.*;
+import javax.xml.crypto.dsig.dom.DOMSignContext;
+import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
+import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
+import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes REM evidence with enveloped XML signature, equal to the output of
+ * {@link network.oxalis.vefa.peppol.evidence.rem.SignedEvidenceWriter}.
+ * <p>
+ * Everything not depending on the evidence, like key info and algorithms, is prepared once, and document builder
+ * and transformer are kept per thread, leaving only marshalling, digest and signature for each evidence.
+ *
+ * @since 6.5.1
+ */
+class EvidenceSigner {
+
+    private static final XMLSignatureFactory SIGNATURE_FACTORY = XMLSignatureFactory.getInstance("DOM");
+
+    private final PrivateKey privateKey;
+
+    private final KeyInfo keyInfo;
+
+    private final DigestMethod digestMethod;
+
+    private final CanonicalizationMethod canonicalizationMethod;
+
+    private final SignatureMethod signatureMethod;
+
+    private final ThreadLocal<DocumentBuilder> documentBuilder;
+
+    private final ThreadLocal<Transformer> transformer;
+
+    public EvidenceSigner(KeyStore.PrivateKeyEntry privateKeyEntry) throws GeneralSecurityException {
+        this.privateKey = privateKeyEntry.getPrivateKey();
+
+        X509Certificate certificate = (X509Certificate) privateKeyEntry.getCertificate();
+        KeyInfoFactory keyInfoFactory = SIGNATURE_FACTORY.getKeyInfoFactory();
+        this.keyInfo = keyInfoFactory.newKeyInfo(Collections.singletonList(keyInfoFactory.newX509Data(
+                Arrays.asList(certificate.getSubjectX500Principal().getName(), certificate))));
+
+        this.digestMethod = SIGNATURE_FACTORY.newDigestMethod(DigestMethod.SHA256, null);
+        this.canonicalizationMethod = SIGNATURE_FACTORY.newCanonicalizationMethod(
+                CanonicalizationMethod.INCLUSIVE, (C14NMethodParameterSpec) null);
+        this.signatureMethod = SIGNATURE_FACTORY.newSignatureMethod(SignatureMethod.RSA_SHA256, null);
+
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        this.documentBuilder = ThreadLocal.withInitial(() -> {
+            try {
+                return documentBuilderFactory.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        });
+
+        TransformerFactory transformerFactory = TransformerFactory.newInstance();
+        transformerFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        transformerFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
+        this.transformer = ThreadLocal.withInitial(() -> {
+            try {
+                return transformerFactory.newTransformer();
+            } catch (TransformerConfigurationException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        });
+    }
+
+    public void write(OutputStream outputStream, Evidence evidence) throws EvidenceException {
+        try {
+            Document document = documentBuilder.get().newDocument();
+            EvidenceWriter.write(document, evidence);
+
+            // Transform keeps state bound to the signed document, and reference and signed info hold the
+            // calculated digest, so these are created for each signature.
+            List<Transform> transforms = Collections.singletonList(
+                    SIGNATURE_FACTORY.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null));
+            Reference reference = SIGNATURE_FACTORY.newReference("", digestMethod, transforms, null, null);
+            SignedInfo signedInfo = SIGNATURE_FACTORY.newSignedInfo(canonicalizationMethod, signatureMethod,
+                    Collections.singletonList(reference));
+
+            SIGNATURE_FACTORY.newXMLSignature(signedInfo, keyInfo)
+                    .sign(new DOMSignContext(privateKey, document.getDocumentElement()));
+
+            try {
+                transformer.get().transform(new DOMSource(document), new StreamResult(outputStream));
+            } catch (TransformerException e) {
+                // A transformer is not reliably reusable after failing, so a new one is created for the next evidence.
+                transformer.remove();
+                throw e;
+            }
+        } catch (RemEvidenceException | MarshalException | XMLSignatureException | TransformerException
+                | GeneralSecurityException e) {
+            throw new EvidenceException(e.getMessage(), e);
+        }
+    }
+}
@@ -26,20 +26,19 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import network.oxalis.api.evidence.EvidenceFactory;
 import network.oxalis.api.lang.EvidenceException;
+import network.oxalis.api.lang.OxalisLoadingException;
 import network.oxalis.api.outbound.TransmissionResponse;
 import network.oxalis.api.transmission.TransmissionResult;
 import network.oxalis.api.util.Type;
 import network.oxalis.commons.util.OxalisVersion;
 import network.oxalis.vefa.peppol.common.model.InstanceIdentifier;
 import network.oxalis.vefa.peppol.evidence.jaxb.receipt.TransmissionRole;
-import network.oxalis.vefa.peppol.evidence.lang.RemEvidenceException;
 import network.oxalis.vefa.peppol.evidence.rem.EventCode;
 import network.oxalis.vefa.peppol.evidence.rem.Evidence;
 import network.oxalis.vefa.peppol.evidence.rem.EvidenceTypeInstance;
-import network.oxalis.vefa.peppol.evidence.rem.SignedEvidenceWriter;
-import network.oxalis.vefa.peppol.security.lang.PeppolSecurityException;
 
 import java.io.OutputStream;
+import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 
 /**
@@ -52,35 +51,35 @@ public class RemEvidenceFactory implements EvidenceFactory {
 
     private static final String ISSUER = String.format("Oxalis %s", OxalisVersion.getVersion());
 
-    private final KeyStore.PrivateKeyEntry privateKeyEntry;
+    private final EvidenceSigner evidenceSigner;
 
     @Inject
     public RemEvidenceFactory(KeyStore.PrivateKeyEntry privateKeyEntry) {
-        this.privateKeyEntry = privateKeyEntry;
+        try {
+            this.evidenceSigner = new EvidenceSigner(privateKeyEntry);
+        } catch (GeneralSecurityException e) {
+            throw new OxalisLoadingException("Unable to prepare signing of evidence.", e);
+        }
     }
 
     @Override
     public void write(OutputStream outputStream, TransmissionResult transmissionResult) throws EvidenceException {
-        try {
-            Evidence evidence = Evidence.newInstance()
-                    .type(EvidenceTypeInstance.DELIVERY_NON_DELIVERY_TO_RECIPIENT)
-                    .eventCode(EventCode.DELIVERY)
-                    // Missing optional "EventReason"
-                    .issuer(ISSUER)
-                    .evidenceIdentifier(InstanceIdentifier.generateUUID())
-                    .timestamp(transmissionResult.getTimestamp())
-                    .header(transmissionResult.getHeader())
-                    // Missing optional "IssuerPolicy"
-                    .digest(transmissionResult.getDigest())
-                    .messageIdentifier(transmissionResult.getTransmissionIdentifier())
-                    .transportProtocol(transmissionResult.getTransportProtocol())
-                    .transmissionRole(transmissionResult instanceof TransmissionResponse ?
-                            TransmissionRole.C_2 : TransmissionRole.C_3)
-                    .originalReceipts(transmissionResult.getReceipts());
+        Evidence evidence = Evidence.newInstance()
+                .type(EvidenceTypeInstance.DELIVERY_NON_DELIVERY_TO_RECIPIENT)
+                .eventCode(EventCode.DELIVERY)
+                // Missing optional "EventReason"
+                .issuer(ISSUER)
+                .evidenceIdentifier(InstanceIdentifier.generateUUID())
+                .timestamp(transmissionResult.getTimestamp())
+                .header(transmissionResult.getHeader())
+                // Missing optional "IssuerPolicy"
+                .digest(transmissionResult.getDigest())
+                .messageIdentifier(transmissionResult.getTransmissionIdentifier())
+                .transportProtocol(transmissionResult.getTransportProtocol())
+                .transmissionRole(transmissionResult instanceof TransmissionResponse ?
+                        TransmissionRole.C_2 : TransmissionRole.C_3)
+                .originalReceipts(transmissionResult.getReceipts());
 
-            SignedEvidenceWriter.write(outputStream, privateKeyEntry, evidence);
-        } catch (RemEvidenceException | PeppolSecurityException e) {
-            throw new EvidenceException(e.getMessage(), e);
-        }
+        evidenceSigner.write(outputStream, evidence);
     }
 }
@@ -11,12 +11,23 @@ import network.oxalis.api.settings.Title;
 @Title("Executor")
 public enum ExecutorConf {
 
+    /**
+     * Either "fixed" for fixed thread pools sized by the other settings, or "virtual" for a virtual thread per task.
+     */
+    @Path("oxalis.executor.mode")
+    @DefaultValue("fixed")
+    MODE,
+
     @Path("oxalis.executor.default")
     @DefaultValue("50")
     DEFAULT,
 
     @Path("oxalis.executor.statistics")
     @DefaultValue("50")
-    STATISTICS
+    STATISTICS,
+
+    @Path("oxalis.executor.transmission")
+    @DefaultValue("20")
+    TRANSMISSION
 
 }
@@ -24,13 +24,30 @@ public class ExecutorModule extends OxalisModule {
     @Singleton
     @Named("default")
     public ExecutorService getExecutorService(Settings<ExecutorConf> settings) {
-        return Executors.newFixedThreadPool(settings.getInt(ExecutorConf.DEFAULT));
+        return newExecutorService(settings, ExecutorConf.DEFAULT);
     }
 
     @Provides
     @Singleton
     @Named("statistics")
     public ExecutorService getStatisticsExecutorService(Settings<ExecutorConf> settings) {
-        return Executors.newFixedThreadPool(settings.getInt(ExecutorConf.STATISTICS));
+        return newExecutorService(settings, ExecutorConf.STATISTICS);
+    }
+
+    @Provides
+    @Singleton
+    @Named("transmission")
+    public ExecutorService getTransmissionExecutorService(Settings<ExecutorConf> settings) {
+        return newExecutorService(settings, ExecutorConf.TRANSMISSION);
+    }
+
+    /**
+     * Creates executor using virtual threads when enabled, otherwise a fixed thread pool of the configured size.
+     */
+    protected ExecutorService newExecutorService(Settings<ExecutorConf> settings, ExecutorConf size) {
+        if (VirtualThreadExecutors.isEnabled(settings))
+            return VirtualThreadExecutors.newExecutorService();
+
+        return Executors.newFixedThreadPool(settings.getInt(size));
     }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.executor;
+
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.lang.OxalisLoadingException;
+import network.oxalis.api.settings.Settings;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates executors running each task in a new virtual thread, when supported by the runtime (Java 21 or later).
+ * Virtual threads are looked up using reflection, as Oxalis is built for Java 11.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+public class VirtualThreadExecutors {
+
+    /**
+     * Value of {@link ExecutorConf#MODE} enabling virtual threads.
+     */
+    public static final String MODE = "virtual";
+
+    private static final Method NEW_EXECUTOR = findNewExecutor();
+
+    private static volatile boolean warned;
+
+    private VirtualThreadExecutors() {
+        // No action.
+    }
+
+    /**
+     * Returns true if the runtime supports virtual threads.
+     */
+    public static boolean isSupported() {
+        return NEW_EXECUTOR != null;
+    }
+
+    /**
+     * Returns true if virtual threads are configured and supported by the runtime. A warning is logged once when
+     * configured, but not supported.
+     */
+    public static boolean isEnabled(Settings<ExecutorConf> settings) {
+        if (!MODE.equalsIgnoreCase(settings.getString(ExecutorConf.MODE)))
+            return false;
+
+        if (!isSupported()) {
+            if (!warned) {
+                warned = true;
+                log.warn("Virtual threads are not supported by Java {}, using fixed thread pools.",
+                        System.getProperty("java.version"));
+            }
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates a new executor running each task in a new virtual thread.
+     */
+    public static ExecutorService newExecutorService() {
+        if (!isSupported())
+            throw new OxalisLoadingException("Virtual threads are not supported by this runtime.");
+
+        try {
+            return (ExecutorService) NEW_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new OxalisLoadingException("Unable to create executor using virtual threads.", e);
+        }
+    }
+
+    private static Method findNewExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
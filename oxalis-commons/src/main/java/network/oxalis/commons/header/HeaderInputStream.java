@@ -0,0 +1,198 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.header;
+
+import network.oxalis.api.header.HeaderParser;
+import network.oxalis.api.lang.OxalisContentException;
+import network.oxalis.vefa.peppol.common.model.Header;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream making the header of content available while the content passes through, so content is read only once.
+ * <p>
+ * The header is parsed when first requested or when reading starts. Bytes consumed by the header parser are kept
+ * until read from this stream, and the rest of the content is passed through untouched, so memory use is bounded by
+ * the part of the content needed by the parser. Using {@link SbdhHeaderParser} this is the header of the document,
+ * as parsing stops when the header element is closed. Content without a recognized header is passed through in full.
+ *
+ * @since 6.5.1
+ */
+public class HeaderInputStream extends FilterInputStream {
+
+    private final InputStream source;
+
+    private final HeaderParser headerParser;
+
+    private Header header;
+
+    private OxalisContentException exception;
+
+    public HeaderInputStream(InputStream inputStream, HeaderParser headerParser) {
+        super(new RecordingInputStream(inputStream));
+        this.source = inputStream;
+        this.headerParser = headerParser;
+    }
+
+    /**
+     * Returns header of content, parsing the beginning of content when first called.
+     *
+     * @throws OxalisContentException when content does not contain a recognized header.
+     */
+    public Header getHeader() throws OxalisContentException {
+        parse();
+
+        if (exception != null)
+            throw exception;
+
+        return header;
+    }
+
+    @Override
+    public int read() throws IOException {
+        parse();
+        return super.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        parse();
+        return super.read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        parse();
+        return super.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        parse();
+        return super.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    private void parse() {
+        RecordingInputStream recordingInputStream = (RecordingInputStream) in;
+
+        if (recordingInputStream.isReplaying())
+            return;
+
+        try {
+            header = headerParser.parse(recordingInputStream);
+        } catch (OxalisContentException e) {
+            exception = e;
+        } finally {
+            recordingInputStream.replay();
+        }
+    }
+
+    /**
+     * Keeps bytes read until replay is requested, and then returns kept bytes before the rest of the source.
+     */
+    private static class RecordingInputStream extends InputStream {
+
+        private final InputStream source;
+
+        private ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+
+        private InputStream replay;
+
+        private boolean replaying;
+
+        public RecordingInputStream(InputStream source) {
+            this.source = source;
+        }
+
+        public boolean isReplaying() {
+            return replaying;
+        }
+
+        public void replay() {
+            replay = new ByteArrayInputStream(recorded.toByteArray());
+            recorded = null;
+            replaying = true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (replay != null) {
+                int b = replay.read();
+                if (b != -1)
+                    return b;
+
+                replay = null;
+            }
+
+            int b = source.read();
+            if (b != -1 && recorded != null)
+                recorded.write(b);
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+
+            if (replay != null) {
+                int read = replay.read(b, off, len);
+                if (read != -1)
+                    return read;
+
+                replay = null;
+            }
+
+            int read = source.read(b, off, len);
+            if (read > 0 && recorded != null)
+                recorded.write(b, off, read);
+
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return replay != null ? replay.available() : source.available();
+        }
+
+        @Override
+        public void close() {
+            // Parsers closing the stream must not close the source.
+        }
+    }
+}
@@ -22,11 +22,14 @@
 
 package network.oxalis.commons.http;
 
+import com.google.inject.Injector;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import io.opentracing.Tracer;
 import io.opentracing.contrib.apache.http.client.TracingHttpClientBuilder;
 import network.oxalis.api.settings.Settings;
+import network.oxalis.commons.guice.ImplLoader;
 import network.oxalis.commons.guice.OxalisModule;
 import network.oxalis.commons.util.OxalisVersion;
 import org.apache.http.client.config.RequestConfig;
@@ -34,15 +37,13 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
-import java.util.concurrent.TimeUnit;
-
 /**
  * @author erlend
  * @since 4.0.0
  */
 public class ApacheHttpModule extends OxalisModule {
 
-    private static final String USER_AGENT = String.format("Oxalis %s", OxalisVersion.getVersion());
+    static final String USER_AGENT = String.format("Oxalis %s", OxalisVersion.getVersion());
 
     @Override
     protected void configure() {
@@ -51,13 +52,14 @@ public class ApacheHttpModule extends OxalisModule {
 
     @Provides
     @Singleton
-    protected PoolingHttpClientConnectionManager getPoolingHttpClientConnectionManager(Settings<HttpConf> settings) {
-        PoolingHttpClientConnectionManager httpClientConnectionManager = new PoolingHttpClientConnectionManager(settings.getInt(HttpConf.POOL_TIME_TO_LIVE), TimeUnit.SECONDS);
-        httpClientConnectionManager.setDefaultMaxPerRoute(settings.getInt(HttpConf.POOL_MAX_ROUTE));
-        httpClientConnectionManager.setMaxTotal(settings.getInt(HttpConf.POOL_TOTAL));
-        httpClientConnectionManager.setValidateAfterInactivity(settings.getInt(HttpConf.POOL_VALIDATE_AFTER_INACTIVITY));
+    protected RouteConnectionManager getRouteConnectionManager(Settings<HttpConf> settings) {
+        return new RouteConnectionManager(settings);
+    }
 
-        return httpClientConnectionManager;
+    @Provides
+    protected PoolingHttpClientConnectionManager getPoolingHttpClientConnectionManager(
+            RouteConnectionManager connectionManager) {
+        return connectionManager;
     }
 
     @Provides
@@ -71,7 +73,44 @@ public class ApacheHttpModule extends OxalisModule {
     }
 
     @Provides
-    protected CloseableHttpClient getHttpClient(PoolingHttpClientConnectionManager connectionManager,
+    @Singleton
+    protected Http2Transport getHttp2Transport(RouteConnectionManager connectionManager, Tracer tracer,
+                                               Settings<HttpConf> settings) {
+        return new Http2Transport(connectionManager, tracer, settings);
+    }
+
+    @Provides
+    @Named("apache")
+    protected RouteLimits getApacheRouteLimits(RouteConnectionManager connectionManager) {
+        return connectionManager;
+    }
+
+    @Provides
+    @Named("http2")
+    protected RouteLimits getHttp2RouteLimits(Http2Transport http2Transport) {
+        return http2Transport;
+    }
+
+    @Provides
+    @Singleton
+    protected RouteLimits getRouteLimits(Injector injector, Settings<HttpConf> settings) {
+        return ImplLoader.get(injector, RouteLimits.class, settings, HttpConf.CLIENT);
+    }
+
+    @Provides
+    protected CloseableHttpClient getHttpClient(Injector injector, Settings<HttpConf> settings) {
+        return ImplLoader.get(injector, CloseableHttpClient.class, settings, HttpConf.CLIENT);
+    }
+
+    @Provides
+    @Named("http2")
+    protected CloseableHttpClient getHttp2Client(Http2Transport http2Transport) {
+        return http2Transport.newHttpClient();
+    }
+
+    @Provides
+    @Named("apache")
+    protected CloseableHttpClient getApacheHttpClient(RouteConnectionManager connectionManager,
                                                 RequestConfig requestConfig, Tracer tracer) {
         HttpClientBuilder httpClientBuilder = new TracingHttpClientBuilder().withTracer(tracer);
 
@@ -83,6 +122,7 @@ public class ApacheHttpModule extends OxalisModule {
         // Connection pool
         httpClientBuilder.setConnectionManager(connectionManager);
         httpClientBuilder.setConnectionManagerShared(true);
+        httpClientBuilder.setKeepAliveStrategy(connectionManager.getKeepAliveStrategy());
 
         // Use system default for proxy
         httpClientBuilder.useSystemProperties();
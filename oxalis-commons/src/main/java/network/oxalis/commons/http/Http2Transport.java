@@ -0,0 +1,667 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.http;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.contrib.apache.http.client.Constants;
+import io.opentracing.tag.Tags;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.settings.Settings;
+import network.oxalis.commons.io.RewindableContent;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpHostConnectException;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * HTTP transport using the HTTP client of the JDK, multiplexing concurrent requests over a single HTTP/2
+ * connection per receiving host.
+ * <p>
+ * HTTP/2 is negotiated using ALPN for HTTPS, with fallback to HTTP/1.1 for receivers not supporting HTTP/2.
+ * Plain HTTP always uses HTTP/1.1. Concurrent requests towards a receiving host are limited to the configured
+ * number of streams when HTTP/2 is negotiated, and to the limit of the route in {@link RouteConnectionManager}
+ * when not.
+ * <p>
+ * Clients are provided as {@link CloseableHttpClient}, so existing senders and fetchers use this transport
+ * without changes. Closing a client does not affect the shared connections. Redirects are not followed, as with
+ * the clients of {@link ApacheHttpModule}. The JDK client only supports a connect timeout for all its connections,
+ * so a JDK client is kept for each connect timeout found in the configuration of requests.
+ * <p>
+ * Entities of requests are written on a separate thread and read by the JDK client through a pipe, so content is
+ * not buffered. Only entities not repeatable sent using a method the JDK client may send again after a failed
+ * connection are buffered, to be able to replay the content.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+public class Http2Transport implements RouteLimits {
+
+    /**
+     * Headers set by the JDK client itself.
+     */
+    private static final Set<String> RESTRICTED_HEADERS =
+            ImmutableSet.of("connection", "content-length", "expect", "host", "upgrade", "transfer-encoding");
+
+    private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    /**
+     * Methods of requests sent again by the JDK client when the connection is closed before a response is received.
+     */
+    private static final Set<String> RETRIED_METHODS = Boolean.getBoolean("jdk.httpclient.enableAllMethodRetry") ?
+            null : ImmutableSet.of("GET", "HEAD");
+
+    private static final int PIPE_CHUNK = 16 * 1024;
+
+    private static final int PIPE_CHUNKS = 4;
+
+    /**
+     * Marks end of content written to a pipe.
+     */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final Map<Integer, HttpClient> httpClients = new ConcurrentHashMap<>();
+
+    private final RouteConnectionManager connectionManager;
+
+    private final Tracer tracer;
+
+    private final int streams;
+
+    private final int connectTimeout;
+
+    private final int socketTimeout;
+
+    private final Map<String, Origin> origins = new ConcurrentHashMap<>();
+
+    private final ExecutorService writers = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("oxalis-http2-body-%d")
+            .setDaemon(true)
+            .build());
+
+    public Http2Transport(RouteConnectionManager connectionManager, Tracer tracer, Settings<HttpConf> settings) {
+        this(connectionManager, tracer, settings.getInt(HttpConf.HTTP2_STREAMS),
+                settings.getInt(HttpConf.TIMEOUT_CONNECT), settings.getInt(HttpConf.TIMEOUT_SOCKET));
+    }
+
+    Http2Transport(RouteConnectionManager connectionManager, Tracer tracer, int streams, int connectTimeout,
+                   int socketTimeout) {
+        this.connectionManager = connectionManager;
+        this.tracer = tracer;
+        this.streams = Math.max(1, streams);
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+    }
+
+    private static HttpClient newHttpClient(int connectTimeout) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER);
+
+        // Use system default for proxy
+        if (ProxySelector.getDefault() != null)
+            builder.proxy(ProxySelector.getDefault());
+
+        if (connectTimeout > 0)
+            builder.connectTimeout(Duration.ofMillis(connectTimeout));
+
+        return builder.build();
+    }
+
+    /**
+     * Creates a client using this transport.
+     */
+    public CloseableHttpClient newHttpClient() {
+        return new Client();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getLimit(URI address) {
+        Origin origin = origins.get(key(address));
+
+        if (origin != null && origin.version == HttpClient.Version.HTTP_2)
+            return streams;
+
+        return connectionManager.getLimit(address);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void waiting(URI address) {
+        connectionManager.waiting(address);
+    }
+
+    /**
+     * Protocol version used in the last response from the host of the given address, or {@code null} if unknown.
+     */
+    public HttpClient.Version getVersion(URI address) {
+        Origin origin = origins.get(key(address));
+        return origin == null ? null : origin.version;
+    }
+
+    private CloseableHttpResponse exchange(HttpHost target, HttpRequest request, HttpContext context)
+            throws IOException {
+        URI uri = getUri(target, request);
+        Origin origin = origins.computeIfAbsent(key(uri), key -> new Origin());
+
+        Tracer.SpanBuilder spanBuilder = tracer.buildSpan(request.getRequestLine().getMethod())
+                .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+                .withTag(Tags.HTTP_METHOD.getKey(), request.getRequestLine().getMethod())
+                .withTag(Tags.HTTP_URL.getKey(), uri.toString());
+        if (context != null && context.getAttribute(Constants.PARENT_CONTEXT) instanceof SpanContext)
+            spanBuilder.asChildOf((SpanContext) context.getAttribute(Constants.PARENT_CONTEXT));
+        Span span = spanBuilder.start();
+
+        origin.acquire(uri);
+        try (Body body = getBody(request)) {
+            HttpResponse<InputStream> response = send(getHttpClient(request), target,
+                    newRequest(uri, request, body), body);
+
+            origin.version = response.version();
+            span.setTag(Tags.HTTP_STATUS.getKey(), response.statusCode());
+            span.setTag("http.version", response.version().name());
+
+            return new Response(response, origin::release);
+        } catch (IOException | RuntimeException e) {
+            origin.release();
+            span.setTag(Tags.ERROR.getKey(), true);
+            span.setTag("exception", String.valueOf(e.getMessage()));
+            throw e;
+        } finally {
+            span.finish();
+        }
+    }
+
+    private HttpClient getHttpClient(HttpRequest request) {
+        int timeout = connectTimeout;
+        if (request instanceof Configurable && ((Configurable) request).getConfig() != null
+                && ((Configurable) request).getConfig().getConnectTimeout() > 0)
+            timeout = ((Configurable) request).getConfig().getConnectTimeout();
+
+        return httpClients.computeIfAbsent(timeout, Http2Transport::newHttpClient);
+    }
+
+    /**
+     * Sends the request, aborting the exchange when writing the entity fails, as the JDK client would otherwise
+     * wait for a response to the incomplete request.
+     */
+    private static HttpResponse<InputStream> send(HttpClient httpClient, HttpHost target,
+                                                  java.net.http.HttpRequest request, Body body) throws IOException {
+        CompletableFuture<HttpResponse<InputStream>> future =
+                httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        if (body != null)
+            body.onFailure(() -> future.cancel(true));
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Interrupted while sending request to %s.", target));
+        } catch (CancellationException | ExecutionException e) {
+            if (body != null && body.failure != null)
+                throw body.failure;
+
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            if (cause instanceof HttpConnectTimeoutException)
+                throw new ConnectTimeoutException((IOException) cause, target);
+            if (cause instanceof HttpTimeoutException) {
+                SocketTimeoutException exception = new SocketTimeoutException(cause.getMessage());
+                exception.initCause(cause);
+                throw exception;
+            }
+            if (cause instanceof ConnectException)
+                throw new HttpHostConnectException((ConnectException) cause, target);
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private java.net.http.HttpRequest newRequest(URI uri, HttpRequest request, Body body) {
+        java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder(uri);
+
+        // HTTP/2 is only negotiated using TLS.
+        if ("http".equalsIgnoreCase(uri.getScheme()))
+            builder.version(HttpClient.Version.HTTP_1_1);
+
+        int timeout = socketTimeout;
+        if (request instanceof Configurable && ((Configurable) request).getConfig() != null
+                && ((Configurable) request).getConfig().getSocketTimeout() > 0)
+            timeout = ((Configurable) request).getConfig().getSocketTimeout();
+        if (timeout > 0)
+            builder.timeout(Duration.ofMillis(timeout));
+
+        for (Header header : request.getAllHeaders())
+            addHeader(builder, header);
+
+        if (!request.containsHeader(HttpHeaders.USER_AGENT))
+            builder.setHeader(HttpHeaders.USER_AGENT, ApacheHttpModule.USER_AGENT);
+
+        if (body == null) {
+            builder.method(request.getRequestLine().getMethod(), java.net.http.HttpRequest.BodyPublishers.noBody());
+        } else {
+            if (body.entity.getContentType() != null && !request.containsHeader(HttpHeaders.CONTENT_TYPE))
+                addHeader(builder, body.entity.getContentType());
+            if (body.entity.getContentEncoding() != null && !request.containsHeader(HttpHeaders.CONTENT_ENCODING))
+                addHeader(builder, body.entity.getContentEncoding());
+
+            builder.method(request.getRequestLine().getMethod(), body.getPublisher());
+        }
+
+        return builder.build();
+    }
+
+    private static void addHeader(java.net.http.HttpRequest.Builder builder, Header header) {
+        if (RESTRICTED_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT)))
+            return;
+
+        try {
+            builder.header(header.getName(), header.getValue());
+        } catch (IllegalArgumentException e) {
+            log.debug("Header '{}' not allowed by HTTP client: {}", header.getName(), e.getMessage());
+        }
+    }
+
+    private Body getBody(HttpRequest request) throws IOException {
+        if (!(request instanceof HttpEntityEnclosingRequest))
+            return null;
+
+        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        if (entity == null)
+            return null;
+
+        String method = request.getRequestLine().getMethod();
+        if (entity.isRepeatable() || (RETRIED_METHODS != null && !RETRIED_METHODS.contains(method)))
+            return new Body(entity, null);
+
+        RewindableContent.Output output = RewindableContent.newOutput(RewindableContent.DEFAULT_MEMORY);
+        try (OutputStream outputStream = output) {
+            entity.writeTo(outputStream);
+            return new Body(entity, output.toContent());
+        }
+    }
+
+    private static URI getUri(HttpHost target, HttpRequest request) {
+        if (request instanceof HttpUriRequest && ((HttpUriRequest) request).getURI().isAbsolute())
+            return ((HttpUriRequest) request).getURI();
+
+        return URI.create(target.toURI() + request.getRequestLine().getUri());
+    }
+
+    private static String key(URI uri) {
+        return RouteConnectionManager.key(uri.getScheme(), uri.getHost(), uri.getPort());
+    }
+
+    /**
+     * Entity of a request, read by the JDK client from buffered content or through a pipe written by the entity.
+     */
+    private class Body implements Closeable {
+
+        private final HttpEntity entity;
+
+        private final RewindableContent content;
+
+        private final List<Pipe> pipes = new CopyOnWriteArrayList<>();
+
+        private volatile IOException failure;
+
+        private volatile Runnable abort;
+
+        public Body(HttpEntity entity, RewindableContent content) {
+            this.entity = entity;
+            this.content = content;
+        }
+
+        public java.net.http.HttpRequest.BodyPublisher getPublisher() {
+            long length = content != null ? content.size() : entity.getContentLength();
+            if (length == 0)
+                return java.net.http.HttpRequest.BodyPublishers.noBody();
+
+            java.net.http.HttpRequest.BodyPublisher publisher =
+                    java.net.http.HttpRequest.BodyPublishers.ofInputStream(this::newInputStream);
+
+            return length < 0 ? publisher : java.net.http.HttpRequest.BodyPublishers.fromPublisher(publisher, length);
+        }
+
+        private InputStream newInputStream() {
+            try {
+                if (content != null)
+                    return content.newInputStream();
+
+                if (!pipes.isEmpty() && !entity.isRepeatable())
+                    throw new IOException("Entity is not repeatable and is already sent.");
+
+                Pipe pipe = new Pipe();
+                pipes.add(pipe);
+                pipe.write(entity, this::failed);
+                return pipe;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Runs the given action when writing the entity fails, also when already failed.
+         */
+        public void onFailure(Runnable abort) {
+            this.abort = abort;
+            if (failure != null)
+                abort.run();
+        }
+
+        private void failed(IOException e) {
+            failure = new IOException("Unable to write entity: " + e.getMessage(), e);
+
+            Runnable action = abort;
+            if (action != null)
+                action.run();
+        }
+
+        /**
+         * Releases content, and stops writers not done when the JDK client stopped reading.
+         */
+        @Override
+        public void close() throws IOException {
+            if (content != null)
+                content.close();
+
+            for (Pipe pipe : pipes)
+                pipe.close();
+        }
+    }
+
+    /**
+     * Pipe written by an entity using a separate thread, passing chunks of content to the reader and failing when
+     * read to the end if the entity failed.
+     */
+    private class Pipe extends InputStream {
+
+        private final BlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(PIPE_CHUNKS);
+
+        private ByteBuffer chunk;
+
+        private volatile IOException failure;
+
+        private volatile boolean closed;
+
+        public void write(HttpEntity entity, Consumer<IOException> onFailure) {
+            writers.execute(() -> {
+                try (OutputStream outputStream = new BufferedOutputStream(new Writer(), PIPE_CHUNK)) {
+                    entity.writeTo(outputStream);
+                } catch (IOException e) {
+                    failure = e;
+                } catch (RuntimeException e) {
+                    failure = new IOException(e.getMessage(), e);
+                } finally {
+                    if (failure != null)
+                        onFailure.accept(failure);
+
+                    put(END);
+                }
+            });
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+
+            while (chunk != END && (chunk == null || !chunk.hasRemaining())) {
+                try {
+                    chunk = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading entity.");
+                }
+            }
+
+            if (chunk == END) {
+                if (failure != null)
+                    throw new IOException("Unable to write entity: " + failure.getMessage(), failure);
+
+                return -1;
+            }
+
+            int read = Math.min(len, chunk.remaining());
+            chunk.get(b, off, read);
+            return read;
+        }
+
+        /**
+         * Makes the writer fail, releasing it when waiting for the reader.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            chunks.clear();
+        }
+
+        /**
+         * Adds a chunk, returning false when the reader is closed.
+         */
+        private boolean put(ByteBuffer buffer) {
+            try {
+                while (!closed)
+                    if (chunks.offer(buffer, 100, TimeUnit.MILLISECONDS))
+                        return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return false;
+        }
+
+        private class Writer extends OutputStream {
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (len > 0 && !put(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len))))
+                    throw new IOException("Entity is no longer read.");
+            }
+        }
+    }
+
+    /**
+     * Receiving host, keeping track of active requests and negotiated protocol.
+     */
+    private class Origin {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Condition released = lock.newCondition();
+
+        private int active;
+
+        private volatile HttpClient.Version version;
+
+        public void acquire(URI address) throws InterruptedIOException {
+            lock.lock();
+            try {
+                boolean waiting = false;
+                while (active >= getLimit(address)) {
+                    if (!waiting) {
+                        connectionManager.waiting(address);
+                        waiting = true;
+                    }
+
+                    // Limit is checked again regularly, as it may be raised while waiting.
+                    released.await(1, TimeUnit.SECONDS);
+                }
+
+                active++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(String.format("Interrupted while waiting for %s.", address));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void release() {
+            lock.lock();
+            try {
+                active--;
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Response releasing its slot towards the receiving host when closed.
+     */
+    private static class Response extends BasicHttpResponse implements CloseableHttpResponse {
+
+        private final Runnable onClose;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        public Response(HttpResponse<InputStream> response, Runnable onClose) {
+            super(response.version() == HttpClient.Version.HTTP_2 ? HTTP_2 : HttpVersion.HTTP_1_1,
+                    response.statusCode(), EnglishReasonPhraseCatalog.INSTANCE.getReason(response.statusCode(), null));
+            this.onClose = onClose;
+
+            response.headers().map().forEach((name, values) -> values.forEach(value -> addHeader(name, value)));
+
+            BasicHttpEntity entity = new BasicHttpEntity();
+            entity.setContent(response.body());
+            entity.setContentLength(response.headers().firstValueAsLong(HttpHeaders.CONTENT_LENGTH).orElse(-1));
+            entity.setContentType(getFirstHeader(HttpHeaders.CONTENT_TYPE));
+            entity.setContentEncoding(getFirstHeader(HttpHeaders.CONTENT_ENCODING));
+            setEntity(entity);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    getEntity().getContent().close();
+                } finally {
+                    onClose.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Client delegating to the transport.
+     */
+    private class Client extends CloseableHttpClient {
+
+        @Override
+        protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context)
+                throws IOException {
+            return exchange(target, request, context);
+        }
+
+        @Override
+        public void close() {
+            // No action, connections are shared.
+        }
+
+        @Override
+        @Deprecated
+        public HttpParams getParams() {
+            throw new UnsupportedOperationException(
+                    "Deprecated HttpClient.getParams() is not supported by the HTTP/2 transport, use RequestConfig.");
+        }
+
+        @Override
+        @Deprecated
+        public ClientConnectionManager getConnectionManager() {
+            throw new UnsupportedOperationException("Deprecated HttpClient.getConnectionManager() is not supported "
+                    + "by the HTTP/2 transport, connections are managed by the transport.");
+        }
+    }
+}
@@ -33,6 +33,25 @@ import network.oxalis.api.settings.Title;
 @Title("HTTP")
 public enum HttpConf {
 
+    /**
+     * HTTP client used for outbound traffic, either "apache" (HTTP/1.1) or "http2" (HTTP/2 with fallback to
+     * HTTP/1.1).
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.http.client")
+    @DefaultValue("apache")
+    CLIENT,
+
+    /**
+     * Max number of concurrent requests towards a receiving host over HTTP/2.
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.http.http2.streams")
+    @DefaultValue("100")
+    HTTP2_STREAMS,
+
     @Path("oxalis.http.pool.total")
     @DefaultValue("20")
     POOL_TOTAL,
@@ -49,6 +68,61 @@ public enum HttpConf {
     @DefaultValue("30")
     POOL_TIME_TO_LIVE,
 
+    /**
+     * Seconds a pooled connection may stay idle before it is closed.
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.http.pool.idle")
+    @DefaultValue("30")
+    POOL_IDLE,
+
+    /**
+     * Comma separated overrides of max connections per receiving host, like "ap.example.com=10" or
+     * "ap.example.com:8443=4".
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.http.pool.routes")
+    @DefaultValue("")
+    POOL_ROUTES,
+
+    /**
+     * Upper limit of connections per route when scaling up routes with sustained queues.
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.http.pool.scale.max_route")
+    @DefaultValue("10")
+    POOL_SCALE_MAX_ROUTE,
+
+    /**
+     * Milliseconds spent waiting for a connection before a lease counts as queued.
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.http.pool.scale.lease_wait")
+    @DefaultValue("50")
+    POOL_SCALE_LEASE_WAIT,
+
+    /**
+     * Number of most used routes to keep a connection open towards, zero to disable.
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.http.pool.prewarm")
+    @DefaultValue("0")
+    POOL_PREWARM,
+
+    /**
+     * Seconds between adjustment of route limits, idle cleanup and logging of statistics, zero to disable.
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.http.pool.interval")
+    @DefaultValue("30")
+    POOL_INTERVAL,
+
     @Path("oxalis.http.timeout.connect")
     @DefaultValue("0")
     TIMEOUT_CONNECT,
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.http;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.lang.OxalisLoadingException;
+import network.oxalis.api.settings.Settings;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Connection pool managing limits per receiving host.
+ * <p>
+ * Each route starts out with the limit configured for the host, or the default max per route. Routes where
+ * connections are waited for are given one more connection per interval up to the scaling limit, while routes
+ * not using their limit are given back one connection per interval. Connections to the most used routes may be
+ * kept open, so bursts towards those routes do not start with a TLS handshake. Only routes used since the previous
+ * interval are kept open, so connections closed as idle are not opened again until the route is used.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+public class RouteConnectionManager extends PoolingHttpClientConnectionManager implements RouteLimits {
+
+    private static final long PREWARM_LEASE_TIMEOUT = 1000;
+
+    private static final int PREWARM_CONNECT_TIMEOUT = 10_000;
+
+    private final Map<String, Integer> overrides;
+
+    private final int maxRoute;
+
+    private final int scaleMaxRoute;
+
+    private final long queuedWait;
+
+    private final int prewarm;
+
+    private final long idle;
+
+    private final int connectTimeout;
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler;
+
+    public RouteConnectionManager(Settings<HttpConf> settings) {
+        super(settings.getInt(HttpConf.POOL_TIME_TO_LIVE), TimeUnit.SECONDS);
+        setMaxTotal(settings.getInt(HttpConf.POOL_TOTAL));
+        setValidateAfterInactivity(settings.getInt(HttpConf.POOL_VALIDATE_AFTER_INACTIVITY));
+
+        this.maxRoute = Math.max(1, settings.getInt(HttpConf.POOL_MAX_ROUTE));
+        this.scaleMaxRoute = settings.getInt(HttpConf.POOL_SCALE_MAX_ROUTE);
+        this.overrides = parseOverrides(settings.getString(HttpConf.POOL_ROUTES));
+        this.queuedWait = TimeUnit.MILLISECONDS.toNanos(settings.getInt(HttpConf.POOL_SCALE_LEASE_WAIT));
+        this.prewarm = settings.getInt(HttpConf.POOL_PREWARM);
+        this.idle = settings.getInt(HttpConf.POOL_IDLE);
+        this.connectTimeout = settings.getInt(HttpConf.TIMEOUT_CONNECT);
+
+        setDefaultMaxPerRoute(maxRoute);
+
+        int interval = settings.getInt(HttpConf.POOL_INTERVAL);
+        if (interval > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("oxalis-http-%d")
+                    .setDaemon(true)
+                    .build());
+            scheduler.scheduleWithFixedDelay(this::maintain, interval, interval, TimeUnit.SECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Current max number of connections towards the host of the given address.
+     */
+    @Override
+    public int getLimit(URI address) {
+        return getRoute(address.getScheme(), address.getHost(), address.getPort()).limit;
+    }
+
+    /**
+     * Registers a transmission towards the host of the given address waiting outside the pool, making the route a
+     * candidate for scaling up.
+     */
+    @Override
+    public void waiting(URI address) {
+        getRoute(address.getScheme(), address.getHost(), address.getPort()).queued.incrementAndGet();
+    }
+
+    /**
+     * Keep-alive strategy respecting the duration given by the receiver, though no longer than connections are
+     * allowed to be idle.
+     */
+    public ConnectionKeepAliveStrategy getKeepAliveStrategy() {
+        return (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            long max = TimeUnit.SECONDS.toMillis(idle);
+            return duration > 0 && duration < max ? duration : max;
+        };
+    }
+
+    /**
+     * Statistics for each route in use since startup, sorted by route.
+     */
+    public List<RouteStatistics> getStatistics() {
+        return routes.values().stream()
+                .map(Route::getStatistics)
+                .sorted(Comparator.comparing(RouteStatistics::getRoute))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute httpRoute, Object state) {
+        Route route = getRoute(httpRoute);
+        long start = System.nanoTime();
+        ConnectionRequest request = super.requestConnection(httpRoute, state);
+
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get(long timeout, TimeUnit unit)
+                    throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                try {
+                    HttpClientConnection connection = request.get(timeout, unit);
+                    route.leased(System.nanoTime() - start, getStats(httpRoute).getLeased());
+                    return connection;
+                } catch (ConnectionPoolTimeoutException e) {
+                    route.queued.incrementAndGet();
+                    throw e;
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    @Override
+    public void connect(HttpClientConnection connection, HttpRoute httpRoute, int connectTimeout,
+                        HttpContext context) throws IOException {
+        super.connect(connection, httpRoute, connectTimeout, context);
+
+        Route route = getRoute(httpRoute);
+        route.connections.incrementAndGet();
+        if (httpRoute.isSecure() && !httpRoute.isTunnelled())
+            route.handshakes.incrementAndGet();
+    }
+
+    @Override
+    public void upgrade(HttpClientConnection connection, HttpRoute httpRoute, HttpContext context)
+            throws IOException {
+        super.upgrade(connection, httpRoute, context);
+
+        getRoute(httpRoute).handshakes.incrementAndGet();
+    }
+
+    @Override
+    public void shutdown() {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+
+        super.shutdown();
+    }
+
+    /**
+     * Closes idle connections, adjusts limits, opens connections to the most used routes and logs statistics.
+     */
+    void maintain() {
+        try {
+            closeExpiredConnections();
+            closeIdleConnections(idle, TimeUnit.SECONDS);
+
+            routes.values().forEach(Route::adjust);
+
+            // Routes are ranked by use since the previous interval, as a connection kept open to a route no longer
+            // used would otherwise be closed as idle and opened again at every interval.
+            Map<Route, Long> recent = new HashMap<>();
+            routes.values().forEach(route -> recent.put(route, route.recentLeases()));
+
+            if (prewarm > 0)
+                recent.entrySet().stream()
+                        .filter(entry -> entry.getValue() > 0)
+                        .sorted(Map.Entry.<Route, Long>comparingByValue().reversed())
+                        .limit(prewarm)
+                        .forEach(entry -> entry.getKey().prewarm());
+
+            if (log.isDebugEnabled())
+                getStatistics().forEach(statistics -> log.debug("HTTP route {}", statistics));
+        } catch (Exception e) {
+            log.warn("Unable to maintain HTTP connection pool: {}", e.getMessage(), e);
+        }
+    }
+
+    private Route getRoute(HttpRoute httpRoute) {
+        HttpHost target = httpRoute.getTargetHost();
+        Route route = getRoute(target.getSchemeName(), target.getHostName(), target.getPort());
+        if (route.httpRoutes.add(httpRoute))
+            setMaxPerRoute(httpRoute, route.limit);
+
+        return route;
+    }
+
+    private Route getRoute(String scheme, String host, int port) {
+        return routes.computeIfAbsent(key(scheme, host, port), key -> {
+            URI uri = URI.create(key);
+            return new Route(key, "https".equals(uri.getScheme()), getBaseLimit(uri.getHost(), uri.getPort()));
+        });
+    }
+
+    private int getBaseLimit(String host, int port) {
+        Integer limit = overrides.get(String.format("%s:%s", host, port));
+        if (limit == null)
+            limit = overrides.get(host);
+
+        return limit == null ? maxRoute : limit;
+    }
+
+    /**
+     * Identifies a route by scheme, host and port, like "https://ap.example.com:443".
+     */
+    static String key(String scheme, String host, int port) {
+        String normalizedScheme = scheme == null ? "http" : scheme.toLowerCase(Locale.ROOT);
+        String normalizedHost = host == null ? "localhost" : host.toLowerCase(Locale.ROOT);
+        int normalizedPort = port < 0 ? ("https".equals(normalizedScheme) ? 443 : 80) : port;
+
+        // IPv6 addresses are enclosed in brackets.
+        if (normalizedHost.contains(":") && !normalizedHost.startsWith("["))
+            normalizedHost = String.format("[%s]", normalizedHost);
+
+        return String.format("%s://%s:%s", normalizedScheme, normalizedHost, normalizedPort);
+    }
+
+    static Map<String, Integer> parseOverrides(String value) {
+        Map<String, Integer> result = new HashMap<>();
+
+        for (String entry : value.split(",")) {
+            if (entry.trim().isEmpty())
+                continue;
+
+            String[] parts = entry.split("=");
+            try {
+                if (parts.length != 2)
+                    throw new NumberFormatException();
+
+                result.put(parts[0].trim().toLowerCase(Locale.ROOT), Math.max(1, Integer.parseInt(parts[1].trim())));
+            } catch (NumberFormatException e) {
+                throw new OxalisLoadingException(String.format("Invalid HTTP route limit '%s'.", entry.trim()));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Connections towards a receiving host, normally using a single route.
+     */
+    private class Route {
+
+        private final String key;
+
+        private final boolean secure;
+
+        private final int base;
+
+        private final int max;
+
+        private final Set<HttpRoute> httpRoutes = ConcurrentHashMap.newKeySet();
+
+        private volatile int limit;
+
+        private final AtomicLong leases = new AtomicLong();
+
+        /**
+         * Leases counted at the previous interval.
+         */
+        private long previousLeases;
+
+        private final AtomicLong leaseWait = new AtomicLong();
+
+        private final AtomicLong maxLeaseWait = new AtomicLong();
+
+        private final AtomicLong connections = new AtomicLong();
+
+        private final AtomicLong handshakes = new AtomicLong();
+
+        private final AtomicInteger queued = new AtomicInteger();
+
+        private final AtomicInteger peak = new AtomicInteger();
+
+        public Route(String key, boolean secure, int base) {
+            this.key = key;
+            this.secure = secure;
+            this.base = base;
+            this.max = Math.max(base, scaleMaxRoute);
+            this.limit = base;
+        }
+
+        public void leased(long wait, int leased) {
+            leases.incrementAndGet();
+            leaseWait.addAndGet(wait);
+            maxLeaseWait.accumulateAndGet(wait, Math::max);
+            peak.accumulateAndGet(leased, Math::max);
+
+            if (wait >= queuedWait)
+                queued.incrementAndGet();
+        }
+
+        public void adjust() {
+            int queued = this.queued.getAndSet(0);
+            int peak = this.peak.getAndSet(0);
+            int pending = httpRoutes.stream().mapToInt(httpRoute -> getStats(httpRoute).getPending()).sum();
+
+            if ((queued > 0 || pending > 0) && limit < max)
+                setLimit(limit + 1);
+            else if (queued == 0 && pending == 0 && peak < limit && limit > base)
+                setLimit(limit - 1);
+        }
+
+        /**
+         * Number of leases since the previous call.
+         */
+        public long recentLeases() {
+            long current = leases.get();
+            long recent = current - previousLeases;
+            previousLeases = current;
+            return recent;
+        }
+
+        public void prewarm() {
+            if (!secure)
+                return;
+
+            for (HttpRoute httpRoute : httpRoutes) {
+                PoolStats stats = getStats(httpRoute);
+                if (httpRoute.getHopCount() == 1 && stats.getAvailable() == 0 && stats.getLeased() == 0)
+                    open(httpRoute);
+            }
+        }
+
+        public RouteStatistics getStatistics() {
+            int leased = 0;
+            int available = 0;
+            int pending = 0;
+
+            for (HttpRoute httpRoute : httpRoutes) {
+                PoolStats stats = getStats(httpRoute);
+                leased += stats.getLeased();
+                available += stats.getAvailable();
+                pending += stats.getPending();
+            }
+
+            return new RouteStatistics(key, limit, leased, available, pending, leases.get(), leaseWait.get(),
+                    maxLeaseWait.get(), connections.get(), handshakes.get());
+        }
+
+        private void setLimit(int limit) {
+            log.debug("Changing limit of HTTP route {} from {} to {}.", key, this.limit, limit);
+
+            this.limit = limit;
+            httpRoutes.forEach(httpRoute -> setMaxPerRoute(httpRoute, limit));
+        }
+
+        private void open(HttpRoute httpRoute) {
+            HttpClientConnection connection;
+            try {
+                connection = RouteConnectionManager.super.requestConnection(httpRoute, null)
+                        .get(PREWARM_LEASE_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.debug("No room for connection to {}: {}", key, e.getMessage());
+                return;
+            }
+
+            boolean reusable = false;
+            try {
+                if (!connection.isOpen()) {
+                    HttpClientContext context = HttpClientContext.create();
+                    connect(connection, httpRoute, connectTimeout > 0 ? connectTimeout : PREWARM_CONNECT_TIMEOUT,
+                            context);
+                    routeComplete(connection, httpRoute, context);
+                }
+                reusable = true;
+            } catch (IOException e) {
+                log.debug("Unable to open connection to {}: {}", key, e.getMessage());
+            } finally {
+                releaseConnection(connection, null, reusable ? idle : 0, TimeUnit.SECONDS);
+            }
+        }
+    }
+}
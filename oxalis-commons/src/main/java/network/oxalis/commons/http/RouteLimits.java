@@ -0,0 +1,44 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.http;
+
+import java.net.URI;
+
+/**
+ * Limits of concurrent requests towards receiving hosts, as given by the HTTP client in use.
+ *
+ * @since 6.5.1
+ */
+public interface RouteLimits {
+
+    /**
+     * Current max number of concurrent requests towards the host of the given address.
+     */
+    int getLimit(URI address);
+
+    /**
+     * Registers a request towards the host of the given address waiting outside the client, making the route a
+     * candidate for a higher limit.
+     */
+    void waiting(URI address);
+}
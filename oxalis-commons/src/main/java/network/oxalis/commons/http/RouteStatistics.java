@@ -0,0 +1,150 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.http;
+
+/**
+ * Snapshot of connection pool usage towards a single receiving host.
+ *
+ * @since 6.5.1
+ */
+public class RouteStatistics {
+
+    private final String route;
+
+    private final int limit;
+
+    private final int leased;
+
+    private final int available;
+
+    private final int pending;
+
+    private final long leases;
+
+    private final long leaseWait;
+
+    private final long maxLeaseWait;
+
+    private final long connections;
+
+    private final long handshakes;
+
+    RouteStatistics(String route, int limit, int leased, int available, int pending, long leases, long leaseWait,
+                    long maxLeaseWait, long connections, long handshakes) {
+        this.route = route;
+        this.limit = limit;
+        this.leased = leased;
+        this.available = available;
+        this.pending = pending;
+        this.leases = leases;
+        this.leaseWait = leaseWait;
+        this.maxLeaseWait = maxLeaseWait;
+        this.connections = connections;
+        this.handshakes = handshakes;
+    }
+
+    /**
+     * Scheme, host and port of the receiving host, like "https://ap.example.com:443".
+     */
+    public String getRoute() {
+        return route;
+    }
+
+    /**
+     * Current max number of connections.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Number of connections currently in use.
+     */
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * Number of idle connections ready to be used.
+     */
+    public int getAvailable() {
+        return available;
+    }
+
+    /**
+     * Number of requests currently waiting for a connection.
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * Share of the limit currently in use.
+     */
+    public double getUtilisation() {
+        return limit == 0 ? 0 : (double) leased / limit;
+    }
+
+    /**
+     * Number of connections leased since startup.
+     */
+    public long getLeases() {
+        return leases;
+    }
+
+    /**
+     * Average time in milliseconds spent waiting for a connection.
+     */
+    public double getAverageLeaseWait() {
+        return leases == 0 ? 0 : leaseWait / 1_000_000d / leases;
+    }
+
+    /**
+     * Longest time in milliseconds spent waiting for a connection.
+     */
+    public long getMaxLeaseWait() {
+        return maxLeaseWait / 1_000_000;
+    }
+
+    /**
+     * Number of connections opened since startup.
+     */
+    public long getConnections() {
+        return connections;
+    }
+
+    /**
+     * Number of TLS handshakes performed since startup.
+     */
+    public long getHandshakes() {
+        return handshakes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: limit=%s, leased=%s, available=%s, pending=%s, leases=%s, " +
+                        "lease wait avg=%.1fms max=%sms, connections=%s, handshakes=%s",
+                route, limit, leased, available, pending, leases,
+                getAverageLeaseWait(), getMaxLeaseWait(), connections, handshakes);
+    }
+}
@@ -32,7 +32,9 @@ import java.io.*;
  *
  * @author erlend
  * @since 4.0.0
+ * @deprecated Keeps all content in memory, use {@link RewindableContent}.
  */
+@Deprecated
 public class PeekingInputStream extends InputStream {
 
     private final byte[] content;
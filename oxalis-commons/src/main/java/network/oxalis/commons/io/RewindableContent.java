@@ -0,0 +1,343 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content which may be read any number of times, keeping the first part in memory and the rest in a temporary file.
+ * <p>
+ * Every call to {@link #newInputStream()} returns an independent reader starting at the beginning of the content.
+ * Readers may be used concurrently, as the temporary file is read using positional reads on a {@link FileChannel}.
+ * <p>
+ * The temporary file is removed when the content and all readers are closed. A reader is closed when the end of
+ * content is reached, so handing a reader to a consumer and closing the content is enough to make sure the file is
+ * removed when the consumer is done. Content never closed is cleaned up when no longer reachable.
+ *
+ * @since 6.5.1
+ */
+public class RewindableContent implements Closeable {
+
+    /**
+     * Default number of bytes kept in memory.
+     */
+    public static final int DEFAULT_MEMORY = 256 * 1024;
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final State state;
+
+    private final Cleaner.Cleanable cleanable;
+
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private volatile boolean closed;
+
+    /**
+     * Reads the source into new content using the default memory limit. Source is not closed.
+     */
+    public static RewindableContent of(InputStream inputStream) throws IOException {
+        return of(inputStream, DEFAULT_MEMORY);
+    }
+
+    /**
+     * Reads the source into new content, keeping up to the given number of bytes in memory. Source is not closed.
+     */
+    public static RewindableContent of(InputStream inputStream, int memory) throws IOException {
+        try (Output output = newOutput(memory)) {
+            byte[] buffer = new byte[8192];
+            for (int read; (read = inputStream.read(buffer)) != -1; )
+                output.write(buffer, 0, read);
+
+            return output.toContent();
+        }
+    }
+
+    /**
+     * Creates a stream for writing new content, keeping up to the given number of bytes in memory.
+     */
+    public static Output newOutput(int memory) {
+        return new Output(memory);
+    }
+
+    private RewindableContent(State state) {
+        this.state = state;
+        this.cleanable = CLEANER.register(this, state);
+    }
+
+    /**
+     * Returns a new reader starting at the beginning of content.
+     *
+     * @throws IOException when content is closed.
+     */
+    public InputStream newInputStream() throws IOException {
+        if (closed)
+            throw new IOException("Content is closed.");
+
+        acquire();
+        return new Reader();
+    }
+
+    /**
+     * Number of bytes in content.
+     */
+    public long size() {
+        return state.length + state.fileLength;
+    }
+
+    /**
+     * Returns true when parts of content are kept in a temporary file.
+     */
+    public boolean isSpilled() {
+        return state.channel != null;
+    }
+
+    /**
+     * Releases the content. Readers already created are still usable until closed.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            release();
+        }
+    }
+
+    private void acquire() throws IOException {
+        for (int count = references.get(); ; count = references.get()) {
+            if (count == 0)
+                throw new IOException("Content is closed.");
+            if (references.compareAndSet(count, count + 1))
+                return;
+        }
+    }
+
+    private void release() {
+        if (references.decrementAndGet() == 0)
+            cleanable.clean();
+    }
+
+    /**
+     * Reader of content. Releases the content when closed or when end of content is reached.
+     */
+    private class Reader extends InputStream {
+
+        private long position;
+
+        private boolean released;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+
+            if (released || position >= size()) {
+                close();
+                return -1;
+            }
+
+            int read;
+            if (position < state.length) {
+                read = (int) Math.min(len, state.length - position);
+                System.arraycopy(state.memory, (int) position, b, off, read);
+            } else {
+                read = 0;
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, size() - position));
+                while (read == 0)
+                    read = state.channel.read(buffer, position - state.length);
+
+                if (read == -1)
+                    throw new IOException("Unexpected end of temporary file.");
+            }
+
+            position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, size() - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return released ? 0 : (int) Math.min(Integer.MAX_VALUE, size() - position);
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release();
+            }
+        }
+    }
+
+    /**
+     * Stream creating content, writing to a temporary file when the memory limit is reached.
+     */
+    public static class Output extends OutputStream {
+
+        private final int memory;
+
+        private byte[] buffer;
+
+        private int length;
+
+        private Path file;
+
+        private FileChannel channel;
+
+        private OutputStream fileOutputStream;
+
+        private long fileLength;
+
+        private boolean done;
+
+        private Output(int memory) {
+            this.memory = Math.max(0, memory);
+            this.buffer = new byte[Math.min(this.memory, 8192)];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (done)
+                throw new IOException("Content is already created.");
+
+            // Fill memory.
+            int count = Math.min(len, memory - length);
+            if (count > 0) {
+                if (length + count > buffer.length)
+                    buffer = Arrays.copyOf(buffer, Math.min(memory, Math.max(length + count, buffer.length * 2)));
+
+                System.arraycopy(b, off, buffer, length, count);
+                length += count;
+            }
+
+            // Write the rest to file.
+            if (count < len) {
+                if (channel == null) {
+                    file = Files.createTempFile("oxalis-", ".tmp");
+                    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                            StandardOpenOption.DELETE_ON_CLOSE);
+                    fileOutputStream = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+                }
+
+                fileOutputStream.write(b, off + count, len - count);
+                fileLength += len - count;
+            }
+        }
+
+        /**
+         * Finishes writing and returns the content written. Closing the stream afterwards has no effect.
+         */
+        public RewindableContent toContent() throws IOException {
+            if (done)
+                throw new IOException("Content is already created.");
+
+            if (fileOutputStream != null)
+                fileOutputStream.flush();
+
+            done = true;
+            return new RewindableContent(new State(buffer, length, file, channel, fileLength));
+        }
+
+        /**
+         * Removes anything written unless content is created.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!done) {
+                done = true;
+                new State(buffer, length, file, channel, fileLength).run();
+            }
+        }
+    }
+
+    /**
+     * Resources of content, kept apart from content to allow cleaning when content is no longer reachable.
+     */
+    private static class State implements Runnable {
+
+        private final byte[] memory;
+
+        private final int length;
+
+        private final Path file;
+
+        private final FileChannel channel;
+
+        private final long fileLength;
+
+        public State(byte[] memory, int length, Path file, FileChannel channel, long fileLength) {
+            this.memory = memory;
+            this.length = length;
+            this.file = file;
+            this.channel = channel;
+            this.fileLength = fileLength;
+        }
+
+        @Override
+        public void run() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // No action.
+                }
+
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // No action.
+                }
+            }
+        }
+    }
+}
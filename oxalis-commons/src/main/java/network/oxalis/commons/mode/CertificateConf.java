@@ -0,0 +1,106 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.mode;
+
+import network.oxalis.api.settings.DefaultValue;
+import network.oxalis.api.settings.Path;
+import network.oxalis.api.settings.Title;
+
+/**
+ * Settings for caching of certificate validation results and revocation status. Durations are in seconds.
+ *
+ * @since 6.5.1
+ */
+@Title("Certificate validation")
+public enum CertificateConf {
+
+    /**
+     * Maximum number of validation results kept in cache.
+     */
+    @Path("oxalis.certificate.cache.size")
+    @DefaultValue("10000")
+    CACHE_SIZE,
+
+    /**
+     * Time a successful validation is kept in cache, zero to disable caching.
+     */
+    @Path("oxalis.certificate.cache.expire")
+    @DefaultValue("3600")
+    CACHE_EXPIRE,
+
+    /**
+     * Time a failed validation is kept in cache.
+     */
+    @Path("oxalis.certificate.cache.negative")
+    @DefaultValue("30")
+    CACHE_NEGATIVE,
+
+    /**
+     * Interval between logging of cache statistics, zero to disable.
+     */
+    @Path("oxalis.certificate.cache.statistics")
+    @DefaultValue("3600")
+    CACHE_STATISTICS,
+
+    /**
+     * Maximum time between refreshes of a revocation list.
+     */
+    @Path("oxalis.certificate.crl.interval")
+    @DefaultValue("3600")
+    CRL_INTERVAL,
+
+    /**
+     * Time before retrying a failed refresh of a revocation list.
+     */
+    @Path("oxalis.certificate.crl.retry")
+    @DefaultValue("60")
+    CRL_RETRY,
+
+    /**
+     * Time without use before a revocation list is no longer refreshed and is removed.
+     */
+    @Path("oxalis.certificate.crl.idle")
+    @DefaultValue("604800")
+    CRL_IDLE,
+
+    /**
+     * Socket timeout used when refreshing revocation lists in the background.
+     */
+    @Path("oxalis.certificate.crl.timeout")
+    @DefaultValue("60")
+    CRL_TIMEOUT,
+
+    /**
+     * Maximum time an OCSP response is used, further limited by the next update of the response.
+     */
+    @Path("oxalis.certificate.ocsp.expire")
+    @DefaultValue("3600")
+    OCSP_EXPIRE,
+
+    /**
+     * File keeping OCSP responses across restarts, relative to home folder.
+     */
+    @Path("oxalis.certificate.ocsp.file")
+    @DefaultValue("ocsp.cache")
+    OCSP_FILE,
+}
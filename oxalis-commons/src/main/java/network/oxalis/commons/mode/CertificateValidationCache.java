@@ -0,0 +1,306 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.mode;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.settings.Settings;
+import network.oxalis.vefa.peppol.common.code.Service;
+import network.oxalis.vefa.peppol.security.lang.PeppolSecurityException;
+
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of certificate validation results, keyed by certificate fingerprint and {@link Service}.
+ * <p>
+ * Successful validations are kept until the configured time has passed, the certificate expires or the next update
+ * of a revocation list used during validation is due, whichever comes first. Failed validations are kept for a short
+ * time. Results depending on a revocation source are removed when that source is refreshed, and concurrent
+ * validations of the same certificate share one validation.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+@Singleton
+public class CertificateValidationCache {
+
+    private static final ThreadLocal<Observation> OBSERVATION = new ThreadLocal<>();
+
+    private final long expireNanos;
+
+    private final long negativeNanos;
+
+    private final long statisticsNanos;
+
+    private final Cache<Key, Result> cache;
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private volatile long lastStatistics = System.nanoTime();
+
+    @Inject
+    public CertificateValidationCache(Settings<CertificateConf> settings) {
+        this(settings.getInt(CertificateConf.CACHE_SIZE), settings.getInt(CertificateConf.CACHE_EXPIRE),
+                settings.getInt(CertificateConf.CACHE_NEGATIVE), settings.getInt(CertificateConf.CACHE_STATISTICS));
+    }
+
+    CertificateValidationCache(int size, int expire, int negative, int statistics) {
+        this.expireNanos = TimeUnit.SECONDS.toNanos(expire);
+        this.negativeNanos = TimeUnit.SECONDS.toNanos(negative);
+        this.statisticsNanos = TimeUnit.SECONDS.toNanos(statistics);
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(Math.max(expire, negative), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Validates certificate using the given validation unless a valid result is found in cache.
+     *
+     * @return Whether the result was found in cache.
+     */
+    public boolean validate(Service service, X509Certificate certificate, Validation validation)
+            throws PeppolSecurityException {
+        if (expireNanos <= 0) {
+            validation.validate();
+            return false;
+        }
+
+        Key key = new Key(service, certificate);
+
+        try {
+            Result result = cache.asMap().get(key);
+            boolean hit = result != null && !result.isExpired();
+
+            // Result no longer to be used, performs a new validation.
+            if (result != null && !hit)
+                cache.asMap().remove(key, result);
+
+            result = cache.get(key, () -> perform(certificate, validation));
+
+            result.get();
+            return hit;
+        } catch (ExecutionException e) {
+            throw new PeppolSecurityException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            logStatistics();
+        }
+    }
+
+    /**
+     * Registers use of a revocation source during validation performed by the current thread, making the result
+     * expire no later than the next update of the source.
+     */
+    public void observe(String source, Date nextUpdate) {
+        Observation observation = OBSERVATION.get();
+
+        if (observation != null)
+            observation.add(source, nextUpdate);
+    }
+
+    /**
+     * Removes results depending on the given revocation source, to be used when the source is refreshed.
+     */
+    public void invalidate(String source) {
+        if (cache.asMap().values().removeIf(result -> result.sources.contains(source)))
+            invalidations.incrementAndGet();
+    }
+
+    /**
+     * Removes all results.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * Statistics of the cache, including hits, misses and time spent validating.
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Number of validations failing.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Number of times results are removed due to refreshed revocation sources.
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private Result perform(X509Certificate certificate, Validation validation) {
+        Observation observation = new Observation(certificate.getNotAfter());
+        Observation previous = OBSERVATION.get();
+        OBSERVATION.set(observation);
+
+        try {
+            validation.validate();
+            return new Result(null, observation.expires(System.nanoTime() + expireNanos), observation.sources);
+        } catch (PeppolSecurityException e) {
+            failures.incrementAndGet();
+            return new Result(e, System.nanoTime() + negativeNanos, observation.sources);
+        } finally {
+            if (previous == null)
+                OBSERVATION.remove();
+            else
+                OBSERVATION.set(previous);
+        }
+    }
+
+    private void logStatistics() {
+        long now = System.nanoTime();
+        long last = lastStatistics;
+
+        if (statisticsNanos > 0 && now - last > statisticsNanos && log.isInfoEnabled()) {
+            lastStatistics = now;
+
+            CacheStats stats = cache.stats();
+            log.info("Certificate validation cache: {} entries, {} hits, {} misses, {} failed validations, " +
+                            "{} invalidations, {} ms average validation.",
+                    cache.size(), stats.hitCount(), stats.missCount(), failures.get(), invalidations.get(),
+                    TimeUnit.NANOSECONDS.toMillis((long) stats.averageLoadPenalty()));
+        }
+    }
+
+    /**
+     * Validation to be performed when result is not found in cache.
+     */
+    @FunctionalInterface
+    public interface Validation {
+        void validate() throws PeppolSecurityException;
+    }
+
+    /**
+     * Expiry and revocation sources seen during one validation.
+     */
+    private static class Observation {
+
+        private final Set<String> sources = new HashSet<>();
+
+        private Date expires;
+
+        public Observation(Date notAfter) {
+            this.expires = notAfter;
+        }
+
+        public void add(String source, Date nextUpdate) {
+            sources.add(source);
+
+            if (nextUpdate != null && (expires == null || nextUpdate.before(expires)))
+                expires = nextUpdate;
+        }
+
+        public long expires(long maximum) {
+            if (expires == null)
+                return maximum;
+
+            long remaining = TimeUnit.MILLISECONDS.toNanos(expires.getTime() - System.currentTimeMillis());
+            return Math.min(maximum, System.nanoTime() + remaining);
+        }
+    }
+
+    /**
+     * Result of validation, either successful or the cause of failed validation.
+     */
+    private static class Result {
+
+        private final PeppolSecurityException cause;
+
+        private final long expires;
+
+        private final Set<String> sources;
+
+        public Result(PeppolSecurityException cause, long expires, Set<String> sources) {
+            this.cause = cause;
+            this.expires = expires;
+            this.sources = sources;
+        }
+
+        public boolean isExpired() {
+            return System.nanoTime() - expires > 0;
+        }
+
+        public void get() throws PeppolSecurityException {
+            if (cause != null)
+                throw new PeppolSecurityException(cause.getMessage(), cause);
+        }
+    }
+
+    private static class Key {
+
+        private final Service service;
+
+        private final HashCode fingerprint;
+
+        public Key(Service service, X509Certificate certificate) throws PeppolSecurityException {
+            try {
+                this.service = service;
+                this.fingerprint = Hashing.sha256().hashBytes(certificate.getEncoded());
+            } catch (CertificateEncodingException e) {
+                throw new PeppolSecurityException("Unable to read certificate.", e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return service == key.service && fingerprint.equals(key.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(service, fingerprint);
+        }
+    }
+}
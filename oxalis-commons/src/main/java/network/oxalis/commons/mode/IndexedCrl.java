@@ -0,0 +1,263 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.mode;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.Principal;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.cert.CRLException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Revocation list keeping revoked serial numbers in a compact index instead of parsed entries, so revocation checks
+ * are a single lookup. Operations needing the full list parse the encoded list on every use.
+ *
+ * @since 6.5.1
+ */
+class IndexedCrl extends X509CRL {
+
+    private final byte[] encoded;
+
+    private final int version;
+
+    private final Principal issuerDN;
+
+    private final Date thisUpdate;
+
+    private final Date nextUpdate;
+
+    private final SerialIndex index;
+
+    public static IndexedCrl of(X509CRL crl) throws CRLException {
+        return new IndexedCrl(crl);
+    }
+
+    private IndexedCrl(X509CRL crl) throws CRLException {
+        this.encoded = crl.getEncoded();
+        this.version = crl.getVersion();
+        this.issuerDN = crl.getIssuerX500Principal();
+        this.thisUpdate = crl.getThisUpdate();
+        this.nextUpdate = crl.getNextUpdate();
+
+        Set<? extends X509CRLEntry> entries = crl.getRevokedCertificates();
+        BigInteger[] serials = entries == null ? new BigInteger[0] :
+                entries.stream().map(X509CRLEntry::getSerialNumber).toArray(BigInteger[]::new);
+        this.index = SerialIndex.of(serials);
+    }
+
+    /**
+     * Number of revoked certificates.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    public boolean isRevoked(BigInteger serialNumber) {
+        return index.contains(serialNumber);
+    }
+
+    @Override
+    public boolean isRevoked(Certificate cert) {
+        return cert instanceof X509Certificate && isRevoked(((X509Certificate) cert).getSerialNumber());
+    }
+
+    @Override
+    public X509CRLEntry getRevokedCertificate(BigInteger serialNumber) {
+        if (!isRevoked(serialNumber))
+            return null;
+
+        return parse().getRevokedCertificate(serialNumber);
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        return encoded.clone();
+    }
+
+    @Override
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public Principal getIssuerDN() {
+        return issuerDN;
+    }
+
+    @Override
+    public Date getThisUpdate() {
+        return new Date(thisUpdate.getTime());
+    }
+
+    @Override
+    public Date getNextUpdate() {
+        return nextUpdate == null ? null : new Date(nextUpdate.getTime());
+    }
+
+    @Override
+    public void verify(PublicKey key) throws CRLException, NoSuchAlgorithmException, InvalidKeyException,
+            NoSuchProviderException, SignatureException {
+        parse().verify(key);
+    }
+
+    @Override
+    public void verify(PublicKey key, String sigProvider) throws CRLException, NoSuchAlgorithmException,
+            InvalidKeyException, NoSuchProviderException, SignatureException {
+        parse().verify(key, sigProvider);
+    }
+
+    @Override
+    public Set<? extends X509CRLEntry> getRevokedCertificates() {
+        return parse().getRevokedCertificates();
+    }
+
+    @Override
+    public byte[] getTBSCertList() throws CRLException {
+        return parse().getTBSCertList();
+    }
+
+    @Override
+    public byte[] getSignature() {
+        return parse().getSignature();
+    }
+
+    @Override
+    public String getSigAlgName() {
+        return parse().getSigAlgName();
+    }
+
+    @Override
+    public String getSigAlgOID() {
+        return parse().getSigAlgOID();
+    }
+
+    @Override
+    public byte[] getSigAlgParams() {
+        return parse().getSigAlgParams();
+    }
+
+    @Override
+    public boolean hasUnsupportedCriticalExtension() {
+        return parse().hasUnsupportedCriticalExtension();
+    }
+
+    @Override
+    public Set<String> getCriticalExtensionOIDs() {
+        return parse().getCriticalExtensionOIDs();
+    }
+
+    @Override
+    public Set<String> getNonCriticalExtensionOIDs() {
+        return parse().getNonCriticalExtensionOIDs();
+    }
+
+    @Override
+    public byte[] getExtensionValue(String oid) {
+        return parse().getExtensionValue(oid);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IndexedCrl{issuer=%s, thisUpdate=%s, nextUpdate=%s, revoked=%s}",
+                issuerDN, thisUpdate, nextUpdate, index.size());
+    }
+
+    private X509CRL parse() {
+        try {
+            return (X509CRL) CertificateFactory.getInstance("X.509")
+                    .generateCRL(new ByteArrayInputStream(encoded));
+        } catch (CertificateException | CRLException e) {
+            throw new IllegalStateException("Unable to parse revocation list.", e);
+        }
+    }
+
+    /**
+     * Set of serial numbers. Serial numbers fitting in a long are kept in a sorted array, while longer serial
+     * numbers, as used by most issuers, are kept in a hash set.
+     */
+    abstract static class SerialIndex {
+
+        public static SerialIndex of(BigInteger[] serials) {
+            if (Arrays.stream(serials).allMatch(serial -> serial.bitLength() < Long.SIZE))
+                return new LongSerialIndex(serials);
+
+            return new HashSerialIndex(serials);
+        }
+
+        public abstract boolean contains(BigInteger serial);
+
+        public abstract int size();
+    }
+
+    private static class LongSerialIndex extends SerialIndex {
+
+        private final long[] serials;
+
+        public LongSerialIndex(BigInteger[] serials) {
+            this.serials = Arrays.stream(serials).mapToLong(BigInteger::longValue).sorted().toArray();
+        }
+
+        @Override
+        public boolean contains(BigInteger serial) {
+            return serial.bitLength() < Long.SIZE && Arrays.binarySearch(serials, serial.longValue()) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return serials.length;
+        }
+    }
+
+    private static class HashSerialIndex extends SerialIndex {
+
+        private final Set<BigInteger> serials;
+
+        public HashSerialIndex(BigInteger[] serials) {
+            this.serials = new HashSet<>(Arrays.asList(serials));
+        }
+
+        @Override
+        public boolean contains(BigInteger serial) {
+            return serials.contains(serial);
+        }
+
+        @Override
+        public int size() {
+            return serials.size();
+        }
+    }
+}
@@ -26,9 +26,7 @@ import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import lombok.extern.slf4j.Slf4j;
 import network.oxalis.pkix.ocsp.api.OcspFetcher;
-import network.oxalis.commons.certvalidator.api.CrlCache;
 import network.oxalis.commons.certvalidator.api.CrlFetcher;
-import network.oxalis.commons.certvalidator.util.SimpleCrlCache;
 import network.oxalis.api.lang.OxalisLoadingException;
 import network.oxalis.commons.guice.OxalisModule;
 import network.oxalis.vefa.peppol.common.lang.PeppolLoadingException;
@@ -57,8 +55,9 @@ public class ModeModule extends OxalisModule {
 
     @Override
     protected void configure() {
+        bindSettings(CertificateConf.class);
+
         bind(OcspFetcher.class).to(OxalisOcspFetcher.class);
-        bind(CrlCache.class).toInstance(new SimpleCrlCache());
         bind(CrlFetcher.class).to(OxalisCrlFetcher.class);
 
         bind(Mode.class)
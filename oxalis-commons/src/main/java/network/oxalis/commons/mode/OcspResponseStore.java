@@ -0,0 +1,301 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.mode;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OCSP responses kept in memory, and optionally in an append-only file loaded at startup.
+ * <p>
+ * Each record contains issuer key hash, serial number, encoded response and time of expiry. Expired responses are
+ * evicted from memory when read and regularly while responses are stored. The file is compacted when loaded, and
+ * when most records are replaced, keeping only the last record of each certificate not yet expired.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+class OcspResponseStore implements Closeable {
+
+    private static final int VERSION = 1;
+
+    /**
+     * Records written before compaction is considered, and responses stored between evictions.
+     */
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicInteger stored = new AtomicInteger();
+
+    private final Path path;
+
+    private DataOutputStream outputStream;
+
+    /**
+     * Records in file.
+     */
+    private int records;
+
+    /**
+     * Guards writing to the file, without pinning virtual threads while writing.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Creates store kept in memory only.
+     */
+    public OcspResponseStore() {
+        this.path = null;
+    }
+
+    public OcspResponseStore(Path path) throws IOException {
+        this.path = path;
+
+        if (Files.exists(path))
+            read(path);
+
+        compact();
+
+        log.info("Loaded {} OCSP response(s) from '{}'.", entries.size(), path);
+    }
+
+    /**
+     * Returns response stored for certificate, unless expired.
+     */
+    public Entry get(Key key) {
+        Entry entry = entries.get(key);
+
+        if (entry == null)
+            return null;
+
+        if (entry.isExpired()) {
+            entries.remove(key, entry);
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Stores response, writing it to file when persistent.
+     */
+    public void put(Key key, byte[] content, long expires, boolean persistent) throws IOException {
+        Entry entry = new Entry(content, expires, persistent);
+        entries.put(key, entry);
+
+        if (stored.incrementAndGet() % COMPACT_THRESHOLD == 0)
+            entries.values().removeIf(Entry::isExpired);
+
+        if (!persistent || path == null)
+            return;
+
+        lock.lock();
+        try {
+            write(outputStream, key, entry);
+            outputStream.flush();
+            records++;
+
+            if (records > COMPACT_THRESHOLD && records > 2 * entries.size()) {
+                outputStream.close();
+                try {
+                    compact();
+                } catch (IOException e) {
+                    log.warn("Unable to compact '{}'.", path, e);
+                    outputStream = new DataOutputStream(new BufferedOutputStream(
+                            Files.newOutputStream(path, StandardOpenOption.APPEND)));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (path == null)
+            return;
+
+        lock.lock();
+        try {
+            outputStream.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites file keeping only persistent entries not expired, and opens file for appending.
+     */
+    private void compact() throws IOException {
+        entries.values().removeIf(Entry::isExpired);
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        int written = 0;
+        try (DataOutputStream outputStream = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            outputStream.writeInt(VERSION);
+            for (Map.Entry<Key, Entry> entry : entries.entrySet()) {
+                if (entry.getValue().persistent) {
+                    write(outputStream, entry.getKey(), entry.getValue());
+                    written++;
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        records = written;
+
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path, StandardOpenOption.APPEND)));
+    }
+
+    private void read(Path path) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))) {
+            if (inputStream.readInt() != VERSION) {
+                log.warn("Unknown format of '{}', ignoring content.", path);
+                return;
+            }
+
+            while (true) {
+                Key key = new Key(readBytes(inputStream), new BigInteger(readBytes(inputStream)));
+                Entry entry = new Entry(readBytes(inputStream), inputStream.readLong(), true);
+
+                if (entry.isExpired())
+                    entries.remove(key);
+                else
+                    entries.put(key, entry);
+            }
+        } catch (EOFException e) {
+            // End of file, including incomplete last record.
+        } catch (NumberFormatException e) {
+            log.warn("Unable to read all OCSP responses from '{}': {}", path, e.getMessage());
+        }
+    }
+
+    private static void write(DataOutputStream outputStream, Key key, Entry entry) throws IOException {
+        // Written to buffer first to avoid incomplete records in file.
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (DataOutputStream record = new DataOutputStream(byteArrayOutputStream)) {
+            writeBytes(record, key.issuerKeyHash);
+            writeBytes(record, key.serialNumber.toByteArray());
+            writeBytes(record, entry.content);
+            record.writeLong(entry.expires);
+        }
+
+        byteArrayOutputStream.writeTo(outputStream);
+    }
+
+    private static byte[] readBytes(DataInputStream inputStream) throws IOException {
+        byte[] bytes = new byte[inputStream.readInt()];
+        inputStream.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream outputStream, byte[] bytes) throws IOException {
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    /**
+     * Identifies certificate by hash of issuer key and serial number.
+     */
+    static class Key {
+
+        private final byte[] issuerKeyHash;
+
+        private final BigInteger serialNumber;
+
+        public Key(byte[] issuerKeyHash, BigInteger serialNumber) {
+            this.issuerKeyHash = issuerKeyHash;
+            this.serialNumber = serialNumber;
+        }
+
+        public BigInteger getSerialNumber() {
+            return serialNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return Arrays.equals(issuerKeyHash, key.issuerKeyHash) && serialNumber.equals(key.serialNumber);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(issuerKeyHash) + Objects.hashCode(serialNumber);
+        }
+
+        @Override
+        public String toString() {
+            return new BigInteger(1, issuerKeyHash).toString(16) + ":" + serialNumber.toString(16);
+        }
+    }
+
+    static class Entry {
+
+        private final byte[] content;
+
+        private final long expires;
+
+        private final boolean persistent;
+
+        public Entry(byte[] content, long expires, boolean persistent) {
+            this.content = content;
+            this.expires = expires;
+            this.persistent = persistent;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public long getExpires() {
+            return expires;
+        }
+
+        public boolean isExpired() {
+            return expires < System.currentTimeMillis();
+        }
+    }
+}
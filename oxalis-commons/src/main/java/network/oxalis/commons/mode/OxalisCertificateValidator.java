@@ -21,10 +21,21 @@ public class OxalisCertificateValidator implements CertificateValidator {
 
     private Tracer tracer;
 
-    @Inject
+    private CertificateValidationCache cache;
+
     public OxalisCertificateValidator(CertificateValidator certificateValidator, Tracer tracer) {
+        this(certificateValidator, tracer, null);
+    }
+
+    /**
+     * @since 6.5.1
+     */
+    @Inject
+    public OxalisCertificateValidator(CertificateValidator certificateValidator, Tracer tracer,
+                                      CertificateValidationCache cache) {
         this.certificateValidator = certificateValidator;
         this.tracer = tracer;
+        this.cache = cache;
     }
 
     @Override
@@ -45,7 +56,11 @@ public class OxalisCertificateValidator implements CertificateValidator {
             span.setTag("subject", certificate.getSubjectX500Principal().toString());
             span.setTag("issuer", certificate.getIssuerX500Principal().toString());
 
-            this.certificateValidator.validate(service, certificate);
+            if (cache == null)
+                this.certificateValidator.validate(service, certificate);
+            else
+                span.setTag("cache", cache.validate(service, certificate,
+                        () -> this.certificateValidator.validate(service, certificate)) ? "hit" : "miss");
         } finally {
             span.finish();
         }
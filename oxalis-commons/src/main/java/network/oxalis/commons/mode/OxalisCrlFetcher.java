@@ -22,16 +22,21 @@
 
 package network.oxalis.commons.mode;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import io.opentracing.contrib.apache.http.client.Constants;
 import io.opentracing.contrib.spanmanager.DefaultSpanManager;
 import io.opentracing.contrib.spanmanager.SpanManager;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.settings.Settings;
 import network.oxalis.commons.certvalidator.api.CertificateValidationException;
-import network.oxalis.commons.certvalidator.api.CrlCache;
+import network.oxalis.commons.certvalidator.api.CrlFetcher;
+import network.oxalis.commons.certvalidator.rule.CRLRule;
 import network.oxalis.commons.certvalidator.util.CrlUtils;
-import network.oxalis.commons.certvalidator.util.SimpleCachingCrlFetcher;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
@@ -43,8 +48,24 @@ import java.io.IOException;
 import java.net.URI;
 import java.security.cert.CRLException;
 import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * Fetcher of revocation lists keeping every distribution point seen up to date in the background.
+ * <p>
+ * Revocation lists are refreshed before their next update is due, so validating threads only download a list when
+ * it is first seen or when refreshing has failed until the list expired. Lists are kept as {@link IndexedCrl}, making
+ * revocation checks a lookup of the serial number. Distribution points of our own certificate are fetched at startup.
+ *
  * @author erlend
  * @since 4.0.0
  *
@@ -52,23 +73,127 @@ import java.security.cert.X509CRL;
  * @since 5.0.0
  *
  */
+@Slf4j
 @Singleton
-public class OxalisCrlFetcher extends SimpleCachingCrlFetcher {
+public class OxalisCrlFetcher implements CrlFetcher {
 
-    @Inject
-    private Provider<CloseableHttpClient> httpClientProvider;
+    private final Provider<CloseableHttpClient> httpClientProvider;
 
-    @Inject
-    @Named("certificate")
-    private RequestConfig requestConfig;
+    private final RequestConfig requestConfig;
+
+    private final RequestConfig backgroundRequestConfig;
+
+    private final CertificateValidationCache validationCache;
+
+    private final long intervalMillis;
+
+    private final long retryMillis;
+
+    private final long idleMillis;
+
+    private final Map<String, DistributionPoint> distributionPoints = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("oxalis-crl-%d")
+                    .setDaemon(true)
+                    .build());
 
     @Inject
-    public OxalisCrlFetcher(CrlCache crlCache) {
-        super(crlCache);
+    public OxalisCrlFetcher(Provider<CloseableHttpClient> httpClientProvider,
+                            @Named("certificate") RequestConfig requestConfig,
+                            CertificateValidationCache validationCache, Settings<CertificateConf> settings,
+                            X509Certificate certificate) {
+        this(httpClientProvider, requestConfig, validationCache,
+                TimeUnit.SECONDS.toMillis(settings.getInt(CertificateConf.CRL_INTERVAL)),
+                TimeUnit.SECONDS.toMillis(settings.getInt(CertificateConf.CRL_RETRY)),
+                TimeUnit.SECONDS.toMillis(settings.getInt(CertificateConf.CRL_IDLE)),
+                (int) TimeUnit.SECONDS.toMillis(settings.getInt(CertificateConf.CRL_TIMEOUT)));
+
+        prefetch(certificate);
+    }
+
+    OxalisCrlFetcher(Provider<CloseableHttpClient> httpClientProvider, RequestConfig requestConfig,
+                     CertificateValidationCache validationCache, long intervalMillis, long retryMillis,
+                     long idleMillis, int timeoutMillis) {
+        this.httpClientProvider = httpClientProvider;
+        this.requestConfig = requestConfig;
+        this.backgroundRequestConfig = RequestConfig.copy(requestConfig)
+                .setSocketTimeout(timeoutMillis)
+                .build();
+        this.validationCache = validationCache;
+        this.intervalMillis = intervalMillis;
+        this.retryMillis = retryMillis;
+        this.idleMillis = idleMillis;
     }
 
     @Override
-    protected X509CRL httpDownload(String url) throws CertificateValidationException {
+    public X509CRL get(String url) throws CertificateValidationException {
+        if (url == null || !url.matches("http[s]?://.*"))
+            return null;
+
+        DistributionPoint point = distributionPoints.computeIfAbsent(url, DistributionPoint::new);
+        point.used = System.currentTimeMillis();
+
+        IndexedCrl crl = point.crl;
+
+        // Downloads on this thread only when no usable revocation list is available.
+        if (crl == null || isExpired(crl)) {
+            point.lock.lock();
+            try {
+                crl = point.crl;
+                if (crl == null || isExpired(crl)) {
+                    crl = download(point, requestConfig);
+                    point.schedule(delay(crl));
+                }
+            } finally {
+                point.lock.unlock();
+            }
+        }
+
+        validationCache.observe(url, crl.getNextUpdate());
+
+        return crl;
+    }
+
+    /**
+     * Distribution points currently kept up to date.
+     *
+     * @since 6.5.1
+     */
+    public Set<String> getDistributionPoints() {
+        return Collections.unmodifiableSet(distributionPoints.keySet());
+    }
+
+    private void prefetch(X509Certificate certificate) {
+        try {
+            for (String url : CRLRule.getCrlDistributionPoints(certificate))
+                if (url.matches("http[s]?://.*"))
+                    distributionPoints.computeIfAbsent(url, DistributionPoint::new).schedule(0);
+        } catch (CertificateValidationException e) {
+            log.debug("Unable to read distribution points of certificate: {}", e.getMessage());
+        }
+    }
+
+    private void refresh(DistributionPoint point) {
+        if (System.currentTimeMillis() - point.used > idleMillis) {
+            log.info("Revocation list '{}' no longer in use.", point.url);
+            distributionPoints.remove(point.url, point);
+            return;
+        }
+
+        point.lock.lock();
+        try {
+            point.schedule(delay(download(point, backgroundRequestConfig)));
+        } catch (CertificateValidationException e) {
+            log.warn("{}, retrying in {} seconds.", e.getMessage(), TimeUnit.MILLISECONDS.toSeconds(retryMillis));
+            point.schedule(retryMillis);
+        } finally {
+            point.lock.unlock();
+        }
+    }
+
+    private IndexedCrl download(DistributionPoint point, RequestConfig config) throws CertificateValidationException {
         try {
             SpanManager.ManagedSpan span = DefaultSpanManager.getInstance().current();
 
@@ -76,17 +201,79 @@ public class OxalisCrlFetcher extends SimpleCachingCrlFetcher {
             if (span.getSpan() != null)
                 basicHttpContext.setAttribute(Constants.PARENT_CONTEXT, span.getSpan().context());
 
-            HttpGet httpGet = new HttpGet(URI.create(url));
-            httpGet.setConfig(requestConfig);
+            HttpGet httpGet = new HttpGet(URI.create(point.url));
+            httpGet.setConfig(config);
+            // A list not modified is of no use once expired, so an expired list is always downloaded in full.
+            if (point.crl != null && !isExpired(point.crl) && point.lastModified != null)
+                httpGet.setHeader(HttpHeaders.IF_MODIFIED_SINCE, point.lastModified);
+
+            long start = System.currentTimeMillis();
 
             try (CloseableHttpResponse response = httpClientProvider.get().execute(httpGet, basicHttpContext)) {
-                X509CRL crl = CrlUtils.load(response.getEntity().getContent());
-                crlCache.set(url, crl);
+                if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED
+                        && httpGet.containsHeader(HttpHeaders.IF_MODIFIED_SINCE)) {
+                    log.debug("Revocation list '{}' not modified.", point.url);
+                    return point.crl;
+                }
+
+                IndexedCrl crl = IndexedCrl.of(CrlUtils.load(response.getEntity().getContent()));
+                log.info("Fetched revocation list '{}' with {} revoked certificates in {} ms.",
+                        point.url, crl.size(), System.currentTimeMillis() - start);
+
+                point.crl = crl;
+                point.lastModified = response.containsHeader(HttpHeaders.LAST_MODIFIED) ?
+                        response.getFirstHeader(HttpHeaders.LAST_MODIFIED).getValue() : null;
+
+                // Validation results may depend on the previous revocation list.
+                validationCache.invalidate(point.url);
+
                 return crl;
             }
-        } catch (IOException | CRLException e) {
+        } catch (IOException | CRLException | RuntimeException e) {
             throw new CertificateValidationException(
-                    String.format("Failed to download CRL '%s' (%s)", url, e.getMessage()), e);
+                    String.format("Failed to download CRL '%s' (%s)", point.url, e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Time until next refresh, halfway to next update, but no later than the configured interval.
+     */
+    private long delay(X509CRL crl) {
+        long delay = intervalMillis;
+
+        if (crl.getNextUpdate() != null)
+            delay = Math.min(delay, (crl.getNextUpdate().getTime() - System.currentTimeMillis()) / 2);
+
+        return Math.max(delay, retryMillis);
+    }
+
+    private static boolean isExpired(X509CRL crl) {
+        return crl.getNextUpdate() != null && crl.getNextUpdate().getTime() < System.currentTimeMillis();
+    }
+
+    private class DistributionPoint {
+
+        private final String url;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private volatile IndexedCrl crl;
+
+        private volatile String lastModified;
+
+        private volatile long used = System.currentTimeMillis();
+
+        private volatile ScheduledFuture<?> task;
+
+        public DistributionPoint(String url) {
+            this.url = url;
+        }
+
+        public synchronized void schedule(long delayMillis) {
+            if (task != null)
+                task.cancel(false);
+
+            task = scheduler.schedule(() -> refresh(this), delayMillis, TimeUnit.MILLISECONDS);
         }
     }
 }
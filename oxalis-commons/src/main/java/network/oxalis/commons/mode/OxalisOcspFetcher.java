@@ -28,39 +28,171 @@ import com.google.inject.Singleton;
 import io.opentracing.contrib.apache.http.client.Constants;
 import io.opentracing.contrib.spanmanager.DefaultSpanManager;
 import io.opentracing.contrib.spanmanager.SpanManager;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.settings.Settings;
 import network.oxalis.pkix.ocsp.api.OcspFetcher;
 import network.oxalis.pkix.ocsp.api.OcspFetcherResponse;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
 
 import javax.inject.Named;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Fetcher of OCSP responses reusing responses while valid.
+ * <p>
+ * Responses are kept per certificate, identified by issuer key hash and serial number, until their next update or
+ * the configured maximum time, whichever comes first. Concurrent requests for the same certificate share one
+ * request to the responder, and responses with status good are kept in a file for use after restart.
+ *
  * @author erlend
  * @since 4.0.0
  *
  * @author aaron-kumar
  * @since 5.0.0
  */
+@Slf4j
 @Singleton
 public class OxalisOcspFetcher implements OcspFetcher {
 
-    @Inject
-    private Provider<CloseableHttpClient> httpClientProvider;
+    private static final String CONTENT_TYPE = "application/ocsp-response";
+
+    private final Provider<CloseableHttpClient> httpClientProvider;
+
+    private final RequestConfig requestConfig;
+
+    private final CertificateValidationCache validationCache;
+
+    private final long expireMillis;
+
+    private final OcspResponseStore store;
+
+    private final Map<OcspResponseStore.Key, CompletableFuture<Fetched>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
 
     @Inject
-    @Named("certificate")
-    private RequestConfig requestConfig;
+    public OxalisOcspFetcher(Provider<CloseableHttpClient> httpClientProvider,
+                             @Named("certificate") RequestConfig requestConfig,
+                             CertificateValidationCache validationCache, Settings<CertificateConf> settings,
+                             @Named("home") Path homeFolder) {
+        this(httpClientProvider, requestConfig, validationCache,
+                TimeUnit.SECONDS.toMillis(settings.getInt(CertificateConf.OCSP_EXPIRE)),
+                openStore(settings.getPath(CertificateConf.OCSP_FILE, homeFolder)));
+    }
+
+    OxalisOcspFetcher(Provider<CloseableHttpClient> httpClientProvider, RequestConfig requestConfig,
+                      CertificateValidationCache validationCache, long expireMillis, OcspResponseStore store) {
+        this.httpClientProvider = httpClientProvider;
+        this.requestConfig = requestConfig;
+        this.validationCache = validationCache;
+        this.expireMillis = expireMillis;
+        this.store = store;
+    }
 
     @Override
     public OcspFetcherResponse fetch(URI uri, byte[] content) throws IOException {
+        OcspResponseStore.Key key = parseRequest(content);
+
+        // Requests for multiple certificates are not cached.
+        if (key == null)
+            return download(uri, content).toResponse();
+
+        OcspResponseStore.Entry entry = store.get(key);
+        if (entry != null)
+            return hit(uri, key, entry);
+
+        CompletableFuture<Fetched> future = new CompletableFuture<>();
+        CompletableFuture<Fetched> existing = inFlight.putIfAbsent(key, future);
+
+        // Waits for request to responder already in progress.
+        if (existing != null) {
+            Fetched fetched = await(existing);
+            if (fetched.expires > 0)
+                validationCache.observe(source(uri, key), new Date(fetched.expires));
+            return fetched.toResponse();
+        }
+
+        try {
+            // Response may have been stored since first checked.
+            entry = store.get(key);
+            if (entry != null) {
+                future.complete(new Fetched(HttpStatus.SC_OK, CONTENT_TYPE, entry.getContent(), entry.getExpires()));
+                return hit(uri, key, entry);
+            }
+
+            misses.incrementAndGet();
+            tag("miss");
+
+            Fetched fetched = download(uri, content);
+            future.complete(new Fetched(fetched.status, fetched.contentType, fetched.content,
+                    cache(uri, key, fetched)));
+            return fetched.toResponse();
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Number of requests answered using a kept response.
+     *
+     * @since 6.5.1
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of requests sent to responder.
+     *
+     * @since 6.5.1
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private OcspFetcherResponse hit(URI uri, OcspResponseStore.Key key, OcspResponseStore.Entry entry) {
+        hits.incrementAndGet();
+        tag("hit");
+
+        validationCache.observe(source(uri, key), new Date(entry.getExpires()));
+
+        return new Fetched(HttpStatus.SC_OK, CONTENT_TYPE, entry.getContent()).toResponse();
+    }
+
+    private Fetched download(URI uri, byte[] content) throws IOException {
         SpanManager.ManagedSpan span = DefaultSpanManager.getInstance().current();
 
         BasicHttpContext basicHttpContext = new BasicHttpContext();
@@ -69,40 +201,160 @@ public class OxalisOcspFetcher implements OcspFetcher {
 
         HttpPost httpPost = new HttpPost(uri);
         httpPost.setHeader("Content-Type", "application/ocsp-request");
-        httpPost.setHeader("Accept", "application/ocsp-response");
+        httpPost.setHeader("Accept", CONTENT_TYPE);
         httpPost.setEntity(new ByteArrayEntity(content));
         httpPost.setConfig(requestConfig);
 
-        return new ApacheOcspFetcherResponse(httpClientProvider.get().execute(httpPost, basicHttpContext));
+        try (CloseableHttpResponse response = httpClientProvider.get().execute(httpPost, basicHttpContext)) {
+            return new Fetched(response.getStatusLine().getStatusCode(),
+                    response.containsHeader(HttpHeaders.CONTENT_TYPE) ?
+                            response.getFirstHeader(HttpHeaders.CONTENT_TYPE).getValue() : null,
+                    response.getEntity() == null ? new byte[0] : EntityUtils.toByteArray(response.getEntity()));
+        }
     }
 
-    private class ApacheOcspFetcherResponse implements OcspFetcherResponse {
+    /**
+     * Keeps response when successful, and the certificate is either good or revoked. Only good responses are
+     * written to file. Returns time of expiry of the response kept, or zero when not kept.
+     */
+    private long cache(URI uri, OcspResponseStore.Key key, Fetched fetched) {
+        if (fetched.status != HttpStatus.SC_OK)
+            return 0;
+
+        try {
+            OCSPResp ocspResp = new OCSPResp(fetched.content);
+            if (ocspResp.getStatus() != OCSPResp.SUCCESSFUL || !(ocspResp.getResponseObject() instanceof BasicOCSPResp))
+                return 0;
+
+            for (SingleResp singleResp : ((BasicOCSPResp) ocspResp.getResponseObject()).getResponses()) {
+                if (!singleResp.getCertID().getSerialNumber().equals(key.getSerialNumber()))
+                    continue;
+
+                CertificateStatus status = singleResp.getCertStatus();
+                boolean good = status == CertificateStatus.GOOD;
+                if (!good && !(status instanceof RevokedStatus))
+                    return 0;
 
-        private CloseableHttpResponse response;
+                long expires = System.currentTimeMillis() + expireMillis;
+                if (singleResp.getNextUpdate() != null)
+                    expires = Math.min(expires, singleResp.getNextUpdate().getTime());
+                if (expires <= System.currentTimeMillis())
+                    return 0;
 
-        public ApacheOcspFetcherResponse(CloseableHttpResponse response) {
-            this.response = response;
+                // Validation results may depend on the previous response.
+                validationCache.invalidate(source(uri, key));
+                validationCache.observe(source(uri, key), new Date(expires));
+
+                store.put(key, fetched.content, expires, good);
+                return expires;
+            }
+        } catch (IOException | OCSPException e) {
+            log.debug("Unable to keep OCSP response from '{}': {}", uri, e.getMessage());
         }
 
-        @Override
-        public int getStatus() {
-            return response.getStatusLine().getStatusCode();
+        return 0;
+    }
+
+    private static Fetched await(CompletableFuture<Fetched> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+
+            throw new IOException(e.getCause().getMessage(), e.getCause());
         }
+    }
+
+    /**
+     * Identifies the certificate requested, or returns null when not exactly one certificate is requested.
+     */
+    private static OcspResponseStore.Key parseRequest(byte[] content) {
+        try {
+            Req[] requests = new OCSPReq(content).getRequestList();
+            if (requests.length != 1)
+                return null;
 
-        @Override
-        public String getContentType() {
-            return response.getFirstHeader("Content-Type").getValue();
+            CertificateID certificateID = requests[0].getCertID();
+            return new OcspResponseStore.Key(certificateID.getIssuerKeyHash(), certificateID.getSerialNumber());
+        } catch (IOException | RuntimeException e) {
+            log.debug("Unable to parse OCSP request: {}", e.getMessage());
+            return null;
         }
+    }
+
+    private static String source(URI uri, OcspResponseStore.Key key) {
+        return uri + "#" + key;
+    }
 
-        @Override
-        public InputStream getContent() throws IOException {
-            return response.getEntity().getContent();
+    private static void tag(String value) {
+        SpanManager.ManagedSpan span = DefaultSpanManager.getInstance().current();
+        if (span.getSpan() != null)
+            span.getSpan().setTag("ocsp cache", value);
+    }
+
+    private static OcspResponseStore openStore(Path path) {
+        if (path == null)
+            return new OcspResponseStore();
+
+        try {
+            return new OcspResponseStore(path);
+        } catch (IOException e) {
+            log.warn("Unable to use '{}' for OCSP responses, keeping responses in memory only: {}",
+                    path, e.getMessage());
+            return new OcspResponseStore();
         }
+    }
+
+    /**
+     * Response from responder, read in full.
+     */
+    private static class Fetched {
+
+        private final int status;
+
+        private final String contentType;
+
+        private final byte[] content;
+
+        /**
+         * Time of expiry when response is kept, otherwise zero.
+         */
+        private final long expires;
+
+        public Fetched(int status, String contentType, byte[] content) {
+            this(status, contentType, content, 0);
+        }
+
+        public Fetched(int status, String contentType, byte[] content, long expires) {
+            this.status = status;
+            this.contentType = contentType;
+            this.content = content;
+            this.expires = expires;
+        }
+
+        public OcspFetcherResponse toResponse() {
+            return new OcspFetcherResponse() {
+                @Override
+                public int getStatus() {
+                    return status;
+                }
+
+                @Override
+                public String getContentType() {
+                    return contentType;
+                }
+
+                @Override
+                public InputStream getContent() {
+                    return new ByteArrayInputStream(content);
+                }
 
-        @Override
-        public void close() throws IOException {
-            response.close();
-            response = null;
+                @Override
+                public void close() {
+                    // No action.
+                }
+            };
         }
     }
 }
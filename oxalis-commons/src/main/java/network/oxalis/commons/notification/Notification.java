@@ -0,0 +1,48 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.notification;
+
+/**
+ * Notification waiting for delivery, identified by its position in the journal.
+ *
+ * @since 6.5.1
+ */
+class Notification {
+
+    private final long sequence;
+
+    private final String content;
+
+    Notification(long sequence, String content) {
+        this.sequence = sequence;
+        this.content = content;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getContent() {
+        return content;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.notification;
+
+import network.oxalis.api.settings.DefaultValue;
+import network.oxalis.api.settings.Path;
+import network.oxalis.api.settings.Title;
+
+/**
+ * @since 6.5.1
+ */
+@Title("Notification")
+public enum NotificationConf {
+
+    /**
+     * Endpoint receiving notifications as a JSON array using HTTP POST.
+     */
+    @Path("oxalis.notification.url")
+    @DefaultValue("http://localhost:42069/notification/incoming")
+    URL,
+
+    /**
+     * Maximum number of notifications kept in memory waiting for delivery.
+     */
+    @Path("oxalis.notification.queue")
+    @DefaultValue("10000")
+    QUEUE,
+
+    @Path("oxalis.notification.workers")
+    @DefaultValue("2")
+    WORKERS,
+
+    /**
+     * Maximum number of notifications delivered in one request.
+     */
+    @Path("oxalis.notification.batch")
+    @DefaultValue("50")
+    BATCH,
+
+    @Path("oxalis.notification.retries")
+    @DefaultValue("5")
+    RETRIES,
+
+    /**
+     * Initial delay in milliseconds before retrying, doubled for each attempt.
+     */
+    @Path("oxalis.notification.backoff")
+    @DefaultValue("500")
+    BACKOFF,
+
+    /**
+     * Timeout in milliseconds used for connect and read.
+     */
+    @Path("oxalis.notification.timeout")
+    @DefaultValue("10000")
+    TIMEOUT,
+
+    /**
+     * Journal keeping notifications not yet delivered, relative to home folder.
+     */
+    @Path("oxalis.notification.journal")
+    @DefaultValue("notification.journal")
+    JOURNAL,
+
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.notification;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.settings.Settings;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * Delivers notifications asynchronously to a configured HTTP endpoint.
+ * <p>
+ * Notifications are written to a journal before being queued in memory, and are removed from the journal only
+ * when delivered. Workers deliver queued notifications in batches as a JSON array, retrying with increasing
+ * delay. Notifications not fitting in the queue, or not delivered after all retries, are left in the journal and
+ * picked up again later, also after a restart. Notifications which could not be written to the journal are kept
+ * in memory until delivered.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+@Singleton
+public class NotificationDispatcher {
+
+    private final URI uri;
+
+    private final CloseableHttpClient httpClient;
+
+    private final RequestConfig requestConfig;
+
+    private final NotificationJournal journal;
+
+    private final BlockingQueue<Notification> queue;
+
+    /**
+     * Notifications currently queued or being delivered.
+     */
+    private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Notifications not written to the journal, identified by negative sequence numbers.
+     */
+    private final Map<Long, Notification> unjournaled = new ConcurrentHashMap<>();
+
+    private final AtomicLong unjournaledSequence = new AtomicLong();
+
+    /**
+     * Shared by dispatching threads, exclusive while sweeping, so a notification written to the journal is
+     * queued by either the dispatching thread or the sweep.
+     */
+    private final ReadWriteLock sweepLock = new ReentrantReadWriteLock();
+
+    private final AtomicBoolean spilled = new AtomicBoolean();
+
+    private final ExecutorService executorService;
+
+    private final int batch;
+
+    private final int retries;
+
+    private final long backoff;
+
+    private volatile long lastSweep;
+
+    @Inject
+    public NotificationDispatcher(Settings<NotificationConf> settings, @Named("home") Path homeFolder,
+                                  Provider<CloseableHttpClient> httpClientProvider) throws IOException {
+        this(URI.create(settings.getString(NotificationConf.URL)), httpClientProvider.get(),
+                settings.getPath(NotificationConf.JOURNAL, homeFolder), settings.getInt(NotificationConf.QUEUE),
+                settings.getInt(NotificationConf.WORKERS), settings.getInt(NotificationConf.BATCH),
+                settings.getInt(NotificationConf.RETRIES), settings.getInt(NotificationConf.BACKOFF),
+                settings.getInt(NotificationConf.TIMEOUT));
+    }
+
+    NotificationDispatcher(URI uri, CloseableHttpClient httpClient, Path journalPath, int queueSize, int workers,
+                           int batch, int retries, int backoff, int timeout) throws IOException {
+        this.uri = uri;
+        this.httpClient = httpClient;
+        this.journal = new NotificationJournal(journalPath);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batch = batch;
+        this.retries = retries;
+        this.backoff = backoff;
+
+        this.requestConfig = RequestConfig.custom()
+                .setConnectTimeout(timeout)
+                .setConnectionRequestTimeout(timeout)
+                .setSocketTimeout(timeout)
+                .build();
+
+        // Notifications not delivered before last shutdown
+        journal.pending().forEach(this::enqueue);
+
+        this.executorService = Executors.newFixedThreadPool(workers, new ThreadFactoryBuilder()
+                .setNameFormat("oxalis-notification-%d")
+                .setDaemon(true)
+                .build());
+        for (int i = 0; i < workers; i++)
+            executorService.submit(this::work);
+        executorService.shutdown();
+    }
+
+    /**
+     * Schedules delivery of notification. Returns as soon as the notification is written to the journal.
+     *
+     * @param content JSON object, must not contain line breaks.
+     */
+    public void dispatch(String content) {
+        Lock lock = sweepLock.readLock();
+        lock.lock();
+        try {
+            Notification notification;
+            try {
+                notification = journal.append(content);
+            } catch (IOException e) {
+                log.error("Unable to write notification to journal, notification is kept in memory only.", e);
+                notification = new Notification(unjournaledSequence.decrementAndGet(), content);
+                unjournaled.put(notification.getSequence(), notification);
+            }
+
+            enqueue(notification);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Notifications in journal not yet delivered.
+     */
+    List<Notification> pending() throws IOException {
+        return journal.pending();
+    }
+
+    /**
+     * Stops workers, leaving notifications not yet delivered in the journal.
+     */
+    void stop() throws InterruptedException {
+        executorService.shutdownNow();
+        executorService.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private void enqueue(Notification notification) {
+        queued.add(notification.getSequence());
+
+        if (!queue.offer(notification)) {
+            queued.remove(notification.getSequence());
+            spilled.set(true);
+            log.warn("Notification queue is full, notification is kept in journal for later delivery.");
+        }
+    }
+
+    private void work() {
+        List<Notification> notifications = new ArrayList<>(batch);
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Notification notification = queue.poll(1, TimeUnit.SECONDS);
+
+                if (notification == null) {
+                    sweep();
+                    continue;
+                }
+
+                notifications.clear();
+                notifications.add(notification);
+                queue.drainTo(notifications, batch - 1);
+
+                try {
+                    if (deliver(notifications)) {
+                        notifications.forEach(n -> unjournaled.remove(n.getSequence()));
+                        journal.acknowledge(notifications);
+                    } else {
+                        spilled.set(true);
+                    }
+                } finally {
+                    notifications.forEach(n -> queued.remove(n.getSequence()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("Unexpected error during delivery of notifications.", e);
+            }
+        }
+    }
+
+    /**
+     * Queues notifications found in journal, or kept in memory only, which are not queued, at most once per full
+     * backoff period.
+     */
+    private void sweep() throws IOException {
+        if (System.currentTimeMillis() - lastSweep < backoff << retries || !spilled.compareAndSet(true, false))
+            return;
+
+        lastSweep = System.currentTimeMillis();
+
+        Lock lock = sweepLock.writeLock();
+        lock.lock();
+        try {
+            List<Notification> notifications = journal.pending();
+            notifications.addAll(unjournaled.values());
+
+            for (Notification notification : notifications)
+                if (!queued.contains(notification.getSequence()))
+                    enqueue(notification);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean deliver(List<Notification> notifications) throws InterruptedException {
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            if (attempt > 0)
+                Thread.sleep(backoff << (attempt - 1));
+
+            try {
+                post(notifications);
+                return true;
+            } catch (IOException e) {
+                log.warn("Unable to send {} notification(s) to {} (attempt {}): {}",
+                        notifications.size(), uri, attempt + 1, e.getMessage());
+            }
+        }
+
+        log.error("Unable to send {} notification(s) to {}, keeping notification(s) in journal.",
+                notifications.size(), uri);
+        return false;
+    }
+
+    private void post(List<Notification> notifications) throws IOException {
+        String content = notifications.stream()
+                .map(Notification::getContent)
+                .collect(Collectors.joining(",", "[", "]"));
+
+        HttpPost httpPost = new HttpPost(uri);
+        httpPost.setConfig(requestConfig);
+        httpPost.setEntity(new StringEntity(content, ContentType.APPLICATION_JSON));
+
+        try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
+            EntityUtils.consume(response.getEntity());
+
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode < 200 || statusCode >= 300)
+                throw new IOException(String.format("Received status code %s.", statusCode));
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.notification;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only journal of notifications not yet delivered. A line is written for each notification when queued,
+ * and a line acknowledging the notification is written when delivered. The journal is compacted when loaded and
+ * whenever most of its lines are obsolete, and truncated whenever no notifications are pending.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+class NotificationJournal {
+
+    private static final char ENTRY = '+';
+
+    private static final char ACKNOWLEDGEMENT = '-';
+
+    /**
+     * Lines written before compaction is considered.
+     */
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final Path path;
+
+    private final Set<Long> pending = new HashSet<>();
+
+    /**
+     * Guards the journal. Used rather than synchronized methods, as file operations while holding a monitor pin
+     * virtual threads to their carrier thread.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    private Writer writer;
+
+    private long sequence;
+
+    /**
+     * Lines in journal file.
+     */
+    private int lines;
+
+    NotificationJournal(Path path) throws IOException {
+        this.path = path;
+
+        if (path.getParent() != null)
+            Files.createDirectories(path.getParent());
+
+        List<Notification> notifications = compact();
+        for (Notification notification : notifications) {
+            pending.add(notification.getSequence());
+            sequence = Math.max(sequence, notification.getSequence());
+        }
+
+        if (!notifications.isEmpty())
+            log.info("Found {} notification(s) not delivered in journal '{}'.", notifications.size(), path);
+    }
+
+    /**
+     * Writes notification to journal.
+     *
+     * @param content Content of notification, must not contain line breaks.
+     * @return Notification identified by position in journal.
+     */
+    public Notification append(String content) throws IOException {
+        lock.lock();
+        try {
+            Notification notification = new Notification(++sequence, content);
+
+            writeEntry(writer, notification);
+            writer.flush();
+            lines++;
+            pending.add(notification.getSequence());
+
+            return notification;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void acknowledge(Collection<Notification> notifications) throws IOException {
+        lock.lock();
+        try {
+            for (Notification notification : notifications) {
+                if (pending.remove(notification.getSequence())) {
+                    writer.write(ACKNOWLEDGEMENT + Long.toString(notification.getSequence()) + '\n');
+                    lines++;
+                }
+            }
+
+            writer.flush();
+
+            if (pending.isEmpty()) {
+                // Nothing left to keep track of.
+                writer.close();
+                writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING);
+                lines = 0;
+            } else if (lines > COMPACT_THRESHOLD && lines > 4 * pending.size()) {
+                // Mostly entries delivered and their acknowledgements.
+                writer.close();
+                try {
+                    compact();
+                } catch (IOException e) {
+                    log.warn("Unable to compact notification journal '{}'.", path, e);
+                    writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Notifications not acknowledged, in order of appearance.
+     */
+    public List<Notification> pending() throws IOException {
+        lock.lock();
+        try {
+            writer.flush();
+            return read();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites journal keeping only notifications not acknowledged, and opens journal for writing.
+     */
+    private List<Notification> compact() throws IOException {
+        List<Notification> notifications = read();
+
+        Path compacted = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer w = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+            for (Notification notification : notifications)
+                writeEntry(w, notification);
+        }
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING);
+
+        writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        lines = notifications.size();
+
+        return notifications;
+    }
+
+    private List<Notification> read() throws IOException {
+        Map<Long, String> notifications = new LinkedHashMap<>();
+
+        if (Files.exists(path)) {
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty())
+                        continue;
+
+                    try {
+                        if (line.charAt(0) == ENTRY) {
+                            int index = line.indexOf(' ');
+                            notifications.put(Long.parseLong(line.substring(1, index)), line.substring(index + 1));
+                        } else if (line.charAt(0) == ACKNOWLEDGEMENT) {
+                            notifications.remove(Long.parseLong(line.substring(1)));
+                        }
+                    } catch (RuntimeException e) {
+                        // Typically an incomplete line written during a crash.
+                        log.warn("Ignoring invalid line in notification journal '{}'.", path);
+                    }
+                }
+            }
+        }
+
+        List<Notification> result = new ArrayList<>();
+        notifications.forEach((sequence, content) -> result.add(new Notification(sequence, content)));
+        return result;
+    }
+
+    private static void writeEntry(Writer writer, Notification notification) throws IOException {
+        writer.write(ENTRY + Long.toString(notification.getSequence()) + ' ' + notification.getContent() + '\n');
+    }
+}
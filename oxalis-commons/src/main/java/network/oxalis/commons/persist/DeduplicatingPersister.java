@@ -0,0 +1,206 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.persist;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.Striped;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.inbound.InboundMetadata;
+import network.oxalis.api.model.TransmissionIdentifier;
+import network.oxalis.api.persist.PersisterHandler;
+import network.oxalis.api.settings.Settings;
+import network.oxalis.api.util.Type;
+import network.oxalis.vefa.peppol.common.model.Digest;
+import network.oxalis.vefa.peppol.common.model.Header;
+
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Persister recognizing messages received before, using the default persister handler for new messages.
+ * <p>
+ * When a message is completely received, its sender, Message-ID and the digest of its content are added to an
+ * index pointing to the persisted payload. A retransmission of a received message, or a message with content
+ * already received, returns the payload already persisted instead of persisting the content again, and a
+ * retransmission does not persist another receipt. A message reusing a Message-ID with other content is not a
+ * retransmission and is persisted as a new message. Messages received without digest are never deduplicated.
+ * <p>
+ * The index keeps the hash of each key in memory and in an append-only file, see {@link DeduplicationIndex}. Keys
+ * older than the configured retention are forgotten.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+@Singleton
+@Type("dedup")
+public class DeduplicatingPersister implements PersisterHandler {
+
+    private static final String INDEX = "index";
+
+    private final PersisterHandler persisterHandler;
+
+    private final DeduplicationIndex index;
+
+    private final Striped<Lock> locks = Striped.lock(64);
+
+    /**
+     * Payloads of earlier messages currently returned for a message being received, counted once per message
+     * as concurrent retransmissions may share the same payload.
+     */
+    private final Multiset<Path> shared = ConcurrentHashMultiset.create();
+
+    @Inject
+    public DeduplicatingPersister(Settings<DeduplicationConf> settings, @Named("inbound") Path inboundFolder,
+                                  @Named("default") PersisterHandler persisterHandler) throws IOException {
+        this(persisterHandler, settings.getPath(DeduplicationConf.PATH, inboundFolder),
+                TimeUnit.DAYS.toMillis(settings.getInt(DeduplicationConf.RETENTION)));
+    }
+
+    DeduplicatingPersister(PersisterHandler persisterHandler, Path indexFolder, long retentionMillis)
+            throws IOException {
+        this.persisterHandler = persisterHandler;
+
+        Files.createDirectories(indexFolder);
+        this.index = new DeduplicationIndex(indexFolder.resolve(INDEX), retentionMillis);
+    }
+
+    @Override
+    public Path persist(TransmissionIdentifier transmissionIdentifier, Header header, InputStream inputStream)
+            throws IOException {
+        return persist(transmissionIdentifier, header, inputStream, null);
+    }
+
+    @Override
+    public Path persist(TransmissionIdentifier transmissionIdentifier, Header header, InputStream inputStream,
+                        Digest digest) throws IOException {
+        if (digest == null)
+            return persisterHandler.persist(transmissionIdentifier, header, inputStream, null);
+
+        Path path = lookup(messageKey(transmissionIdentifier, header, digest));
+        if (path != null) {
+            log.info("Message '{}' is already received, using payload '{}'.", transmissionIdentifier, path);
+        } else if ((path = lookup(digestKey(digest))) != null) {
+            log.info("Content of message '{}' is already received, using payload '{}'.", transmissionIdentifier, path);
+        } else {
+            return persisterHandler.persist(transmissionIdentifier, header, inputStream, digest);
+        }
+
+        shared.add(path);
+        return path;
+    }
+
+    @Override
+    public void persist(InboundMetadata inboundMetadata, Path payloadPath) throws IOException {
+        shared.remove(payloadPath);
+
+        if (inboundMetadata.getDigest() == null) {
+            persisterHandler.persist(inboundMetadata, payloadPath);
+            return;
+        }
+
+        HashCode messageKey = messageKey(inboundMetadata.getTransmissionIdentifier(), inboundMetadata.getHeader(),
+                inboundMetadata.getDigest());
+
+        Lock lock = locks.get(messageKey);
+        lock.lock();
+        try {
+            if (lookup(messageKey) != null) {
+                log.info("Receipt of message '{}' is already persisted.", inboundMetadata.getTransmissionIdentifier());
+                return;
+            }
+
+            persisterHandler.persist(inboundMetadata, payloadPath);
+
+            if (payloadPath.getFileSystem() != FileSystems.getDefault()) {
+                log.debug("Payload '{}' is not in the default file system, not indexed.", payloadPath);
+                return;
+            }
+
+            String payload = payloadPath.toAbsolutePath().toString();
+            index.put(digestKey(inboundMetadata.getDigest()), payload);
+            index.put(messageKey, payload);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void persist(TransmissionIdentifier transmissionIdentifier, Header header,
+                        Path payloadPath, Exception exception) {
+        if (payloadPath != null && shared.remove(payloadPath)) {
+            log.warn("Transmission '{}' failed duo to {}.", transmissionIdentifier, exception.getMessage());
+            return;
+        }
+
+        persisterHandler.persist(transmissionIdentifier, header, payloadPath, exception);
+    }
+
+    /**
+     * Returns payload indexed for the given key, or {@code null} if the key is not indexed or the payload is
+     * removed.
+     */
+    private Path lookup(HashCode key) {
+        String payload = index.get(key);
+        if (payload == null)
+            return null;
+
+        Path path = FileSystems.getDefault().getPath(payload);
+        if (Files.exists(path))
+            return path;
+
+        log.debug("Payload '{}' indexed is removed.", path);
+        index.remove(key);
+
+        return null;
+    }
+
+    private static HashCode messageKey(TransmissionIdentifier transmissionIdentifier, Header header, Digest digest) {
+        String sender = header == null || header.getSender() == null ? "" : header.getSender().toString();
+        return hash("message:" + sender + ":" + transmissionIdentifier.getIdentifier() + ":" + encode(digest));
+    }
+
+    private static HashCode digestKey(Digest digest) {
+        return hash("digest:" + encode(digest));
+    }
+
+    private static String encode(Digest digest) {
+        return digest.getMethod().name() + ":" + BaseEncoding.base16().encode(digest.getValue());
+    }
+
+    private static HashCode hash(String value) {
+        return Hashing.sha256().hashString(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.persist;
+
+import network.oxalis.api.settings.DefaultValue;
+import network.oxalis.api.settings.Path;
+import network.oxalis.api.settings.Title;
+
+/**
+ * @since 6.5.1
+ */
+@Title("Deduplicating persister")
+public enum DeduplicationConf {
+
+    /**
+     * Folder holding index of received messages and content, relative to inbound folder.
+     */
+    @Path("oxalis.persister.dedup.path")
+    @DefaultValue("dedup")
+    PATH,
+
+    /**
+     * Number of days received messages are recognized, after which their keys are dropped from the index.
+     */
+    @Path("oxalis.persister.dedup.retention")
+    @DefaultValue("30")
+    RETENTION,
+
+}
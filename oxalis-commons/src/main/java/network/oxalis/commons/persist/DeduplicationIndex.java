@@ -0,0 +1,234 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package network.oxalis.commons.persist;
+
+import com.google.common.hash.HashCode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Index of received messages kept in memory and in an append-only file loaded at startup.
+ * <p>
+ * Each record contains the hash of a key, the path of the payload and the time of indexing. Keys older than the
+ * retention are evicted from memory regularly while keys are added, and are not loaded at startup. The file is
+ * compacted when loaded, and when most records are evicted or replaced, keeping only the last record of each key
+ * still retained.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+class DeduplicationIndex implements Closeable {
+
+    private static final int VERSION = 1;
+
+    /**
+     * Records written before compaction is considered, and keys added between evictions.
+     */
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final Map<HashCode, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicInteger added = new AtomicInteger();
+
+    private final Path path;
+
+    private final long retentionMillis;
+
+    private DataOutputStream outputStream;
+
+    /**
+     * Records in file.
+     */
+    private int records;
+
+    /**
+     * Guards writing to the file, without pinning virtual threads while writing.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    public DeduplicationIndex(Path path, long retentionMillis) throws IOException {
+        this.path = path;
+        this.retentionMillis = retentionMillis;
+
+        if (Files.exists(path))
+            read(path);
+
+        compact();
+
+        log.info("Loaded index of {} key(s) of received messages from '{}'.", entries.size(), path);
+    }
+
+    /**
+     * Returns path of payload indexed for key, unless no longer retained.
+     */
+    public String get(HashCode key) {
+        Entry entry = entries.get(key);
+
+        if (entry == null)
+            return null;
+
+        if (isExpired(entry)) {
+            entries.remove(key, entry);
+            return null;
+        }
+
+        return entry.payload;
+    }
+
+    /**
+     * Forgets key, to be used when the payload indexed is removed.
+     */
+    public void remove(HashCode key) {
+        entries.remove(key);
+    }
+
+    public void put(HashCode key, String payload) throws IOException {
+        Entry entry = new Entry(payload, System.currentTimeMillis());
+
+        lock.lock();
+        try {
+            write(outputStream, key, entry);
+            outputStream.flush();
+            records++;
+
+            entries.put(key, entry);
+
+            if (added.incrementAndGet() % COMPACT_THRESHOLD == 0)
+                entries.values().removeIf(this::isExpired);
+
+            if (records > COMPACT_THRESHOLD && records > 2 * entries.size()) {
+                outputStream.close();
+                try {
+                    compact();
+                } catch (IOException e) {
+                    log.warn("Unable to compact '{}'.", path, e);
+                    outputStream = new DataOutputStream(new BufferedOutputStream(
+                            Files.newOutputStream(path, StandardOpenOption.APPEND)));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            outputStream.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites file keeping only keys still retained, and opens file for appending.
+     */
+    private void compact() throws IOException {
+        entries.values().removeIf(this::isExpired);
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream outputStream = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            outputStream.writeInt(VERSION);
+            for (Map.Entry<HashCode, Entry> entry : entries.entrySet())
+                write(outputStream, entry.getKey(), entry.getValue());
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        records = entries.size();
+
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path, StandardOpenOption.APPEND)));
+    }
+
+    private void read(Path path) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))) {
+            if (inputStream.readInt() != VERSION) {
+                log.warn("Unknown format of '{}', ignoring content.", path);
+                return;
+            }
+
+            while (true) {
+                byte[] key = new byte[inputStream.readInt()];
+                inputStream.readFully(key);
+                Entry entry = new Entry(inputStream.readUTF(), inputStream.readLong());
+
+                if (isExpired(entry))
+                    entries.remove(HashCode.fromBytes(key));
+                else
+                    entries.put(HashCode.fromBytes(key), entry);
+            }
+        } catch (EOFException e) {
+            // End of file, including incomplete last record.
+        } catch (IllegalArgumentException e) {
+            log.warn("Unable to read all keys from '{}': {}", path, e.getMessage());
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return entry.indexed + retentionMillis < System.currentTimeMillis();
+    }
+
+    private static void write(DataOutputStream outputStream, HashCode key, Entry entry) throws IOException {
+        // Written to buffer first to avoid incomplete records in file.
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (DataOutputStream record = new DataOutputStream(byteArrayOutputStream)) {
+            byte[] bytes = key.asBytes();
+            record.writeInt(bytes.length);
+            record.write(bytes);
+            record.writeUTF(entry.payload);
+            record.writeLong(entry.indexed);
+        }
+
+        byteArrayOutputStream.writeTo(outputStream);
+    }
+
+    private static class Entry {
+
+        private final String payload;
+
+        private final long indexed;
+
+        public Entry(String payload, long indexed) {
+            this.payload = payload;
+            this.indexed = indexed;
+        }
+    }
+}
@@ -32,7 +32,9 @@ import network.oxalis.api.lang.EvidenceException;
 import network.oxalis.api.model.TransmissionIdentifier;
 import network.oxalis.api.persist.PersisterHandler;
 import network.oxalis.api.util.Type;
+import network.oxalis.commons.evidence.EvidenceQueue;
 import network.oxalis.commons.filesystem.FileUtils;
+import network.oxalis.commons.notification.NotificationDispatcher;
 import network.oxalis.commons.security.CertificateUtils;
 import network.oxalis.vefa.peppol.common.model.Header;
 
@@ -40,9 +42,6 @@ import javax.inject.Singleton;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.cert.X509Certificate;
@@ -58,16 +57,24 @@ import java.time.format.DateTimeFormatter;
 @Type("default")
 public class DefaultPersister implements PersisterHandler {
 
-    private static final String NOTIFICATION_URL = "http://localhost:42069/notification/incoming";
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSX").withZone(ZoneOffset.UTC);
 
     private final EvidenceFactory evidenceFactory;
 
+    private final NotificationDispatcher notificationDispatcher;
+
+    private final EvidenceQueue evidenceQueue;
+
     private final Path inboundFolder;
 
     @Inject
-    public DefaultPersister(@Named("inbound") Path inboundFolder, EvidenceFactory evidenceFactory) {
+    public DefaultPersister(@Named("inbound") Path inboundFolder, EvidenceFactory evidenceFactory,
+                            NotificationDispatcher notificationDispatcher, EvidenceQueue evidenceQueue) {
         this.inboundFolder = inboundFolder;
         this.evidenceFactory = evidenceFactory;
+        this.notificationDispatcher = notificationDispatcher;
+        this.evidenceQueue = evidenceQueue;
     }
 
     @Override
@@ -94,6 +101,17 @@ public class DefaultPersister implements PersisterHandler {
         String receiptFileName = String.format("%s.receipt.dat", filteredTransmissionIdentifier);
         Path receiptPath = directory.resolve(receiptFileName);
 
+        if (evidenceQueue.isEnabled()) {
+            try {
+                evidenceQueue.submit(receiptPath, inboundMetadata, notification(inboundMetadata, payloadPath));
+
+                log.debug("Receipt queued for: {}", receiptPath);
+                return;
+            } catch (IOException e) {
+                log.warn("Unable to queue receipt, creating receipt now: {}", e.getMessage(), e);
+            }
+        }
+
         try (OutputStream outputStream = Files.newOutputStream(receiptPath)) {
             evidenceFactory.write(outputStream, inboundMetadata);
         } catch (EvidenceException e) {
@@ -102,45 +120,7 @@ public class DefaultPersister implements PersisterHandler {
 
         log.debug("Receipt persisted to: {}", receiptPath);
 
-        var url = new URL(NOTIFICATION_URL);
-        HttpURLConnection connection = null;
-
-        try {
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setDoOutput(true);
-
-            X509Certificate certificate = inboundMetadata.getCertificate();
-
-            var formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSX");
-            var date = inboundMetadata.getTimestamp().toInstant().atOffset(ZoneOffset.UTC).format(formatter);
-
-            var json = String.format(
-                    "{\"path\":\"%s\", \"timestamp\": \"%s\", \"cert_name\": \"%s\"}",
-                    payloadPath.toString(),
-                    date,
-                    CertificateUtils
-                            .extractCommonName(certificate)
-                            .replace("\"", "\\\"")
-                            .replace("\r", "\\r")
-                            .replace("\n", "\\n")
-            );
-
-            try (OutputStream os = connection.getOutputStream()) {
-                os.write(json.getBytes(StandardCharsets.UTF_8));
-            }
-
-            if (connection.getResponseCode() != 200) {
-                log.error("Unable to send notification to: {}.", url);
-            }
-        } catch (Exception e) {
-            log.error("Unable to send notification to: {}.", url, e);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
-        }
+        notificationDispatcher.dispatch(notification(inboundMetadata, payloadPath));
     }
 
     /**
@@ -158,4 +138,49 @@ public class DefaultPersister implements PersisterHandler {
             log.warn("Unable to delete file: {}", payloadPath, e);
         }
     }
+
+    /**
+     * Creates notification of received payload.
+     *
+     * @since 6.5.1
+     */
+    static String notification(InboundMetadata inboundMetadata, Path payloadPath) {
+        X509Certificate certificate = inboundMetadata.getCertificate();
+
+        return String.format(
+                "{\"path\":\"%s\", \"timestamp\": \"%s\", \"cert_name\": \"%s\"}",
+                escape(payloadPath.toString()),
+                TIMESTAMP_FORMATTER.format(inboundMetadata.getTimestamp().toInstant()),
+                escape(CertificateUtils.extractCommonName(certificate))
+        );
+    }
+
+    /**
+     * Notification of a payload stored as a region of a file, as in a segment of {@link SegmentPersister}.
+     */
+    static String notification(InboundMetadata inboundMetadata, Path file, long offset, long length) {
+        X509Certificate certificate = inboundMetadata.getCertificate();
+
+        return String.format(
+                "{\"path\":\"%s\", \"offset\": %s, \"length\": %s, \"timestamp\": \"%s\", \"cert_name\": \"%s\"}",
+                escape(file.toAbsolutePath().toString()),
+                offset,
+                length,
+                TIMESTAMP_FORMATTER.format(inboundMetadata.getTimestamp().toInstant()),
+                escape(CertificateUtils.extractCommonName(certificate))
+        );
+    }
+
+    private static String escape(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\')
+                builder.append('\\').append(c);
+            else if (c < 0x20)
+                builder.append(String.format("\\u%04x", (int) c));
+            else
+                builder.append(c);
+        }
+        return builder.toString();
+    }
 }
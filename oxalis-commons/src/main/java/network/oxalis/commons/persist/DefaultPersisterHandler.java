@@ -30,6 +30,7 @@ import network.oxalis.api.persist.PayloadPersister;
 import network.oxalis.api.persist.PersisterHandler;
 import network.oxalis.api.persist.ReceiptPersister;
 import network.oxalis.api.util.Type;
+import network.oxalis.vefa.peppol.common.model.Digest;
 import network.oxalis.vefa.peppol.common.model.Header;
 
 import javax.inject.Singleton;
@@ -70,6 +71,15 @@ public class DefaultPersisterHandler implements PersisterHandler {
         return payloadPersister.persist(transmissionIdentifier, header, inputStream);
     }
 
+    /**
+     * @since 6.5.1
+     */
+    @Override
+    public Path persist(TransmissionIdentifier transmissionIdentifier, Header header, InputStream inputStream,
+                        Digest digest) throws IOException {
+        return payloadPersister.persist(transmissionIdentifier, header, inputStream, digest);
+    }
+
     @Override
     public void persist(TransmissionIdentifier transmissionIdentifier, Header header,
                         Path payloadPath, Exception exception) {
@@ -45,6 +45,8 @@ public class PersisterModule extends OxalisModule {
     protected void configure() {
         // Creates bindings between the annotated PersisterConf items and external type safe config
         bindSettings(PersisterConf.class);
+        bindSettings(SegmentConf.class);
+        bindSettings(DeduplicationConf.class);
 
         // Default
         bindTyped(PayloadPersister.class, DefaultPersister.class);
@@ -63,6 +65,15 @@ public class PersisterModule extends OxalisModule {
         bindTyped(ReceiptPersister.class, TempPersister.class);
         bindTyped(ExceptionPersister.class, TempPersister.class);
         bindTyped(PersisterHandler.class, TempPersister.class);
+
+        // Segment
+        bindTyped(PayloadPersister.class, SegmentPersister.class);
+        bindTyped(ReceiptPersister.class, SegmentPersister.class);
+        bindTyped(ExceptionPersister.class, SegmentPersister.class);
+        bindTyped(PersisterHandler.class, SegmentPersister.class);
+
+        // Deduplicating
+        bindTyped(PersisterHandler.class, DeduplicatingPersister.class);
     }
 
     @Provides
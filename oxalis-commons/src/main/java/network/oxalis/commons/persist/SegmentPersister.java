@@ -0,0 +1,131 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.persist;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.evidence.EvidenceFactory;
+import network.oxalis.api.inbound.InboundMetadata;
+import network.oxalis.api.lang.EvidenceException;
+import network.oxalis.api.model.TransmissionIdentifier;
+import network.oxalis.api.persist.PersisterHandler;
+import network.oxalis.api.settings.Settings;
+import network.oxalis.api.util.Type;
+import network.oxalis.commons.filesystem.FileUtils;
+import network.oxalis.commons.notification.NotificationDispatcher;
+import network.oxalis.commons.persist.segment.SegmentStore;
+import network.oxalis.vefa.peppol.common.model.Header;
+
+import javax.inject.Singleton;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Persists payloads and receipts in a {@link SegmentStore} instead of a file per artifact, avoiding the creation of
+ * folders and files and forcing of each file to disk when receiving a high number of messages.
+ * <p>
+ * Payloads are returned as paths of the file system of the store, readable using {@link Files}. Notifications
+ * of received messages give the path of the segment file holding the payload, with the offset and length of the
+ * payload within the segment.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+@Singleton
+@Type("segment")
+public class SegmentPersister implements PersisterHandler {
+
+    private final SegmentStore store;
+
+    private final EvidenceFactory evidenceFactory;
+
+    private final NotificationDispatcher notificationDispatcher;
+
+    @Inject
+    public SegmentPersister(Settings<SegmentConf> settings, @Named("inbound") Path inboundFolder,
+                            EvidenceFactory evidenceFactory, NotificationDispatcher notificationDispatcher)
+            throws IOException {
+        this(new SegmentStore(settings.getPath(SegmentConf.PATH, inboundFolder),
+                        settings.getInt(SegmentConf.SIZE) * 1024L * 1024L, settings.getInt(SegmentConf.SHARDS)),
+                evidenceFactory, notificationDispatcher);
+    }
+
+    SegmentPersister(SegmentStore store, EvidenceFactory evidenceFactory,
+                     NotificationDispatcher notificationDispatcher) {
+        this.store = store;
+        this.evidenceFactory = evidenceFactory;
+        this.notificationDispatcher = notificationDispatcher;
+    }
+
+    @Override
+    public Path persist(TransmissionIdentifier transmissionIdentifier, Header header, InputStream inputStream)
+            throws IOException {
+        Path path = store.write(String.format("%s.doc.xml",
+                FileUtils.filterString(transmissionIdentifier.getIdentifier())), inputStream);
+
+        log.debug("Payload persisted to: {}", store.getLocation(path.getFileName().toString()));
+
+        return path;
+    }
+
+    @Override
+    public void persist(InboundMetadata inboundMetadata, Path payloadPath) throws IOException {
+        String name = String.format("%s.receipt.dat",
+                FileUtils.filterString(inboundMetadata.getTransmissionIdentifier().getIdentifier()));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            evidenceFactory.write(outputStream, inboundMetadata);
+        } catch (EvidenceException e) {
+            throw new IOException("Unable to persist receipt.", e);
+        }
+
+        store.write(name, outputStream.toByteArray());
+
+        log.debug("Receipt persisted to: {}", store.getLocation(name));
+
+        SegmentStore.Location location = payloadPath.getFileSystem() == store.getPath(name).getFileSystem() ?
+                store.getLocation(payloadPath.getFileName().toString()) : null;
+
+        notificationDispatcher.dispatch(location == null ?
+                DefaultPersister.notification(inboundMetadata, payloadPath) :
+                DefaultPersister.notification(inboundMetadata, location.getSegment(), location.getOffset(),
+                        location.getLength()));
+    }
+
+    @Override
+    public void persist(TransmissionIdentifier transmissionIdentifier, Header header,
+                        Path payloadPath, Exception exception) {
+        try {
+            log.warn("Transmission '{}' failed duo to {}.", transmissionIdentifier, exception.getMessage());
+
+            Files.deleteIfExists(payloadPath);
+        } catch (IOException e) {
+            log.warn("Unable to delete file: {}", payloadPath, e);
+        }
+    }
+}
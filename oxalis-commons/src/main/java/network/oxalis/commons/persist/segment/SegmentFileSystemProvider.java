@@ -0,0 +1,308 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.persist.segment;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Provider of a single {@link SegmentFileSystem}. Files are read-only, though they may be deleted.
+ *
+ * @since 6.5.1
+ */
+class SegmentFileSystemProvider extends FileSystemProvider {
+
+    static final String SCHEME = "oxalis-segment";
+
+    private final SegmentFileSystem fileSystem;
+
+    SegmentFileSystemProvider(SegmentFileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+                                              FileAttribute<?>... attrs) throws IOException {
+        for (OpenOption option : options)
+            if (option != StandardOpenOption.READ && option != LinkOption.NOFOLLOW_LINKS)
+                throw new ReadOnlyFileSystemException();
+
+        return fileSystem.getStore().newChannel(getEntryName(path));
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter)
+            throws IOException {
+        if (!isRoot(dir))
+            throw new NotDirectoryException(dir.toString());
+
+        List<Path> paths = new ArrayList<>();
+        for (String name : fileSystem.getStore().getNames()) {
+            Path path = dir.resolve(name);
+            if (filter.accept(path))
+                paths.add(path);
+        }
+
+        return new DirectoryStream<Path>() {
+            @Override
+            public Iterator<Path> iterator() {
+                return paths.iterator();
+            }
+
+            @Override
+            public void close() {
+                // No action.
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(Path path) throws IOException {
+        if (!fileSystem.getStore().delete(getEntryName(path)))
+            throw new NoSuchFileException(path.toString());
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) {
+        return path.toAbsolutePath().normalize().equals(path2.toAbsolutePath().normalize());
+    }
+
+    @Override
+    public boolean isHidden(Path path) {
+        return false;
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        if (!isRoot(path))
+            getEntry(path);
+
+        for (AccessMode mode : modes)
+            if (mode != AccessMode.READ)
+                throw new AccessDeniedException(path.toString());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        if (type != BasicFileAttributeView.class)
+            return null;
+
+        return (V) new BasicFileAttributeView() {
+            @Override
+            public String name() {
+                return "basic";
+            }
+
+            @Override
+            public BasicFileAttributes readAttributes() throws IOException {
+                return SegmentFileSystemProvider.this.readAttributes(path, BasicFileAttributes.class);
+            }
+
+            @Override
+            public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+                throw new ReadOnlyFileSystemException();
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        if (type != BasicFileAttributes.class)
+            throw new UnsupportedOperationException(type.getName());
+
+        if (isRoot(path))
+            return (A) new Attributes(true, 0, 0, null);
+
+        SegmentStore.Location location = getEntry(path);
+        return (A) new Attributes(false, location.getLength(), location.getTimestamp(), location);
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+            throws IOException {
+        BasicFileAttributes basic = readAttributes(path, BasicFileAttributes.class);
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("size", basic.size());
+        values.put("lastModifiedTime", basic.lastModifiedTime());
+        values.put("lastAccessTime", basic.lastAccessTime());
+        values.put("creationTime", basic.creationTime());
+        values.put("isRegularFile", basic.isRegularFile());
+        values.put("isDirectory", basic.isDirectory());
+        values.put("isSymbolicLink", basic.isSymbolicLink());
+        values.put("isOther", basic.isOther());
+        values.put("fileKey", basic.fileKey());
+
+        String names = attributes.startsWith("basic:") ? attributes.substring(6) : attributes;
+        if (names.equals("*"))
+            return values;
+
+        return Arrays.stream(names.split(","))
+                .filter(values::containsKey)
+                .collect(Collectors.toMap(name -> name, values::get));
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    private SegmentStore.Location getEntry(Path path) throws NoSuchFileException {
+        SegmentStore.Location location = fileSystem.getStore().getLocation(getEntryName(path));
+        if (location == null)
+            throw new NoSuchFileException(path.toString());
+
+        return location;
+    }
+
+    private String getEntryName(Path path) throws NoSuchFileException {
+        String name = cast(path).getEntryName();
+        if (name == null)
+            throw new NoSuchFileException(path.toString());
+
+        return name;
+    }
+
+    private boolean isRoot(Path path) {
+        return cast(path).toAbsolutePath().normalize().getNameCount() == 0;
+    }
+
+    private SegmentPath cast(Path path) {
+        if (!(path instanceof SegmentPath) || path.getFileSystem() != fileSystem)
+            throw new ProviderMismatchException(String.valueOf(path));
+
+        return (SegmentPath) path;
+    }
+
+    private static class Attributes implements BasicFileAttributes {
+
+        private final boolean directory;
+
+        private final long size;
+
+        private final FileTime time;
+
+        private final Object fileKey;
+
+        public Attributes(boolean directory, long size, long timestamp, Object fileKey) {
+            this.directory = directory;
+            this.size = size;
+            this.time = FileTime.fromMillis(timestamp);
+            this.fileKey = fileKey;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return time;
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return time;
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return time;
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return !directory;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return fileKey;
+        }
+    }
+}
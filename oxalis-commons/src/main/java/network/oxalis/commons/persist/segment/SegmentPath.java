@@ -0,0 +1,257 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.persist.segment;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Path within {@link SegmentFileSystem}, using "/" as separator.
+ *
+ * @since 6.5.1
+ */
+class SegmentPath implements Path {
+
+    private final SegmentFileSystem fileSystem;
+
+    private final boolean absolute;
+
+    private final List<String> names;
+
+    SegmentPath(SegmentFileSystem fileSystem, boolean absolute, List<String> names) {
+        this.fileSystem = fileSystem;
+        this.absolute = absolute;
+        this.names = Collections.unmodifiableList(names);
+    }
+
+    static SegmentPath parse(SegmentFileSystem fileSystem, String path) {
+        List<String> names = new ArrayList<>();
+        for (String name : path.split("/"))
+            if (!name.isEmpty())
+                names.add(name);
+
+        return new SegmentPath(fileSystem, path.startsWith("/"), names);
+    }
+
+    /**
+     * Name of the file in the store, or {@code null} if the path does not point to a file in the root folder.
+     */
+    String getEntryName() {
+        SegmentPath path = toAbsolutePath().normalize();
+        return path.names.size() == 1 ? path.names.get(0) : null;
+    }
+
+    @Override
+    public SegmentFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return absolute;
+    }
+
+    @Override
+    public Path getRoot() {
+        return absolute ? new SegmentPath(fileSystem, true, Collections.emptyList()) : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        if (names.isEmpty())
+            return null;
+
+        return new SegmentPath(fileSystem, false, names.subList(names.size() - 1, names.size()));
+    }
+
+    @Override
+    public Path getParent() {
+        if (names.isEmpty() || (names.size() == 1 && !absolute))
+            return null;
+
+        return new SegmentPath(fileSystem, absolute, names.subList(0, names.size() - 1));
+    }
+
+    @Override
+    public int getNameCount() {
+        return names.size();
+    }
+
+    @Override
+    public Path getName(int index) {
+        return new SegmentPath(fileSystem, false, Collections.singletonList(names.get(index)));
+    }
+
+    @Override
+    public Path subpath(int beginIndex, int endIndex) {
+        return new SegmentPath(fileSystem, false, names.subList(beginIndex, endIndex));
+    }
+
+    @Override
+    public boolean startsWith(Path other) {
+        SegmentPath path = cast(other);
+        return absolute == path.absolute && path.names.size() <= names.size()
+                && names.subList(0, path.names.size()).equals(path.names);
+    }
+
+    @Override
+    public boolean startsWith(String other) {
+        return startsWith(parse(fileSystem, other));
+    }
+
+    @Override
+    public boolean endsWith(Path other) {
+        SegmentPath path = cast(other);
+        if (path.absolute)
+            return equals(path);
+
+        return path.names.size() <= names.size()
+                && names.subList(names.size() - path.names.size(), names.size()).equals(path.names);
+    }
+
+    @Override
+    public boolean endsWith(String other) {
+        return endsWith(parse(fileSystem, other));
+    }
+
+    @Override
+    public SegmentPath normalize() {
+        List<String> result = new ArrayList<>();
+        for (String name : names) {
+            if (name.equals("."))
+                continue;
+
+            if (name.equals("..") && !result.isEmpty() && !result.get(result.size() - 1).equals(".."))
+                result.remove(result.size() - 1);
+            else if (!(name.equals("..") && absolute))
+                result.add(name);
+        }
+
+        return new SegmentPath(fileSystem, absolute, result);
+    }
+
+    @Override
+    public Path resolve(Path other) {
+        SegmentPath path = cast(other);
+        if (path.absolute)
+            return path;
+
+        List<String> result = new ArrayList<>(names);
+        result.addAll(path.names);
+        return new SegmentPath(fileSystem, absolute, result);
+    }
+
+    @Override
+    public Path resolve(String other) {
+        return resolve(parse(fileSystem, other));
+    }
+
+    @Override
+    public Path resolveSibling(Path other) {
+        Path parent = getParent();
+        return parent == null ? other : parent.resolve(other);
+    }
+
+    @Override
+    public Path resolveSibling(String other) {
+        return resolveSibling(parse(fileSystem, other));
+    }
+
+    @Override
+    public Path relativize(Path other) {
+        SegmentPath path = cast(other);
+        if (absolute != path.absolute)
+            throw new IllegalArgumentException("Paths must both be absolute or relative.");
+
+        int common = 0;
+        while (common < names.size() && common < path.names.size()
+                && names.get(common).equals(path.names.get(common)))
+            common++;
+
+        List<String> result = new ArrayList<>(Collections.nCopies(names.size() - common, ".."));
+        result.addAll(path.names.subList(common, path.names.size()));
+        return new SegmentPath(fileSystem, false, result);
+    }
+
+    @Override
+    public URI toUri() {
+        try {
+            return new URI(SegmentFileSystemProvider.SCHEME, null, toAbsolutePath().toString(), null);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public SegmentPath toAbsolutePath() {
+        return absolute ? this : new SegmentPath(fileSystem, true, names);
+    }
+
+    @Override
+    public Path toRealPath(LinkOption... options) throws IOException {
+        SegmentPath path = toAbsolutePath().normalize();
+        fileSystem.provider().checkAccess(path);
+        return path;
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int compareTo(Path other) {
+        return toString().compareTo(other.toString());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SegmentPath that = (SegmentPath) o;
+        return absolute == that.absolute && fileSystem == that.fileSystem && names.equals(that.names);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(absolute, names);
+    }
+
+    @Override
+    public String toString() {
+        return (absolute ? "/" : "") + String.join("/", names);
+    }
+
+    private SegmentPath cast(Path path) {
+        if (!(path instanceof SegmentPath) || ((SegmentPath) path).fileSystem != fileSystem)
+            throw new ProviderMismatchException(String.valueOf(path));
+
+        return (SegmentPath) path;
+    }
+}
@@ -0,0 +1,848 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.persist.segment;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Append-only store of files in segment files sharded by date and hash of file name.
+ * <p>
+ * Files are appended to the open segment of their shard, and a new segment is started when the size limit is
+ * reached. An index of file name, segment, offset and length is appended to "index.dat" in the root folder and kept
+ * in memory. A write returns when both segment and index are forced to disk. Writers arriving while the disk is
+ * forced are covered by a single following force, so concurrent writes share the cost of forcing. Index records are
+ * only written to the index file once the segments holding their content are forced, so the index never points to
+ * content not on disk.
+ * <p>
+ * Content larger than {@link #MEMORY} is streamed into a segment of its own, without being spooled first, so
+ * writers of the same shard do not wait for it to be received.
+ * <p>
+ * Files are available as {@link Path} using a file system provided by the store, supporting reading, listing and
+ * deleting using {@link Files}. Deleting a file removes it from the index, while the content is kept in the segment.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+public class SegmentStore implements Closeable {
+
+    private static final int MAGIC = 0x4F585331;
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    private static final String INDEX = "index.dat";
+
+    /**
+     * Content up to this number of bytes is read into memory and appended to the open segment of its shard.
+     */
+    static final int MEMORY = 256 * 1024;
+
+    private static final DateTimeFormatter DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy/MM/dd").withZone(ZoneOffset.UTC);
+
+    private final Path root;
+
+    private final long segmentSize;
+
+    private final int shards;
+
+    private final SegmentFileSystem fileSystem;
+
+    private final Map<String, Location> locations = new ConcurrentHashMap<>();
+
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+
+    private final Map<String, Shard> openShards = new ConcurrentHashMap<>();
+
+    private final Set<Segment> dirty = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Index records waiting for their segments to be forced, guarded by index lock.
+     */
+    private List<ByteBuffer> pending = new ArrayList<>();
+
+    private final AtomicLong appended = new AtomicLong();
+
+    private final ReentrantLock indexLock = new ReentrantLock();
+
+    private final ReentrantLock commitLock = new ReentrantLock();
+
+    private final FileChannel index;
+
+    private volatile long committed;
+
+    private volatile boolean open = true;
+
+    /**
+     * @param root        Folder holding index and segments.
+     * @param segmentSize Size in bytes after which a new segment is started.
+     * @param shards      Number of shards per day.
+     */
+    public SegmentStore(Path root, long segmentSize, int shards) throws IOException {
+        this.root = root;
+        this.segmentSize = segmentSize;
+        this.shards = Math.max(1, shards);
+        this.fileSystem = new SegmentFileSystem(this);
+
+        Files.createDirectories(root);
+        loadIndex(root.resolve(INDEX));
+
+        this.index = FileChannel.open(root.resolve(INDEX), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Writes file with the given name, replacing any existing file of the same name.
+     *
+     * @return Path of the file in the file system of the store.
+     */
+    public Path write(String name, InputStream inputStream) throws IOException {
+        byte[] head = inputStream.readNBytes(MEMORY + 1);
+        if (head.length <= MEMORY)
+            return write(name, head.length, new ByteArrayInputStream(head));
+
+        return writeSeparate(name, head, inputStream);
+    }
+
+    /**
+     * Writes file with the given name, replacing any existing file of the same name.
+     *
+     * @return Path of the file in the file system of the store.
+     */
+    public Path write(String name, byte[] content) throws IOException {
+        return write(name, content.length, new ByteArrayInputStream(content));
+    }
+
+    /**
+     * Path of the file with the given name, whether it exists or not.
+     */
+    public Path getPath(String name) {
+        return fileSystem.getPath("/", name);
+    }
+
+    /**
+     * Location of the file with the given name, or {@code null} if not found.
+     */
+    public Location getLocation(String name) {
+        return locations.get(name);
+    }
+
+    /**
+     * Removes the file with the given name from the index.
+     *
+     * @return Whether the file existed.
+     */
+    public boolean delete(String name) throws IOException {
+        checkOpen();
+
+        Location location = locations.remove(name);
+        if (location == null)
+            return false;
+
+        appendIndex(DELETE, name, null, System.currentTimeMillis());
+        commit(appended.incrementAndGet());
+
+        return true;
+    }
+
+    /**
+     * Names of all files, sorted.
+     */
+    public List<String> getNames() {
+        List<String> names = new ArrayList<>(locations.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open)
+            return;
+
+        open = false;
+
+        for (Shard shard : openShards.values())
+            shard.retire();
+
+        force(INDEX, index);
+        index.close();
+    }
+
+    SeekableByteChannel newChannel(String name) throws IOException {
+        Location location = locations.get(name);
+        if (location == null)
+            throw new NoSuchFileException(getPath(name).toString());
+
+        return new RegionChannel(FileChannel.open(location.getSegment(), StandardOpenOption.READ),
+                location.getOffset(), location.getLength());
+    }
+
+    private Path write(String name, long length, InputStream inputStream) throws IOException {
+        long timestamp;
+        Shard shard;
+        do {
+            checkOpen();
+
+            timestamp = System.currentTimeMillis();
+            shard = lockShard(timestamp, name);
+        } while (shard == null);
+
+        ByteBuffer header = header(name, timestamp, length);
+
+        Location location;
+        try {
+            Segment segment = shard.getSegment(header.remaining() + length);
+            long position = segment.size;
+            long offset = position + header.remaining();
+
+            writeFully(segment.channel, header, position);
+            transfer(inputStream, segment.channel, offset, length);
+
+            segment.size = offset + length;
+            dirty.add(segment);
+
+            location = new Location(segment, offset, length, timestamp);
+        } finally {
+            shard.lock.unlock();
+        }
+
+        return index(name, location, timestamp);
+    }
+
+    /**
+     * Streams content into a new segment, writing the length of the content to the record header when received.
+     */
+    private Path writeSeparate(String name, byte[] head, InputStream inputStream) throws IOException {
+        long timestamp;
+        Shard shard;
+        do {
+            checkOpen();
+
+            timestamp = System.currentTimeMillis();
+            shard = lockShard(timestamp, name);
+        } while (shard == null);
+
+        Segment segment;
+        try {
+            segment = shard.createSegment();
+        } finally {
+            shard.lock.unlock();
+        }
+
+        ByteBuffer header = header(name, timestamp, 0);
+        long offset = header.remaining();
+        long length;
+
+        try (FileChannel channel = segment.channel) {
+            writeFully(channel, header, 0);
+            writeFully(channel, ByteBuffer.wrap(head), offset);
+            length = head.length + transfer(inputStream, channel, offset + head.length);
+
+            writeFully(channel, ByteBuffer.allocate(8).putLong(0, length), offset - 8);
+            force(segment.name, channel);
+        } catch (IOException e) {
+            segments.remove(segment.name, segment);
+            Files.deleteIfExists(segment.file);
+            throw e;
+        } finally {
+            segment.channel = null;
+        }
+
+        segment.size = offset + length;
+
+        return index(name, new Location(segment, offset, length, timestamp), timestamp);
+    }
+
+    private Path index(String name, Location location, long timestamp) throws IOException {
+        appendIndex(PUT, name, location, timestamp);
+        commit(appended.incrementAndGet());
+
+        locations.put(name, location);
+
+        log.debug("File '{}' written to {} at {}.", name, location.segment.name, location.offset);
+
+        return getPath(name);
+    }
+
+    /**
+     * Returns shard of the given time with its lock held, or {@code null} when the shard is retired by a writer of
+     * the following day.
+     */
+    private Shard lockShard(long timestamp, String name) throws IOException {
+        Shard shard = getShard(timestamp, name);
+
+        shard.lock.lock();
+        if (!shard.retired)
+            return shard;
+
+        shard.lock.unlock();
+        return null;
+    }
+
+    /**
+     * Header of a record, ending with the length of the content.
+     */
+    private static ByteBuffer header(String name, long timestamp, long length) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer header = ByteBuffer.allocate(23 + nameBytes.length)
+                .putInt(MAGIC)
+                .put(PUT)
+                .putLong(timestamp)
+                .putShort((short) nameBytes.length)
+                .put(nameBytes)
+                .putLong(length);
+        header.flip();
+
+        return header;
+    }
+
+    private void appendIndex(byte operation, String name, Location location, long timestamp) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] segmentBytes = location == null ? new byte[0] : location.segment.name.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer buffer = ByteBuffer.allocate(11 + nameBytes.length + (location == null ? 0 : 18 + segmentBytes.length))
+                .put(operation)
+                .putLong(timestamp)
+                .putShort((short) nameBytes.length)
+                .put(nameBytes);
+
+        if (location != null)
+            buffer.putShort((short) segmentBytes.length)
+                    .put(segmentBytes)
+                    .putLong(location.offset)
+                    .putLong(location.length);
+
+        buffer.flip();
+
+        indexLock.lock();
+        try {
+            pending.add(buffer);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    /**
+     * Makes sure everything appended up to and including the given ticket is forced to disk.
+     * <p>
+     * A writer marks its segment dirty before adding its index record to pending records. Pending records are taken
+     * before dirty segments are forced, so every record taken has its content forced before it is written to the
+     * index. Records added while segments are forced are left for the next commit.
+     */
+    private void commit(long ticket) throws IOException {
+        commitLock.lock();
+        try {
+            if (committed >= ticket)
+                return;
+
+            long target = appended.get();
+
+            List<ByteBuffer> records;
+            indexLock.lock();
+            try {
+                records = pending;
+                pending = new ArrayList<>();
+            } finally {
+                indexLock.unlock();
+            }
+
+            // Segments are no longer dirty before forced, as writers may append while forcing.
+            List<Segment> segments = new ArrayList<>(dirty);
+            dirty.removeAll(segments);
+
+            long position = index.size();
+            try {
+                for (Segment segment : segments) {
+                    FileChannel channel = segment.channel;
+                    try {
+                        if (channel != null)
+                            force(segment.name, channel);
+                    } catch (ClosedChannelException e) {
+                        // Segment is forced before closed.
+                    }
+                }
+
+                if (!records.isEmpty()) {
+                    for (ByteBuffer record : records)
+                        while (record.hasRemaining())
+                            index.write(record);
+
+                    force(INDEX, index);
+                }
+            } catch (IOException e) {
+                // Segments and records are kept for the next commit, without any part written to the index.
+                dirty.addAll(segments);
+                index.truncate(position);
+                for (ByteBuffer record : records)
+                    record.rewind();
+
+                indexLock.lock();
+                try {
+                    records.addAll(pending);
+                    pending = records;
+                } finally {
+                    indexLock.unlock();
+                }
+
+                throw e;
+            }
+
+            committed = target;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Forces content of a segment, or the index, to disk.
+     */
+    void force(String name, FileChannel channel) throws IOException {
+        channel.force(false);
+    }
+
+    private Shard getShard(long timestamp, String name) throws IOException {
+        String date = DATE_FORMATTER.format(Instant.ofEpochMilli(timestamp));
+        String key = String.format("%s/%02x", date, (name.hashCode() & Integer.MAX_VALUE) % shards);
+
+        Shard shard = openShards.get(key);
+        if (shard == null) {
+            shard = openShards.computeIfAbsent(key, Shard::new);
+
+            // Segments of previous days are not written to again.
+            for (Shard other : openShards.values()) {
+                if (other.key.compareTo(date) < 0 && openShards.remove(other.key, other))
+                    other.retire();
+            }
+        }
+
+        return shard;
+    }
+
+    private void loadIndex(Path path) throws IOException {
+        if (!Files.exists(path))
+            return;
+
+        long records = 0;
+        long valid = 0;
+
+        try (CountingInputStream countingInputStream = new CountingInputStream(
+                new BufferedInputStream(Files.newInputStream(path), 64 * 1024));
+             DataInputStream inputStream = new DataInputStream(countingInputStream)) {
+            while (true) {
+                int operation = inputStream.read();
+                if (operation == -1)
+                    break;
+
+                long timestamp = inputStream.readLong();
+                String name = readString(inputStream);
+
+                if (operation == PUT) {
+                    String segmentName = readString(inputStream);
+                    long offset = inputStream.readLong();
+                    long length = inputStream.readLong();
+
+                    Segment segment = segments.computeIfAbsent(segmentName,
+                            n -> new Segment(n, root.resolve(n)));
+                    locations.put(name, new Location(segment, offset, length, timestamp));
+                } else if (operation == DELETE) {
+                    locations.remove(name);
+                } else {
+                    throw new IOException(String.format("Unknown operation in index at %s.", valid));
+                }
+
+                records++;
+                valid = countingInputStream.count;
+            }
+        } catch (EOFException e) {
+            log.warn("Index '{}' ends with an incomplete record, truncating at {}.", path, valid);
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            if (channel.size() > valid)
+                channel.truncate(valid);
+        }
+
+        // Index holding mostly replaced or deleted files is rewritten.
+        if (records > 2L * locations.size() + 1024)
+            rewriteIndex(path);
+
+        log.info("Loaded index of {} files from '{}'.", locations.size(), path);
+    }
+
+    private void rewriteIndex(Path path) throws IOException {
+        Path temp = path.resolveSibling(INDEX + ".tmp");
+
+        try (DataOutputStream outputStream = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+            for (Map.Entry<String, Location> entry : locations.entrySet()) {
+                outputStream.write(PUT);
+                outputStream.writeLong(entry.getValue().timestamp);
+                writeString(outputStream, entry.getKey());
+                writeString(outputStream, entry.getValue().segment.name);
+                outputStream.writeLong(entry.getValue().offset);
+                outputStream.writeLong(entry.getValue().length);
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void checkOpen() throws IOException {
+        if (!open)
+            throw new ClosedChannelException();
+    }
+
+    private static String readString(DataInputStream inputStream) throws IOException {
+        byte[] bytes = new byte[inputStream.readUnsignedShort()];
+        inputStream.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream outputStream, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        outputStream.writeShort(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    /**
+     * Copies content until end of stream, returning the number of bytes copied.
+     */
+    private static long transfer(InputStream inputStream, FileChannel channel, long position) throws IOException {
+        byte[] bytes = new byte[64 * 1024];
+        long copied = 0;
+
+        for (int read; (read = inputStream.read(bytes)) != -1; ) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, read);
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+
+            copied += read;
+        }
+
+        return copied;
+    }
+
+    private static void transfer(InputStream inputStream, FileChannel channel, long position, long length)
+            throws IOException {
+        byte[] bytes = new byte[64 * 1024];
+        long remaining = length;
+
+        while (remaining > 0) {
+            int read = inputStream.read(bytes, 0, (int) Math.min(bytes.length, remaining));
+            if (read == -1)
+                throw new EOFException(String.format("Content ended %s bytes early.", remaining));
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, read);
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Location of a file within a segment.
+     */
+    public static class Location {
+
+        private final Segment segment;
+
+        private final long offset;
+
+        private final long length;
+
+        private final long timestamp;
+
+        private Location(Segment segment, long offset, long length, long timestamp) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * Segment file holding the file.
+         */
+        public Path getSegment() {
+            return segment.file;
+        }
+
+        /**
+         * Position of the first byte of the file within the segment.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Time of writing, in milliseconds since epoch.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s@%s+%s", segment.name, offset, length);
+        }
+    }
+
+    /**
+     * Segment file, of which only the last in a shard is written to.
+     */
+    private static class Segment {
+
+        private final String name;
+
+        private final Path file;
+
+        private volatile FileChannel channel;
+
+        private long size;
+
+        public Segment(String name, Path file) {
+            this.name = name;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Segments of a day and hash. A retired shard is not written to again, and writers holding it must get the
+     * shard of the current day.
+     */
+    private class Shard {
+
+        private final String key;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Segment segment;
+
+        private int sequence = -1;
+
+        private boolean retired;
+
+        public Shard(String key) {
+            this.key = key;
+        }
+
+        public Segment getSegment(long needed) throws IOException {
+            if (segment != null && (segment.size == 0 || segment.size + needed <= segmentSize))
+                return segment;
+
+            closeSegment();
+
+            segment = createSegment();
+            return segment;
+        }
+
+        /**
+         * Creates the next segment of this shard, not used for other files when not made the open segment.
+         */
+        public Segment createSegment() throws IOException {
+            Path folder = root.resolve(key);
+            if (sequence < 0) {
+                Files.createDirectories(folder);
+
+                // Continue after segments written before restart.
+                try (Stream<Path> files = Files.list(folder)) {
+                    sequence = files.map(path -> path.getFileName().toString())
+                            .filter(name -> name.matches("[0-9]+\\.seg"))
+                            .mapToInt(name -> Integer.parseInt(name.substring(0, name.length() - 4)))
+                            .max().orElse(0);
+                }
+            }
+
+            sequence++;
+            String name = String.format("%s/%06d.seg", key, sequence);
+
+            Segment created = new Segment(name, root.resolve(name));
+            created.channel = FileChannel.open(created.file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.put(name, created);
+
+            return created;
+        }
+
+        public void retire() {
+            lock.lock();
+            try {
+                retired = true;
+                closeSegment();
+            } catch (IOException e) {
+                log.warn("Unable to close segment in '{}': {}", key, e.getMessage(), e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void closeSegment() throws IOException {
+            if (segment == null)
+                return;
+
+            try (FileChannel channel = segment.channel) {
+                force(segment.name, channel);
+            } finally {
+                segment.channel = null;
+                segment = null;
+            }
+        }
+    }
+
+    /**
+     * Read-only channel of a region of a segment.
+     */
+    private static class RegionChannel implements SeekableByteChannel {
+
+        private final FileChannel channel;
+
+        private final long offset;
+
+        private final long length;
+
+        private long position;
+
+        public RegionChannel(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (position >= length)
+                return -1;
+
+            int limit = dst.limit();
+            try {
+                if (dst.remaining() > length - position)
+                    dst.limit(dst.position() + (int) (length - position));
+
+                int read = channel.read(dst, offset + position);
+                if (read > 0)
+                    position += read;
+                return read;
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) {
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return length;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        public CountingInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result != -1)
+                count++;
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result > 0)
+                count += result;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.transformer;
+
+import network.oxalis.vefa.peppol.common.model.Header;
+import network.oxalis.vefa.peppol.sbdh.SbdWriter;
+import network.oxalis.vefa.peppol.sbdh.lang.SbdhException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream providing content wrapped in a StandardBusinessDocument, created while the stream is read.
+ * <p>
+ * The envelope is written first, followed by events of the XML document as they are read from the source, and the
+ * envelope is closed at the end of the document. Only the events needed to serve the current read are kept in
+ * memory. Content is copied event by event as done by {@code XMLStreamUtils.copy(...)}, so the result is the same as
+ * when wrapping using {@link SbdWriter} directly.
+ * <p>
+ * The source is closed when the end of the document is reached or this stream is closed.
+ *
+ * @since 6.5.1
+ */
+public class SbdhWrappingInputStream extends InputStream {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newFactory();
+
+    /**
+     * Number of bytes prepared before serving reads.
+     */
+    private static final int BATCH = 8 * 1024;
+
+    /**
+     * Number of events copied between checks of bytes prepared.
+     */
+    private static final int EVENTS = 32;
+
+    private final InputStream source;
+
+    private final Buffer buffer = new Buffer();
+
+    private final SbdWriter sbdWriter;
+
+    private final XMLStreamWriter writer;
+
+    private final XMLStreamReader reader;
+
+    private int position;
+
+    private boolean finished;
+
+    private boolean closed;
+
+    /**
+     * Starts wrapping of content. The beginning of the source is read to make sure the source is an XML document.
+     */
+    public SbdhWrappingInputStream(InputStream inputStream, Header header) throws SbdhException, XMLStreamException {
+        this.source = inputStream;
+        this.sbdWriter = SbdWriter.newInstance(buffer, header);
+        this.writer = sbdWriter.xmlWriter();
+        this.reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream, "UTF-8");
+
+        // Copy until the document element is started.
+        boolean started = false;
+        while (!started && !finished) {
+            started = reader.getEventType() == XMLStreamConstants.START_ELEMENT;
+            copyEvent();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == buffer.size() && !fill())
+            return -1;
+
+        return buffer.array()[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+
+        if (position == buffer.size() && !fill())
+            return -1;
+
+        int read = Math.min(len, buffer.size() - position);
+        System.arraycopy(buffer.array(), position, b, off, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return buffer.size() - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // No action.
+            }
+
+            source.close();
+        }
+    }
+
+    /**
+     * Prepares next bytes, returning false when the end of content is reached.
+     */
+    private boolean fill() throws IOException {
+        if (closed && !finished)
+            throw new IOException("Stream is closed.");
+
+        buffer.reset();
+        position = 0;
+
+        try {
+            while (!finished && buffer.size() < BATCH) {
+                for (int i = 0; i < EVENTS && !finished; i++)
+                    copyEvent();
+
+                if (!finished)
+                    writer.flush();
+            }
+        } catch (XMLStreamException | SbdhException e) {
+            throw new IOException("Unable to wrap content into SBDH.", e);
+        }
+
+        return buffer.size() > 0;
+    }
+
+    /**
+     * Copies current event and moves to the next event, finishing the envelope at the end of the document.
+     */
+    private void copyEvent() throws XMLStreamException, SbdhException {
+        switch (reader.getEventType()) {
+            case XMLStreamConstants.START_DOCUMENT:
+                writer.writeStartDocument(reader.getEncoding(), reader.getVersion());
+                break;
+
+            case XMLStreamConstants.END_DOCUMENT:
+                writer.writeEndDocument();
+                break;
+
+            case XMLStreamConstants.START_ELEMENT:
+                writer.writeStartElement(reader.getPrefix(), reader.getLocalName(), reader.getNamespaceURI());
+
+                for (int i = 0; i < reader.getNamespaceCount(); i++)
+                    writer.writeNamespace(reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    String prefix = reader.getAttributePrefix(i);
+                    if (prefix == null || "".equals(prefix))
+                        writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                    else
+                        writer.writeAttribute(prefix, reader.getAttributeNamespace(i),
+                                reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                }
+                break;
+
+            case XMLStreamConstants.END_ELEMENT:
+                writer.writeEndElement();
+                break;
+
+            case XMLStreamConstants.CHARACTERS:
+                writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                break;
+
+            case XMLStreamConstants.CDATA:
+                writer.writeCData(reader.getText());
+                break;
+
+            default:
+                // No action.
+        }
+
+        if (reader.hasNext()) {
+            reader.next();
+        } else {
+            finish();
+        }
+    }
+
+    private void finish() throws SbdhException {
+        finished = true;
+
+        try {
+            sbdWriter.close();
+            close();
+        } catch (IOException e) {
+            throw new SbdhException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Buffer giving access to bytes written without copying.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        public byte[] array() {
+            return buf;
+        }
+    }
+}
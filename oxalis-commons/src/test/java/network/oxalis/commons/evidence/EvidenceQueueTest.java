@@ -0,0 +1,197 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.evidence;
+
+import com.google.inject.Inject;
+import network.oxalis.api.evidence.EvidenceFactory;
+import network.oxalis.api.model.TransmissionIdentifier;
+import network.oxalis.api.transmission.TransmissionResult;
+import network.oxalis.commons.guice.GuiceModuleLoader;
+import network.oxalis.commons.notification.NotificationDispatcher;
+import network.oxalis.vefa.peppol.common.code.DigestMethod;
+import network.oxalis.vefa.peppol.common.model.*;
+import network.oxalis.vefa.peppol.security.xmldsig.DomUtils;
+import network.oxalis.vefa.peppol.security.xmldsig.XmldsigVerifier;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Guice;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Guice(modules = GuiceModuleLoader.class)
+public class EvidenceQueueTest {
+
+    private static final Header HEADER = Header.newInstance()
+            .sender(ParticipantIdentifier.of("0007:5567125082"))
+            .receiver(ParticipantIdentifier.of("0007:4455454480"))
+            .process(ProcessIdentifier.of("urn:fdc:peppol.eu:2017:poacc:billing:01:1.0"))
+            .documentType(DocumentTypeIdentifier.of("urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice"))
+            .c1CountryIdentifier(C1CountryIdentifier.of("NO"))
+            .identifier(InstanceIdentifier.generateUUID())
+            .instanceType(InstanceType.of("urn:oasis:names:specification:ubl:schema:xsd:Invoice-2", "Invoice", "2.1"))
+            .creationTimestamp(new Date());
+
+    @Inject
+    private EvidenceFactory evidenceFactory;
+
+    private Path folder;
+
+    private NotificationDispatcher notificationDispatcher;
+
+    @BeforeMethod
+    public void beforeMethod() throws IOException {
+        folder = Files.createTempDirectory("oxalis-evidence");
+        notificationDispatcher = Mockito.mock(NotificationDispatcher.class);
+    }
+
+    @AfterMethod
+    public void afterMethod() throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            List<Path> list = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            for (Path path : list)
+                Files.delete(path);
+        }
+    }
+
+    @Test
+    public void simple() throws Exception {
+        EvidenceQueue evidenceQueue = new EvidenceQueue(evidenceFactory, notificationDispatcher,
+                folder.resolve("queue"), 2, 1000);
+        Assert.assertTrue(evidenceQueue.isEnabled());
+
+        Path receiptPath = folder.resolve("receipt.dat");
+        evidenceQueue.submit(receiptPath, createTransmissionResult(), "{\"path\":\"payload\"}");
+
+        Mockito.verify(notificationDispatcher, Mockito.timeout(10_000)).dispatch("{\"path\":\"payload\"}");
+        evidenceQueue.stop();
+
+        try (InputStream inputStream = Files.newInputStream(receiptPath)) {
+            Assert.assertNotNull(XmldsigVerifier.verify(DomUtils.parse(inputStream)));
+        }
+
+        String receipt = new String(Files.readAllBytes(receiptPath), StandardCharsets.UTF_8);
+        Assert.assertTrue(receipt.contains(">transmission<"));
+        Assert.assertTrue(receipt.contains(HEADER.getSender().getIdentifier()));
+
+        try (Stream<Path> paths = Files.list(folder.resolve("queue"))) {
+            Assert.assertEquals(paths.count(), 0);
+        }
+    }
+
+    @Test
+    public void recovery() throws Exception {
+        EvidenceFactory failing = (outputStream, transmissionResult) -> {
+            throw new IOException("Failed");
+        };
+
+        EvidenceQueue evidenceQueue = new EvidenceQueue(failing, notificationDispatcher, folder.resolve("queue"), 1,
+                60_000);
+        evidenceQueue.submit(folder.resolve("receipt.dat"), createTransmissionResult(), null);
+        evidenceQueue.stop();
+
+        try (Stream<Path> paths = Files.list(folder.resolve("queue"))) {
+            Assert.assertEquals(paths.count(), 1);
+        }
+
+        // Restart
+        EvidenceFactory recording = (outputStream, transmissionResult) -> outputStream.write(String.join("\n",
+                transmissionResult.getTransmissionIdentifier().getIdentifier(),
+                transmissionResult.getHeader().getIdentifier().getIdentifier(),
+                transmissionResult.getDigest().getMethod().name(),
+                transmissionResult.getTransportProtocol().getIdentifier(),
+                new String(transmissionResult.primaryReceipt().getValue(), StandardCharsets.UTF_8),
+                String.valueOf(transmissionResult.getReceipts().size())).getBytes(StandardCharsets.UTF_8));
+
+        evidenceQueue = new EvidenceQueue(recording, notificationDispatcher, folder.resolve("queue"), 1, 1000);
+        try {
+            for (int i = 0; i < 100 && !Files.exists(folder.resolve("receipt.dat")); i++)
+                Thread.sleep(100);
+        } finally {
+            evidenceQueue.stop();
+        }
+
+        Assert.assertEquals(Files.readAllLines(folder.resolve("receipt.dat")), Arrays.asList(
+                "transmission", HEADER.getIdentifier().getIdentifier(), "SHA256", "AS2", "MDN", "2"));
+        Mockito.verifyNoInteractions(notificationDispatcher);
+    }
+
+    @Test
+    public void retried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        EvidenceFactory flaky = (outputStream, transmissionResult) -> {
+            if (attempts.incrementAndGet() < 3)
+                throw new IOException("No space left on device");
+            outputStream.write("receipt".getBytes(StandardCharsets.UTF_8));
+        };
+
+        EvidenceQueue evidenceQueue = new EvidenceQueue(flaky, notificationDispatcher, folder.resolve("queue"), 1, 10);
+        evidenceQueue.submit(folder.resolve("receipt.dat"), createTransmissionResult(), "notification");
+
+        Mockito.verify(notificationDispatcher, Mockito.timeout(10_000)).dispatch("notification");
+        evidenceQueue.stop();
+
+        Assert.assertEquals(attempts.get(), 3);
+        Assert.assertEquals(Files.readAllLines(folder.resolve("receipt.dat")), Arrays.asList("receipt"));
+        try (Stream<Path> paths = Files.list(folder.resolve("queue"))) {
+            Assert.assertEquals(paths.count(), 0);
+        }
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        EvidenceQueue evidenceQueue = new EvidenceQueue(evidenceFactory, notificationDispatcher,
+                folder.resolve("queue"), 0, 1000);
+
+        Assert.assertFalse(evidenceQueue.isEnabled());
+        Assert.assertFalse(Files.exists(folder.resolve("queue")));
+    }
+
+    private static TransmissionResult createTransmissionResult() {
+        Receipt mdn = Receipt.of("message/disposition-notification", "MDN".getBytes(StandardCharsets.UTF_8));
+
+        TransmissionResult transmissionResult = Mockito.mock(TransmissionResult.class);
+        Mockito.when(transmissionResult.getTransmissionIdentifier()).thenReturn(TransmissionIdentifier.of("transmission"));
+        Mockito.when(transmissionResult.getHeader()).thenReturn(HEADER);
+        Mockito.when(transmissionResult.getTimestamp()).thenReturn(new Date());
+        Mockito.when(transmissionResult.getDigest()).thenReturn(Digest.of(DigestMethod.SHA256, new byte[32]));
+        Mockito.when(transmissionResult.getTransportProtocol()).thenReturn(TransportProtocol.AS2);
+        Mockito.when(transmissionResult.getProtocol()).thenReturn(TransportProfile.PEPPOL_AS2_2_0);
+        Mockito.when(transmissionResult.getReceipts()).thenReturn(Arrays.asList(mdn, Receipt.of("timestamp", new byte[8])));
+        Mockito.when(transmissionResult.primaryReceipt()).thenReturn(mdn);
+        return transmissionResult;
+    }
+}
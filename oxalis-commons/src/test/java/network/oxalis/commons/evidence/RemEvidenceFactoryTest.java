@@ -32,13 +32,17 @@ import network.oxalis.commons.guice.GuiceModuleLoader;
 import network.oxalis.test.identifier.PeppolDocumentTypeIdAcronym;
 import network.oxalis.vefa.peppol.common.code.DigestMethod;
 import network.oxalis.vefa.peppol.common.model.*;
+import network.oxalis.vefa.peppol.security.xmldsig.DomUtils;
+import network.oxalis.vefa.peppol.security.xmldsig.XmldsigVerifier;
 import org.mockito.Mockito;
 import org.testng.Assert;
 import org.testng.annotations.Guice;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Date;
 
@@ -62,6 +66,22 @@ public class RemEvidenceFactoryTest {
         log.info(new String(outputStream.toByteArray()));
     }
 
+    @Test
+    public void verifiable() throws Exception {
+        // Signing context is reused, so every evidence written must be verifiable.
+        for (int i = 0; i < 3; i++) {
+            TransmissionResponse transmissionResponse = createMockTransmissionResponse();
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            evidenceFactory.write(outputStream, transmissionResponse);
+
+            Assert.assertNotNull(XmldsigVerifier.verify(DomUtils.parse(
+                    new ByteArrayInputStream(outputStream.toByteArray()))));
+            Assert.assertTrue(outputStream.toString(StandardCharsets.UTF_8)
+                    .contains(transmissionResponse.getTransmissionIdentifier().getIdentifier()));
+        }
+    }
+
     @Test(expectedExceptions = EvidenceException.class)
     public void triggerException() throws IOException, EvidenceException {
         evidenceFactory.write(null, createMockTransmissionResponse());
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.executor;
+
+import network.oxalis.api.settings.Settings;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+public class ExecutorModuleTest {
+
+    private final ExecutorModule executorModule = new ExecutorModule();
+
+    @Test
+    public void fixed() {
+        ExecutorService executorService = executorModule.getExecutorService(settings("fixed"));
+
+        Assert.assertTrue(executorService instanceof ThreadPoolExecutor);
+        Assert.assertEquals(((ThreadPoolExecutor) executorService).getMaximumPoolSize(), 5);
+
+        executorService.shutdown();
+    }
+
+    @Test
+    public void virtual() throws Exception {
+        ExecutorService executorService = executorModule.getExecutorService(settings("virtual"));
+
+        if (VirtualThreadExecutors.isSupported()) {
+            Assert.assertFalse(executorService instanceof ThreadPoolExecutor);
+            Assert.assertTrue(executorService.submit(() ->
+                    (Boolean) Thread.class.getMethod("isVirtual").invoke(Thread.currentThread())).get());
+        } else {
+            // Falls back to fixed thread pool.
+            Assert.assertTrue(executorService instanceof ThreadPoolExecutor);
+        }
+
+        executorService.shutdown();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Settings<ExecutorConf> settings(String mode) {
+        Settings<ExecutorConf> settings = Mockito.mock(Settings.class);
+        Mockito.when(settings.getString(ExecutorConf.MODE)).thenReturn(mode);
+        Mockito.when(settings.getInt(ExecutorConf.DEFAULT)).thenReturn(5);
+        return settings;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.header;
+
+import com.google.common.io.ByteStreams;
+import network.oxalis.api.lang.OxalisContentException;
+import network.oxalis.vefa.peppol.common.model.Header;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HeaderInputStreamTest {
+
+    @Test
+    public void simpleSbdh() throws Exception {
+        byte[] content = resource("/peppol-bis-invoice-sbdh.xml");
+
+        try (HeaderInputStream inputStream = new HeaderInputStream(new ByteArrayInputStream(content),
+                new SbdhHeaderParser())) {
+            Header header = inputStream.getHeader();
+            Assert.assertNotNull(header.getIdentifier());
+            Assert.assertSame(inputStream.getHeader(), header);
+
+            Assert.assertEquals(ByteStreams.toByteArray(inputStream), content);
+        }
+    }
+
+    @Test
+    public void simpleNoSbdh() throws Exception {
+        byte[] content = resource("/ehf-invoice-no-sbdh.xml");
+
+        try (HeaderInputStream inputStream = new HeaderInputStream(new ByteArrayInputStream(content),
+                new SbdhHeaderParser())) {
+            Assert.assertEquals(ByteStreams.toByteArray(inputStream), content);
+
+            try {
+                inputStream.getHeader();
+                Assert.fail("Expected exception.");
+            } catch (OxalisContentException e) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test
+    public void parserReadsOnlyBeginning() throws Exception {
+        byte[] content = new byte[1024 * 1024];
+        for (int i = 0; i < content.length; i++)
+            content[i] = (byte) i;
+
+        AtomicInteger consumed = new AtomicInteger();
+        HeaderInputStream inputStream = new HeaderInputStream(new ByteArrayInputStream(content), source -> {
+            try {
+                consumed.set(source.read(new byte[16]));
+                source.close();
+            } catch (IOException e) {
+                throw new OxalisContentException(e.getMessage(), e);
+            }
+            throw new OxalisContentException("No header.");
+        });
+
+        Assert.assertEquals(inputStream.read(), 0);
+        Assert.assertEquals(consumed.get(), 16);
+        Assert.assertEquals(inputStream.read(), 1);
+
+        byte[] rest = ByteStreams.toByteArray(inputStream);
+        Assert.assertEquals(rest.length, content.length - 2);
+        Assert.assertEquals(rest[rest.length - 1], content[content.length - 1]);
+    }
+
+    private static byte[] resource(String name) throws Exception {
+        try (InputStream inputStream = HeaderInputStreamTest.class.getResourceAsStream(name)) {
+            return ByteStreams.toByteArray(inputStream);
+        }
+    }
+}
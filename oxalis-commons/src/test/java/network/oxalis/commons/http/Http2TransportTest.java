@@ -0,0 +1,284 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.http;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+import io.opentracing.noop.NoopTracerFactory;
+import network.oxalis.api.settings.Settings;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.HttpHostConnectException;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class Http2TransportTest {
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    private HttpServer server;
+
+    private RouteConnectionManager connectionManager;
+
+    private Http2Transport http2Transport;
+
+    private URI address;
+
+    @BeforeMethod
+    public void beforeMethod() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/redirect", exchange -> {
+            exchange.getResponseHeaders().add("Location", "/");
+            exchange.sendResponseHeaders(HttpStatus.SC_MOVED_TEMPORARILY, -1);
+            exchange.close();
+        });
+        server.createContext("/", exchange -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+                if (exchange.getRequestURI().getPath().equals("/slow"))
+                    Thread.sleep(100);
+
+                exchange.getResponseHeaders().add("Content-Type", "text/plain");
+                exchange.getResponseHeaders().add("X-Method", exchange.getRequestMethod());
+                exchange.getResponseHeaders().add("X-Content-Type",
+                        String.valueOf(exchange.getRequestHeaders().getFirst("Content-Type")));
+                exchange.sendResponseHeaders(body.length == 0 ? HttpStatus.SC_ACCEPTED : HttpStatus.SC_OK,
+                        body.length == 0 ? -1 : body.length);
+                exchange.getResponseBody().write(body);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.start();
+
+        address = URI.create(String.format("http://localhost:%s/", server.getAddress().getPort()));
+        connectionManager = new RouteConnectionManager(settings());
+        http2Transport = new Http2Transport(connectionManager, NoopTracerFactory.create(), settings());
+    }
+
+    @AfterMethod
+    public void afterMethod() {
+        server.stop(0);
+        connectionManager.shutdown();
+    }
+
+    @Test
+    public void post() throws Exception {
+        HttpPost httpPost = new HttpPost(address);
+        httpPost.setEntity(new ByteArrayEntity("Hello World".getBytes(StandardCharsets.UTF_8),
+                ContentType.APPLICATION_XML));
+
+        try (CloseableHttpClient httpClient = http2Transport.newHttpClient();
+             CloseableHttpResponse response = httpClient.execute(httpPost)) {
+            Assert.assertEquals(response.getStatusLine().getStatusCode(), HttpStatus.SC_OK);
+            Assert.assertEquals(response.getStatusLine().getProtocolVersion().getMajor(), 1);
+            Assert.assertEquals(response.getFirstHeader("x-method").getValue(), "POST");
+            Assert.assertEquals(response.getFirstHeader("X-Content-Type").getValue(),
+                    ContentType.APPLICATION_XML.toString());
+            Assert.assertEquals(response.getEntity().getContentType().getValue(), "text/plain");
+            Assert.assertEquals(EntityUtils.toString(response.getEntity()), "Hello World");
+        }
+
+        Assert.assertEquals(http2Transport.getVersion(address), HttpClient.Version.HTTP_1_1,
+                "Plain HTTP uses HTTP/1.1.");
+        Assert.assertEquals(http2Transport.getLimit(address), 2);
+    }
+
+    @Test
+    public void postStreamed() throws Exception {
+        byte[] content = new byte[1024 * 1024];
+        new Random(42).nextBytes(content);
+
+        AtomicReference<String> writer = new AtomicReference<>();
+        HttpPost httpPost = new HttpPost(address);
+        httpPost.setEntity(new AbstractHttpEntity() {
+            private boolean consumed;
+
+            @Override
+            public boolean isRepeatable() {
+                return false;
+            }
+
+            @Override
+            public long getContentLength() {
+                return -1;
+            }
+
+            @Override
+            public InputStream getContent() {
+                throw new UnsupportedOperationException("Test entity is only written.");
+            }
+
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                Assert.assertFalse(consumed, "Entity written once.");
+                consumed = true;
+
+                writer.set(Thread.currentThread().getName());
+                for (int i = 0; i < content.length; i += 1000)
+                    outputStream.write(content, i, Math.min(1000, content.length - i));
+            }
+
+            @Override
+            public boolean isStreaming() {
+                return !consumed;
+            }
+        });
+
+        try (CloseableHttpClient httpClient = http2Transport.newHttpClient();
+             CloseableHttpResponse response = httpClient.execute(httpPost)) {
+            Assert.assertEquals(response.getStatusLine().getStatusCode(), HttpStatus.SC_OK);
+            Assert.assertEquals(EntityUtils.toByteArray(response.getEntity()), content);
+        }
+
+        // Written while sent, not buffered before sending.
+        Assert.assertTrue(writer.get().startsWith("oxalis-http2-body-"), writer.get());
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = ".*Signing failed.*")
+    public void postFailing() throws Exception {
+        HttpPost httpPost = new HttpPost(address);
+        httpPost.setEntity(new InputStreamEntity(new InputStream() {
+            private int remaining = 100_000;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining == 0)
+                    throw new IOException("Signing failed.");
+
+                remaining--;
+                return 'a';
+            }
+        }));
+
+        try (CloseableHttpClient httpClient = http2Transport.newHttpClient()) {
+            httpClient.execute(httpPost).close();
+        }
+    }
+
+    @Test
+    public void get() throws Exception {
+        try (CloseableHttpClient httpClient = http2Transport.newHttpClient();
+             CloseableHttpResponse response = httpClient.execute(new HttpGet(address))) {
+            Assert.assertEquals(response.getStatusLine().getStatusCode(), HttpStatus.SC_ACCEPTED);
+            Assert.assertEquals(response.getFirstHeader("X-Method").getValue(), "GET");
+        }
+    }
+
+    @Test
+    public void redirectNotFollowed() throws Exception {
+        try (CloseableHttpClient httpClient = http2Transport.newHttpClient();
+             CloseableHttpResponse response = httpClient.execute(new HttpGet(address.resolve("/redirect")))) {
+            Assert.assertEquals(response.getStatusLine().getStatusCode(), HttpStatus.SC_MOVED_TEMPORARILY);
+            Assert.assertEquals(response.getFirstHeader("Location").getValue(), "/");
+        }
+    }
+
+    @Test
+    public void concurrencyIsLimitedPerRoute() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(6);
+        List<Future<Integer>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 6; i++)
+            futures.add(executorService.submit(() -> {
+                try (CloseableHttpClient httpClient = http2Transport.newHttpClient();
+                     CloseableHttpResponse response = httpClient.execute(new HttpGet(address.resolve("/slow")))) {
+                    return response.getStatusLine().getStatusCode();
+                }
+            }));
+
+        for (Future<Integer> future : futures)
+            Assert.assertEquals(future.get(10, TimeUnit.SECONDS), Integer.valueOf(HttpStatus.SC_ACCEPTED));
+
+        executorService.shutdown();
+
+        Assert.assertEquals(maxActive.get(), 2);
+
+        // Waiting makes the route a candidate for a higher limit.
+        connectionManager.maintain();
+        Assert.assertEquals(http2Transport.getLimit(address), 3);
+    }
+
+    @Test(expectedExceptions = HttpHostConnectException.class)
+    public void connectionRefused() throws Exception {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+
+        try (CloseableHttpClient httpClient = http2Transport.newHttpClient()) {
+            httpClient.execute(new HttpGet(String.format("http://localhost:%s/", port)));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Settings<HttpConf> settings() {
+        Settings<HttpConf> settings = Mockito.mock(Settings.class);
+        Mockito.when(settings.getInt(HttpConf.POOL_TOTAL)).thenReturn(20);
+        Mockito.when(settings.getInt(HttpConf.POOL_MAX_ROUTE)).thenReturn(2);
+        Mockito.when(settings.getInt(HttpConf.POOL_TIME_TO_LIVE)).thenReturn(30);
+        Mockito.when(settings.getInt(HttpConf.POOL_IDLE)).thenReturn(30);
+        Mockito.when(settings.getString(HttpConf.POOL_ROUTES)).thenReturn("");
+        Mockito.when(settings.getInt(HttpConf.POOL_SCALE_MAX_ROUTE)).thenReturn(4);
+        Mockito.when(settings.getInt(HttpConf.POOL_SCALE_LEASE_WAIT)).thenReturn(50);
+        Mockito.when(settings.getInt(HttpConf.HTTP2_STREAMS)).thenReturn(100);
+        return settings;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.http;
+
+import com.sun.net.httpserver.HttpServer;
+import network.oxalis.api.lang.OxalisLoadingException;
+import network.oxalis.api.settings.Settings;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RouteConnectionManagerTest {
+
+    @Test
+    public void limitsPerHost() {
+        RouteConnectionManager connectionManager = new RouteConnectionManager(
+                settings("a.example.com=5, b.example.com:8443=3"));
+
+        Assert.assertEquals(connectionManager.getLimit(URI.create("https://a.example.com/as2")), 5);
+        Assert.assertEquals(connectionManager.getLimit(URI.create("http://A.example.com:8080/as2")), 5);
+        Assert.assertEquals(connectionManager.getLimit(URI.create("https://b.example.com:8443/as2")), 3);
+        Assert.assertEquals(connectionManager.getLimit(URI.create("https://b.example.com/as2")), 2);
+        Assert.assertEquals(connectionManager.getLimit(URI.create("https://c.example.com/as2")), 2);
+
+        connectionManager.shutdown();
+    }
+
+    @Test(expectedExceptions = OxalisLoadingException.class)
+    public void invalidLimit() {
+        new RouteConnectionManager(settings("a.example.com"));
+    }
+
+    @Test
+    public void scalesWithQueue() {
+        RouteConnectionManager connectionManager = new RouteConnectionManager(settings(""));
+        URI address = URI.create("https://a.example.com/as2");
+
+        connectionManager.waiting(address);
+        connectionManager.maintain();
+        Assert.assertEquals(connectionManager.getLimit(address), 3);
+
+        connectionManager.waiting(address);
+        connectionManager.maintain();
+        connectionManager.waiting(address);
+        connectionManager.maintain();
+        Assert.assertEquals(connectionManager.getLimit(address), 4, "Limited by scaling max.");
+
+        // No use of the route gives back connections down to the configured limit.
+        for (int i = 0; i < 5; i++)
+            connectionManager.maintain();
+        Assert.assertEquals(connectionManager.getLimit(address), 2);
+
+        connectionManager.shutdown();
+    }
+
+    @Test
+    public void statistics() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = "OK".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+
+        RouteConnectionManager connectionManager = new RouteConnectionManager(settings(""));
+        String address = String.format("http://localhost:%s/", server.getAddress().getPort());
+
+        try (CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setConnectionManagerShared(true)
+                .setKeepAliveStrategy(connectionManager.getKeepAliveStrategy())
+                .build()) {
+            for (int i = 0; i < 3; i++) {
+                try (CloseableHttpResponse response = httpClient.execute(new HttpGet(address))) {
+                    EntityUtils.consume(response.getEntity());
+                }
+            }
+        } finally {
+            server.stop(0);
+        }
+
+        Assert.assertEquals(connectionManager.getStatistics().size(), 1);
+
+        RouteStatistics statistics = connectionManager.getStatistics().get(0);
+        Assert.assertEquals(statistics.getRoute(), String.format("http://localhost:%s", server.getAddress().getPort()));
+        Assert.assertEquals(statistics.getLimit(), 2);
+        Assert.assertEquals(statistics.getLeases(), 3);
+        Assert.assertEquals(statistics.getConnections(), 1, "Connection is reused.");
+        Assert.assertEquals(statistics.getHandshakes(), 0);
+        Assert.assertEquals(statistics.getLeased(), 0);
+        Assert.assertEquals(statistics.getAvailable(), 1);
+
+        connectionManager.shutdown();
+    }
+
+    @Test
+    public void prewarmOnlyRoutesInUse() throws Exception {
+        AtomicInteger accepted = new AtomicInteger();
+
+        // Accepts connections, failing the TLS handshake right away.
+        try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread thread = new Thread(() -> {
+                while (!serverSocket.isClosed()) {
+                    try (Socket socket = serverSocket.accept()) {
+                        accepted.incrementAndGet();
+                    } catch (IOException e) {
+                        // Closed.
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+
+            Settings<HttpConf> settings = settings("");
+            Mockito.when(settings.getInt(HttpConf.POOL_PREWARM)).thenReturn(1);
+            RouteConnectionManager connectionManager = new RouteConnectionManager(settings);
+
+            HttpRoute httpRoute = new HttpRoute(new HttpHost("localhost", serverSocket.getLocalPort(), "https"));
+            HttpClientConnection connection =
+                    connectionManager.requestConnection(httpRoute, null).get(1, TimeUnit.SECONDS);
+            connectionManager.releaseConnection(connection, null, 0, TimeUnit.SECONDS);
+
+            // Route used since previous interval.
+            connectionManager.maintain();
+            Assert.assertEquals(accepted.get(), 1);
+
+            // Route not used since previous interval.
+            connectionManager.maintain();
+            connectionManager.maintain();
+            Assert.assertEquals(accepted.get(), 1);
+
+            connectionManager.shutdown();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Settings<HttpConf> settings(String routes) {
+        Settings<HttpConf> settings = Mockito.mock(Settings.class);
+        Mockito.when(settings.getInt(HttpConf.POOL_TOTAL)).thenReturn(20);
+        Mockito.when(settings.getInt(HttpConf.POOL_MAX_ROUTE)).thenReturn(2);
+        Mockito.when(settings.getInt(HttpConf.POOL_VALIDATE_AFTER_INACTIVITY)).thenReturn(1000);
+        Mockito.when(settings.getInt(HttpConf.POOL_TIME_TO_LIVE)).thenReturn(30);
+        Mockito.when(settings.getInt(HttpConf.POOL_IDLE)).thenReturn(30);
+        Mockito.when(settings.getString(HttpConf.POOL_ROUTES)).thenReturn(routes);
+        Mockito.when(settings.getInt(HttpConf.POOL_SCALE_MAX_ROUTE)).thenReturn(4);
+        Mockito.when(settings.getInt(HttpConf.POOL_SCALE_LEASE_WAIT)).thenReturn(50);
+        Mockito.when(settings.getInt(HttpConf.POOL_PREWARM)).thenReturn(0);
+        Mockito.when(settings.getInt(HttpConf.POOL_INTERVAL)).thenReturn(0);
+        return settings;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.io;
+
+import com.google.common.io.ByteStreams;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+public class RewindableContentTest {
+
+    @Test
+    public void simpleMemory() throws IOException {
+        byte[] bytes = "Hello World!".getBytes();
+
+        try (RewindableContent content = RewindableContent.of(new ByteArrayInputStream(bytes), 1024)) {
+            Assert.assertFalse(content.isSpilled());
+            Assert.assertEquals(content.size(), bytes.length);
+
+            Assert.assertEquals(ByteStreams.toByteArray(content.newInputStream()), bytes);
+            Assert.assertEquals(ByteStreams.toByteArray(content.newInputStream()), bytes);
+        }
+    }
+
+    @Test
+    public void simpleSpilled() throws IOException {
+        byte[] bytes = new byte[100_000];
+        new Random(42).nextBytes(bytes);
+
+        try (RewindableContent content = RewindableContent.of(new ByteArrayInputStream(bytes), 1000)) {
+            Assert.assertTrue(content.isSpilled());
+            Assert.assertEquals(content.size(), bytes.length);
+
+            // Independent readers.
+            InputStream first = content.newInputStream();
+            InputStream second = content.newInputStream();
+
+            byte[] head = new byte[1500];
+            ByteStreams.readFully(first, head);
+            Assert.assertEquals(ByteStreams.toByteArray(second).length, bytes.length);
+
+            Assert.assertEquals(first.read(), bytes[1500] & 0xff);
+            Assert.assertEquals(first.skip(10), 10);
+            Assert.assertEquals(ByteStreams.toByteArray(first).length, bytes.length - 1511);
+        }
+    }
+
+    @Test
+    public void emptyContent() throws IOException {
+        try (RewindableContent content = RewindableContent.of(new ByteArrayInputStream(new byte[0]), 0)) {
+            Assert.assertEquals(content.size(), 0);
+            Assert.assertEquals(content.newInputStream().read(), -1);
+        }
+    }
+
+    @Test
+    public void readerOutlivesContent() throws IOException {
+        byte[] bytes = new byte[10_000];
+        new Random(42).nextBytes(bytes);
+
+        RewindableContent content = RewindableContent.of(new ByteArrayInputStream(bytes), 100);
+        InputStream inputStream = content.newInputStream();
+        content.close();
+
+        try {
+            content.newInputStream();
+            Assert.fail("Expected exception.");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        Assert.assertEquals(ByteStreams.toByteArray(inputStream), bytes);
+
+        // Content is released when reader reaches end of content.
+        Assert.assertEquals(inputStream.read(), -1);
+    }
+
+    @Test
+    public void output() throws IOException {
+        RewindableContent content;
+        try (RewindableContent.Output outputStream = RewindableContent.newOutput(4)) {
+            outputStream.write("Hello".getBytes());
+            outputStream.write(' ');
+            outputStream.write("World!".getBytes());
+
+            content = outputStream.toContent();
+        }
+
+        try (InputStream inputStream = content.newInputStream()) {
+            Assert.assertEquals(new String(ByteStreams.toByteArray(inputStream)), "Hello World!");
+        } finally {
+            content.close();
+        }
+    }
+}
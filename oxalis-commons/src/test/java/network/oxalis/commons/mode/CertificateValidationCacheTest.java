@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.mode;
+
+import network.oxalis.vefa.peppol.common.code.Service;
+import network.oxalis.vefa.peppol.security.lang.PeppolSecurityException;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CertificateValidationCacheTest {
+
+    @Test
+    public void simple() throws Exception {
+        CertificateValidationCache cache = new CertificateValidationCache(100, 3600, 30, 0);
+        X509Certificate certificate = certificate(new byte[]{1}, 3600_000);
+        AtomicInteger counter = new AtomicInteger();
+
+        Assert.assertFalse(cache.validate(Service.AP, certificate, counter::incrementAndGet));
+        Assert.assertTrue(cache.validate(Service.AP, certificate, counter::incrementAndGet));
+        Assert.assertEquals(counter.get(), 1);
+
+        // Same certificate validated for another service.
+        Assert.assertFalse(cache.validate(Service.SMP, certificate, counter::incrementAndGet));
+        Assert.assertEquals(counter.get(), 2);
+
+        // Another certificate.
+        Assert.assertFalse(cache.validate(Service.AP, certificate(new byte[]{2}, 3600_000), counter::incrementAndGet));
+        Assert.assertEquals(counter.get(), 3);
+
+        Assert.assertEquals(cache.getStats().hitCount(), 1);
+        Assert.assertEquals(cache.size(), 3);
+    }
+
+    @Test
+    public void negative() throws Exception {
+        CertificateValidationCache cache = new CertificateValidationCache(100, 3600, 30, 0);
+        X509Certificate certificate = certificate(new byte[]{1}, 3600_000);
+        AtomicInteger counter = new AtomicInteger();
+
+        CertificateValidationCache.Validation validation = () -> {
+            counter.incrementAndGet();
+            throw new PeppolSecurityException("Revoked.");
+        };
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.validate(Service.AP, certificate, validation);
+                Assert.fail("Exception expected.");
+            } catch (PeppolSecurityException e) {
+                Assert.assertEquals(e.getMessage(), "Revoked.");
+            }
+        }
+
+        Assert.assertEquals(counter.get(), 1);
+        Assert.assertEquals(cache.getFailures(), 1);
+    }
+
+    @Test
+    public void negativeExpired() throws Exception {
+        CertificateValidationCache cache = new CertificateValidationCache(100, 3600, 0, 0);
+        X509Certificate certificate = certificate(new byte[]{1}, 3600_000);
+        AtomicInteger counter = new AtomicInteger();
+
+        CertificateValidationCache.Validation validation = () -> {
+            if (counter.incrementAndGet() == 1)
+                throw new PeppolSecurityException("Unable to fetch CRL.");
+        };
+
+        Assert.assertThrows(PeppolSecurityException.class, () -> cache.validate(Service.AP, certificate, validation));
+        Thread.sleep(5);
+        Assert.assertFalse(cache.validate(Service.AP, certificate, validation));
+        Assert.assertTrue(cache.validate(Service.AP, certificate, validation));
+        Assert.assertEquals(counter.get(), 2);
+    }
+
+    @Test
+    public void expiresWithCertificate() throws Exception {
+        CertificateValidationCache cache = new CertificateValidationCache(100, 3600, 30, 0);
+        X509Certificate certificate = certificate(new byte[]{1}, 0);
+        AtomicInteger counter = new AtomicInteger();
+
+        cache.validate(Service.AP, certificate, counter::incrementAndGet);
+        Thread.sleep(5);
+        Assert.assertFalse(cache.validate(Service.AP, certificate, counter::incrementAndGet));
+        Assert.assertEquals(counter.get(), 2);
+    }
+
+    @Test
+    public void expiresWithNextUpdate() throws Exception {
+        CertificateValidationCache cache = new CertificateValidationCache(100, 3600, 30, 0);
+        X509Certificate certificate = certificate(new byte[]{1}, 3600_000);
+        AtomicInteger counter = new AtomicInteger();
+
+        CertificateValidationCache.Validation validation = () -> {
+            counter.incrementAndGet();
+            cache.observe("http://crl.example.com/", new Date());
+        };
+
+        cache.validate(Service.AP, certificate, validation);
+        Thread.sleep(5);
+        Assert.assertFalse(cache.validate(Service.AP, certificate, validation));
+        Assert.assertEquals(counter.get(), 2);
+
+        // Observations outside validation are ignored.
+        cache.observe("http://crl.example.com/", new Date());
+    }
+
+    @Test
+    public void invalidatedByRefresh() throws Exception {
+        CertificateValidationCache cache = new CertificateValidationCache(100, 3600, 30, 0);
+        X509Certificate first = certificate(new byte[]{1}, 3600_000);
+        X509Certificate second = certificate(new byte[]{2}, 3600_000);
+        AtomicInteger counter = new AtomicInteger();
+
+        cache.validate(Service.AP, first, () -> {
+            counter.incrementAndGet();
+            cache.observe("http://crl.example.com/first", new Date(System.currentTimeMillis() + 3600_000));
+        });
+        cache.validate(Service.AP, second, () -> {
+            counter.incrementAndGet();
+            cache.observe("http://crl.example.com/second", null);
+        });
+        Assert.assertEquals(cache.size(), 2);
+
+        cache.invalidate("http://crl.example.com/first");
+        Assert.assertEquals(cache.size(), 1);
+        Assert.assertEquals(cache.getInvalidations(), 1);
+
+        Assert.assertFalse(cache.validate(Service.AP, first, counter::incrementAndGet));
+        Assert.assertTrue(cache.validate(Service.AP, second, counter::incrementAndGet));
+        Assert.assertEquals(counter.get(), 3);
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        CertificateValidationCache cache = new CertificateValidationCache(100, 0, 30, 0);
+        X509Certificate certificate = certificate(new byte[]{1}, 3600_000);
+        AtomicInteger counter = new AtomicInteger();
+
+        Assert.assertFalse(cache.validate(Service.AP, certificate, counter::incrementAndGet));
+        Assert.assertFalse(cache.validate(Service.AP, certificate, counter::incrementAndGet));
+        Assert.assertEquals(counter.get(), 2);
+        Assert.assertEquals(cache.size(), 0);
+    }
+
+    private static X509Certificate certificate(byte[] encoded, long validity) throws Exception {
+        X509Certificate certificate = Mockito.mock(X509Certificate.class);
+        Mockito.when(certificate.getEncoded()).thenReturn(encoded);
+        Mockito.when(certificate.getNotAfter()).thenReturn(new Date(System.currentTimeMillis() + validity));
+        return certificate;
+    }
+}
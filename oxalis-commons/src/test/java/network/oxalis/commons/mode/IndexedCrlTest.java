@@ -0,0 +1,111 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.mode;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+public class IndexedCrlTest {
+
+    private static final KeyPair KEY_PAIR = keyPair();
+
+    @Test
+    public void shortSerials() throws Exception {
+        X509CRL crl = crl(new Date(System.currentTimeMillis() + 3600_000),
+                BigInteger.valueOf(5), BigInteger.valueOf(1), BigInteger.valueOf(Long.MAX_VALUE));
+        IndexedCrl indexedCrl = IndexedCrl.of(crl);
+
+        Assert.assertEquals(indexedCrl.size(), 3);
+        Assert.assertTrue(indexedCrl.isRevoked(certificate(BigInteger.valueOf(5))));
+        Assert.assertTrue(indexedCrl.isRevoked(certificate(BigInteger.valueOf(Long.MAX_VALUE))));
+        Assert.assertFalse(indexedCrl.isRevoked(certificate(BigInteger.valueOf(2))));
+        Assert.assertFalse(indexedCrl.isRevoked(certificate(BigInteger.ONE.shiftLeft(64).add(BigInteger.ONE))));
+    }
+
+    @Test
+    public void longSerials() throws Exception {
+        BigInteger serial = new BigInteger("7a3bd6e1f0c2a4b19e8d3f5c6b7a8e9d", 16);
+        IndexedCrl indexedCrl = IndexedCrl.of(crl(null, serial, BigInteger.TEN));
+
+        Assert.assertEquals(indexedCrl.size(), 2);
+        Assert.assertTrue(indexedCrl.isRevoked(certificate(serial)));
+        Assert.assertTrue(indexedCrl.isRevoked(certificate(BigInteger.TEN)));
+        Assert.assertFalse(indexedCrl.isRevoked(certificate(serial.add(BigInteger.ONE))));
+        Assert.assertNull(indexedCrl.getNextUpdate());
+    }
+
+    @Test
+    public void fullList() throws Exception {
+        Date nextUpdate = new Date(System.currentTimeMillis() + 3600_000);
+        X509CRL crl = crl(nextUpdate, BigInteger.valueOf(5));
+        IndexedCrl indexedCrl = IndexedCrl.of(crl);
+
+        Assert.assertEquals(indexedCrl.getIssuerX500Principal(), crl.getIssuerX500Principal());
+        Assert.assertEquals(indexedCrl.getThisUpdate(), crl.getThisUpdate());
+        Assert.assertEquals(indexedCrl.getNextUpdate(), crl.getNextUpdate());
+        Assert.assertEquals(indexedCrl.getEncoded(), crl.getEncoded());
+        Assert.assertEquals(indexedCrl.getRevokedCertificates().size(), 1);
+        Assert.assertNotNull(indexedCrl.getRevokedCertificate(BigInteger.valueOf(5)));
+        Assert.assertNull(indexedCrl.getRevokedCertificate(BigInteger.valueOf(6)));
+
+        indexedCrl.verify(KEY_PAIR.getPublic());
+    }
+
+    static X509CRL crl(Date nextUpdate, BigInteger... serials) throws Exception {
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name("CN=Test CA"), new Date());
+        if (nextUpdate != null)
+            builder.setNextUpdate(nextUpdate);
+        for (BigInteger serial : serials)
+            builder.addCRLEntry(serial, new Date(), CRLReason.keyCompromise);
+
+        return new JcaX509CRLConverter().getCRL(
+                builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(KEY_PAIR.getPrivate())));
+    }
+
+    static X509Certificate certificate(BigInteger serial) {
+        X509Certificate certificate = Mockito.mock(X509Certificate.class);
+        Mockito.when(certificate.getSerialNumber()).thenReturn(serial);
+        return certificate;
+    }
+
+    private static KeyPair keyPair() {
+        try {
+            return KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.mode;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.HttpContext;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.cert.X509CRL;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OxalisCrlFetcherTest {
+
+    private static final String URL = "http://crl.example.com/ca.crl";
+
+    @Test
+    public void simple() throws Exception {
+        X509CRL crl = IndexedCrlTest.crl(new Date(System.currentTimeMillis() + 3600_000), BigInteger.TEN);
+        List<String> threads = new CopyOnWriteArrayList<>();
+        OxalisCrlFetcher fetcher = fetcher(client(crl, threads, new AtomicBoolean()), 3600_000);
+
+        X509CRL result = fetcher.get(URL);
+        Assert.assertTrue(result instanceof IndexedCrl);
+        Assert.assertTrue(result.isRevoked(IndexedCrlTest.certificate(BigInteger.TEN)));
+        Assert.assertFalse(result.isRevoked(IndexedCrlTest.certificate(BigInteger.ONE)));
+
+        Assert.assertSame(fetcher.get(URL), result);
+        Assert.assertEquals(threads.size(), 1);
+        Assert.assertEquals(fetcher.getDistributionPoints().size(), 1);
+    }
+
+    @Test
+    public void refreshedInBackground() throws Exception {
+        X509CRL crl = IndexedCrlTest.crl(new Date(System.currentTimeMillis() + 3600_000), BigInteger.TEN);
+        List<String> threads = new CopyOnWriteArrayList<>();
+        OxalisCrlFetcher fetcher = fetcher(client(crl, threads, new AtomicBoolean()), 50);
+
+        X509CRL first = fetcher.get(URL);
+        Thread.sleep(300);
+
+        Assert.assertTrue(threads.size() > 1);
+        Assert.assertEquals(threads.get(0), Thread.currentThread().getName());
+        Assert.assertTrue(threads.subList(1, threads.size()).stream().allMatch(t -> t.startsWith("oxalis-crl-")));
+        Assert.assertNotSame(fetcher.get(URL), first);
+    }
+
+    @Test
+    public void failedRefreshKeepsList() throws Exception {
+        X509CRL crl = IndexedCrlTest.crl(new Date(System.currentTimeMillis() + 3600_000), BigInteger.TEN);
+        List<String> threads = new CopyOnWriteArrayList<>();
+        AtomicBoolean failing = new AtomicBoolean();
+        OxalisCrlFetcher fetcher = fetcher(client(crl, threads, failing), 50);
+
+        X509CRL first = fetcher.get(URL);
+        failing.set(true);
+        Thread.sleep(300);
+
+        Assert.assertTrue(threads.size() > 1);
+        Assert.assertSame(fetcher.get(URL), first);
+        Assert.assertEquals(threads.stream().filter(t -> !t.startsWith("oxalis-crl-")).count(), 1);
+    }
+
+    @Test
+    public void expiredListNotModified() throws Exception {
+        X509CRL expired = IndexedCrlTest.crl(new Date(System.currentTimeMillis() - 1000), BigInteger.TEN);
+        X509CRL current = IndexedCrlTest.crl(new Date(System.currentTimeMillis() + 3600_000), BigInteger.TEN);
+        AtomicInteger downloads = new AtomicInteger();
+
+        // Responds not modified to every conditional request, like a distribution point publishing late.
+        CloseableHttpClient httpClient = Mockito.mock(CloseableHttpClient.class);
+        Mockito.when(httpClient.execute(Mockito.any(HttpUriRequest.class), Mockito.any(HttpContext.class)))
+                .thenAnswer(invocation -> {
+                    CloseableHttpResponse response = Mockito.mock(CloseableHttpResponse.class);
+                    if (invocation.<HttpUriRequest>getArgument(0).containsHeader(HttpHeaders.IF_MODIFIED_SINCE)) {
+                        Mockito.when(response.getStatusLine()).thenReturn(
+                                new BasicStatusLine(HttpVersion.HTTP_1_1, 304, "Not Modified"));
+                        return response;
+                    }
+
+                    X509CRL crl = downloads.getAndIncrement() == 0 ? expired : current;
+                    Mockito.when(response.getStatusLine())
+                            .thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"));
+                    Mockito.when(response.containsHeader(HttpHeaders.LAST_MODIFIED)).thenReturn(true);
+                    Mockito.when(response.getFirstHeader(HttpHeaders.LAST_MODIFIED))
+                            .thenReturn(new BasicHeader(HttpHeaders.LAST_MODIFIED, "Mon, 01 Jan 2024 00:00:00 GMT"));
+                    Mockito.when(response.getEntity()).thenReturn(new ByteArrayEntity(crl.getEncoded()));
+                    return response;
+                });
+        OxalisCrlFetcher fetcher = fetcher(httpClient, 3600_000);
+
+        Assert.assertEquals(fetcher.get(URL).getNextUpdate(), expired.getNextUpdate());
+        Assert.assertEquals(fetcher.get(URL).getNextUpdate(), current.getNextUpdate());
+        Assert.assertEquals(fetcher.get(URL).getNextUpdate(), current.getNextUpdate());
+        Assert.assertEquals(downloads.get(), 2);
+    }
+
+    @Test
+    public void unsupported() throws Exception {
+        OxalisCrlFetcher fetcher = fetcher(Mockito.mock(CloseableHttpClient.class), 3600_000);
+
+        Assert.assertNull(fetcher.get("ldap://crl.example.com/ca.crl"));
+        Assert.assertNull(fetcher.get(null));
+        Assert.assertTrue(fetcher.getDistributionPoints().isEmpty());
+    }
+
+    private static OxalisCrlFetcher fetcher(CloseableHttpClient httpClient, long interval) {
+        return new OxalisCrlFetcher(() -> httpClient, RequestConfig.DEFAULT,
+                new CertificateValidationCache(100, 3600, 30, 0), interval, 10, 3600_000, 1000);
+    }
+
+    private static CloseableHttpClient client(X509CRL crl, List<String> threads, AtomicBoolean failing)
+            throws Exception {
+        CloseableHttpClient httpClient = Mockito.mock(CloseableHttpClient.class);
+        Mockito.when(httpClient.execute(Mockito.any(HttpUriRequest.class), Mockito.any(HttpContext.class)))
+                .thenAnswer(invocation -> {
+                    threads.add(Thread.currentThread().getName());
+                    if (failing.get())
+                        throw new IOException("Connection refused");
+
+                    CloseableHttpResponse response = Mockito.mock(CloseableHttpResponse.class);
+                    Mockito.when(response.getStatusLine())
+                            .thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"));
+                    Mockito.when(response.getEntity()).thenReturn(new ByteArrayEntity(crl.getEncoded()));
+                    return response;
+                });
+        return httpClient;
+    }
+}
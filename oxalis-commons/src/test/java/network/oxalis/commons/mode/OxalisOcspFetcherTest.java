@@ -0,0 +1,276 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.mode;
+
+import network.oxalis.pkix.ocsp.api.OcspFetcherResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.HttpContext;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.ocsp.CertID;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.ocsp.*;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OxalisOcspFetcherTest {
+
+    private static final URI URI = java.net.URI.create("http://ocsp.example.com/");
+
+    private static final KeyPair KEY_PAIR = keyPair();
+
+    private static final CertificateID CERTIFICATE = certificateId(BigInteger.TEN);
+
+    @Test
+    public void simple() throws Exception {
+        byte[] response = response(CERTIFICATE, CertificateStatus.GOOD, 3600_000);
+        AtomicInteger counter = new AtomicInteger();
+        OxalisOcspFetcher fetcher = fetcher(client(response, counter, null), new OcspResponseStore());
+
+        Assert.assertEquals(read(fetcher.fetch(URI, request(CERTIFICATE))), response);
+        Assert.assertEquals(read(fetcher.fetch(URI, request(CERTIFICATE))), response);
+        Assert.assertEquals(counter.get(), 1);
+        Assert.assertEquals(fetcher.getHits(), 1);
+        Assert.assertEquals(fetcher.getMisses(), 1);
+
+        // Another certificate.
+        fetcher.fetch(URI, request(certificateId(BigInteger.ONE)));
+        Assert.assertEquals(counter.get(), 2);
+    }
+
+    @Test
+    public void coalesced() throws Exception {
+        byte[] response = response(CERTIFICATE, CertificateStatus.GOOD, 3600_000);
+        AtomicInteger counter = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        CloseableHttpClient httpClient = client(response, counter, latch);
+        CertificateValidationCache validationCache = Mockito.mock(CertificateValidationCache.class);
+        OxalisOcspFetcher fetcher = new OxalisOcspFetcher(() -> httpClient, RequestConfig.DEFAULT, validationCache,
+                3600_000, new OcspResponseStore());
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++)
+                futures.add(executor.submit(() -> read(fetcher.fetch(URI, request(CERTIFICATE)))));
+
+            Thread.sleep(200);
+            latch.countDown();
+
+            for (Future<byte[]> future : futures)
+                Assert.assertEquals(future.get(), response);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(counter.get(), 1);
+
+        // Expiry of the response is observed by every request, including those waiting for the response.
+        Mockito.verify(validationCache, Mockito.times(5))
+                .observe(Mockito.endsWith(":a"), Mockito.any(Date.class));
+    }
+
+    @Test
+    public void persisted() throws Exception {
+        Path path = Files.createTempFile("ocsp", ".cache");
+        try {
+            byte[] response = response(CERTIFICATE, CertificateStatus.GOOD, 3600_000);
+            byte[] revoked = response(certificateId(BigInteger.ONE), new RevokedStatus(new Date(), 1), 3600_000);
+            AtomicInteger counter = new AtomicInteger();
+
+            try (OcspResponseStore store = new OcspResponseStore(path)) {
+                fetcher(client(response, counter, null), store).fetch(URI, request(CERTIFICATE));
+                fetcher(client(revoked, counter, null), store).fetch(URI, request(certificateId(BigInteger.ONE)));
+                Assert.assertEquals(store.size(), 2);
+            }
+
+            // Only good responses are kept after restart.
+            try (OcspResponseStore store = new OcspResponseStore(path)) {
+                Assert.assertEquals(store.size(), 1);
+
+                OxalisOcspFetcher fetcher = fetcher(client(response, counter, null), store);
+                Assert.assertEquals(read(fetcher.fetch(URI, request(CERTIFICATE))), response);
+                Assert.assertEquals(counter.get(), 2);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void compactedWhileRunning() throws Exception {
+        Path path = Files.createTempFile("ocsp", ".cache");
+        try {
+            OcspResponseStore.Key key = new OcspResponseStore.Key(new byte[20], BigInteger.TEN);
+            byte[] content = new byte[100];
+
+            try (OcspResponseStore store = new OcspResponseStore(path)) {
+                for (int i = 0; i < 5000; i++)
+                    store.put(key, content, System.currentTimeMillis() + 3600_000, true);
+
+                Assert.assertTrue(Files.size(path) < 1100 * 150, "Size: " + Files.size(path));
+            }
+
+            try (OcspResponseStore store = new OcspResponseStore(path)) {
+                Assert.assertEquals(store.get(key).getContent(), content);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void expiredEvicted() throws Exception {
+        OcspResponseStore store = new OcspResponseStore();
+
+        // Expires right away.
+        for (int i = 0; i < 1023; i++)
+            store.put(new OcspResponseStore.Key(new byte[20], BigInteger.valueOf(i)), new byte[100],
+                    System.currentTimeMillis() - 1, true);
+        Assert.assertEquals(store.size(), 1023);
+
+        OcspResponseStore.Key key = new OcspResponseStore.Key(new byte[20], BigInteger.valueOf(-1));
+        store.put(key, new byte[100], System.currentTimeMillis() + 3600_000, true);
+        Assert.assertEquals(store.size(), 1);
+        Assert.assertNotNull(store.get(key));
+    }
+
+    @Test
+    public void notCached() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+
+        // Unknown status.
+        OxalisOcspFetcher fetcher = fetcher(client(response(CERTIFICATE, new UnknownStatus(), 3600_000),
+                counter, null), new OcspResponseStore());
+        fetcher.fetch(URI, request(CERTIFICATE));
+        fetcher.fetch(URI, request(CERTIFICATE));
+        Assert.assertEquals(counter.get(), 2);
+
+        // Response already expired.
+        fetcher = fetcher(client(response(CERTIFICATE, CertificateStatus.GOOD, -1000), counter, null),
+                new OcspResponseStore());
+        fetcher.fetch(URI, request(CERTIFICATE));
+        fetcher.fetch(URI, request(CERTIFICATE));
+        Assert.assertEquals(counter.get(), 4);
+
+        // Multiple certificates requested.
+        fetcher = fetcher(client(response(CERTIFICATE, CertificateStatus.GOOD, 3600_000), counter, null),
+                new OcspResponseStore());
+        byte[] request = new OCSPReqBuilder()
+                .addRequest(CERTIFICATE)
+                .addRequest(certificateId(BigInteger.ONE))
+                .build().getEncoded();
+        fetcher.fetch(URI, request);
+        fetcher.fetch(URI, request);
+        Assert.assertEquals(counter.get(), 6);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void failure() throws Exception {
+        CloseableHttpClient httpClient = Mockito.mock(CloseableHttpClient.class);
+        Mockito.when(httpClient.execute(Mockito.any(HttpUriRequest.class), Mockito.any(HttpContext.class)))
+                .thenThrow(new IOException("Connection refused"));
+
+        fetcher(httpClient, new OcspResponseStore()).fetch(URI, request(CERTIFICATE));
+    }
+
+    private static OxalisOcspFetcher fetcher(CloseableHttpClient httpClient, OcspResponseStore store) {
+        return new OxalisOcspFetcher(() -> httpClient, RequestConfig.DEFAULT,
+                new CertificateValidationCache(100, 3600, 30, 0), 3600_000, store);
+    }
+
+    private static CloseableHttpClient client(byte[] content, AtomicInteger counter, CountDownLatch latch)
+            throws Exception {
+        CloseableHttpClient httpClient = Mockito.mock(CloseableHttpClient.class);
+        Mockito.when(httpClient.execute(Mockito.any(HttpUriRequest.class), Mockito.any(HttpContext.class)))
+                .thenAnswer(invocation -> {
+                    counter.incrementAndGet();
+                    if (latch != null)
+                        latch.await();
+
+                    CloseableHttpResponse response = Mockito.mock(CloseableHttpResponse.class);
+                    Mockito.when(response.getStatusLine())
+                            .thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"));
+                    Mockito.when(response.getEntity()).thenReturn(new ByteArrayEntity(content));
+                    return response;
+                });
+        return httpClient;
+    }
+
+    private static byte[] request(CertificateID certificateID) throws Exception {
+        return new OCSPReqBuilder().addRequest(certificateID).build().getEncoded();
+    }
+
+    private static byte[] response(CertificateID certificateID, CertificateStatus status, long validity)
+            throws Exception {
+        BasicOCSPResp basicOCSPResp = new BasicOCSPRespBuilder(new RespID(new X500Name("CN=Test OCSP")))
+                .addResponse(certificateID, status, new Date(), new Date(System.currentTimeMillis() + validity))
+                .build(new JcaContentSignerBuilder("SHA256withRSA").build(KEY_PAIR.getPrivate()), null, new Date());
+
+        return new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, basicOCSPResp).getEncoded();
+    }
+
+    private static CertificateID certificateId(BigInteger serial) {
+        return new CertificateID(new CertID(new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1),
+                new DEROctetString(new byte[20]), new DEROctetString(new byte[]{1, 2, 3, 4}),
+                new ASN1Integer(serial)));
+    }
+
+    private static byte[] read(OcspFetcherResponse response) throws IOException {
+        return response.getContent().readAllBytes();
+    }
+
+    private static KeyPair keyPair() {
+        try {
+            return KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
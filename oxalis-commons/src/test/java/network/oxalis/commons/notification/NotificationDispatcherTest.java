@@ -0,0 +1,145 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.notification;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NotificationDispatcherTest {
+
+    private HttpServer httpServer;
+
+    private URI uri;
+
+    private BlockingQueue<String> received;
+
+    private AtomicInteger statusCode;
+
+    private CloseableHttpClient httpClient;
+
+    private Path journal;
+
+    private NotificationDispatcher dispatcher;
+
+    @BeforeMethod
+    public void beforeMethod() throws IOException {
+        received = new LinkedBlockingQueue<>();
+        statusCode = new AtomicInteger(200);
+
+        httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        httpServer.createContext("/notification", exchange -> {
+            received.add(new String(ByteStreams.toByteArray(exchange.getRequestBody()), StandardCharsets.UTF_8));
+            exchange.sendResponseHeaders(statusCode.get(), -1);
+            exchange.close();
+        });
+        httpServer.start();
+
+        uri = URI.create(String.format("http://localhost:%s/notification", httpServer.getAddress().getPort()));
+        httpClient = HttpClients.createDefault();
+        journal = Files.createTempFile("oxalis-notification", ".journal");
+    }
+
+    @AfterMethod
+    public void afterMethod() throws Exception {
+        if (dispatcher != null)
+            dispatcher.stop();
+
+        httpServer.stop(0);
+        httpClient.close();
+        Files.deleteIfExists(journal);
+    }
+
+    @Test
+    public void simple() throws Exception {
+        dispatcher = new NotificationDispatcher(uri, httpClient, journal, 10, 1, 50, 0, 10, 1000);
+        dispatcher.dispatch("{\"id\":1}");
+
+        Assert.assertEquals(received.poll(5, TimeUnit.SECONDS), "[{\"id\":1}]");
+
+        // Delivered notification is removed from journal.
+        for (int i = 0; i < 50 && dispatcher.pending().size() > 0; i++)
+            Thread.sleep(100);
+        Assert.assertTrue(dispatcher.pending().isEmpty());
+    }
+
+    @Test
+    public void recoverFromJournal() throws Exception {
+        statusCode.set(500);
+
+        dispatcher = new NotificationDispatcher(uri, httpClient, journal, 10, 1, 50, 0, 10, 1000);
+        dispatcher.dispatch("{\"id\":1}");
+        dispatcher.dispatch("{\"id\":2}");
+
+        Assert.assertNotNull(received.poll(5, TimeUnit.SECONDS));
+
+        List<Notification> pending = dispatcher.pending();
+        Assert.assertEquals(pending.size(), 2);
+        Assert.assertEquals(pending.get(0).getContent(), "{\"id\":1}");
+
+        // A new dispatcher picks up notifications left in the journal.
+        dispatcher.stop();
+        statusCode.set(200);
+        received.clear();
+        dispatcher = new NotificationDispatcher(uri, httpClient, journal, 10, 1, 50, 0, 10, 1000);
+
+        String content;
+        while ((content = received.poll(5, TimeUnit.SECONDS)) != null)
+            if (content.equals("[{\"id\":1},{\"id\":2}]"))
+                return;
+
+        Assert.fail("Notifications from journal not delivered.");
+    }
+
+    @Test
+    public void compactJournal() throws Exception {
+        NotificationJournal notificationJournal = new NotificationJournal(journal);
+        Notification first = notificationJournal.append("{\"id\":0}");
+
+        for (int i = 1; i <= 2000; i++)
+            notificationJournal.acknowledge(Collections.singletonList(notificationJournal.append("{\"id\":" + i + "}")));
+
+        // Journal is compacted while a notification is pending.
+        Assert.assertTrue(Files.readAllLines(journal).size() < 2000);
+        Assert.assertEquals(notificationJournal.pending().size(), 1);
+        Assert.assertEquals(notificationJournal.pending().get(0).getSequence(), first.getSequence());
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.persist;
+
+import com.google.common.hash.HashCode;
+import network.oxalis.api.inbound.InboundMetadata;
+import network.oxalis.api.model.TransmissionIdentifier;
+import network.oxalis.api.persist.PersisterHandler;
+import network.oxalis.vefa.peppol.common.code.DigestMethod;
+import network.oxalis.vefa.peppol.common.model.Digest;
+import network.oxalis.vefa.peppol.common.model.Header;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+public class DeduplicatingPersisterTest {
+
+    private static final Header HEADER = Header.newInstance();
+
+    private static final long RETENTION = 3600_000;
+
+    private Path folder;
+
+    private PersisterHandler delegate;
+
+    @BeforeMethod
+    public void beforeMethod() throws IOException {
+        folder = Files.createTempDirectory("oxalis-dedup");
+        delegate = Mockito.mock(PersisterHandler.class);
+
+        Mockito.when(delegate.persist(any(TransmissionIdentifier.class), any(Header.class), any(InputStream.class),
+                any(Digest.class))).then(invocation -> {
+            TransmissionIdentifier transmissionIdentifier = invocation.getArgument(0);
+            Path path = folder.resolve(transmissionIdentifier.getIdentifier() + ".doc.xml");
+            Files.copy(invocation.<InputStream>getArgument(2), path, StandardCopyOption.REPLACE_EXISTING);
+            return path;
+        });
+    }
+
+    @AfterMethod
+    public void afterMethod() throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            List<Path> list = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            for (Path path : list)
+                Files.delete(path);
+        }
+    }
+
+    @Test
+    public void retransmission() throws IOException {
+        DeduplicatingPersister persister = new DeduplicatingPersister(delegate, folder.resolve("dedup"), RETENTION);
+
+        Path first = receive(persister, "first", "Hello");
+        Assert.assertEquals(receive(persister, "first", "Hello"), first);
+
+        // Restart
+        persister = new DeduplicatingPersister(delegate, folder.resolve("dedup"), RETENTION);
+        Assert.assertEquals(receive(persister, "first", "Hello"), first);
+
+        Mockito.verify(delegate, Mockito.times(1))
+                .persist(any(TransmissionIdentifier.class), any(Header.class), any(InputStream.class), any(Digest.class));
+        Mockito.verify(delegate, Mockito.times(1)).persist(any(InboundMetadata.class), eq(first));
+    }
+
+    @Test
+    public void sameContent() throws IOException {
+        DeduplicatingPersister persister = new DeduplicatingPersister(delegate, folder.resolve("dedup"), RETENTION);
+
+        Path first = receive(persister, "first", "Hello");
+        Assert.assertEquals(receive(persister, "second", "Hello"), first);
+        Assert.assertNotEquals(receive(persister, "third", "World"), first);
+
+        // Receipts are persisted for each message.
+        Mockito.verify(delegate, Mockito.times(2)).persist(any(InboundMetadata.class), eq(first));
+    }
+
+    @Test
+    public void reusedMessageId() throws IOException {
+        DeduplicatingPersister persister = new DeduplicatingPersister(delegate, folder.resolve("dedup"), RETENTION);
+
+        Path first = receive(persister, "first", "Hello");
+
+        // Same Message-ID with other content is a new message.
+        Assert.assertEquals(receive(persister, "first", "World"), first);
+        Assert.assertEquals(new String(Files.readAllBytes(first)), "World");
+
+        Mockito.verify(delegate, Mockito.times(2))
+                .persist(any(TransmissionIdentifier.class), any(Header.class), any(InputStream.class), any(Digest.class));
+    }
+
+    @Test
+    public void removedPayload() throws IOException {
+        DeduplicatingPersister persister = new DeduplicatingPersister(delegate, folder.resolve("dedup"), RETENTION);
+
+        Path first = receive(persister, "first", "Hello");
+        Files.delete(first);
+
+        Assert.assertEquals(receive(persister, "second", "Hello"), folder.resolve("second.doc.xml"));
+    }
+
+    @Test
+    public void failedRetransmission() throws IOException {
+        DeduplicatingPersister persister = new DeduplicatingPersister(delegate, folder.resolve("dedup"), RETENTION);
+        TransmissionIdentifier transmissionIdentifier = TransmissionIdentifier.of("first");
+
+        Path first = receive(persister, "first", "Hello");
+        Path path = persister.persist(transmissionIdentifier, HEADER, stream("Hello"), digest("Hello"));
+        persister.persist(transmissionIdentifier, HEADER, path, new Exception("Failed"));
+
+        // Payload of earlier message is not handed to exception persister.
+        Mockito.verify(delegate, Mockito.never()).persist(any(TransmissionIdentifier.class), any(Header.class),
+                eq(first), any(Exception.class));
+    }
+
+    @Test
+    public void concurrentRetransmissions() throws IOException {
+        DeduplicatingPersister persister = new DeduplicatingPersister(delegate, folder.resolve("dedup"), RETENTION);
+        TransmissionIdentifier transmissionIdentifier = TransmissionIdentifier.of("first");
+
+        Path first = receive(persister, "first", "Hello");
+        Path path1 = persister.persist(transmissionIdentifier, HEADER, stream("Hello"), digest("Hello"));
+        Path path2 = persister.persist(transmissionIdentifier, HEADER, stream("Hello"), digest("Hello"));
+
+        // First retransmission completes, second fails.
+        InboundMetadata inboundMetadata = Mockito.mock(InboundMetadata.class);
+        Mockito.when(inboundMetadata.getTransmissionIdentifier()).thenReturn(transmissionIdentifier);
+        Mockito.when(inboundMetadata.getHeader()).thenReturn(HEADER);
+        Mockito.when(inboundMetadata.getDigest()).thenReturn(digest("Hello"));
+        persister.persist(inboundMetadata, path1);
+        persister.persist(transmissionIdentifier, HEADER, path2, new Exception("Failed"));
+
+        Mockito.verify(delegate, Mockito.never()).persist(any(TransmissionIdentifier.class), any(Header.class),
+                eq(first), any(Exception.class));
+    }
+
+    @Test
+    public void retention() throws Exception {
+        DeduplicatingPersister persister = new DeduplicatingPersister(delegate, folder.resolve("dedup"), 200);
+
+        Path first = receive(persister, "first", "Hello");
+        Assert.assertEquals(receive(persister, "first", "Hello"), first);
+
+        Thread.sleep(300);
+
+        // Restart, keys past retention are not loaded.
+        try (DeduplicationIndex index = new DeduplicationIndex(folder.resolve("dedup").resolve("index"), 200)) {
+            Assert.assertEquals(index.size(), 0);
+        }
+
+        persister = new DeduplicatingPersister(delegate, folder.resolve("dedup"), 200);
+        receive(persister, "first", "Hello");
+
+        Mockito.verify(delegate, Mockito.times(2))
+                .persist(any(TransmissionIdentifier.class), any(Header.class), any(InputStream.class), any(Digest.class));
+    }
+
+    @Test
+    public void compacted() throws Exception {
+        Path path = folder.resolve("index");
+        HashCode key = HashCode.fromBytes(new byte[32]);
+
+        try (DeduplicationIndex index = new DeduplicationIndex(path, RETENTION)) {
+            index.put(key, folder.resolve("payload").toString());
+            long record = Files.size(path) - 4;
+
+            for (int i = 0; i < 5000; i++)
+                index.put(key, folder.resolve("payload").toString());
+
+            Assert.assertTrue(Files.size(path) < 1100 * record, "Size: " + Files.size(path));
+        }
+
+        try (DeduplicationIndex index = new DeduplicationIndex(path, RETENTION)) {
+            Assert.assertEquals(index.get(key), folder.resolve("payload").toString());
+        }
+    }
+
+    private Path receive(DeduplicatingPersister persister, String identifier, String content) throws IOException {
+        TransmissionIdentifier transmissionIdentifier = TransmissionIdentifier.of(identifier);
+        Path path = persister.persist(transmissionIdentifier, HEADER, stream(content), digest(content));
+
+        InboundMetadata inboundMetadata = Mockito.mock(InboundMetadata.class);
+        Mockito.when(inboundMetadata.getTransmissionIdentifier()).thenReturn(transmissionIdentifier);
+        Mockito.when(inboundMetadata.getHeader()).thenReturn(HEADER);
+        Mockito.when(inboundMetadata.getDigest()).thenReturn(digest(content));
+        persister.persist(inboundMetadata, path);
+
+        return path;
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes());
+    }
+
+    private static Digest digest(String content) {
+        return Digest.of(DigestMethod.SHA256, content.getBytes());
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.persist.segment;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class SegmentStoreTest {
+
+    private Path root;
+
+    @BeforeMethod
+    public void beforeMethod() throws IOException {
+        root = Files.createTempDirectory("oxalis-segment");
+    }
+
+    @AfterMethod
+    public void afterMethod() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.delete(path);
+        }
+    }
+
+    @Test
+    public void simple() throws IOException {
+        try (SegmentStore store = new SegmentStore(root, 1024 * 1024, 4)) {
+            Path path = store.write("first.doc.xml", new ByteArrayInputStream(bytes("Hello")));
+            store.write("second.doc.xml", bytes("World!"));
+
+            Assert.assertEquals(path.getFileName().toString(), "first.doc.xml");
+            Assert.assertEquals(Files.readAllBytes(path), bytes("Hello"));
+            Assert.assertEquals(Files.size(path), 5);
+            Assert.assertTrue(Files.exists(path));
+            Assert.assertEquals(Files.readAllBytes(store.getPath("second.doc.xml")), bytes("World!"));
+            Assert.assertFalse(Files.exists(store.getPath("third.doc.xml")));
+            Assert.assertEquals(store.getNames(), Arrays.asList("first.doc.xml", "second.doc.xml"));
+
+            try (Stream<Path> paths = Files.list(path.getParent())) {
+                Assert.assertEquals(paths.count(), 2);
+            }
+
+            SegmentStore.Location location = store.getLocation("first.doc.xml");
+            Assert.assertTrue(location.getSegment().startsWith(root));
+            Assert.assertEquals(location.getLength(), 5);
+
+            Files.delete(path);
+            Assert.assertFalse(Files.exists(path));
+            Assert.assertNull(store.getLocation("first.doc.xml"));
+            Assert.assertFalse(store.delete("first.doc.xml"));
+        }
+    }
+
+    @Test(expectedExceptions = NoSuchFileException.class)
+    public void readMissing() throws IOException {
+        try (SegmentStore store = new SegmentStore(root, 1024 * 1024, 4)) {
+            Files.readAllBytes(store.getPath("missing.doc.xml"));
+        }
+    }
+
+    @Test(expectedExceptions = ClosedChannelException.class)
+    public void writeClosed() throws IOException {
+        SegmentStore store = new SegmentStore(root, 1024 * 1024, 4);
+        store.write("first.doc.xml", bytes("Hello"));
+        store.close();
+
+        // Shards are retired when closed.
+        store.write("first.doc.xml", bytes("Hello"));
+    }
+
+    @Test(expectedExceptions = ReadOnlyFileSystemException.class)
+    public void writeThroughPath() throws IOException {
+        try (SegmentStore store = new SegmentStore(root, 1024 * 1024, 4)) {
+            Files.write(store.getPath("file.doc.xml"), bytes("Hello"));
+        }
+    }
+
+    @Test
+    public void rollover() throws IOException {
+        try (SegmentStore store = new SegmentStore(root, 100, 1)) {
+            for (int i = 0; i < 5; i++)
+                store.write(String.format("file-%s.doc.xml", i), new byte[80]);
+
+            Set<Path> segments = new HashSet<>();
+            for (String name : store.getNames())
+                segments.add(store.getLocation(name).getSegment());
+
+            Assert.assertEquals(segments.size(), 5);
+        }
+    }
+
+    @Test
+    public void streamed() throws IOException {
+        byte[] content = new byte[SegmentStore.MEMORY * 3 + 17];
+        new Random(42).nextBytes(content);
+
+        try (SegmentStore store = new SegmentStore(root, 1024 * 1024, 1)) {
+            store.write("small.doc.xml", new ByteArrayInputStream(bytes("Hello")));
+            store.write("large.doc.xml", new ByteArrayInputStream(content));
+            store.write("after.doc.xml", new ByteArrayInputStream(bytes("World!")));
+
+            Path small = store.getLocation("small.doc.xml").getSegment();
+            Path large = store.getLocation("large.doc.xml").getSegment();
+
+            // Large content gets a segment of its own, while the open segment is still used.
+            Assert.assertNotEquals(large, small);
+            Assert.assertEquals(store.getLocation("after.doc.xml").getSegment(), small);
+            Assert.assertEquals(store.getLocation("large.doc.xml").getLength(), content.length);
+            Assert.assertEquals(Files.readAllBytes(store.getPath("large.doc.xml")), content);
+        }
+
+        try (SegmentStore store = new SegmentStore(root, 1024 * 1024, 1)) {
+            Assert.assertEquals(store.getNames(), Arrays.asList("after.doc.xml", "large.doc.xml", "small.doc.xml"));
+            Assert.assertEquals(Files.readAllBytes(store.getPath("large.doc.xml")), content);
+            Assert.assertEquals(Files.readAllBytes(store.getPath("after.doc.xml")), bytes("World!"));
+        }
+    }
+
+    @Test
+    public void reopen() throws IOException {
+        Path segment;
+
+        try (SegmentStore store = new SegmentStore(root, 1024 * 1024, 1)) {
+            store.write("first.doc.xml", bytes("Hello"));
+            store.write("second.doc.xml", bytes("World!"));
+            store.write("first.doc.xml", bytes("Replaced"));
+            store.delete("second.doc.xml");
+
+            segment = store.getLocation("first.doc.xml").getSegment();
+        }
+
+        // Incomplete record written before crash.
+        Files.write(root.resolve("index.dat"), new byte[]{1, 0, 0}, StandardOpenOption.APPEND);
+
+        try (SegmentStore store = new SegmentStore(root, 1024 * 1024, 1)) {
+            Assert.assertEquals(store.getNames(), Collections.singletonList("first.doc.xml"));
+            Assert.assertEquals(Files.readAllBytes(store.getPath("first.doc.xml")), bytes("Replaced"));
+
+            // Segments of previous run are not appended to.
+            store.write("third.doc.xml", bytes("Again"));
+            Assert.assertNotEquals(store.getLocation("third.doc.xml").getSegment(), segment);
+        }
+
+        try (SegmentStore store = new SegmentStore(root, 1024 * 1024, 1)) {
+            Assert.assertEquals(store.getNames(), Arrays.asList("first.doc.xml", "third.doc.xml"));
+            Assert.assertEquals(Files.readAllBytes(store.getPath("third.doc.xml")), bytes("Again"));
+        }
+    }
+
+    @Test
+    public void concurrent() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+
+        try (SegmentStore store = new SegmentStore(root, 64 * 1024, 4)) {
+            List<Future<Path>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String name = String.format("file-%s.doc.xml", i);
+                futures.add(executorService.submit(() -> store.write(name, bytes(name))));
+            }
+
+            for (Future<Path> future : futures) {
+                Path path = future.get();
+                Assert.assertEquals(Files.readAllBytes(path), bytes(path.getFileName().toString()));
+            }
+
+            Assert.assertEquals(store.getNames().size(), 200);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        try (SegmentStore store = new SegmentStore(root, 64 * 1024, 4)) {
+            Assert.assertEquals(store.getNames().size(), 200);
+
+            for (String name : store.getNames()) {
+                SegmentStore.Location location = store.getLocation(name);
+                try (FileChannel channel = FileChannel.open(location.getSegment())) {
+                    Assert.assertTrue(location.getOffset() + location.getLength() <= channel.size());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void indexForcedAfterContent() throws Exception {
+        Map<String, Long> forced = new ConcurrentHashMap<>();
+        List<String> violations = new CopyOnWriteArrayList<>();
+
+        SegmentStore store = new SegmentStore(root, 4 * 1024, 2) {
+            @Override
+            void force(String name, FileChannel channel) throws IOException {
+                if (!name.equals("index.dat")) {
+                    // Only content written before forcing is known to be on disk.
+                    long size = channel.size();
+                    super.force(name, channel);
+                    forced.merge(name, size, Math::max);
+                    return;
+                }
+
+                super.force(name, channel);
+
+                try (DataInputStream inputStream = new DataInputStream(
+                        new ByteArrayInputStream(Files.readAllBytes(root.resolve(name))))) {
+                    while (inputStream.available() > 0) {
+                        int operation = inputStream.read();
+                        inputStream.readLong();
+                        String file = readString(inputStream);
+                        if (operation != 1)
+                            continue;
+
+                        String segment = readString(inputStream);
+                        long end = inputStream.readLong() + inputStream.readLong();
+                        if (end > forced.getOrDefault(segment, 0L))
+                            violations.add(file);
+                    }
+                }
+            }
+        };
+
+        ExecutorService executorService = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Path>> futures = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                String name = String.format("file-%s.doc.xml", i);
+                futures.add(executorService.submit(() -> store.write(name, new byte[100 + name.length()])));
+            }
+
+            for (Future<Path> future : futures)
+                future.get();
+        } finally {
+            executorService.shutdownNow();
+            store.close();
+        }
+
+        Assert.assertEquals(violations, Collections.emptyList());
+    }
+
+    private static String readString(DataInputStream inputStream) throws IOException {
+        byte[] bytes = new byte[inputStream.readUnsignedShort()];
+        inputStream.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.commons.transformer;
+
+import com.google.common.io.ByteStreams;
+import network.oxalis.commons.header.SbdhHeaderParser;
+import network.oxalis.vefa.peppol.common.model.C1CountryIdentifier;
+import network.oxalis.vefa.peppol.common.model.Header;
+import network.oxalis.vefa.peppol.sbdh.SbdWriter;
+import network.oxalis.vefa.peppol.sbdh.util.XMLStreamUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SbdhWrappingInputStreamTest {
+
+    @Test
+    public void simple() throws Exception {
+        Header header = header();
+        byte[] content = resource("/ehf-invoice-no-sbdh.xml");
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (SbdWriter sbdWriter = SbdWriter.newInstance(expected, header)) {
+            XMLStreamUtils.copy(new ByteArrayInputStream(content), sbdWriter.xmlWriter());
+        }
+
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream source = new ByteArrayInputStream(content) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+
+        try (InputStream inputStream = new SbdhWrappingInputStream(source, header)) {
+            Assert.assertEquals(ByteStreams.toByteArray(inputStream), expected.toByteArray());
+            Assert.assertTrue(closed.get());
+        }
+
+        Header parsed = new SbdhHeaderParser().parse(
+                new SbdhWrappingInputStream(new ByteArrayInputStream(content), header));
+        Assert.assertEquals(parsed.getIdentifier(), header.getIdentifier());
+    }
+
+    @Test
+    public void singleBytes() throws Exception {
+        Header header = header();
+        byte[] content = resource("/ehf-invoice-no-sbdh.xml");
+
+        byte[] expected = ByteStreams.toByteArray(new SbdhWrappingInputStream(new ByteArrayInputStream(content), header));
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream inputStream = new SbdhWrappingInputStream(new ByteArrayInputStream(content), header)) {
+            for (int b; (b = inputStream.read()) != -1; )
+                result.write(b);
+        }
+
+        Assert.assertEquals(result.toByteArray(), expected);
+    }
+
+    @Test(expectedExceptions = XMLStreamException.class)
+    public void notXml() throws Exception {
+        new SbdhWrappingInputStream(new ByteArrayInputStream("Hello World!".getBytes()), header());
+    }
+
+    @Test
+    public void malformedAfterDocumentElement() throws Exception {
+        // Accepted when wrapping, as only content up to the document element is read.
+        InputStream inputStream = new SbdhWrappingInputStream(
+                new ByteArrayInputStream("<Invoice xmlns=\"urn:test\"><a>1</a><b>2</b><c></d></Invoice>".getBytes()), header());
+
+        try {
+            ByteStreams.toByteArray(inputStream);
+            Assert.fail("Malformed content was wrapped.");
+        } catch (IOException e) {
+            Assert.assertEquals(e.getMessage(), "Unable to wrap content into SBDH.");
+            Assert.assertTrue(e.getCause() instanceof XMLStreamException);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static Header header() throws Exception {
+        try (InputStream inputStream = SbdhWrappingInputStreamTest.class
+                .getResourceAsStream("/peppol-bis-invoice-sbdh.xml")) {
+            return new SbdhHeaderParser().parse(inputStream).c1CountryIdentifier(C1CountryIdentifier.of("NO"));
+        }
+    }
+
+    private static byte[] resource(String name) throws Exception {
+        try (InputStream inputStream = SbdhWrappingInputStreamTest.class.getResourceAsStream(name)) {
+            return ByteStreams.toByteArray(inputStream);
+        }
+    }
+}
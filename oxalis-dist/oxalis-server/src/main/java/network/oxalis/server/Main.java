@@ -28,15 +28,20 @@ import com.google.inject.Singleton;
 import com.google.inject.servlet.GuiceFilter;
 import lombok.extern.slf4j.Slf4j;
 import network.oxalis.api.settings.Settings;
+import network.oxalis.commons.executor.ExecutorConf;
+import network.oxalis.commons.executor.VirtualThreadExecutors;
 import network.oxalis.commons.guice.GuiceModuleLoader;
 import network.oxalis.inbound.OxalisGuiceContextListener;
 import network.oxalis.server.jetty.JettyConf;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.server.handler.ShutdownHandler;
 import org.eclipse.jetty.server.handler.StatisticsHandler;
 import org.eclipse.jetty.servlet.DefaultServlet;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import javax.servlet.DispatcherType;
 import java.util.EnumSet;
@@ -54,12 +59,25 @@ public class Main {
     @Inject
     private Settings<JettyConf> settings;
 
+    @Inject
+    private Settings<ExecutorConf> executorSettings;
+
     public static void main(String... args) throws Exception {
         GuiceModuleLoader.initiate().getInstance(Main.class).run();
     }
 
     public void run() throws Exception {
-        Server server = new Server(settings.getInt(JettyConf.PORT));
+        QueuedThreadPool threadPool = new QueuedThreadPool();
+        if (VirtualThreadExecutors.isEnabled(executorSettings)) {
+            log.info("Handling requests using virtual threads");
+            threadPool.setVirtualThreadsExecutor(VirtualThreads.getDefaultVirtualThreadsExecutor());
+        }
+
+        Server server = new Server(threadPool);
+
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(settings.getInt(JettyConf.PORT));
+        server.addConnector(connector);
 
         HandlerList handlers = new HandlerList();
 
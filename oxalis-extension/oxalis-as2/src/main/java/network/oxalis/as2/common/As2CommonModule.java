@@ -46,4 +46,24 @@ public class As2CommonModule extends OxalisModule {
         return settings.getString(As2Conf.NOTIFICATION);
     }
 
+    /**
+     * @since 6.5.1
+     */
+    @Provides
+    @Singleton
+    @Named("as2-inbound-streaming")
+    public Boolean getInboundStreaming(Settings<As2Conf> settings) {
+        return "streaming".equalsIgnoreCase(settings.getString(As2Conf.INBOUND_MODE));
+    }
+
+    /**
+     * @since 6.5.1
+     */
+    @Provides
+    @Singleton
+    @Named("as2-outbound-chunked")
+    public Boolean getOutboundChunked(Settings<As2Conf> settings) {
+        return !"buffered".equalsIgnoreCase(settings.getString(As2Conf.OUTBOUND_MODE));
+    }
+
 }
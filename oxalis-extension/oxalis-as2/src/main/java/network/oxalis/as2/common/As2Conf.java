@@ -37,4 +37,42 @@ public enum As2Conf {
     @DefaultValue("not.in.use@difi.no")
     NOTIFICATION,
 
+    /**
+     * Mode used to read inbound messages, either "mime" (parsed in memory) or "streaming" (read in one pass
+     * with content spooled to disk).
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.as2.inbound.mode")
+    @DefaultValue("mime")
+    INBOUND_MODE,
+
+    /**
+     * Maximum number of MDNs kept for replay to retransmitted messages, zero to disable.
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.as2.inbound.mdn_cache.size")
+    @DefaultValue("10000")
+    MDN_CACHE_SIZE,
+
+    /**
+     * Time in seconds an MDN is kept for replay.
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.as2.inbound.mdn_cache.expire")
+    @DefaultValue("3600")
+    MDN_CACHE_EXPIRE,
+
+    /**
+     * Mode used to send outbound messages, either "chunked" (written directly to the connection) or "buffered"
+     * (written to memory and a temporary file first to be sent with a known length).
+     *
+     * @since 6.5.1
+     */
+    @Path("oxalis.as2.outbound.mode")
+    @DefaultValue("chunked")
+    OUTBOUND_MODE,
+
 }
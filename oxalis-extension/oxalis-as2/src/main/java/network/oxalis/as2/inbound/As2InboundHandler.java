@@ -24,6 +24,7 @@ package network.oxalis.as2.inbound;
 
 import com.google.inject.Inject;
 import io.opentracing.Span;
+import lombok.extern.slf4j.Slf4j;
 import network.oxalis.api.header.HeaderParser;
 import network.oxalis.api.identifier.MessageIdGenerator;
 import network.oxalis.api.inbound.InboundService;
@@ -44,6 +45,7 @@ import network.oxalis.as2.code.MdnHeader;
 import network.oxalis.as2.lang.OxalisAs2InboundException;
 import network.oxalis.as2.model.Mic;
 import network.oxalis.as2.util.*;
+import network.oxalis.commons.header.HeaderInputStream;
 import network.oxalis.commons.mode.OxalisCertificateValidator;
 import network.oxalis.vefa.peppol.common.code.Service;
 import network.oxalis.vefa.peppol.common.model.Digest;
@@ -65,6 +67,7 @@ import java.security.NoSuchAlgorithmException;
  * @author thore
  * @author erlend
  */
+@Slf4j
 class As2InboundHandler {
 
     private final InboundService inboundService;
@@ -85,12 +88,14 @@ class As2InboundHandler {
 
     private final HeaderParser headerParser;
 
+    private final MdnCache mdnCache;
+
     @Inject
     public As2InboundHandler(InboundService inboundService, TimestampProvider timestampProvider,
                              OxalisCertificateValidator certificateValidator, PersisterHandler persisterHandler,
                              TransmissionVerifier transmissionVerifier, SMimeMessageFactory sMimeMessageFactory,
                              TagGenerator tagGenerator, MessageIdGenerator messageIdGenerator,
-                             HeaderParser headerParser) {
+                             HeaderParser headerParser, MdnCache mdnCache) {
         this.inboundService = inboundService;
         this.timestampProvider = timestampProvider;
         this.certificateValidator = certificateValidator;
@@ -103,6 +108,7 @@ class As2InboundHandler {
         this.tagGenerator = tagGenerator;
         this.messageIdGenerator = messageIdGenerator;
         this.headerParser = headerParser;
+        this.mdnCache = mdnCache;
     }
 
     /**
@@ -116,56 +122,83 @@ class As2InboundHandler {
      * @return MDN object to signal if everything is ok or if some error occurred while receiving
      */
     public MimeMessage receive(InternetHeaders httpHeaders, MimeMessage mimeMessage, Span root) throws OxalisAs2InboundException {
+        return receive(httpHeaders, () -> SignedMessage.load(mimeMessage), root);
+    }
+
+    /**
+     * Receives an AS2 Message reading the MIME content in one pass directly from the provided stream. Content is
+     * spooled to disk while being digested, so the payload is never held in memory.
+     *
+     * @param httpHeaders the http headers received, including the MIME headers of the content
+     * @param inputStream supplies the MIME content
+     * @return MDN object to signal if everything is ok or if some error occurred while receiving
+     * @since 6.5.1
+     */
+    public MimeMessage receive(InternetHeaders httpHeaders, InputStream inputStream, Span root) throws OxalisAs2InboundException {
+        return receive(httpHeaders, () -> SpooledSignedMessage.load(inputStream, httpHeaders), root);
+    }
+
+    private MimeMessage receive(InternetHeaders httpHeaders, SignedContentLoader loader, Span root) throws OxalisAs2InboundException {
         TransmissionIdentifier transmissionIdentifier = null;
         Header header = null;
         Path payloadPath = null;
+        SignedContent message = null;
         OxalisAs2InboundException exception;
 
         try {
-            SignedMessage message = SignedMessage.load(mimeMessage);
+            message = loader.load();
 
             // Validate content
             message.validate(Service.AP, certificateValidator,
                     httpHeaders.getHeader(As2Header.AS2_FROM)[0].replace("\"", ""));
 
+            // Extract digest algorithm
+            SMimeDigestMethod digestMethod = SMimeDigestMethod.findByIdentifier(message.getMicalg());
+
+            // Fetch calculated digest
+            Digest calculatedDigest = Digest.of(digestMethod.getDigestMethod(), message.getDigest());
+            Mic mic = new Mic(calculatedDigest);
+
+            // Replay MDN when message is a retransmission of a message already received
+            byte[] cachedMdn = mdnCache.get(httpHeaders.getHeader(As2Header.AS2_FROM)[0],
+                    httpHeaders.getHeader(As2Header.MESSAGE_ID)[0], mic);
+            if (cachedMdn != null) {
+                log.info("Message is already received, returning MDN of earlier reception.");
+                root.setTag("mdn-replay", true);
+                return MimeMessageHelper.parse(new ByteArrayInputStream(cachedMdn));
+            }
+
             // Get timestamp using signature as input
             Timestamp t2 = timestampProvider.generate(message.getSignature(), Direction.IN);
 
             Tag tag = tagGenerator.generate(Direction.IN);
 
             // Initiate MDN
-            MdnBuilder mdnBuilder = MdnBuilder.newInstance(mimeMessage);
+            MdnBuilder mdnBuilder = MdnBuilder.newInstance(httpHeaders);
             mdnBuilder.addHeader(MdnHeader.DATE, t2.getDate());
 
             // Extract Message-ID
             transmissionIdentifier = TransmissionIdentifier.fromHeader(httpHeaders.getHeader(As2Header.MESSAGE_ID)[0]);
             mdnBuilder.addHeader(MdnHeader.ORIGINAL_MESSAGE_ID, httpHeaders.getHeader(As2Header.MESSAGE_ID)[0]);
 
-            // Extract digest algorithm
-            SMimeDigestMethod digestMethod = SMimeDigestMethod.findByIdentifier(message.getMicalg());
-
             // Extract content headers
             byte[] headerBytes = message.getBodyHeader();
             mdnBuilder.addHeader(MdnHeader.ORIGINAL_CONTENT_HEADER, headerBytes);
 
-            byte[] content = message.getContentBytes();
+            mdnBuilder.addHeader(MdnHeader.RECEIVED_CONTENT_MIC, mic);
 
-            // Extract header
-            header = headerParser.parse(new ByteArrayInputStream(content));
+            // Extract header and persist content in one pass
+            try (HeaderInputStream payloadInputStream = new HeaderInputStream(message.getContent(), headerParser)) {
+                header = payloadInputStream.getHeader();
 
-            // Perform validation of header
-            transmissionVerifier.verify(header, Direction.IN);
+                // Perform validation of header
+                transmissionVerifier.verify(header, Direction.IN);
 
-            // Create "fresh" InputStream
-            try (InputStream payloadInputStream = new ByteArrayInputStream(content)) {
                 // Persist content
-                payloadPath = persisterHandler.persist(transmissionIdentifier, header, payloadInputStream);
+                payloadPath = persisterHandler.persist(transmissionIdentifier, header, payloadInputStream,
+                        calculatedDigest);
             }
 
-            // Fetch calculated digest
-            Digest calculatedDigest = Digest.of(digestMethod.getDigestMethod(), message.getDigest());
-            mdnBuilder.addHeader(MdnHeader.RECEIVED_CONTENT_MIC, new Mic(calculatedDigest));
-
             // Generate Message-Id
             String messageId = messageIdGenerator.generate(new As2InboundMetadata(transmissionIdentifier, header, t2,
                     null, null, message.getSigner(), null, tag));
@@ -187,15 +220,20 @@ class As2InboundHandler {
             // Prepare MDN
             ByteArrayOutputStream mdnOutputStream = new ByteArrayOutputStream();
             mdn.writeTo(mdnOutputStream);
+            byte[] mdnBytes = mdnOutputStream.toByteArray();
 
             // Persist metadata
             As2InboundMetadata inboundMetadata = new As2InboundMetadata(transmissionIdentifier, header, t2,
-                    digestMethod.getTransportProfile(), calculatedDigest, message.getSigner(), mdnOutputStream.toByteArray(), tag);
+                    digestMethod.getTransportProfile(), calculatedDigest, message.getSigner(), mdnBytes, tag);
             persisterHandler.persist(inboundMetadata, payloadPath);
 
             // Persist statistics
             inboundService.complete(inboundMetadata);
 
+            // Keep MDN for retransmissions
+            mdnCache.put(httpHeaders.getHeader(As2Header.AS2_FROM)[0], httpHeaders.getHeader(As2Header.MESSAGE_ID)[0],
+                    mic, mdnBytes);
+
             return mdn;
         } catch (OxalisContentException e) {
             exception = new OxalisAs2InboundException(Disposition.UNSUPPORTED_FORMAT, e.getMessage(), e);
@@ -221,6 +259,15 @@ class As2InboundHandler {
             exception = new OxalisAs2InboundException(Disposition.UNEXPECTED_PROCESSING_ERROR, e.getMessage(), e);
             persisterHandler.persist(transmissionIdentifier, header, payloadPath, exception);
             throw exception;
+        } finally {
+            // Removes spooled content
+            if (message instanceof SpooledSignedMessage)
+                ((SpooledSignedMessage) message).close();
         }
     }
+
+    @FunctionalInterface
+    private interface SignedContentLoader {
+        SignedContent load() throws Exception;
+    }
 }
@@ -26,6 +26,7 @@ import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import io.opentracing.Span;
 import io.opentracing.SpanContext;
 import io.opentracing.Tracer;
@@ -73,14 +74,21 @@ class As2Servlet extends HttpServlet {
 
     private final Tracer tracer;
 
+    /**
+     * Read content in one pass from request instead of parsing the full MIME message in memory.
+     */
+    private final boolean streaming;
+
     @Inject
     public As2Servlet(Provider<As2InboundHandler> inboundHandlerProvider, SMimeMessageFactory sMimeMessageFactory,
-                      ErrorTracker errorTracker, X509Certificate certificate, Tracer tracer) {
+                      ErrorTracker errorTracker, X509Certificate certificate, Tracer tracer,
+                      @Named("as2-inbound-streaming") Boolean streaming) {
         this.inboundHandlerProvider = inboundHandlerProvider;
         this.sMimeMessageFactory = sMimeMessageFactory;
         this.errorTracker = errorTracker;
         this.toIdentifier = CertificateUtils.extractCommonName(certificate);
         this.tracer = tracer;
+        this.streaming = streaming;
     }
 
     /**
@@ -132,15 +140,17 @@ class As2Servlet extends HttpServlet {
             Collections.list(request.getHeaderNames())
                     .forEach(name -> headers.addHeader(name, request.getHeader(name)));
 
-            // Read MIME message
-            MimeMessage mimeMessage = MimeMessageHelper.parse(request.getInputStream(), headers);
+            // Read MIME message, unless content is to be streamed
+            MimeMessage mimeMessage = streaming ? null : MimeMessageHelper.parse(request.getInputStream(), headers);
 
             try {
                 // Performs the actual reception of the message by parsing the HTTP POST request
                 // persisting the payload etc.
 
                 Span span = tracer.buildSpan("as2message").asChildOf(root).start();
-                MimeMessage mdn = inboundHandlerProvider.get().receive(headers, mimeMessage, span);
+                MimeMessage mdn = streaming ?
+                        inboundHandlerProvider.get().receive(headers, request.getInputStream(), span) :
+                        inboundHandlerProvider.get().receive(headers, mimeMessage, span);
                 span.finish();
 
                 // Returns the MDN
@@ -155,7 +165,8 @@ class As2Servlet extends HttpServlet {
                 root.setTag("exception", String.valueOf(e.getMessage()));
 
                 // Begin builder
-                MdnBuilder mdnBuilder = MdnBuilder.newInstance(mimeMessage);
+                MdnBuilder mdnBuilder = mimeMessage == null ?
+                        MdnBuilder.newInstance(headers) : MdnBuilder.newInstance(mimeMessage);
 
                 // Original Message-Id
                 mdnBuilder.addHeader(MdnHeader.ORIGINAL_MESSAGE_ID, headers.getHeader(As2Header.MESSAGE_ID)[0]);
@@ -166,7 +177,8 @@ class As2Servlet extends HttpServlet {
 
                 // Build and add headers
                 MimeMessage mdn = sMimeMessageFactory.createSignedMimeMessage(mdnBuilder.build(),
-                        SMimeDigestMethod.findByIdentifier(SignedMessage.extractMicalg(mimeMessage)));
+                        SMimeDigestMethod.findByIdentifier(mimeMessage == null ?
+                                SignedMessage.extractMicalg(headers) : SignedMessage.extractMicalg(mimeMessage)));
                 mdn.setHeader(As2Header.AS2_VERSION, As2Header.VERSION);
                 mdn.setHeader(As2Header.AS2_FROM, toIdentifier);
                 mdn.setHeader(As2Header.AS2_TO, headers.getHeader(As2Header.AS2_FROM)[0]);
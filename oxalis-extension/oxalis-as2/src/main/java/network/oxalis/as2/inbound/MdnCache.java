@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.as2.inbound;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import network.oxalis.api.settings.Settings;
+import network.oxalis.as2.common.As2Conf;
+import network.oxalis.as2.model.Mic;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialized MDNs of received messages, keyed by AS2-From, Message-ID and MIC, replayed when a sender retransmits
+ * a message after not receiving the MDN in time. Including the MIC makes sure only a retransmission of identical
+ * content gets the MDN of the earlier message.
+ *
+ * @since 6.5.1
+ */
+@Singleton
+class MdnCache {
+
+    private final Cache<Key, byte[]> cache;
+
+    private final boolean enabled;
+
+    @Inject
+    public MdnCache(Settings<As2Conf> settings) {
+        this(settings.getInt(As2Conf.MDN_CACHE_SIZE), settings.getInt(As2Conf.MDN_CACHE_EXPIRE));
+    }
+
+    MdnCache(int size, int expire) {
+        this(size, expire, Ticker.systemTicker());
+    }
+
+    MdnCache(int size, int expire, Ticker ticker) {
+        this.enabled = size > 0 && expire > 0;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(size, 0))
+                .expireAfterWrite(Math.max(expire, 0), TimeUnit.SECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * Returns serialized MDN of earlier reception of the message, or {@code null} if not found.
+     */
+    public byte[] get(String as2From, String messageId, Mic mic) {
+        return enabled ? cache.getIfPresent(new Key(as2From, messageId, mic)) : null;
+    }
+
+    public void put(String as2From, String messageId, Mic mic, byte[] mdn) {
+        if (enabled)
+            cache.put(new Key(as2From, messageId, mic), mdn);
+    }
+
+    private static class Key {
+
+        private final String as2From;
+
+        private final String messageId;
+
+        private final String mic;
+
+        public Key(String as2From, String messageId, Mic mic) {
+            this.as2From = as2From;
+            this.messageId = messageId;
+            this.mic = mic.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return as2From.equals(key.as2From) && messageId.equals(key.messageId) && mic.equals(key.mic);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(as2From, messageId, mic);
+        }
+    }
+}
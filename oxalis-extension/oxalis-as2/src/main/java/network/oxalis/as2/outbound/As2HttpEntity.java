@@ -0,0 +1,184 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.as2.outbound;
+
+import com.google.common.io.ByteStreams;
+import network.oxalis.api.lang.OxalisTransmissionException;
+import network.oxalis.as2.util.SMimeDigestMethod;
+import network.oxalis.as2.util.SMimeMessageFactory;
+import network.oxalis.commons.bouncycastle.BCHelper;
+import network.oxalis.commons.io.RewindableContent;
+import network.oxalis.vefa.peppol.common.model.Digest;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Entity writing a signed S/MIME message directly to the connection, reading the payload once.
+ * <p>
+ * The signed body part is digested while written, and the signature part is created from the resulting digest
+ * when the payload is written, so neither the payload nor the message is kept in memory. The entity is sent using
+ * chunked transfer encoding, as the length is not known in advance. Receivers not accepting chunked requests are
+ * served by {@link #buffer()}, writing the message to content of known length before it is sent.
+ *
+ * @since 6.5.1
+ */
+class As2HttpEntity extends AbstractHttpEntity {
+
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String SIGNATURE_HEADERS =
+            "Content-Type: application/pkcs7-signature; name=smime.p7s; smime-type=signed-data\r\n" +
+                    "Content-Transfer-Encoding: base64\r\n" +
+                    "Content-Disposition: attachment; filename=\"smime.p7s\"\r\n" +
+                    "Content-Description: S/MIME Cryptographic Signature\r\n" +
+                    "\r\n";
+
+    private final InputStream payload;
+
+    private final String mimeType;
+
+    private final SMimeDigestMethod digestMethod;
+
+    private final SMimeMessageFactory sMimeMessageFactory;
+
+    private final Consumer<Digest> micConsumer;
+
+    private final String boundary = String.format("----=_Part_%s", UUID.randomUUID());
+
+    private boolean consumed;
+
+    /**
+     * @param payload             Content to be signed, read when the entity is written.
+     * @param mimeType            Content type of payload.
+     * @param digestMethod        Digest method used for MIC and signature.
+     * @param sMimeMessageFactory Factory used to create signature.
+     * @param micConsumer         Receives MIC of signed body part when written.
+     */
+    public As2HttpEntity(InputStream payload, String mimeType, SMimeDigestMethod digestMethod,
+                         SMimeMessageFactory sMimeMessageFactory, Consumer<Digest> micConsumer) {
+        this.payload = payload;
+        this.mimeType = mimeType;
+        this.digestMethod = digestMethod;
+        this.sMimeMessageFactory = sMimeMessageFactory;
+        this.micConsumer = micConsumer;
+
+        setChunked(true);
+        setContentType(String.format(
+                "multipart/signed; protocol=\"application/pkcs7-signature\"; micalg=%s; boundary=\"%s\"",
+                digestMethod.getMicalg(), boundary));
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Returns the message, written to memory and a temporary file removed when the returned stream is read to the
+     * end or closed.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        try (RewindableContent content = buffer()) {
+            return content.newInputStream();
+        }
+    }
+
+    /**
+     * Writes the message to content kept in memory and, beyond {@link RewindableContent#DEFAULT_MEMORY} bytes, in a
+     * temporary file, making the length of the message known before it is sent.
+     */
+    public RewindableContent buffer() throws IOException {
+        try (RewindableContent.Output output = RewindableContent.newOutput(RewindableContent.DEFAULT_MEMORY)) {
+            writeTo(output);
+            return output.toContent();
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return !consumed;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        if (consumed)
+            throw new IllegalStateException("Entity is not repeatable.");
+        consumed = true;
+
+        MessageDigest messageDigest;
+        try {
+            messageDigest = BCHelper.getMessageDigest(digestMethod.getIdentifier());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(digestMethod.getIdentifier() + " not found", e);
+        }
+
+        // Signed body part
+        write(outputStream, String.format("--%s\r\n", boundary));
+
+        OutputStream digestOutputStream = new DigestOutputStream(outputStream, messageDigest);
+        write(digestOutputStream, String.format(
+                "Content-Type: %s\r\nContent-Transfer-Encoding: binary\r\n\r\n", mimeType));
+        ByteStreams.copy(payload, digestOutputStream);
+
+        Digest mic = Digest.of(digestMethod.getDigestMethod(), messageDigest.digest());
+        micConsumer.accept(mic);
+
+        // Signature part
+        byte[] signature;
+        try {
+            signature = sMimeMessageFactory.createSignature(mic.getValue(), digestMethod);
+        } catch (OxalisTransmissionException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        outputStream.write(CRLF);
+        write(outputStream, String.format("--%s\r\n", boundary));
+        write(outputStream, SIGNATURE_HEADERS);
+        outputStream.write(Base64.getMimeEncoder().encode(signature));
+        outputStream.write(CRLF);
+
+        // Closing delimiter
+        write(outputStream, String.format("--%s--\r\n", boundary));
+        outputStream.flush();
+    }
+
+    private static void write(OutputStream outputStream, String value) throws IOException {
+        outputStream.write(value.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -22,7 +22,6 @@
 
 package network.oxalis.as2.outbound;
 
-import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.name.Named;
@@ -41,11 +40,11 @@ import network.oxalis.api.outbound.TransmissionResponse;
 import network.oxalis.api.timestamp.Timestamp;
 import network.oxalis.api.timestamp.TimestampProvider;
 import network.oxalis.as2.code.As2Header;
-import network.oxalis.as2.code.MdnHeader;
 import network.oxalis.as2.model.As2DispositionNotificationOptions;
 import network.oxalis.as2.model.Mic;
 import network.oxalis.as2.util.*;
 import network.oxalis.as2.lang.OxalisAs2Exception;
+import network.oxalis.commons.io.RewindableContent;
 import network.oxalis.commons.security.CertificateUtils;
 import network.oxalis.commons.tracing.Traceable;
 import network.oxalis.vefa.peppol.common.model.Digest;
@@ -57,26 +56,16 @@ import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.conn.HttpHostConnectException;
-import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.util.EntityUtils;
 
-import javax.mail.MessagingException;
-import javax.mail.internet.InternetHeaders;
-import javax.mail.internet.MimeBodyPart;
-import javax.mail.internet.MimeMessage;
 import javax.net.ssl.SSLHandshakeException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.SocketTimeoutException;
-import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
-import java.util.Collections;
 import java.util.Date;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -111,6 +100,11 @@ class As2MessageSender extends Traceable {
      */
     private final String fromIdentifier;
 
+    /**
+     * Send messages using chunked transfer encoding, otherwise with a known length.
+     */
+    private final boolean chunked;
+
     private TransmissionRequest transmissionRequest;
 
     private TransmissionIdentifier transmissionIdentifier;
@@ -133,13 +127,14 @@ class As2MessageSender extends Traceable {
     public As2MessageSender(Provider<CloseableHttpClient> httpClientProvider, X509Certificate certificate,
                             SMimeMessageFactory sMimeMessageFactory, TimestampProvider timestampProvider,
                             @Named("as2-notification") String notificationAddress, MessageIdGenerator messageIdGenerator,
-                            Tracer tracer) {
+                            @Named("as2-outbound-chunked") Boolean chunked, Tracer tracer) {
         super(tracer);
         this.httpClientProvider = httpClientProvider;
         this.sMimeMessageFactory = sMimeMessageFactory;
         this.timestampProvider = timestampProvider;
         this.notificationAddress = notificationAddress;
         this.messageIdGenerator = messageIdGenerator;
+        this.chunked = chunked;
 
         // Establishes our AS2 System Identifier based upon the contents of the CN= field of the certificate
         this.fromIdentifier = CertificateUtils.extractCommonName(certificate);
@@ -160,20 +155,13 @@ class As2MessageSender extends Traceable {
         }
     }
 
-    @SuppressWarnings("unchecked")
     protected HttpPost prepareHttpRequest() throws OxalisTransmissionException {
         Span span = tracer.buildSpan("request").asChildOf(root).start();
         try {
-            // Create the body part of the MIME message containing our content to be transmitted.
-            MimeBodyPart mimeBodyPart = MimeMessageHelper
-                    .createMimeBodyPart(transmissionRequest.getPayload(), "application/xml");
-
             // Digest method to use.
             SMimeDigestMethod digestMethod = SMimeDigestMethod.findByTransportProfile(
                     transmissionRequest.getEndpoint().getTransportProfile());
 
-            outboundMic = MimeMessageHelper.calculateMic(mimeBodyPart, digestMethod);
-            span.setTag("mic", outboundMic.toString());
             span.setTag("endpoint url", transmissionRequest.getEndpoint().getAddress().toString());
 
             // Create Message-Id
@@ -185,35 +173,23 @@ class As2MessageSender extends Traceable {
             span.setTag("message-id", messageId);
             transmissionIdentifier = TransmissionIdentifier.fromHeader(messageId);
 
-            // Create a complete S/MIME message using the body part containing our content as the
-            // signed part of the S/MIME message.
-            MimeMessage signedMimeMessage = sMimeMessageFactory
-                    .createSignedMimeMessage(mimeBodyPart, digestMethod);
-            // .createSignedMimeMessageNew(mimeBodyPart, outboundMic, digestMethod);
-
-            //try (OutputStream outputStream = Files.newOutputStream(Paths.get(UUID.randomUUID().toString()))) {
-            //    signedMimeMessage.writeTo(outputStream);
-            //}
-
-            // Get all headers in S/MIME message.
-            Map<String, String> headers = ((List<javax.mail.Header>) Collections.list(signedMimeMessage.getAllHeaders())).stream()
-                    .collect(Collectors.toMap(javax.mail.Header::getName, h -> h.getValue().replace("\r\n\t", "")));
-
-            // Clear headers in MIME content
-            for (String name : headers.keySet())
-                signedMimeMessage.removeHeader(name);
-
             // Initiate POST request
             HttpPost httpPost = new HttpPost(transmissionRequest.getEndpoint().getAddress());
 
-            // Inserts the S/MIME message to be posted.
-            HttpEntity httpEntity = new ByteArrayEntity(ByteStreams.toByteArray(signedMimeMessage.getInputStream()));
+            // Inserts the S/MIME message to be posted. The message is signed while written to the connection,
+            // making the MIC available when the request is sent.
+            As2HttpEntity as2HttpEntity = new As2HttpEntity(transmissionRequest.getPayload(), "application/xml",
+                    digestMethod, sMimeMessageFactory, mic -> {
+                outboundMic = mic;
+                root.setTag("mic", mic.toString());
+            });
+            HttpEntity httpEntity = chunked ? as2HttpEntity : buffer(as2HttpEntity);
             httpPost.setEntity(httpEntity);
 
             // Set all headers.
             httpPost.addHeader(As2Header.MESSAGE_ID, messageId);
-            httpPost.addHeader(As2Header.MIME_VERSION, headers.get(As2Header.MIME_VERSION));
-            httpPost.addHeader(As2Header.CONTENT_TYPE, headers.get(As2Header.CONTENT_TYPE));
+            httpPost.addHeader(As2Header.MIME_VERSION, "1.0");
+            httpPost.addHeader(httpEntity.getContentType());
             httpPost.addHeader(As2Header.AS2_FROM, fromIdentifier);
             httpPost.setHeader(As2Header.AS2_TO, CertificateUtils.extractCommonName(
                     transmissionRequest.getEndpoint().getCertificate()));
@@ -225,13 +201,24 @@ class As2MessageSender extends Traceable {
             httpPost.addHeader(As2Header.DATE, As2DateUtil.RFC822.format(new Date()));
 
             return httpPost;
-        } catch (MessagingException | IOException e) {
-            throw new OxalisTransmissionException("Unexpected error during preparation of AS2 message.", e);
         } finally {
             span.finish();
         }
     }
 
+    /**
+     * Writes the message before sending, for receivers requiring the length of the message to be known.
+     */
+    private HttpEntity buffer(As2HttpEntity as2HttpEntity) throws OxalisTransmissionException {
+        try (RewindableContent content = as2HttpEntity.buffer()) {
+            InputStreamEntity httpEntity = new InputStreamEntity(content.newInputStream(), content.size());
+            httpEntity.setContentType(as2HttpEntity.getContentType());
+            return httpEntity;
+        } catch (IOException e) {
+            throw new OxalisTransmissionException("Unable to create S/MIME message.", e);
+        }
+    }
+
     protected TransmissionResponse sendHttpRequest(HttpPost httpPost) throws OxalisTransmissionException {
         Span span = tracer.buildSpan("execute").asChildOf(root).start();
         try (CloseableHttpClient httpClient = httpClientProvider.get()) {
@@ -284,17 +271,15 @@ class As2MessageSender extends Traceable {
             if (!response.containsHeader("Content-Type"))
                 throw new OxalisTransmissionException("No Content-Type header in response, probably a server error.");
 
-            // Read MIME message
-            MimeMessage mimeMessage = MimeMessageHelper.parse(
-                    response.getEntity().getContent(),
-                    Stream.of(response.getAllHeaders()).map(Header::toString)
-            );
-
-            SignedMessage message;
+            // Decode MDN once, used for both verification and transmission response
+            SignedMdn mdn;
 
             try {
-                message = SignedMessage.load(mimeMessage);
-                message.validate(transmissionRequest.getEndpoint().getCertificate());
+                mdn = SignedMdn.decode(
+                        response.getEntity().getContent(),
+                        Stream.of(response.getAllHeaders()).map(Header::toString)
+                );
+                mdn.verify(transmissionRequest.getEndpoint().getCertificate());
             } catch (OxalisAs2Exception e) {
                 throw new OxalisTransmissionException("Unable to parse received MDN.", e);
             } catch (OxalisSecurityException | PeppolSecurityException e) {
@@ -303,33 +288,18 @@ class As2MessageSender extends Traceable {
             }
 
             // Timestamp of reception of MDN
-            Timestamp t3 = timestampProvider.generate(message.getSignature(), Direction.OUT);
+            Timestamp t3 = timestampProvider.generate(mdn.getSignature(), Direction.OUT);
 
             // Verifies the actual MDN
-            MdnMimeMessageInspector mdnMimeMessageInspector = new MdnMimeMessageInspector(mimeMessage);
-            String msg = mdnMimeMessageInspector.getPlainTextPartAsText();
-
-            if (!mdnMimeMessageInspector.isOkOrWarning(new Mic(outboundMic))) {
-                log.error("AS2 transmission failed with some error message '{}'.", msg);
-                throw new OxalisTransmissionException(String.format("AS2 transmission failed : %s", msg));
+            if (!mdn.isOkOrWarning(new Mic(outboundMic))) {
+                log.error("AS2 transmission failed with some error message '{}'.", mdn.getText());
+                throw new OxalisTransmissionException(String.format("AS2 transmission failed : %s", mdn.getText()));
             }
 
-            // Read structured content
-            MimeBodyPart mimeBodyPart = (MimeBodyPart) mdnMimeMessageInspector.getMessageDispositionNotificationPart();
-            InternetHeaders internetHeaders = new InternetHeaders((InputStream) mimeBodyPart.getContent());
-
-            // Fetch timestamp if set
-            Date date = t3.getDate();
-            if (internetHeaders.getHeader(MdnHeader.DATE) != null)
-                date = As2DateUtil.RFC822.parse(internetHeaders.getHeader(MdnHeader.DATE)[0]);
-
             // Return TransmissionResponse
-            return new As2TransmissionResponse(transmissionIdentifier, transmissionRequest,
-                    outboundMic, MimeMessageHelper.toBytes(mimeMessage), t3, date);
+            return new As2TransmissionResponse(transmissionIdentifier, transmissionRequest, outboundMic, mdn, t3);
         } catch (TimestampException | IOException e) {
             throw new OxalisTransmissionException(e.getMessage(), e);
-        } catch (NoSuchAlgorithmException | MessagingException e) {
-            throw new OxalisTransmissionException(String.format("Unable to parseOld received MDN: %s", e.getMessage()), e);
         } finally {
             span.finish();
         }
@@ -27,6 +27,7 @@ import network.oxalis.api.model.TransmissionIdentifier;
 import network.oxalis.api.outbound.TransmissionRequest;
 import network.oxalis.api.outbound.TransmissionResponse;
 import network.oxalis.api.timestamp.Timestamp;
+import network.oxalis.as2.util.SignedMdn;
 import network.oxalis.vefa.peppol.common.model.*;
 
 import java.io.Serializable;
@@ -64,14 +65,16 @@ class As2TransmissionResponse implements TransmissionResponse, Serializable {
 
     public As2TransmissionResponse(TransmissionIdentifier transmissionIdentifier,
                                    TransmissionRequest transmissionRequest, Digest digest,
-                                   byte[] nativeEvidenceBytes, Timestamp timestamp, Date date) {
+                                   SignedMdn mdn, Timestamp timestamp) {
         this.tag = transmissionRequest.getTag();
         this.header = transmissionRequest.getHeader();
         this.endpoint = transmissionRequest.getEndpoint();
         this.transmissionIdentifier = transmissionIdentifier;
         this.digest = digest;
-        this.receipt = Receipt.of("message/disposition-notification", nativeEvidenceBytes);
-        this.timestamp = date;
+        this.receipt = Receipt.of("message/disposition-notification", mdn.getBytes());
+
+        // Timestamp stated in MDN is preferred over time of reception
+        this.timestamp = mdn.getDate() != null ? mdn.getDate() : timestamp.getDate();
 
         List<Receipt> receipts = new ArrayList<>();
         receipts.add(receipt);
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.as2.util;
+
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.RuntimeOperatorException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.OutputStream;
+import java.security.PrivateKey;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pool of initialized signers for a given digest method and private key.
+ * <p>
+ * Content signers returned are cheap to create and borrow an initialized signer from the pool only while
+ * signing, making it safe to use them also when BouncyCastle postpones signing until the message is written.
+ *
+ * @since 6.5.1
+ */
+class ContentSignerPool {
+
+    private final Queue<ContentSigner> pool = new ConcurrentLinkedQueue<>();
+
+    private final JcaContentSignerBuilder contentSignerBuilder;
+
+    private final AlgorithmIdentifier algorithmIdentifier;
+
+    private final PrivateKey privateKey;
+
+    public ContentSignerPool(SMimeDigestMethod digestMethod, PrivateKey privateKey) {
+        this.contentSignerBuilder = new JcaContentSignerBuilder(digestMethod.getMethod())
+                .setProvider(BouncyCastleProvider.PROVIDER_NAME);
+        this.algorithmIdentifier = new DefaultSignatureAlgorithmIdentifierFinder().find(digestMethod.getMethod());
+        this.privateKey = privateKey;
+    }
+
+    public ContentSigner get() {
+        return new PooledContentSigner();
+    }
+
+    private ContentSigner borrow() {
+        ContentSigner contentSigner = pool.poll();
+        if (contentSigner != null)
+            return contentSigner;
+
+        try {
+            return contentSignerBuilder.build(privateKey);
+        } catch (OperatorCreationException e) {
+            throw new RuntimeOperatorException("Unable to create signer: " + e.getMessage(), e);
+        }
+    }
+
+    private class PooledContentSigner implements ContentSigner {
+
+        private ContentSigner contentSigner;
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return algorithmIdentifier;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            if (contentSigner == null)
+                contentSigner = borrow();
+
+            return contentSigner.getOutputStream();
+        }
+
+        @Override
+        public byte[] getSignature() {
+            if (contentSigner == null)
+                contentSigner = borrow();
+
+            ContentSigner borrowed = contentSigner;
+            contentSigner = null;
+
+            byte[] signature = borrowed.getSignature();
+
+            // Signer is reset after signing and ready for reuse.
+            pool.offer(borrowed);
+
+            return signature;
+        }
+    }
+}
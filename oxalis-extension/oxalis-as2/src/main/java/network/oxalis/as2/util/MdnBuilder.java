@@ -51,16 +51,31 @@ public class MdnBuilder {
     private LineOutputStream textLineOutputStream = new LineOutputStream(textOutputStream);
 
     public static MdnBuilder newInstance(MimeMessage mimeMessage) throws MessagingException, IOException {
+        return newInstance(mimeMessage.getHeader(As2Header.AS2_TO)[0],
+                (Enumeration<String>) mimeMessage.getAllHeaderLines());
+    }
+
+    /**
+     * Initiates MDN using headers received, without need for a parsed message.
+     *
+     * @since 6.5.1
+     */
+    public static MdnBuilder newInstance(InternetHeaders internetHeaders) throws IOException {
+        return newInstance(internetHeaders.getHeader(As2Header.AS2_TO)[0],
+                (Enumeration<String>) internetHeaders.getAllHeaderLines());
+    }
+
+    private static MdnBuilder newInstance(String as2To, Enumeration<String> headerLines) throws IOException {
         MdnBuilder mdnBuilder = new MdnBuilder();
         mdnBuilder.addHeader(MdnHeader.REPORTING_UA, ISSUER);
 
-        String recipient = String.format("rfc822; %s", mimeMessage.getHeader(As2Header.AS2_TO)[0]);
+        String recipient = String.format("rfc822; %s", as2To);
         mdnBuilder.addHeader(MdnHeader.ORIGINAL_RECIPIENT, recipient);
         mdnBuilder.addHeader(MdnHeader.FINAL_RECIPIENT, recipient);
 
         mdnBuilder.textLineOutputStream.writeln("= Received headers");
         mdnBuilder.textLineOutputStream.writeln();
-        for (String header : Collections.list((Enumeration<String>) mimeMessage.getAllHeaderLines()))
+        for (String header : Collections.list(headerLines))
             mdnBuilder.textLineOutputStream.writeln(header);
         mdnBuilder.textLineOutputStream.writeln();
 
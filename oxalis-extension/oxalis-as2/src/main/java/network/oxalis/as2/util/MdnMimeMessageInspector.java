@@ -62,6 +62,8 @@ public class MdnMimeMessageInspector {
 
     private final MimeMessage mdnMimeMessage;
 
+    private MimeMultipart multipartReport;
+
     public MdnMimeMessageInspector(MimeMessage mdnMimeMessage) {
         this.mdnMimeMessage = mdnMimeMessage;
     }
@@ -78,15 +80,21 @@ public class MdnMimeMessageInspector {
     /**
      * The multipart/report should contain both a text/plain part with textual information and
      * a message/disposition-notification part that should be examined for error/failure/warning.
+     * <p>
+     * The multipart/report is parsed on first use only.
      */
     public MimeMultipart getMultipartReport() {
+        if (multipartReport != null)
+            return multipartReport;
+
         try {
             BodyPart bodyPart = getSignedMultiPart().getBodyPart(0);
-            MimeMultipart multipartReport  = new MimeMultipart (bodyPart.getDataHandler().getDataSource());
+            MimeMultipart multipartReport = new MimeMultipart(bodyPart.getDataHandler().getDataSource());
             if (!containsIgnoreCase(multipartReport.getContentType(), "multipart/report")) {
                 throw new IllegalStateException(
                         "The first body part of the first part of the signed message is not a multipart/report");
             }
+            this.multipartReport = multipartReport;
             return multipartReport;
         } catch (Exception e) {
             throw new IllegalStateException("Unable to retrieve the multipart/report : " + e.getMessage(), e);
@@ -191,8 +199,8 @@ public class MdnMimeMessageInspector {
                 }
 
                 BufferedReader r = new BufferedReader(new InputStreamReader(contentInputStream));
-                while (r.ready()) {
-                    String line = r.readLine();
+                String line;
+                while ((line = r.readLine()) != null) {
                     int firstColon = line.indexOf(":"); // "Disposition: ......"
                     if (firstColon > 0) {
                         String key = line.substring(0, firstColon).trim(); // up to :
@@ -235,51 +243,13 @@ public class MdnMimeMessageInspector {
         --------_=_NextPart_001_B096DD27.9007A6CE--
         */
 
-        // make sure we have a valid disposition
         String disposition = mdnFields.get("Disposition");
-        if (disposition == null) {
-            log.error("Unable to retreieve 'Disposition' from MDN");
-            return false;
-        }
-
-        log.debug("Decoding received disposition ({})", disposition);
-        As2Disposition as2dis = As2Disposition.valueOf(disposition);
-
-        // make sure we are in processed state
-        if (!As2Disposition.DispositionType.PROCESSED.equals(as2dis.getDispositionType())) {
-            // Disposition: automatic-action/MDN-sent-automatically; failed/failure: sender-equals-receiver
-            log.error("Failed or unknown state: {}", disposition);
-            return false;
-        }
-
-        // check if the returned MIC matches our outgoing MIC (sha1 of payload), warn about mic mismatch
+        if (disposition != null)
+            log.debug("Decoding received disposition ({})", disposition);
         String receivedMic = mdnFields.get("Received-Content-MIC");
-        if (receivedMic == null) {
-            log.error("MIC error, no Received-Content-MIC returned in MDN");
-            return false;
-        }
-        if (!outboundMic.equals(Mic.valueOf(receivedMic))) {
-            log.warn("MIC mismatch, received MIC was '{}' while sent MIC was '{}'.",
-                    receivedMic, outboundMic.toString());
-            return false;
-        }
-
-        // return when "clean processing state" : Disposition: automatic-action/MDN-sent-automatically; processed
-        As2Disposition.DispositionModifier modifier = as2dis.getDispositionModifier();
-        if (modifier == null) return true;
-
-        // allow partial success (warning)
-        if (As2Disposition.DispositionModifier.Prefix.WARNING.equals(modifier.getPrefix())) {
-            // Disposition: automatic-action/MDN-sent-automatically; processed/warning: duplicate-document
-            log.warn("Returns with warning: {}", disposition);
-            return true;
-        }
-
-        // Disposition: automatic-action/MDN-sent-automatically; processed/error: insufficient-message-security
-        log.warn("MDN failed with disposition raw: {}", disposition);
-        log.warn("MDN failed with as2 disposition: {}", as2dis.toString());
 
-        return false;
+        return SignedMdn.isOkOrWarning(disposition == null ? null : As2Disposition.valueOf(disposition),
+                receivedMic == null ? null : Mic.valueOf(receivedMic), outboundMic);
     }
 
     /**
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.as2.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Single pass reader of MIME multipart content. Parts are exposed one at a time as input streams reading
+ * directly from the underlying stream, so no part is ever held in memory as a whole.
+ * <p>
+ * Bytes returned for a part are the raw bytes found between two delimiters, as defined in RFC 2046, making it
+ * possible to calculate digests of the content exactly as transferred.
+ *
+ * @since 6.5.1
+ */
+public class MultipartStream {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final InputStream inputStream;
+
+    private final byte[] delimiter;
+
+    private final byte[] buffer;
+
+    private int position;
+
+    private int limit;
+
+    private boolean eof;
+
+    private boolean completed;
+
+    private PartInputStream current;
+
+    public MultipartStream(InputStream inputStream, String boundary) {
+        this.inputStream = inputStream;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        this.buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+
+        // Allows first delimiter to be detected when no preamble is provided.
+        this.buffer[0] = '\r';
+        this.buffer[1] = '\n';
+        this.limit = 2;
+
+        // Preamble is treated as the initial part.
+        this.current = new PartInputStream();
+    }
+
+    /**
+     * Moves to the next part, skipping whatever is left of the current part.
+     *
+     * @return <code>true</code> if a new part is available, otherwise <code>false</code> when the closing delimiter
+     * is reached.
+     */
+    public boolean next() throws IOException {
+        if (completed)
+            return false;
+
+        // Skip remaining content of current part.
+        current.skipAll();
+
+        // Closing delimiter is followed by "--".
+        fill(2);
+        if (limit - position >= 2 && buffer[position] == '-' && buffer[position + 1] == '-') {
+            position += 2;
+            completed = true;
+            return false;
+        }
+
+        // Skip transport padding and line break following delimiter.
+        while (true) {
+            if (!fill(1))
+                throw new IOException("Unexpected end of multipart content.");
+            if (buffer[position++] == '\n')
+                break;
+        }
+
+        current = new PartInputStream();
+        return true;
+    }
+
+    /**
+     * Input stream of current part. Reaching end of this stream means the delimiter is reached.
+     */
+    public InputStream getPart() {
+        return current;
+    }
+
+    /**
+     * Makes sure at least the requested number of bytes are available in buffer unless end of stream is reached.
+     */
+    private boolean fill(int required) throws IOException {
+        if (limit - position >= required)
+            return true;
+
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+
+        while (!eof && limit < required) {
+            int read = inputStream.read(buffer, limit, buffer.length - limit);
+            if (read == -1)
+                eof = true;
+            else
+                limit += read;
+        }
+
+        return limit - position >= required;
+    }
+
+    private int indexOfDelimiter(int last) {
+        outer:
+        for (int i = position; i <= last; i++) {
+            for (int j = 0; j < delimiter.length; j++)
+                if (buffer[i + j] != delimiter[j])
+                    continue outer;
+            return i;
+        }
+
+        return -1;
+    }
+
+    private class PartInputStream extends InputStream {
+
+        private final byte[] single = new byte[1];
+
+        private boolean finished;
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (finished)
+                return -1;
+            if (len == 0)
+                return 0;
+
+            // Refill buffer when running low on content.
+            if (limit - position < delimiter.length * 2)
+                fill(buffer.length);
+
+            // Only positions where the returned bytes could start a delimiter are inspected.
+            int last = Math.min(position + len - 1, limit - delimiter.length);
+            int index = indexOfDelimiter(last);
+            int count;
+
+            if (index == position) {
+                // Delimiter reached.
+                position += delimiter.length;
+                finished = true;
+                return -1;
+            } else if (index > position) {
+                count = index - position;
+            } else if (last >= position) {
+                count = last - position + 1;
+            } else if (limit > position) {
+                // End of stream is reached, remaining bytes are too few to contain a delimiter.
+                count = Math.min(len, limit - position);
+            } else {
+                throw new IOException("Unexpected end of multipart content.");
+            }
+
+            System.arraycopy(buffer, position, b, off, count);
+            position += count;
+
+            return count;
+        }
+
+        private void skipAll() throws IOException {
+            byte[] b = new byte[BUFFER_SIZE];
+            while (read(b, 0, b.length) != -1) {
+                // No action.
+            }
+        }
+    }
+}
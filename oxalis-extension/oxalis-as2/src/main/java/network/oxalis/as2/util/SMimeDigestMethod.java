@@ -69,6 +69,15 @@ public enum SMimeDigestMethod {
         return identifier[0];
     }
 
+    /**
+     * Value used as "micalg" parameter in multipart/signed content type.
+     *
+     * @since 6.5.1
+     */
+    public String getMicalg() {
+        return identifier[1];
+    }
+
     public String getMethod() {
         return method;
     }
@@ -22,6 +22,7 @@
 
 package network.oxalis.as2.util;
 
+import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import network.oxalis.api.lang.OxalisSecurityException;
@@ -30,12 +31,23 @@ import network.oxalis.commons.bouncycastle.BCHelper;
 import network.oxalis.vefa.peppol.common.model.Digest;
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.cms.AttributeTable;
-import org.bouncycastle.cert.jcajce.JcaCertStore;
-import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cms.CMSAbsentContent;
+import org.bouncycastle.cms.CMSAttributeTableGenerator;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.DefaultSignedAttributeTableGenerator;
+import org.bouncycastle.cms.SignerInfoGeneratorBuilder;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.mail.smime.SMIMEException;
 import org.bouncycastle.mail.smime.SMIMESignedGenerator;
+import org.bouncycastle.operator.DigestCalculator;
+import org.bouncycastle.operator.DigestCalculatorProvider;
 import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.util.CollectionStore;
 import org.bouncycastle.util.Store;
 
 import javax.activation.DataHandler;
@@ -48,12 +60,15 @@ import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 import javax.mail.util.ByteArrayDataSource;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.PrivateKey;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.Collections;
-import java.util.Properties;
+import java.util.EnumMap;
+import java.util.Map;
 
 /**
  * Creates signed Mime messages
@@ -71,10 +86,41 @@ public class SMimeMessageFactory {
         BCHelper.registerProvider();
     }
 
+    /**
+     * Signer infrastructure not depending on the message, prepared once.
+     */
+    private final X509CertificateHolder certificateHolder;
+
+    private final Store<X509CertificateHolder> certificates;
+
+    private final DigestCalculatorProvider digestCalculatorProvider;
+
+    private final CMSAttributeTableGenerator signedAttributeGenerator;
+
+    private final Map<SMimeDigestMethod, ContentSignerPool> contentSigners = new EnumMap<>(SMimeDigestMethod.class);
+
     @Inject
     public SMimeMessageFactory(PrivateKey privateKey, X509Certificate ourCertificate) {
         this.privateKey = privateKey;
         this.ourCertificate = ourCertificate;
+
+        try {
+            this.certificateHolder = new JcaX509CertificateHolder(ourCertificate);
+            this.digestCalculatorProvider = new JcaDigestCalculatorProviderBuilder()
+                    .setProvider(BouncyCastleProvider.PROVIDER_NAME)
+                    .build();
+        } catch (CertificateEncodingException | OperatorCreationException e) {
+            throw new IllegalStateException("Unable to prepare signing of messages. " + e.getMessage(), e);
+        }
+
+        this.certificates = new CollectionStore<>(Collections.singleton(certificateHolder));
+
+        // S/MIME capabilities are required, but we simply supply an empty vector
+        this.signedAttributeGenerator =
+                new DefaultSignedAttributeTableGenerator(new AttributeTable(new ASN1EncodableVector()));
+
+        for (SMimeDigestMethod digestMethod : SMimeDigestMethod.values())
+            contentSigners.put(digestMethod, new ContentSignerPool(digestMethod, privateKey));
     }
 
     /**
@@ -104,46 +150,27 @@ public class SMimeMessageFactory {
     public MimeMessage createSignedMimeMessage(MimeBodyPart mimeBodyPart, SMimeDigestMethod digestMethod)
             throws OxalisTransmissionException {
 
-        //
-        // S/MIME capabilities are required, but we simply supply an empty vector
-        //
-        ASN1EncodableVector signedAttrs = new ASN1EncodableVector();
-
         //
         // create the generator for creating an smime/signed message
         //
         SMIMESignedGenerator smimeSignedGenerator = new SMIMESignedGenerator("binary"); //also see CMSSignedGenerator ?
 
         //
-        // add a signer to the generator - this specifies we are using SHA1 and
-        // adding the smime attributes above to the signed attributes that
-        // will be generated as part of the signature. The encryption algorithm
-        // used is taken from the key - in this RSA with PKCS1Padding
+        // add a signer to the generator using the pooled signer for the digest method and the
+        // smime attributes prepared in the constructor
         //
         try {
-            smimeSignedGenerator.addSignerInfoGenerator(new JcaSimpleSignerInfoGeneratorBuilder()
-                    .setProvider(BouncyCastleProvider.PROVIDER_NAME)
-                    .setSignedAttributeGenerator(new AttributeTable(signedAttrs))
-                    // .build("SHA1withRSA", privateKey, ourCertificate));
-                    .build(digestMethod.getMethod(), privateKey, ourCertificate));
+            smimeSignedGenerator.addSignerInfoGenerator(new SignerInfoGeneratorBuilder(digestCalculatorProvider)
+                    .setSignedAttributeGenerator(signedAttributeGenerator)
+                    .build(contentSigners.get(digestMethod).get(), certificateHolder));
         } catch (OperatorCreationException e) {
             throw new OxalisTransmissionException("Unable to add Signer information. " + e.getMessage(), e);
-        } catch (CertificateEncodingException e) {
-            throw new OxalisTransmissionException(String.format(
-                    "Certificate encoding problems while adding signer information. %s", e.getMessage()), e);
         }
 
         //
-        // create a CertStore containing the certificates we want carried
-        // in the signature
+        // add the store containing the certificates we want carried in the signature
         //
-        Store certs;
-        try {
-            certs = new JcaCertStore(Collections.singleton(ourCertificate));
-        } catch (CertificateEncodingException e) {
-            throw new OxalisTransmissionException("Unable to create JcaCertStore with our certificate. " + e.getMessage(), e);
-        }
-        smimeSignedGenerator.addCertificates(certs);
+        smimeSignedGenerator.addCertificates(certificates);
 
         //
         // Signs the supplied MimeBodyPart
@@ -156,11 +183,8 @@ public class SMimeMessageFactory {
         }
 
         //
-        // Get a Session object and create the mail message
+        // create the mail message
         //
-        Properties props = System.getProperties();
-        Session session = Session.getDefaultInstance(props, null);
-
         MimeMessage mimeMessage = new MimeMessage(session);
 
         try {
@@ -177,6 +201,31 @@ public class SMimeMessageFactory {
         return mimeMessage;
     }
 
+    /**
+     * Creates a detached CMS signature for content already digested by the caller, allowing content to be
+     * digested while streamed. The signature is the same as the one found in messages created by this factory.
+     *
+     * @param digest       Digest of the signed MIME body part, including headers.
+     * @param digestMethod Digest method used to create the digest.
+     * @return DER encoded signature.
+     * @since 6.5.1
+     */
+    public byte[] createSignature(byte[] digest, SMimeDigestMethod digestMethod) throws OxalisTransmissionException {
+        try {
+            CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+            generator.addSignerInfoGenerator(
+                    new SignerInfoGeneratorBuilder(algorithmIdentifier -> new PrecomputedDigestCalculator(
+                            algorithmIdentifier, digest))
+                            .setSignedAttributeGenerator(signedAttributeGenerator)
+                            .build(contentSigners.get(digestMethod).get(), certificateHolder));
+            generator.addCertificates(certificates);
+
+            return generator.generate(new CMSAbsentContent()).getEncoded();
+        } catch (OperatorCreationException | CMSException | IOException e) {
+            throw new OxalisTransmissionException("Unable to create signature. " + e.getMessage(), e);
+        }
+    }
+
     public MimeMessage createSignedMimeMessageNew(MimeBodyPart mimeBodyPart, Digest digest, SMimeDigestMethod digestMethod)
             throws OxalisTransmissionException {
         try {
@@ -202,4 +251,34 @@ public class SMimeMessageFactory {
             throw new OxalisTransmissionException(e.getMessage(), e);
         }
     }
+
+    /**
+     * Digest calculator returning digest calculated elsewhere.
+     */
+    private static class PrecomputedDigestCalculator implements DigestCalculator {
+
+        private final AlgorithmIdentifier algorithmIdentifier;
+
+        private final byte[] digest;
+
+        public PrecomputedDigestCalculator(AlgorithmIdentifier algorithmIdentifier, byte[] digest) {
+            this.algorithmIdentifier = algorithmIdentifier;
+            this.digest = digest;
+        }
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return algorithmIdentifier;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return ByteStreams.nullOutputStream();
+        }
+
+        @Override
+        public byte[] getDigest() {
+            return digest;
+        }
+    }
 }
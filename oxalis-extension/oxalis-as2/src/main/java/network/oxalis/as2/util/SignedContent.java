@@ -0,0 +1,62 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.as2.util;
+
+import network.oxalis.api.lang.OxalisSecurityException;
+import network.oxalis.as2.lang.OxalisAs2Exception;
+import network.oxalis.vefa.peppol.common.code.Service;
+import network.oxalis.vefa.peppol.security.api.CertificateValidator;
+import network.oxalis.vefa.peppol.security.lang.PeppolSecurityException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+
+/**
+ * Received S/MIME message with detached signature, independent of how the message is read.
+ *
+ * @since 6.5.1
+ */
+public interface SignedContent {
+
+    String getMicalg();
+
+    X509Certificate getSigner();
+
+    byte[] getDigest();
+
+    byte[] getSignature();
+
+    /**
+     * Headers of the signed MIME body part, including the CRLF separating headers and content.
+     */
+    byte[] getBodyHeader() throws IOException, OxalisAs2Exception;
+
+    /**
+     * Decoded content of the signed MIME body part. A new stream is returned for each call.
+     */
+    InputStream getContent() throws IOException, OxalisSecurityException, OxalisAs2Exception;
+
+    void validate(Service service, CertificateValidator validator, String commonName)
+            throws IOException, OxalisSecurityException, PeppolSecurityException;
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.as2.util;
+
+import com.google.common.io.ByteStreams;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.lang.OxalisSecurityException;
+import network.oxalis.as2.code.MdnHeader;
+import network.oxalis.as2.lang.OxalisAs2Exception;
+import network.oxalis.as2.model.As2Disposition;
+import network.oxalis.as2.model.Mic;
+import network.oxalis.commons.bouncycastle.BCHelper;
+import network.oxalis.vefa.peppol.security.lang.PeppolSecurityException;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.SignerInformationVerifier;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+
+import javax.mail.Header;
+import javax.mail.MessagingException;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeUtility;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Signed MDN as received by the sender of a message, decoded in a single pass over the received bytes.
+ * <p>
+ * Parts of the S/MIME message and the multipart/report are located directly in the received bytes, the digest of
+ * the signed part is calculated while decoding and the fields of the disposition notification are parsed once,
+ * so verification and inspection do not parse the MDN again. Instances are immutable.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+public class SignedMdn {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final byte[] bytes;
+
+    private final String micalg;
+
+    private final byte[] signature;
+
+    private final CMSSignedData signedData;
+
+    private final String text;
+
+    private final Map<String, String> fields;
+
+    private final As2Disposition disposition;
+
+    private final Mic receivedMic;
+
+    private final Date date;
+
+    static {
+        BCHelper.registerProvider();
+    }
+
+    /**
+     * Decodes a MDN where the MIME headers are provided separately, like when received using HTTP.
+     *
+     * @param inputStream Content of MIME message.
+     * @param headers     Headers of MIME message.
+     * @return Decoded MDN, not yet verified.
+     */
+    public static SignedMdn decode(InputStream inputStream, Stream<String> headers)
+            throws IOException, OxalisAs2Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (String header : (Iterable<String>) headers::iterator) {
+            outputStream.write(header.getBytes(StandardCharsets.ISO_8859_1));
+            outputStream.write('\r');
+            outputStream.write('\n');
+        }
+        outputStream.write('\r');
+        outputStream.write('\n');
+        ByteStreams.copy(inputStream, outputStream);
+
+        return decode(outputStream.toByteArray());
+    }
+
+    /**
+     * Decodes a complete MIME message holding a MDN, including headers.
+     *
+     * @param bytes Complete MIME message.
+     * @return Decoded MDN, not yet verified.
+     */
+    public static SignedMdn decode(byte[] bytes) throws OxalisAs2Exception {
+        try {
+            return new SignedMdn(bytes);
+        } catch (IOException | MessagingException | CMSException | NoSuchAlgorithmException
+                | IllegalArgumentException e) {
+            throw new OxalisAs2Exception("Unable to parse received MDN.", e);
+        }
+    }
+
+    private SignedMdn(byte[] bytes) throws IOException, MessagingException, CMSException, NoSuchAlgorithmException,
+            OxalisAs2Exception {
+        this.bytes = bytes;
+
+        // Signed message
+        Part message = new Part(bytes, 0, bytes.length);
+        ContentType contentType = message.getContentType();
+        if (!contentType.match("multipart/signed"))
+            throw new OxalisAs2Exception("Received content is not 'multipart/signed'.");
+
+        micalg = SignedMessage.extractMicalg(contentType);
+
+        List<Part> signedParts = message.getParts();
+        if (signedParts.size() < 2)
+            throw new OxalisAs2Exception("Signature part not found.");
+
+        // Digest of signed part is calculated using algorithm stated by receiver
+        Part reportPart = signedParts.get(0);
+        SMimeDigestMethod digestMethod = SMimeDigestMethod.findByIdentifier(micalg);
+        MessageDigest messageDigest = BCHelper.getMessageDigest(digestMethod.getIdentifier());
+        if (reportPart.isBinary())
+            messageDigest.update(bytes, reportPart.start, reportPart.end - reportPart.start);
+        else
+            updateCanonical(messageDigest, bytes, reportPart.start, reportPart.end);
+
+        signature = ByteStreams.toByteArray(signedParts.get(1).getContent());
+        signedData = new CMSSignedData(
+                Collections.singletonMap(digestMethod.getOid(), messageDigest.digest()), signature);
+
+        // Multipart report
+        if (!reportPart.getContentType().match("multipart/report"))
+            throw new OxalisAs2Exception("The first part of the signed message is not a multipart/report.");
+
+        List<Part> parts = reportPart.getParts();
+
+        // We assume that the first text/plain part is the one containing any textual information.
+        Part textPart = find(parts, "text/plain");
+        text = textPart == null ? null : textPart.getText();
+
+        // If we don't find a message/disposition-notification part we assume that part 2 is the right one.
+        Part notificationPart = find(parts, "message/disposition-notification");
+        if (notificationPart == null && parts.size() > 1)
+            notificationPart = parts.get(1);
+        if (notificationPart == null)
+            throw new OxalisAs2Exception("Disposition notification not found in MDN.");
+
+        fields = Collections.unmodifiableMap(parseFields(notificationPart.getContent()));
+
+        // Malformed fields are treated as missing, leaving it to the receiver of this object to reject the MDN
+        // while keeping the text provided by the receiver of the message.
+        disposition = parseField(MdnHeader.DISPOSITION, As2Disposition::valueOf);
+        receivedMic = parseField(MdnHeader.RECEIVED_CONTENT_MIC, Mic::valueOf);
+        date = parseField(MdnHeader.DATE, As2DateUtil.RFC822::parse);
+    }
+
+    /**
+     * Verifies the signature of the MDN using the certificate of the receiver.
+     */
+    public void verify(X509Certificate certificate) throws OxalisSecurityException, PeppolSecurityException {
+        try {
+            SignerInformationVerifier verifier = new JcaSimpleSignerInfoVerifierBuilder()
+                    .setProvider(BouncyCastleProvider.PROVIDER_NAME)
+                    .build(certificate.getPublicKey());
+
+            for (SignerInformation signerInformation : signedData.getSignerInfos().getSigners())
+                if (signerInformation.verify(verifier))
+                    return;
+        } catch (CMSException e) {
+            throw new OxalisSecurityException(e.getMessage(), e);
+        } catch (OperatorCreationException e) {
+            throw new OxalisSecurityException("Unable to create SignerInformationVerifier.", e);
+        }
+
+        throw new PeppolSecurityException("Unable to verify signature.");
+    }
+
+    /**
+     * Make sure the message was processed (allow for warnings) with the expected MIC.
+     *
+     * @param outboundMic the outbound mic to verify against
+     */
+    public boolean isOkOrWarning(Mic outboundMic) {
+        return isOkOrWarning(disposition, receivedMic, outboundMic);
+    }
+
+    /**
+     * Complete MDN as received, including headers.
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    public String getMicalg() {
+        return micalg;
+    }
+
+    public byte[] getSignature() {
+        return signature.clone();
+    }
+
+    /**
+     * Textual information of the MDN, or {@code null} if not provided.
+     */
+    public String getText() {
+        return text;
+    }
+
+    public As2Disposition getDisposition() {
+        return disposition;
+    }
+
+    public Mic getReceivedMic() {
+        return receivedMic;
+    }
+
+    public String getOriginalMessageId() {
+        return fields.get(MdnHeader.ORIGINAL_MESSAGE_ID);
+    }
+
+    /**
+     * Timestamp stated in the MDN, or {@code null} if not provided.
+     */
+    public Date getDate() {
+        return date == null ? null : new Date(date.getTime());
+    }
+
+    /**
+     * Fields of the disposition notification, using case insensitive keys.
+     */
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    static boolean isOkOrWarning(As2Disposition disposition, Mic receivedMic, Mic outboundMic) {
+        // make sure we have a valid disposition
+        if (disposition == null) {
+            log.error("Unable to retrieve 'Disposition' from MDN");
+            return false;
+        }
+
+        // make sure we are in processed state
+        if (!As2Disposition.DispositionType.PROCESSED.equals(disposition.getDispositionType())) {
+            // Disposition: automatic-action/MDN-sent-automatically; failed/failure: sender-equals-receiver
+            log.error("Failed or unknown state: {}", disposition);
+            return false;
+        }
+
+        // check if the returned MIC matches our outgoing MIC, warn about mic mismatch
+        if (receivedMic == null) {
+            log.error("MIC error, no Received-Content-MIC returned in MDN");
+            return false;
+        }
+        if (!outboundMic.equals(receivedMic)) {
+            log.warn("MIC mismatch, received MIC was '{}' while sent MIC was '{}'.", receivedMic, outboundMic);
+            return false;
+        }
+
+        // return when "clean processing state" : Disposition: automatic-action/MDN-sent-automatically; processed
+        As2Disposition.DispositionModifier modifier = disposition.getDispositionModifier();
+        if (modifier == null)
+            return true;
+
+        // allow partial success (warning)
+        if (As2Disposition.DispositionModifier.Prefix.WARNING.equals(modifier.getPrefix())) {
+            // Disposition: automatic-action/MDN-sent-automatically; processed/warning: duplicate-document
+            log.warn("Returns with warning: {}", disposition);
+            return true;
+        }
+
+        // Disposition: automatic-action/MDN-sent-automatically; processed/error: insufficient-message-security
+        log.warn("MDN failed with as2 disposition: {}", disposition);
+
+        return false;
+    }
+
+    private <T> T parseField(String name, FieldParser<T> parser) {
+        String value = fields.get(name);
+        if (value == null)
+            return null;
+
+        try {
+            return parser.parse(value);
+        } catch (Exception e) {
+            log.warn("Unable to parse field '{}' of MDN: {}", name, value);
+            return null;
+        }
+    }
+
+    /**
+     * Digests content converted to canonical form, where all line breaks are CRLF, as done by Bouncycastle when
+     * verifying S/MIME content not transferred as binary.
+     */
+    private static void updateCanonical(MessageDigest messageDigest, byte[] bytes, int start, int end) {
+        int from = start;
+        for (int i = start; i < end; i++) {
+            boolean bareLf = bytes[i] == '\n' && (i == start || bytes[i - 1] != '\r');
+            boolean bareCr = bytes[i] == '\r' && (i + 1 == end || bytes[i + 1] != '\n');
+            if (bareLf || bareCr) {
+                messageDigest.update(bytes, from, i - from);
+                messageDigest.update(CRLF);
+                from = i + 1;
+            }
+        }
+        messageDigest.update(bytes, from, end - from);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> parseFields(InputStream inputStream) throws MessagingException {
+        Map<String, String> fields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Header header : Collections.list((Enumeration<Header>) new InternetHeaders(inputStream).getAllHeaders()))
+            fields.put(header.getName().trim(), MimeUtility.unfold(header.getValue()).trim());
+        return fields;
+    }
+
+    private static Part find(List<Part> parts, String mimeType) throws MessagingException {
+        for (Part part : parts)
+            if (part.getContentType().match(mimeType))
+                return part;
+        return null;
+    }
+
+    private interface FieldParser<T> {
+        T parse(String value) throws Exception;
+    }
+
+    /**
+     * MIME part located in the received bytes. Line breaks are accepted with or without CR, as when parsing
+     * using JavaMail.
+     */
+    private static class Part {
+
+        private final byte[] bytes;
+
+        private final int start;
+
+        private final int end;
+
+        private final int contentStart;
+
+        private final InternetHeaders headers;
+
+        public Part(byte[] bytes, int start, int end) throws MessagingException {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+
+            ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes, start, end - start);
+            this.headers = new InternetHeaders(inputStream);
+            this.contentStart = end - inputStream.available();
+        }
+
+        public boolean isBinary() {
+            String encoding = headers.getHeader("Content-Transfer-Encoding", null);
+            return encoding != null && "binary".equalsIgnoreCase(encoding.trim());
+        }
+
+        public ContentType getContentType() throws MessagingException {
+            return new ContentType(headers.getHeader("Content-Type", null) == null ?
+                    "text/plain" : headers.getHeader("Content-Type", null));
+        }
+
+        /**
+         * Decoded content of part.
+         */
+        public InputStream getContent() throws MessagingException {
+            InputStream inputStream = new ByteArrayInputStream(bytes, contentStart, end - contentStart);
+            String encoding = headers.getHeader("Content-Transfer-Encoding", null);
+            return encoding == null ? inputStream : MimeUtility.decode(inputStream, encoding.trim());
+        }
+
+        public String getText() throws IOException, MessagingException {
+            String charset = getContentType().getParameter("charset");
+            return new String(ByteStreams.toByteArray(getContent()),
+                    charset == null ? StandardCharsets.US_ASCII : Charset.forName(MimeUtility.javaCharset(charset)));
+        }
+
+        /**
+         * Parts of multipart content, excluding preamble and epilogue.
+         */
+        public List<Part> getParts() throws MessagingException {
+            String boundary = getContentType().getParameter("boundary");
+            if (boundary == null)
+                throw new MessagingException("Parameter 'boundary' is not provided.");
+
+            byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+            List<Part> parts = new ArrayList<>();
+
+            int position = indexOfDelimiter(delimiter, contentStart);
+            while (position >= 0) {
+                position += delimiter.length;
+
+                // Closing delimiter is followed by "--".
+                if (position + 1 < end && bytes[position] == '-' && bytes[position + 1] == '-')
+                    return parts;
+
+                // Skip transport padding and line break following delimiter.
+                while (position < end && bytes[position++] != '\n') {
+                    // No action.
+                }
+
+                int next = indexOfDelimiter(delimiter, position);
+                if (next < 0)
+                    break;
+
+                // Line break preceding delimiter belongs to the delimiter.
+                int partEnd = next - 1;
+                if (partEnd > position && bytes[partEnd - 1] == '\r')
+                    partEnd--;
+
+                parts.add(new Part(bytes, position, Math.max(position, partEnd)));
+                position = next;
+            }
+
+            throw new MessagingException("Unexpected end of multipart content.");
+        }
+
+        /**
+         * Finds delimiter placed at start of a line.
+         */
+        private int indexOfDelimiter(byte[] delimiter, int from) {
+            outer:
+            for (int i = from; i <= end - delimiter.length; i++) {
+                if (i > contentStart && bytes[i - 1] != '\n')
+                    continue;
+                for (int j = 0; j < delimiter.length; j++)
+                    if (bytes[i + j] != delimiter[j])
+                        continue outer;
+                return i;
+            }
+
+            return -1;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.google.common.io.ByteStreams;
 import com.sun.mail.util.LineOutputStream;
 import lombok.extern.slf4j.Slf4j;
 import network.oxalis.api.lang.OxalisSecurityException;
+import network.oxalis.as2.code.As2Header;
 import network.oxalis.as2.lang.OxalisAs2Exception;
 import network.oxalis.commons.bouncycastle.BCHelper;
 import network.oxalis.commons.security.CertificateUtils;
@@ -23,6 +24,7 @@ import org.bouncycastle.util.CollectionStore;
 import javax.mail.MessagingException;
 import javax.mail.Session;
 import javax.mail.internet.ContentType;
+import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
@@ -37,7 +39,7 @@ import java.util.Enumeration;
  * @author erlend
  */
 @Slf4j
-public class SignedMessage {
+public class SignedMessage implements SignedContent {
 
     private static final Session SESSION = Session.getDefaultInstance(System.getProperties());
 
@@ -92,6 +94,7 @@ public class SignedMessage {
         }
     }
 
+    @Override
     public InputStream getContent() throws IOException, OxalisSecurityException, OxalisAs2Exception {
         try {
             if (signer == null)
@@ -107,18 +110,22 @@ public class SignedMessage {
         return ByteStreams.toByteArray(getContent());
     }
 
+    @Override
     public String getMicalg() {
         return micalg;
     }
 
+    @Override
     public X509Certificate getSigner() {
         return signer;
     }
 
+    @Override
     public byte[] getDigest() {
         return digest;
     }
 
+    @Override
     public byte[] getSignature() {
         return signature;
     }
@@ -128,6 +135,7 @@ public class SignedMessage {
      *
      * @return Headers
      */
+    @Override
     public byte[] getBodyHeader() throws IOException, OxalisAs2Exception {
         try {
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
@@ -175,6 +183,7 @@ public class SignedMessage {
         validate(service, validator, null);
     }
 
+    @Override
     public void validate(Service service, CertificateValidator validator, String commonName)
             throws IOException, OxalisSecurityException, PeppolSecurityException {
         for (X509CertificateHolder holder : (CollectionStore<X509CertificateHolder>) smimeSigned.getCertificates()) {
@@ -197,7 +206,7 @@ public class SignedMessage {
                 String.format("Unable to find valid certificate with CN '%s' for validation of content.", commonName));
     }
 
-    private boolean isValid(Service service, CertificateValidator validator, X509Certificate certificate) {
+    static boolean isValid(Service service, CertificateValidator validator, X509Certificate certificate) {
         try {
             validator.validate(service, certificate);
             return true;
@@ -208,14 +217,32 @@ public class SignedMessage {
 
     public static String extractMicalg(MimeMessage message) throws OxalisAs2Exception {
         try {
-            ContentType contentType = new ContentType(message.getContentType());
-            String micalg = contentType.getParameter("micalg");
-            if (micalg == null)
-                throw new OxalisAs2Exception("Parameter 'micalg' is not provided.");
+            return extractMicalg(new ContentType(message.getContentType()));
+        } catch (MessagingException e) {
+            throw new OxalisAs2Exception("Unable to fetch content type.", e);
+        }
+    }
+
+    /**
+     * @since 6.5.1
+     */
+    public static String extractMicalg(InternetHeaders headers) throws OxalisAs2Exception {
+        String contentType = headers.getHeader(As2Header.CONTENT_TYPE, null);
+        if (contentType == null)
+            throw new OxalisAs2Exception("Header 'Content-Type' is not provided.");
 
-            return micalg;
+        try {
+            return extractMicalg(new ContentType(contentType));
         } catch (MessagingException e) {
             throw new OxalisAs2Exception("Unable to fetch content type.", e);
         }
     }
+
+    static String extractMicalg(ContentType contentType) throws OxalisAs2Exception {
+        String micalg = contentType.getParameter("micalg");
+        if (micalg == null)
+            throw new OxalisAs2Exception("Parameter 'micalg' is not provided.");
+
+        return micalg;
+    }
 }
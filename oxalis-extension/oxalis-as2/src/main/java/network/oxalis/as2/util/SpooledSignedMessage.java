@@ -0,0 +1,285 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.as2.util;
+
+import com.google.common.io.ByteStreams;
+import com.sun.mail.util.LineOutputStream;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.lang.OxalisSecurityException;
+import network.oxalis.as2.code.As2Header;
+import network.oxalis.as2.lang.OxalisAs2Exception;
+import network.oxalis.commons.bouncycastle.BCHelper;
+import network.oxalis.commons.security.CertificateUtils;
+import network.oxalis.vefa.peppol.common.code.Service;
+import network.oxalis.vefa.peppol.security.api.CertificateValidator;
+import network.oxalis.vefa.peppol.security.lang.PeppolSecurityException;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.SignerInformationVerifier;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.util.CollectionStore;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeUtility;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Enumeration;
+
+/**
+ * Reads a S/MIME message with detached signature in one pass directly from a stream. The digest of the signed
+ * part is calculated while reading, and the content of the signed part is spooled to a temporary file, making
+ * heap usage independent of the size of the received content.
+ * <p>
+ * The temporary file is removed when the object is closed.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+public class SpooledSignedMessage implements SignedContent, Closeable {
+
+    private final Path contentPath;
+
+    private String micalg;
+
+    private byte[] bodyHeader;
+
+    private byte[] signature;
+
+    private CMSSignedData signedData;
+
+    private X509Certificate signer;
+
+    private byte[] digest;
+
+    static {
+        BCHelper.registerProvider();
+    }
+
+    /**
+     * Reads a S/MIME message where the MIME headers are provided separately, like when received using HTTP.
+     *
+     * @param inputStream Content of MIME message.
+     * @param headers     Headers of MIME message.
+     * @return Message ready for validation.
+     */
+    public static SpooledSignedMessage load(InputStream inputStream, InternetHeaders headers)
+            throws IOException, OxalisAs2Exception, NoSuchAlgorithmException {
+        SpooledSignedMessage message = new SpooledSignedMessage(Files.createTempFile("oxalis-as2-", ".tmp"));
+
+        try {
+            message.read(inputStream, headers);
+            return message;
+        } catch (IOException | OxalisAs2Exception | NoSuchAlgorithmException | RuntimeException e) {
+            message.close();
+            throw e;
+        }
+    }
+
+    private SpooledSignedMessage(Path contentPath) {
+        this.contentPath = contentPath;
+    }
+
+    private void read(InputStream inputStream, InternetHeaders headers)
+            throws IOException, OxalisAs2Exception, NoSuchAlgorithmException {
+        try {
+            String[] contentTypeHeader = headers.getHeader(As2Header.CONTENT_TYPE);
+            if (contentTypeHeader == null)
+                throw new OxalisAs2Exception("Header 'Content-Type' is not provided.");
+
+            // Verify content type
+            ContentType contentType = new ContentType(contentTypeHeader[0]);
+            if (!contentType.match("multipart/signed"))
+                throw new OxalisAs2Exception("Received content is not 'multipart/signed'.");
+
+            micalg = SignedMessage.extractMicalg(contentType);
+
+            String boundary = contentType.getParameter("boundary");
+            if (boundary == null)
+                throw new OxalisAs2Exception("Parameter 'boundary' is not provided.");
+
+            // Digest of signed part is calculated using algorithm stated by sender
+            SMimeDigestMethod digestMethod = SMimeDigestMethod.findByIdentifier(micalg);
+            MessageDigest messageDigest = BCHelper.getMessageDigest(digestMethod.getIdentifier());
+
+            MultipartStream multipartStream = new MultipartStream(inputStream, boundary);
+
+            // Signed part
+            if (!multipartStream.next())
+                throw new OxalisAs2Exception("Signed part not found.");
+
+            InputStream signedPart = new DigestInputStream(multipartStream.getPart(), messageDigest);
+            InternetHeaders signedHeaders = new InternetHeaders(signedPart);
+            bodyHeader = toBodyHeader(signedHeaders);
+
+            try (OutputStream outputStream = Files.newOutputStream(contentPath)) {
+                ByteStreams.copy(decode(signedPart, signedHeaders), outputStream);
+            }
+
+            // Make sure all of the signed part is digested
+            ByteStreams.exhaust(signedPart);
+
+            // Signature part
+            if (!multipartStream.next())
+                throw new OxalisAs2Exception("Signature part not found.");
+
+            InputStream signaturePart = multipartStream.getPart();
+            InternetHeaders signatureHeaders = new InternetHeaders(signaturePart);
+            signature = ByteStreams.toByteArray(decode(signaturePart, signatureHeaders));
+
+            // Skip anything else, including epilogue
+            while (multipartStream.next()) {
+                log.debug("Ignoring unexpected part in multipart/signed content.");
+            }
+            ByteStreams.exhaust(inputStream);
+
+            signedData = new CMSSignedData(
+                    Collections.singletonMap(digestMethod.getOid(), messageDigest.digest()), signature);
+        } catch (MessagingException | CMSException e) {
+            throw new OxalisAs2Exception("Unable to parse received content.", e);
+        }
+    }
+
+    @Override
+    public String getMicalg() {
+        return micalg;
+    }
+
+    @Override
+    public X509Certificate getSigner() {
+        return signer;
+    }
+
+    @Override
+    public byte[] getDigest() {
+        return digest;
+    }
+
+    @Override
+    public byte[] getSignature() {
+        return signature;
+    }
+
+    @Override
+    public byte[] getBodyHeader() {
+        return bodyHeader;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException, OxalisSecurityException {
+        if (signer == null)
+            throw new OxalisSecurityException("Content is not validated.");
+
+        return new BufferedInputStream(Files.newInputStream(contentPath));
+    }
+
+    public void validate(X509Certificate certificate) throws OxalisSecurityException, PeppolSecurityException {
+        try {
+            SignerInformationVerifier verifier = new JcaSimpleSignerInfoVerifierBuilder()
+                    .setProvider(BouncyCastleProvider.PROVIDER_NAME)
+                    .build(certificate.getPublicKey());
+
+            for (SignerInformation signerInformation : signedData.getSignerInfos().getSigners()) {
+                if (signerInformation.verify(verifier)) {
+                    signer = certificate;
+                    digest = signerInformation.getContentDigest();
+                    return;
+                }
+            }
+        } catch (CMSException e) {
+            throw new OxalisSecurityException(e.getMessage(), e);
+        } catch (OperatorCreationException e) {
+            throw new OxalisSecurityException("Unable to create SignerInformationVerifier.", e);
+        }
+
+        throw new PeppolSecurityException("Unable to verify signature.");
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void validate(Service service, CertificateValidator validator, String commonName)
+            throws IOException, OxalisSecurityException, PeppolSecurityException {
+        for (X509CertificateHolder holder : (CollectionStore<X509CertificateHolder>) signedData.getCertificates()) {
+            if (CertificateUtils.containsCommonName(holder.getSubject(), commonName)) {
+                try {
+                    X509Certificate certificate = CertificateUtils.parseCertificate(holder.getEncoded());
+
+                    if (SignedMessage.isValid(service, validator, certificate)) {
+                        validate(certificate);
+                        return;
+                    }
+                } catch (CertificateException e) {
+                    log.debug("Unable to initiate certificate object.");
+                }
+            }
+        }
+
+        throw new OxalisSecurityException(commonName == null ?
+                "Unable to find valid certificate for validation of content." :
+                String.format("Unable to find valid certificate with CN '%s' for validation of content.", commonName));
+    }
+
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(contentPath);
+        } catch (IOException e) {
+            log.warn("Unable to delete temp file: {}", contentPath, e);
+        }
+    }
+
+    /**
+     * Creates headers of body MIME part as done by Bouncycastle.
+     */
+    @SuppressWarnings("unchecked")
+    private static byte[] toBodyHeader(InternetHeaders headers) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        LineOutputStream los = new LineOutputStream(outputStream);
+
+        for (String line : Collections.list((Enumeration<String>) headers.getAllHeaderLines()))
+            los.writeln(line);
+
+        // The CRLF separator between header and content
+        los.writeln();
+        los.close();
+
+        return outputStream.toByteArray();
+    }
+
+    private static InputStream decode(InputStream inputStream, InternetHeaders headers) throws MessagingException {
+        String encoding = headers.getHeader("Content-Transfer-Encoding", null);
+        return encoding == null ? inputStream : MimeUtility.decode(inputStream, encoding.trim());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package network.oxalis.as2;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import com.google.inject.util.Modules;
+import network.oxalis.api.outbound.MessageSender;
+import network.oxalis.api.outbound.TransmissionRequest;
+import network.oxalis.api.persist.ReceiptPersister;
+import network.oxalis.as2.inbound.As2InboundModule;
+import network.oxalis.as2.outbound.As2OutboundModule;
+import network.oxalis.commons.guice.GuiceModuleLoader;
+import network.oxalis.commons.guice.OxalisModule;
+import network.oxalis.test.jetty.AbstractJettyServerTest;
+import network.oxalis.vefa.peppol.common.model.Endpoint;
+import network.oxalis.vefa.peppol.common.model.Header;
+import network.oxalis.vefa.peppol.common.model.TransportProfile;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Same as {@link SimpleServerTest}, with outbound messages sent using buffered mode.
+ *
+ * @since 6.5.1
+ */
+public class SimpleBufferedServerTest extends AbstractJettyServerTest {
+
+    private final List<String> contentLengths = new CopyOnWriteArrayList<>();
+
+    private final List<String> transferEncodings = new CopyOnWriteArrayList<>();
+
+    @Override
+    public Injector getInjector() {
+        return Guice.createInjector(
+                new As2OutboundModule(),
+                new As2InboundModule(),
+                Modules.override(new GuiceModuleLoader()).with(new OxalisModule() {
+                    @Override
+                    protected void configure() {
+                        bind(ReceiptPersister.class).toInstance((m, p) -> {
+                        });
+                        bind(Key.get(Boolean.class, Names.named("as2-outbound-chunked"))).toInstance(false);
+                    }
+                }));
+    }
+
+    @BeforeClass
+    @Override
+    public void beforeClass() throws Exception {
+        super.beforeClass();
+
+        server.getConnectors()[0].addBean(new HttpChannel.Listener() {
+            @Override
+            public void onRequestBegin(Request request) {
+                contentLengths.add(String.valueOf(request.getHeader(HttpHeader.CONTENT_LENGTH.asString())));
+                transferEncodings.add(String.valueOf(request.getHeader(HttpHeader.TRANSFER_ENCODING.asString())));
+            }
+        });
+    }
+
+    @Test
+    public void simple() throws Exception {
+        MessageSender messageSender = injector.getInstance(Key.get(MessageSender.class, Names.named("oxalis-as2")));
+
+        Assert.assertNotNull(messageSender.send(new TransmissionRequest() {
+            @Override
+            public Endpoint getEndpoint() {
+                return Endpoint.of(TransportProfile.PEPPOL_AS2_2_0, URI.create("http://localhost:8080/as2"),
+                        injector.getInstance(X509Certificate.class));
+            }
+
+            @Override
+            public Header getHeader() {
+                return Header.newInstance();
+            }
+
+            @Override
+            public InputStream getPayload() {
+                return getClass().getResourceAsStream("/as2-peppol-bis-invoice-sbdh.xml");
+            }
+        }));
+
+        Assert.assertEquals(contentLengths.size(), 1);
+        Assert.assertNotEquals(contentLengths.get(0), "null");
+        Assert.assertEquals(transferEncodings.get(0), "null");
+    }
+}
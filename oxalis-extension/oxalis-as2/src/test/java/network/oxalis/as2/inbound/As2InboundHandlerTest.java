@@ -22,11 +22,15 @@
 
 package network.oxalis.as2.inbound;
 
+import com.google.common.base.Ticker;
+import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import io.opentracing.Tracer;
+import network.oxalis.api.inbound.InboundMetadata;
 import network.oxalis.api.inbound.InboundService;
 import network.oxalis.api.lang.OxalisTransmissionException;
 import network.oxalis.api.model.Direction;
+import network.oxalis.api.persist.PersisterHandler;
 import network.oxalis.api.timestamp.Timestamp;
 import network.oxalis.api.timestamp.TimestampProvider;
 import network.oxalis.as2.code.As2Header;
@@ -58,7 +62,10 @@ import java.io.InputStream;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
 
 /**
@@ -115,13 +122,61 @@ public class As2InboundHandlerTest {
         As2InboundHandler as2InboundHandler = new As2InboundHandler(Mockito.mock(InboundService.class),
                 mockTimestampProvider, new OxalisCertificateValidator(CertificateValidator.EMPTY, tracer), new NoopPersister(),
                 new DefaultTransmissionVerifier(), sMimeMessageFactory, new NoopTagGenerator(),
-                new DefaultMessageIdGenerator("test"), new SbdhHeaderParser());
+                new DefaultMessageIdGenerator("test"), new SbdhHeaderParser(), new MdnCache(0, 0));
 
         MimeMessage mimeMessage = MimeMessageHelper.parse(inputStream, headers);
         as2InboundHandler.receive(headers, mimeMessage, tracer.buildSpan("test").start());
     }
 
 
+    @Test
+    public void replayedMdn() throws Exception {
+        byte[] message = ByteStreams.toByteArray(loadSampleMimeMessage());
+        PersisterHandler persisterHandler = Mockito.spy(new NoopPersister());
+        As2InboundHandler as2InboundHandler = newHandler(persisterHandler, new MdnCache(10, 60));
+
+        MimeMessage first = as2InboundHandler.receive(headers, MimeMessageHelper.parse(
+                new ByteArrayInputStream(message)), tracer.buildSpan("test").start());
+        MimeMessage second = as2InboundHandler.receive(headers, MimeMessageHelper.parse(
+                new ByteArrayInputStream(message)), tracer.buildSpan("test").start());
+
+        // Retransmission gets the MDN of the first reception without being persisted again.
+        assertEquals(MimeMessageHelper.toBytes(second), MimeMessageHelper.toBytes(first));
+        Mockito.verify(persisterHandler, Mockito.times(1))
+                .persist(Mockito.any(InboundMetadata.class), Mockito.any());
+    }
+
+    @Test
+    public void expiredMdn() throws Exception {
+        byte[] message = ByteStreams.toByteArray(loadSampleMimeMessage());
+        PersisterHandler persisterHandler = Mockito.spy(new NoopPersister());
+        AtomicLong nanos = new AtomicLong();
+        As2InboundHandler as2InboundHandler = newHandler(persisterHandler, new MdnCache(10, 60, new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        }));
+
+        as2InboundHandler.receive(headers, MimeMessageHelper.parse(new ByteArrayInputStream(message)),
+                tracer.buildSpan("test").start());
+
+        // Retransmission after the MDN has expired is processed again.
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        as2InboundHandler.receive(headers, MimeMessageHelper.parse(new ByteArrayInputStream(message)),
+                tracer.buildSpan("test").start());
+
+        Mockito.verify(persisterHandler, Mockito.times(2))
+                .persist(Mockito.any(InboundMetadata.class), Mockito.any());
+    }
+
+    private As2InboundHandler newHandler(PersisterHandler persisterHandler, MdnCache mdnCache) {
+        return new As2InboundHandler(Mockito.mock(InboundService.class), mockTimestampProvider,
+                new OxalisCertificateValidator(CertificateValidator.EMPTY, tracer), persisterHandler,
+                new DefaultTransmissionVerifier(), sMimeMessageFactory, new NoopTagGenerator(),
+                new DefaultMessageIdGenerator("test"), new SbdhHeaderParser(), mdnCache);
+    }
+
     /**
      * Creates a fake S/MIME message, to mimic the data being posted in an http POST request.
      *
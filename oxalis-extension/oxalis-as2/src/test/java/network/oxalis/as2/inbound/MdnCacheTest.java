@@ -0,0 +1,65 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.as2.inbound;
+
+import network.oxalis.as2.model.Mic;
+import network.oxalis.as2.util.SMimeDigestMethod;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class MdnCacheTest {
+
+    private static final Mic MIC = new Mic("bWljCg==", SMimeDigestMethod.sha256);
+
+    @Test
+    public void simple() {
+        MdnCache mdnCache = new MdnCache(10, 60);
+        mdnCache.put("APP_1", "<42@sender>", MIC, new byte[]{1, 2, 3});
+
+        Assert.assertEquals(mdnCache.get("APP_1", "<42@sender>", MIC), new byte[]{1, 2, 3});
+        Assert.assertEquals(mdnCache.get("APP_1", "<42@sender>", new Mic("bWljCg==", SMimeDigestMethod.sha256)),
+                new byte[]{1, 2, 3});
+
+        Assert.assertNull(mdnCache.get("APP_2", "<42@sender>", MIC));
+        Assert.assertNull(mdnCache.get("APP_1", "<43@sender>", MIC));
+        Assert.assertNull(mdnCache.get("APP_1", "<42@sender>", new Mic("b3RoZXIK", SMimeDigestMethod.sha256)));
+    }
+
+    @Test
+    public void bounded() {
+        MdnCache mdnCache = new MdnCache(1, 60);
+        mdnCache.put("APP_1", "<42@sender>", MIC, new byte[]{1});
+        mdnCache.put("APP_1", "<43@sender>", MIC, new byte[]{2});
+
+        Assert.assertNull(mdnCache.get("APP_1", "<42@sender>", MIC));
+        Assert.assertNotNull(mdnCache.get("APP_1", "<43@sender>", MIC));
+    }
+
+    @Test
+    public void disabled() {
+        MdnCache mdnCache = new MdnCache(0, 60);
+        mdnCache.put("APP_1", "<42@sender>", MIC, new byte[]{1});
+
+        Assert.assertNull(mdnCache.get("APP_1", "<42@sender>", MIC));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.as2.outbound;
+
+import com.google.common.io.ByteStreams;
+import com.google.inject.Inject;
+import network.oxalis.as2.util.MimeMessageHelper;
+import network.oxalis.as2.util.SMimeDigestMethod;
+import network.oxalis.as2.util.SMimeMessageFactory;
+import network.oxalis.as2.util.SignedMessage;
+import network.oxalis.commons.guice.GuiceModuleLoader;
+import network.oxalis.commons.io.RewindableContent;
+import network.oxalis.vefa.peppol.common.code.Service;
+import network.oxalis.vefa.peppol.common.model.Digest;
+import network.oxalis.vefa.peppol.security.api.CertificateValidator;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Guice;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+@Guice(modules = GuiceModuleLoader.class)
+public class As2HttpEntityTest {
+
+    @Inject
+    private SMimeMessageFactory sMimeMessageFactory;
+
+    @Inject
+    private CertificateValidator certificateValidator;
+
+    @DataProvider(name = "digestMethods")
+    public Object[][] digestMethods() {
+        return new Object[][]{{SMimeDigestMethod.sha1}, {SMimeDigestMethod.sha256}, {SMimeDigestMethod.sha512}};
+    }
+
+    @Test(dataProvider = "digestMethods")
+    public void simple(SMimeDigestMethod digestMethod) throws Exception {
+        byte[] payload;
+        try (InputStream inputStream = getClass().getResourceAsStream("/as2-peppol-bis-invoice-sbdh.xml")) {
+            payload = ByteStreams.toByteArray(inputStream);
+        }
+
+        AtomicReference<Digest> mic = new AtomicReference<>();
+        As2HttpEntity httpEntity = new As2HttpEntity(new ByteArrayInputStream(payload), "application/xml",
+                digestMethod, sMimeMessageFactory, mic::set);
+
+        Assert.assertTrue(httpEntity.isChunked());
+        Assert.assertFalse(httpEntity.isRepeatable());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        httpEntity.writeTo(outputStream);
+
+        SignedMessage signedMessage = SignedMessage.load(MimeMessageHelper.parse(
+                new ByteArrayInputStream(outputStream.toByteArray()),
+                Stream.of("MIME-Version: 1.0", httpEntity.getContentType().toString())));
+        signedMessage.validate(Service.AP, certificateValidator, null);
+
+        Assert.assertEquals(signedMessage.getMicalg(), digestMethod.getMicalg());
+        Assert.assertEquals(mic.get().getValue(), signedMessage.getDigest());
+        Assert.assertEquals(ByteStreams.toByteArray(signedMessage.getContent()), payload);
+    }
+
+    @Test
+    public void buffered() throws Exception {
+        byte[] payload;
+        try (InputStream inputStream = getClass().getResourceAsStream("/as2-peppol-bis-invoice-sbdh.xml")) {
+            payload = ByteStreams.toByteArray(inputStream);
+        }
+
+        AtomicReference<Digest> mic = new AtomicReference<>();
+        As2HttpEntity httpEntity = new As2HttpEntity(new ByteArrayInputStream(payload), "application/xml",
+                SMimeDigestMethod.sha256, sMimeMessageFactory, mic::set);
+
+        byte[] message;
+        try (RewindableContent content = httpEntity.buffer();
+             InputStream inputStream = content.newInputStream()) {
+            message = ByteStreams.toByteArray(inputStream);
+
+            // Length is known before sending.
+            Assert.assertEquals(content.size(), message.length);
+        }
+
+        SignedMessage signedMessage = SignedMessage.load(MimeMessageHelper.parse(
+                new ByteArrayInputStream(message),
+                Stream.of("MIME-Version: 1.0", httpEntity.getContentType().toString())));
+        signedMessage.validate(Service.AP, certificateValidator, null);
+
+        Assert.assertEquals(mic.get().getValue(), signedMessage.getDigest());
+        Assert.assertEquals(ByteStreams.toByteArray(signedMessage.getContent()), payload);
+    }
+
+    @Test
+    public void content() throws Exception {
+        As2HttpEntity httpEntity = new As2HttpEntity(new ByteArrayInputStream("<test/>".getBytes()),
+                "application/xml", SMimeDigestMethod.sha256, sMimeMessageFactory, mic -> {
+        });
+
+        try (InputStream inputStream = httpEntity.getContent()) {
+            SignedMessage signedMessage = SignedMessage.load(MimeMessageHelper.parse(inputStream,
+                    Stream.of("MIME-Version: 1.0", httpEntity.getContentType().toString())));
+            signedMessage.validate(Service.AP, certificateValidator, null);
+
+            Assert.assertEquals(ByteStreams.toByteArray(signedMessage.getContent()), "<test/>".getBytes());
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void notRepeatable() throws Exception {
+        As2HttpEntity httpEntity = new As2HttpEntity(new ByteArrayInputStream("<test/>".getBytes()),
+                "application/xml", SMimeDigestMethod.sha256, sMimeMessageFactory, mic -> {
+        });
+
+        httpEntity.writeTo(ByteStreams.nullOutputStream());
+        httpEntity.writeTo(ByteStreams.nullOutputStream());
+    }
+}
@@ -22,8 +22,11 @@
 
 package network.oxalis.as2.util;
 
+import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import network.oxalis.commons.guice.GuiceModuleLoader;
+import network.oxalis.vefa.peppol.common.code.Service;
+import network.oxalis.vefa.peppol.security.api.CertificateValidator;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Guice;
 import org.testng.annotations.Test;
@@ -32,10 +35,17 @@ import javax.activation.MimeType;
 import javax.mail.BodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
@@ -58,6 +68,9 @@ public class SMimeMessageFactoryTest {
     @Inject
     private X509Certificate certificate;
 
+    @Inject
+    private CertificateValidator certificateValidator;
+
     @BeforeMethod
     public void createMimeMessageFactory() {
         SMimeMessageFactory = new SMimeMessageFactory(privateKey, certificate);
@@ -97,5 +110,36 @@ public class SMimeMessageFactoryTest {
 
         assertTrue(sw.toString().contains("<?xml version"));
     }
+
+    @Test
+    public void concurrentSigning() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 24; i++) {
+                SMimeDigestMethod digestMethod = SMimeDigestMethod.values()[i % SMimeDigestMethod.values().length];
+                String payload = String.format("<test>%s</test>", i);
+
+                futures.add(executorService.submit(() -> {
+                    MimeMessage mimeMessage = SMimeMessageFactory
+                            .createSignedMimeMessage(payload, new MimeType("application", "xml"), digestMethod);
+
+                    // Signature is created every time the message is written.
+                    mimeMessage.writeTo(ByteStreams.nullOutputStream());
+
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    mimeMessage.writeTo(outputStream);
+                    return outputStream.toByteArray();
+                }));
+            }
+
+            for (Future<byte[]> future : futures)
+                SignedMessage.load(new ByteArrayInputStream(future.get()))
+                        .validate(Service.AP, certificateValidator, null);
+        } finally {
+            executorService.shutdown();
+        }
+    }
 }
 
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.as2.util;
+
+import com.google.common.io.ByteStreams;
+import com.google.inject.Inject;
+import network.oxalis.api.lang.OxalisSecurityException;
+import network.oxalis.as2.code.Disposition;
+import network.oxalis.as2.code.MdnHeader;
+import network.oxalis.as2.model.As2Disposition;
+import network.oxalis.as2.model.Mic;
+import network.oxalis.commons.guice.GuiceModuleLoader;
+import network.oxalis.commons.security.CertificateUtils;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cms.CMSSignedData;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Guice;
+import org.testng.annotations.Test;
+
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeBodyPart;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Map;
+
+@Guice(modules = GuiceModuleLoader.class)
+public class SignedMdnTest {
+
+    private static final Mic MIC = new Mic("Fp67Ews9SJa5pKGXVl07dBuVW4I=", SMimeDigestMethod.sha256);
+
+    @Inject
+    private PrivateKey privateKey;
+
+    @Inject
+    private X509Certificate certificate;
+
+    private byte[] mdn;
+
+    @BeforeClass
+    public void beforeClass() throws Exception {
+        InternetHeaders headers = new InternetHeaders();
+        headers.addHeader("AS2-To", "APP_1000000001");
+        headers.addHeader("AS2-From", "APP_1000000002");
+        headers.addHeader("Message-ID", "<test@oxalis>");
+
+        MdnBuilder mdnBuilder = MdnBuilder.newInstance(headers);
+        mdnBuilder.addHeader(MdnHeader.DATE, new Date(1_514_764_800_000L));
+        mdnBuilder.addHeader(MdnHeader.ORIGINAL_MESSAGE_ID, "<test@oxalis>");
+        mdnBuilder.addHeader(MdnHeader.RECEIVED_CONTENT_MIC, MIC);
+        mdnBuilder.addHeader(MdnHeader.DISPOSITION, Disposition.PROCESSED);
+        MimeBodyPart mdnPart = mdnBuilder.build();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new SMimeMessageFactory(privateKey, certificate)
+                .createSignedMimeMessage(mdnPart, SMimeDigestMethod.sha256)
+                .writeTo(outputStream);
+        mdn = outputStream.toByteArray();
+    }
+
+    @Test
+    public void simple() throws Exception {
+        SignedMdn signedMdn = SignedMdn.decode(mdn);
+        signedMdn.verify(certificate);
+
+        Assert.assertTrue(signedMdn.isOkOrWarning(MIC));
+        Assert.assertEquals(signedMdn.getMicalg(), "sha-256");
+        Assert.assertEquals(signedMdn.getDisposition().getDispositionType(), As2Disposition.DispositionType.PROCESSED);
+        Assert.assertEquals(signedMdn.getReceivedMic(), MIC);
+        Assert.assertEquals(signedMdn.getOriginalMessageId(), "<test@oxalis>");
+        Assert.assertEquals(signedMdn.getDate(), new Date(1_514_764_800_000L));
+        Assert.assertTrue(signedMdn.getText().contains("AS2-From: APP_1000000002"));
+        Assert.assertEquals(signedMdn.getBytes(), mdn);
+    }
+
+    @Test
+    public void separateHeaders() throws Exception {
+        // Headers provided separately, as when received using HTTP
+        InputStream inputStream = new ByteArrayInputStream(mdn);
+        InternetHeaders headers = new InternetHeaders(inputStream);
+
+        @SuppressWarnings("unchecked")
+        SignedMdn signedMdn = SignedMdn.decode(inputStream,
+                Collections.list((Enumeration<String>) headers.getAllHeaderLines()).stream());
+        signedMdn.verify(certificate);
+
+        Assert.assertTrue(signedMdn.isOkOrWarning(MIC));
+    }
+
+    @Test
+    public void micMismatch() throws Exception {
+        SignedMdn signedMdn = SignedMdn.decode(mdn);
+
+        Assert.assertFalse(signedMdn.isOkOrWarning(new Mic("VZOW8aRv9e8uEQEdGRdxwcOYH1g=", SMimeDigestMethod.sha256)));
+    }
+
+    @Test(expectedExceptions = OxalisSecurityException.class)
+    public void tampered() throws Exception {
+        byte[] tampered = new String(mdn, StandardCharsets.ISO_8859_1)
+                .replace("= Received headers", "= Received Headers")
+                .getBytes(StandardCharsets.ISO_8859_1);
+
+        SignedMdn.decode(tampered).verify(certificate);
+    }
+
+    @DataProvider(name = "signedExamples")
+    public Object[][] signedExamples() {
+        return new Object[][]{
+                {"/real-mdn-examples/itsligo-mdn.txt"},
+                {"/real-mdn-examples/unit4-mdn.txt"},
+                {"/real-mdn-examples/unimaze-mdn.txt"},
+                {"/real-mdn-examples/difi-negative-mdn.txt"},
+                {"/real-mdn-examples/unit4-mdn-negative.txt"},
+        };
+    }
+
+    @Test(dataProvider = "signedExamples")
+    public void verifyRealMdn(String resource) throws Exception {
+        SignedMdn signedMdn = SignedMdn.decode(read(resource));
+        signedMdn.verify(embeddedCertificate(signedMdn));
+    }
+
+    @Test(expectedExceptions = OxalisSecurityException.class)
+    public void verifyCorruptMdn() throws Exception {
+        SignedMdn signedMdn = SignedMdn.decode(read("/real-mdn-examples/unit4-mdn-error.txt"));
+        signedMdn.verify(embeddedCertificate(signedMdn));
+    }
+
+    @Test
+    public void malformedFields() throws Exception {
+        // Negative MDN with an empty MIC, which must not hide the text provided by the receiver.
+        SignedMdn signedMdn = SignedMdn.decode(read("/real-mdn-examples/difi-negative-mdn.txt"));
+
+        Assert.assertNull(signedMdn.getReceivedMic());
+        Assert.assertNotNull(signedMdn.getText());
+        Assert.assertFalse(signedMdn.isOkOrWarning(MIC));
+    }
+
+    @DataProvider(name = "examples")
+    public Object[][] examples() {
+        return new Object[][]{
+                {"/openas2-mdn.txt"},
+                {"/real-mdn-examples/ibx-mdn-base64.txt"},
+                {"/real-mdn-examples/unimaze-mdn.txt"},
+                {"/real-mdn-examples/unit4-mdn.txt"},
+                {"/real-mdn-examples/unit4-mdn-negative.txt"},
+        };
+    }
+
+    @Test(dataProvider = "examples")
+    public void sameAsInspector(String resource) throws Exception {
+        byte[] bytes = read(resource);
+
+        SignedMdn signedMdn = SignedMdn.decode(bytes);
+        MdnMimeMessageInspector inspector =
+                new MdnMimeMessageInspector(MimeMessageHelper.parse(new ByteArrayInputStream(bytes)));
+
+        Map<String, String> fields = inspector.getMdnFields();
+        Assert.assertEquals(signedMdn.getFields(), fields);
+        Assert.assertEquals(signedMdn.getText(), inspector.getPlainTextPartAsText());
+        Assert.assertEquals(signedMdn.getOriginalMessageId(), fields.get(MdnHeader.ORIGINAL_MESSAGE_ID));
+    }
+
+    private byte[] read(String resource) throws IOException {
+        try (InputStream inputStream = getClass().getResourceAsStream(resource)) {
+            return ByteStreams.toByteArray(inputStream);
+        }
+    }
+
+    private static X509Certificate embeddedCertificate(SignedMdn signedMdn) throws Exception {
+        X509CertificateHolder holder = (X509CertificateHolder) new CMSSignedData(signedMdn.getSignature())
+                .getCertificates().getMatches(null).iterator().next();
+        return CertificateUtils.parseCertificate(holder.getEncoded());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.as2.util;
+
+import com.google.common.io.ByteStreams;
+import com.google.inject.Inject;
+import network.oxalis.api.lang.OxalisSecurityException;
+import network.oxalis.commons.guice.GuiceModuleLoader;
+import network.oxalis.vefa.peppol.common.code.Service;
+import network.oxalis.vefa.peppol.security.api.CertificateValidator;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Guice;
+import org.testng.annotations.Test;
+
+import javax.activation.MimeType;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Random;
+
+@Guice(modules = GuiceModuleLoader.class)
+public class SpooledSignedMessageTest {
+
+    @Inject
+    private PrivateKey privateKey;
+
+    @Inject
+    private X509Certificate certificate;
+
+    @Inject
+    private CertificateValidator certificateValidator;
+
+    @DataProvider(name = "digestMethods")
+    public Object[][] digestMethods() {
+        return new Object[][]{{SMimeDigestMethod.sha1}, {SMimeDigestMethod.sha256}, {SMimeDigestMethod.sha512}};
+    }
+
+    @Test(dataProvider = "digestMethods")
+    public void sameAsSignedMessage(SMimeDigestMethod digestMethod) throws Exception {
+        byte[] payload;
+        try (InputStream inputStream = getClass().getResourceAsStream("/as2-peppol-bis-invoice-sbdh.xml")) {
+            payload = ByteStreams.toByteArray(inputStream);
+        }
+
+        verify(createMessage(payload, digestMethod), payload);
+    }
+
+    @Test
+    public void largeBinaryContent() throws Exception {
+        // Content spanning many buffers, including bytes looking like line breaks and delimiters
+        byte[] payload = new byte[1024 * 1024];
+        new Random(42).nextBytes(payload);
+        for (int i = 0; i < payload.length - 4; i += 4099)
+            System.arraycopy("\r\n--".getBytes(), 0, payload, i, 4);
+
+        verify(createMessage(payload, SMimeDigestMethod.sha256), payload);
+    }
+
+    @Test
+    public void oxalisSha512() throws Exception {
+        byte[] message;
+        try (InputStream inputStream = getClass().getResourceAsStream("/as2-message/oxalis-sha512.txt")) {
+            message = ByteStreams.toByteArray(inputStream);
+        }
+
+        SignedMessage signedMessage = SignedMessage.load(new ByteArrayInputStream(message));
+        signedMessage.validate(Service.AP, certificateValidator, null);
+
+        verify(message, ByteStreams.toByteArray(signedMessage.getContent()));
+    }
+
+    @Test(expectedExceptions = OxalisSecurityException.class)
+    public void contentRequiresValidation() throws Exception {
+        byte[] message = createMessage("<test/>".getBytes(), SMimeDigestMethod.sha1);
+
+        InputStream inputStream = new ByteArrayInputStream(message);
+        try (SpooledSignedMessage spooledSignedMessage =
+                     SpooledSignedMessage.load(inputStream, new InternetHeaders(inputStream))) {
+            spooledSignedMessage.getContent();
+        }
+    }
+
+    @Test
+    public void tamperedContent() throws Exception {
+        byte[] message = createMessage("<test>Hello World</test>".getBytes(), SMimeDigestMethod.sha256);
+        String tampered = new String(message).replace("Hello World", "Hello Earth");
+
+        InputStream inputStream = new ByteArrayInputStream(tampered.getBytes());
+        try (SpooledSignedMessage spooledSignedMessage =
+                     SpooledSignedMessage.load(inputStream, new InternetHeaders(inputStream))) {
+            spooledSignedMessage.validate(Service.AP, certificateValidator, null);
+            Assert.fail("Tampered content must not validate.");
+        } catch (Exception e) {
+            // Expected
+        }
+    }
+
+    private byte[] createMessage(byte[] payload, SMimeDigestMethod digestMethod) throws Exception {
+        MimeMessage mimeMessage = new SMimeMessageFactory(privateKey, certificate)
+                .createSignedMimeMessage(new ByteArrayInputStream(payload), new MimeType("application/xml"),
+                        digestMethod);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        mimeMessage.writeTo(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private void verify(byte[] message, byte[] payload) throws Exception {
+        SignedMessage signedMessage = SignedMessage.load(new ByteArrayInputStream(message));
+        signedMessage.validate(Service.AP, certificateValidator, null);
+
+        // Headers are provided separately, as when received using HTTP
+        InputStream inputStream = new ByteArrayInputStream(message);
+        InternetHeaders headers = new InternetHeaders(inputStream);
+
+        SpooledSignedMessage spooledSignedMessage = SpooledSignedMessage.load(inputStream, headers);
+        try {
+            spooledSignedMessage.validate(Service.AP, certificateValidator, null);
+
+            Assert.assertEquals(spooledSignedMessage.getMicalg(), signedMessage.getMicalg());
+            Assert.assertEquals(spooledSignedMessage.getDigest(), signedMessage.getDigest());
+            Assert.assertEquals(spooledSignedMessage.getSignature(), signedMessage.getSignature());
+            Assert.assertEquals(spooledSignedMessage.getBodyHeader(), signedMessage.getBodyHeader());
+            Assert.assertEquals(spooledSignedMessage.getSigner(), signedMessage.getSigner());
+
+            try (InputStream content = spooledSignedMessage.getContent()) {
+                Assert.assertEquals(ByteStreams.toByteArray(content), payload);
+            }
+        } finally {
+            spooledSignedMessage.close();
+        }
+    }
+}
@@ -30,14 +30,10 @@ import network.oxalis.api.util.Type;
 import network.oxalis.sniffer.PeppolStandardBusinessHeader;
 import network.oxalis.sniffer.document.parsers.PEPPOLDocumentParser;
 import network.oxalis.vefa.peppol.common.model.Header;
-import org.w3c.dom.Document;
-
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.InputStream;
 
 /**
@@ -52,17 +48,12 @@ import java.io.InputStream;
 @Type("legacy")
 public class NoSbdhParser implements ContentDetector {
 
-    private static final DocumentBuilderFactory documentBuilderFactory;
+    private static final XMLInputFactory xmlInputFactory;
 
     static {
-        documentBuilderFactory = DocumentBuilderFactory.newInstance();
-        documentBuilderFactory.setNamespaceAware(true);
-
-        try {
-            documentBuilderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-        } catch (ParserConfigurationException e) {
-            throw new IllegalStateException("Unable to configure DOM parser for secure processing.", e);
-        }
+        xmlInputFactory = XMLInputFactory.newFactory();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
     }
 
     public NoSbdhParser() {
@@ -86,31 +77,27 @@ public class NoSbdhParser implements ContentDetector {
     /**
      * Parses and extracts the data needed to create a PeppolStandardBusinessHeader object. The inputstream supplied
      * should not be wrapped in an SBDH.
+     * <p>
+     * The document is read once using StAX, and reading stops as soon as the values needed are found. This method
+     * may be used by multiple threads at the same time.
      *
      * @param inputStream UBL XML data without an SBDH.
      * @return an instance of PeppolStandardBusinessHeader populated with data from the UBL XML document.
      */
     public PeppolStandardBusinessHeader originalParse(InputStream inputStream) throws OxalisContentException {
+        XMLStreamReader reader = null;
         try {
-
-            DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-            Document document = documentBuilder.parse(inputStream);
-
-            XPath xPath = XPathFactory.newInstance().newXPath();
-            xPath.setNamespaceContext(new HardCodedNamespaceResolver());
+            reader = xmlInputFactory.createXMLStreamReader(inputStream);
 
             PeppolStandardBusinessHeader sbdh = PeppolStandardBusinessHeader
                     .createPeppolStandardBusinessHeaderWithNewDate();
 
-            // use the plain UBL header parser to decode format and create correct document parser
-            PlainUBLHeaderParser headerParser = new PlainUBLHeaderParser(document, xPath);
+            // use the streaming UBL header parser to decode format and create correct document parser
+            StreamingUBLHeaderParser headerParser = new StreamingUBLHeaderParser(reader);
 
             // make sure we actually have a UBL type document
             if (headerParser.canParse()) {
 
-                sbdh.setDocumentTypeIdentifier(headerParser.fetchDocumentTypeId().toVefa());
-                sbdh.setProfileTypeIdentifier(headerParser.fetchProcessTypeId());
-
                 // try to use a specialized document parser to fetch more document details
                 PEPPOLDocumentParser documentParser = null;
                 try {
@@ -121,6 +108,12 @@ public class NoSbdhParser implements ContentDetector {
                         can be used by explicitly setting sender and receiver thru API
                     */
                 }
+
+                // read values needed by both parsers in one pass
+                headerParser.collect(documentParser);
+
+                sbdh.setDocumentTypeIdentifier(headerParser.fetchDocumentTypeId().toVefa());
+                sbdh.setProfileTypeIdentifier(headerParser.fetchProcessTypeId());
                 /* However, if we found an eligible parser, we should be able to determine the sender and receiver */
                 if (documentParser != null) {
                     try {
@@ -139,6 +132,14 @@ public class NoSbdhParser implements ContentDetector {
             return sbdh;
         } catch (Exception e) {
             throw new OxalisContentException("Unable to parseOld document " + e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // No action.
+                }
+            }
         }
     }
 }
@@ -22,11 +22,6 @@
 
 package network.oxalis.sniffer.document;
 
-import lombok.extern.slf4j.Slf4j;
-import network.oxalis.sniffer.document.parsers.*;
-import network.oxalis.sniffer.identifier.CustomizationIdentifier;
-import network.oxalis.sniffer.identifier.PeppolDocumentTypeId;
-import network.oxalis.vefa.peppol.common.model.ProcessIdentifier;
 import org.w3c.dom.Document;
 
 import javax.xml.xpath.XPath;
@@ -38,47 +33,10 @@ import javax.xml.xpath.XPath;
  * @author thore
  * @author arun
  */
-@Slf4j
-public class PlainUBLHeaderParser extends PlainUBLParser {
+public class PlainUBLHeaderParser extends PlainUBLParser implements UBLHeaderParser {
 
     public PlainUBLHeaderParser(Document document, XPath xPath) {
         super(document, xPath);
     }
 
-    public CustomizationIdentifier fetchCustomizationId() {
-        String value = retriveValueForXpath("//cbc:CustomizationID");
-        return CustomizationIdentifier.valueOf(value);
-    }
-
-    public ProcessIdentifier fetchProcessTypeId() {
-        String value = retriveValueForXpath("//cbc:ProfileID");
-        return ProcessIdentifier.of(value);
-    }
-
-    public PeppolDocumentTypeId fetchDocumentTypeId() {
-        CustomizationIdentifier customizationIdentifier = fetchCustomizationId();
-        return new PeppolDocumentTypeId(rootNameSpace(), localName(), customizationIdentifier, ublVersion());
-    }
-
-    public PEPPOLDocumentParser createDocumentParser() {
-        String type = localName();
-        log.debug("Creating DocumentParser for type : " + localName());
-        // despatch advice scenario
-        if ("DespatchAdvice".equalsIgnoreCase(type)) return new DespatchAdviceDocumentParser(this);
-        // catalogue scenario
-        if ("Catalogue".equalsIgnoreCase(type)) return new CatalogueDocumentParser(this);
-        // invoice scenario
-        if ("CreditNote".equalsIgnoreCase(type)) return new InvoiceDocumentParser(this);
-        if ("Invoice".equalsIgnoreCase(type)) return new InvoiceDocumentParser(this);
-        if ("Reminder".equalsIgnoreCase(type)) return new InvoiceDocumentParser(this);
-        // order scenario
-        if ("Order".equalsIgnoreCase(type)) return new OrderDocumentParser(this);
-        if ("OrderResponse".equalsIgnoreCase(type)) return new OrderDocumentParser(this);
-        if ("OrderResponseSimple".equalsIgnoreCase(type)) return new OrderDocumentParser(this);
-        // application response used by CatalogueResponse, MessageLevelResponse
-        if ("ApplicationResponse".equalsIgnoreCase(type)) return new ApplicationResponseDocumentParser(this);
-        // unknown scenario - for now we do not have a backup plan
-        throw new IllegalStateException("Cannot decide which PEPPOLDocumentParser to use for type " + type);
-    }
-
 }
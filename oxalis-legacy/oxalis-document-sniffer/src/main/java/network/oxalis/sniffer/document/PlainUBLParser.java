@@ -34,7 +34,7 @@ import javax.xml.xpath.XPathExpressionException;
  *
  * @author thore
  */
-public class PlainUBLParser {
+public class PlainUBLParser implements UBLParser {
 
     private final Document document;
 
@@ -45,22 +45,16 @@ public class PlainUBLParser {
         this.xPath = xPath;
     }
 
+    @Override
     public String localName() {
         return document.getDocumentElement().getLocalName();
     }
 
+    @Override
     public String rootNameSpace() {
         return document.getDocumentElement().getNamespaceURI();
     }
 
-    public String ublVersion() {
-        return retriveValueForXpath("//cbc:UBLVersionID");
-    }
-
-    public boolean canParse() {
-        return ("" + rootNameSpace()).startsWith("urn:oasis:names:specification:ubl:schema:xsd:");
-    }
-
     public Element retrieveElementForXpath(String s) {
         try {
             Element element = (Element) xPath.evaluate(s, document, XPathConstants.NODE);
@@ -73,6 +67,7 @@ public class PlainUBLParser {
         }
     }
 
+    @Override
     public String retriveValueForXpath(String s) {
         try {
             String value = xPath.evaluate(s, document);
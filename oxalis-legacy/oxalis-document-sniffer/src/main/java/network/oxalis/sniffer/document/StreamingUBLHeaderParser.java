@@ -0,0 +1,274 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.sniffer.document;
+
+import network.oxalis.sniffer.document.parsers.AbstractDocumentParser;
+import network.oxalis.sniffer.document.parsers.PEPPOLDocumentParser;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Header parser reading values in a single pass of the document using StAX, instead of evaluating XPath
+ * expressions on a DOM.
+ * <p>
+ * The root element is read when created. Values are collected by {@link #collect(PEPPOLDocumentParser)}, which
+ * reads the document until all values needed by the header parser and the given document parser are found.
+ * Supported expressions are paths of elements preceded by "//", optionally followed by an attribute, which are
+ * compiled once and shared between threads. When both an element and one of its attributes are collected, the
+ * attribute is read from the element whose value is collected. Instances are not thread safe.
+ *
+ * @since 6.5.1
+ */
+public class StreamingUBLHeaderParser implements UBLHeaderParser {
+
+    private static final NamespaceContext NAMESPACE_CONTEXT = new HardCodedNamespaceResolver();
+
+    private static final Map<String, Expression> EXPRESSIONS = new ConcurrentHashMap<>();
+
+    private final XMLStreamReader reader;
+
+    private final QName root;
+
+    private final Map<String, String> values = new HashMap<>();
+
+    /**
+     * Reads the root element of the document.
+     */
+    public StreamingUBLHeaderParser(XMLStreamReader reader) throws XMLStreamException {
+        this.reader = reader;
+
+        while (reader.getEventType() != XMLStreamConstants.START_ELEMENT)
+            reader.next();
+
+        this.root = reader.getName();
+    }
+
+    @Override
+    public String localName() {
+        return root.getLocalPart();
+    }
+
+    @Override
+    public String rootNameSpace() {
+        return root.getNamespaceURI();
+    }
+
+    /**
+     * Returns value of an expression already collected.
+     */
+    @Override
+    public String retriveValueForXpath(String s) {
+        String value = values.get(s);
+        if (value == null)
+            throw new IllegalStateException("Value for Xpath expr " + s + " is not collected");
+
+        return value.trim();
+    }
+
+    /**
+     * Collects values needed by this header parser and the given document parser, which may be null.
+     */
+    public void collect(PEPPOLDocumentParser documentParser) throws XMLStreamException {
+        Set<String> expressions = new LinkedHashSet<>(Arrays.asList(UBL_VERSION_ID, CUSTOMIZATION_ID, PROFILE_ID));
+        if (documentParser instanceof AbstractDocumentParser)
+            expressions.addAll(((AbstractDocumentParser) documentParser).getExpressions());
+
+        collect(expressions);
+    }
+
+    /**
+     * Collects values of the given expressions, reading the document until all expressions are matched. Expressions
+     * not matched have the empty string as value.
+     */
+    public void collect(Collection<String> expressions) throws XMLStreamException {
+        List<Expression> pending = new ArrayList<>();
+        Set<String> elements = new HashSet<>();
+        for (String expression : expressions) {
+            values.put(expression, "");
+            Expression compiled = EXPRESSIONS.computeIfAbsent(expression, Expression::compile);
+            pending.add(compiled);
+            if (compiled.attribute == null)
+                elements.add(compiled.value);
+        }
+
+        List<QName> path = new ArrayList<>();
+        path.add(root);
+
+        List<Capture> captures = new ArrayList<>();
+
+        while (!(pending.isEmpty() && captures.isEmpty()) && reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    path.add(reader.getName());
+
+                    Set<String> matched = new HashSet<>();
+                    for (Iterator<Expression> iterator = pending.iterator(); iterator.hasNext(); ) {
+                        Expression expression = iterator.next();
+                        if (expression.attribute == null && expression.matches(path)) {
+                            captures.add(new Capture(expression.value, path.size()));
+                            matched.add(expression.value);
+                            iterator.remove();
+                        }
+                    }
+
+                    for (Iterator<Expression> iterator = pending.iterator(); iterator.hasNext(); ) {
+                        Expression expression = iterator.next();
+                        if (expression.attribute == null)
+                            continue;
+
+                        // attribute of an element also collected is read from that very element
+                        boolean bound = elements.contains(expression.element);
+                        if (bound ? !matched.contains(expression.element) : !expression.matches(path))
+                            continue;
+
+                        String value = reader.getAttributeValue(
+                                expression.attribute.getNamespaceURI(), expression.attribute.getLocalPart());
+                        if (value != null)
+                            values.put(expression.value, value);
+                        if (value != null || bound)
+                            iterator.remove();
+                    }
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    for (Capture capture : captures)
+                        capture.text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    for (Iterator<Capture> iterator = captures.iterator(); iterator.hasNext(); ) {
+                        Capture capture = iterator.next();
+                        if (capture.depth == path.size()) {
+                            values.put(capture.expression, capture.text.toString());
+                            iterator.remove();
+                        }
+                    }
+
+                    path.remove(path.size() - 1);
+                    break;
+
+                default:
+                    // No action.
+            }
+        }
+    }
+
+    /**
+     * Compiled expression, matching elements ending with the given path.
+     */
+    private static class Expression {
+
+        private final String value;
+
+        private final QName[] steps;
+
+        private final QName attribute;
+
+        /**
+         * Expression of the element holding the attribute, null when no attribute is selected.
+         */
+        private final String element;
+
+        private Expression(String value, QName[] steps, QName attribute, String element) {
+            this.value = value;
+            this.steps = steps;
+            this.attribute = attribute;
+            this.element = element;
+        }
+
+        public static Expression compile(String value) {
+            if (!value.startsWith("//"))
+                throw new IllegalArgumentException("Unsupported expression: " + value);
+
+            String[] parts = value.substring(2).split("/");
+
+            QName attribute = null;
+            String element = null;
+            int count = parts.length;
+            if (parts[count - 1].startsWith("@")) {
+                attribute = qname(parts[count - 1].substring(1));
+                element = value.substring(0, value.lastIndexOf('/'));
+                count--;
+            }
+
+            QName[] steps = new QName[count];
+            for (int i = 0; i < count; i++)
+                steps[i] = qname(parts[i]);
+
+            return new Expression(value, steps, attribute, element);
+        }
+
+        private static QName qname(String name) {
+            int index = name.indexOf(':');
+            if (index == -1)
+                return new QName(name);
+
+            return new QName(NAMESPACE_CONTEXT.getNamespaceURI(name.substring(0, index)), name.substring(index + 1));
+        }
+
+        public boolean matches(List<QName> path) {
+            if (path.size() < steps.length)
+                return false;
+
+            for (int i = 1; i <= steps.length; i++)
+                if (!steps[steps.length - i].equals(path.get(path.size() - i)))
+                    return false;
+
+            return true;
+        }
+    }
+
+    /**
+     * Text collected for an element matched by an expression.
+     */
+    private static class Capture {
+
+        private final String expression;
+
+        private final int depth;
+
+        private final StringBuilder text = new StringBuilder();
+
+        public Capture(String expression, int depth) {
+            this.expression = expression;
+            this.depth = depth;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package network.oxalis.sniffer.document;
+
+import network.oxalis.sniffer.document.parsers.*;
+import network.oxalis.sniffer.identifier.CustomizationIdentifier;
+import network.oxalis.sniffer.identifier.PeppolDocumentTypeId;
+import network.oxalis.vefa.peppol.common.model.ProcessIdentifier;
+
+/**
+ * Parses the common PEPPOL header information, enough to decide document type and profile, independent of how
+ * values are read from the document.
+ *
+ * @since 6.5.1
+ */
+public interface UBLHeaderParser extends UBLParser {
+
+    String CUSTOMIZATION_ID = "//cbc:CustomizationID";
+
+    String PROFILE_ID = "//cbc:ProfileID";
+
+    default CustomizationIdentifier fetchCustomizationId() {
+        String value = retriveValueForXpath(CUSTOMIZATION_ID);
+        return CustomizationIdentifier.valueOf(value);
+    }
+
+    default ProcessIdentifier fetchProcessTypeId() {
+        String value = retriveValueForXpath(PROFILE_ID);
+        return ProcessIdentifier.of(value);
+    }
+
+    default PeppolDocumentTypeId fetchDocumentTypeId() {
+        CustomizationIdentifier customizationIdentifier = fetchCustomizationId();
+        return new PeppolDocumentTypeId(rootNameSpace(), localName(), customizationIdentifier, ublVersion());
+    }
+
+    default PEPPOLDocumentParser createDocumentParser() {
+        String type = localName();
+        // despatch advice scenario
+        if ("DespatchAdvice".equalsIgnoreCase(type)) return new DespatchAdviceDocumentParser(this);
+        // catalogue scenario
+        if ("Catalogue".equalsIgnoreCase(type)) return new CatalogueDocumentParser(this);
+        // invoice scenario
+        if ("CreditNote".equalsIgnoreCase(type)) return new InvoiceDocumentParser(this);
+        if ("Invoice".equalsIgnoreCase(type)) return new InvoiceDocumentParser(this);
+        if ("Reminder".equalsIgnoreCase(type)) return new InvoiceDocumentParser(this);
+        // order scenario
+        if ("Order".equalsIgnoreCase(type)) return new OrderDocumentParser(this);
+        if ("OrderResponse".equalsIgnoreCase(type)) return new OrderDocumentParser(this);
+        if ("OrderResponseSimple".equalsIgnoreCase(type)) return new OrderDocumentParser(this);
+        // application response used by CatalogueResponse, MessageLevelResponse
+        if ("ApplicationResponse".equalsIgnoreCase(type)) return new ApplicationResponseDocumentParser(this);
+        // unknown scenario - for now we do not have a backup plan
+        throw new IllegalStateException("Cannot decide which PEPPOLDocumentParser to use for type " + type);
+    }
+}
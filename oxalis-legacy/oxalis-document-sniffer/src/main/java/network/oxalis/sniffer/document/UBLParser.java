@@ -0,0 +1,53 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package network.oxalis.sniffer.document;
+
+/**
+ * Parser that is UBL aware, giving access to the root element of a document and values of xpath expressions.
+ * Implemented by {@link PlainUBLParser} evaluating expressions on a DOM and {@link StreamingUBLHeaderParser}
+ * collecting values while reading the document.
+ *
+ * @since 6.5.1
+ */
+public interface UBLParser {
+
+    String UBL_VERSION_ID = "//cbc:UBLVersionID";
+
+    String localName();
+
+    String rootNameSpace();
+
+    /**
+     * Returns the trimmed value of the given xpath expression, the empty string when not found in the document.
+     */
+    String retriveValueForXpath(String s);
+
+    default String ublVersion() {
+        return retriveValueForXpath(UBL_VERSION_ID);
+    }
+
+    default boolean canParse() {
+        return ("" + rootNameSpace()).startsWith("urn:oasis:names:specification:ubl:schema:xsd:");
+    }
+}
@@ -22,44 +22,65 @@
 
 package network.oxalis.sniffer.document.parsers;
 
-import network.oxalis.sniffer.document.PlainUBLParser;
+import network.oxalis.sniffer.document.UBLParser;
 import network.oxalis.sniffer.identifier.ParticipantId;
 import network.oxalis.sniffer.identifier.SchemeId;
 import network.oxalis.vefa.peppol.common.model.ParticipantIdentifier;
-import org.w3c.dom.Element;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
- * Abstract implementation based on the PlainUBLParser to retrieve information from PEPPOL documents.
+ * Abstract implementation based on the UBLParser to retrieve information from PEPPOL documents.
  * Contains common functionality to be used as a base for decoding types.
  *
  * @author thore
  */
 public abstract class AbstractDocumentParser implements PEPPOLDocumentParser {
 
-    protected PlainUBLParser parser;
+    /**
+     * Expression appended to the expression of a participant to retrieve its schemeID.
+     */
+    protected static final String SCHEME_ID = "/@schemeID";
 
-    public AbstractDocumentParser(PlainUBLParser parser) {
+    protected UBLParser parser;
+
+    public AbstractDocumentParser(UBLParser parser) {
         this.parser = parser;
     }
 
+    /**
+     * Returns all XPath expressions evaluated by this parser, making it possible to retrieve all values needed in a
+     * single pass of the document.
+     */
+    public List<String> getExpressions() {
+        List<String> expressions = new ArrayList<>();
+        for (String participant : getParticipantExpressions()) {
+            expressions.add(participant);
+            expressions.add(participant + SCHEME_ID);
+        }
+        return expressions;
+    }
+
+    /**
+     * XPath expressions used by this parser to retrieve participants.
+     */
+    protected List<String> getParticipantExpressions() {
+        return Collections.emptyList();
+    }
+
     /**
      * Retrieves the ParticipantId which is retrieved using the supplied XPath.
      */
     protected ParticipantIdentifier participantId(String xPathExpr) {
         ParticipantId ret;
 
-        // first we retrieve the correct participant element
-        Element element;
-        try {
-            element = parser.retrieveElementForXpath(xPathExpr);
-        } catch (Exception ex) {
-            // DOM parser throws "java.lang.IllegalStateException: No element in XPath: ..." if no Element is found
-            throw new IllegalStateException(String.format("No ParticipantId found at '%s'.", xPathExpr));
-        }
-
         // get value and any schemeId given
-        String companyId = element.getFirstChild().getNodeValue().trim();
-        String schemeIdTextValue = element.getAttribute("schemeID").trim();
+        String companyId = parser.retriveValueForXpath(xPathExpr);
+        if (companyId.isEmpty())
+            throw new IllegalStateException(String.format("No ParticipantId found at '%s'.", xPathExpr));
+        String schemeIdTextValue = parser.retriveValueForXpath(xPathExpr + SCHEME_ID);
 
         // check if we already have a valid participant 9908:987654321
         if (ParticipantId.isValidParticipantIdentifierPattern(companyId)) {
@@ -22,9 +22,12 @@
 
 package network.oxalis.sniffer.document.parsers;
 
-import network.oxalis.sniffer.document.PlainUBLParser;
+import network.oxalis.sniffer.document.UBLParser;
 import network.oxalis.vefa.peppol.common.model.ParticipantIdentifier;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Parser to retrieves information from PEPPOL Application Response documents.
  * Should be able to decode Catalogue Response, Message Level Response and others based on ApplicationResponse
@@ -33,19 +36,26 @@ import network.oxalis.vefa.peppol.common.model.ParticipantIdentifier;
  */
 public class ApplicationResponseDocumentParser extends AbstractDocumentParser {
 
-    public ApplicationResponseDocumentParser(PlainUBLParser parser) {
+    private static final String SENDER = "//cac:SenderParty/cbc:EndpointID";
+
+    private static final String RECEIVER = "//cac:ReceiverParty/cbc:EndpointID";
+
+    public ApplicationResponseDocumentParser(UBLParser parser) {
         super(parser);
     }
 
     @Override
     public ParticipantIdentifier getSender() {
-        String applicationResponse = "//cac:SenderParty/cbc:EndpointID";
-        return participantId(applicationResponse);
+        return participantId(SENDER);
     }
 
     @Override
     public ParticipantIdentifier getReceiver() {
-        String applicationResponse = "//cac:ReceiverParty/cbc:EndpointID";
-        return participantId(applicationResponse);
+        return participantId(RECEIVER);
+    }
+
+    @Override
+    protected List<String> getParticipantExpressions() {
+        return Arrays.asList(SENDER, RECEIVER);
     }
 }
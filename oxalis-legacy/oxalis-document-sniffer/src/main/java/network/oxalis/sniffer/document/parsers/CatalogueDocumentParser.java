@@ -22,9 +22,12 @@
 
 package network.oxalis.sniffer.document.parsers;
 
-import network.oxalis.sniffer.document.PlainUBLParser;
+import network.oxalis.sniffer.document.UBLParser;
 import network.oxalis.vefa.peppol.common.model.ParticipantIdentifier;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Parser to retrieves information from PEPPOL Catalogue scenarios.
  * Should be able to decode Catalogue (for catalogue response see ApplicationResponse)
@@ -33,19 +36,26 @@ import network.oxalis.vefa.peppol.common.model.ParticipantIdentifier;
  */
 public class CatalogueDocumentParser extends AbstractDocumentParser {
 
-    public CatalogueDocumentParser(PlainUBLParser parser) {
+    private static final String PROVIDER = "//cac:ProviderParty/cbc:EndpointID";
+
+    private static final String RECEIVER = "//cac:ReceiverParty/cbc:EndpointID";
+
+    public CatalogueDocumentParser(UBLParser parser) {
         super(parser);
     }
 
     @Override
     public ParticipantIdentifier getSender() {
-        String catalogue = "//cac:ProviderParty/cbc:EndpointID";
-        return participantId(catalogue);
+        return participantId(PROVIDER);
     }
 
     @Override
     public ParticipantIdentifier getReceiver() {
-        String catalogue = "//cac:ReceiverParty/cbc:EndpointID";
-        return participantId(catalogue);
+        return participantId(RECEIVER);
+    }
+
+    @Override
+    protected List<String> getParticipantExpressions() {
+        return Arrays.asList(PROVIDER, RECEIVER);
     }
 }
@@ -22,9 +22,12 @@
 
 package network.oxalis.sniffer.document.parsers;
 
-import network.oxalis.sniffer.document.PlainUBLParser;
+import network.oxalis.sniffer.document.UBLParser;
 import network.oxalis.vefa.peppol.common.model.ParticipantIdentifier;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Parser to retrieves information from PEPPOL Despatch Advice scenarios.
  * Should be able to decode Despatch Advice document
@@ -33,19 +36,26 @@ import network.oxalis.vefa.peppol.common.model.ParticipantIdentifier;
  */
 public class DespatchAdviceDocumentParser extends AbstractDocumentParser {
 
-    public DespatchAdviceDocumentParser(PlainUBLParser parser) {
+    private static final String SUPPLIER = "//cac:DespatchSupplierParty/cac:Party/cbc:EndpointID";
+
+    private static final String CUSTOMER = "//cac:DeliveryCustomerParty/cac:Party/cbc:EndpointID";
+
+    public DespatchAdviceDocumentParser(UBLParser parser) {
         super(parser);
     }
 
     @Override
     public ParticipantIdentifier getSender() {
-        String despatchAdvice = "//cac:DespatchSupplierParty/cac:Party/cbc:EndpointID";
-        return participantId(despatchAdvice);
+        return participantId(SUPPLIER);
     }
 
     @Override
     public ParticipantIdentifier getReceiver() {
-        String despatchAdvice = "//cac:DeliveryCustomerParty/cac:Party/cbc:EndpointID";
-        return participantId(despatchAdvice);
+        return participantId(CUSTOMER);
+    }
+
+    @Override
+    protected List<String> getParticipantExpressions() {
+        return Arrays.asList(SUPPLIER, CUSTOMER);
     }
 }
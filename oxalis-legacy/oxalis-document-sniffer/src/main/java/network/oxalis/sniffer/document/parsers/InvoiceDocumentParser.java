@@ -22,9 +22,12 @@
 
 package network.oxalis.sniffer.document.parsers;
 
-import network.oxalis.sniffer.document.PlainUBLParser;
+import network.oxalis.sniffer.document.UBLParser;
 import network.oxalis.vefa.peppol.common.model.ParticipantIdentifier;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Parser to retrieves information from PEPPOL Invoice scenarios.
  * Should be able to decode Invoices in plain UBL and Norwegian EHF variants.
@@ -33,34 +36,45 @@ import network.oxalis.vefa.peppol.common.model.ParticipantIdentifier;
  */
 public class InvoiceDocumentParser extends AbstractDocumentParser {
 
-    public InvoiceDocumentParser(PlainUBLParser parser) {
+    private static final String SUPPLIER_ENDPOINT = "//cac:AccountingSupplierParty/cac:Party/cbc:EndpointID";
+
+    private static final String SUPPLIER_COMPANY =
+            "//cac:AccountingSupplierParty/cac:Party/cac:PartyLegalEntity/cbc:CompanyID";
+
+    private static final String CUSTOMER_ENDPOINT = "//cac:AccountingCustomerParty/cac:Party/cbc:EndpointID";
+
+    private static final String CUSTOMER_COMPANY =
+            "//cac:AccountingCustomerParty/cac:Party/cac:PartyLegalEntity/cbc:CompanyID";
+
+    public InvoiceDocumentParser(UBLParser parser) {
         super(parser);
     }
 
     @Override
     public ParticipantIdentifier getSender() {
-        String endpointFirst = "//cac:AccountingSupplierParty/cac:Party/cbc:EndpointID";
-        String companySecond = "//cac:AccountingSupplierParty/cac:Party/cac:PartyLegalEntity/cbc:CompanyID";
         ParticipantIdentifier s;
         try {
-            s = participantId(endpointFirst);
+            s = participantId(SUPPLIER_ENDPOINT);
         } catch (IllegalStateException e) {
-            s = participantId(companySecond);
+            s = participantId(SUPPLIER_COMPANY);
         }
         return s;
     }
 
     @Override
     public ParticipantIdentifier getReceiver() {
-        String endpointFirst = "//cac:AccountingCustomerParty/cac:Party/cbc:EndpointID";
-        String companySecond = "//cac:AccountingCustomerParty/cac:Party/cac:PartyLegalEntity/cbc:CompanyID";
         ParticipantIdentifier s;
         try {
-            s = participantId(endpointFirst);
+            s = participantId(CUSTOMER_ENDPOINT);
         } catch (IllegalStateException e) {
-            s = participantId(companySecond);
+            s = participantId(CUSTOMER_COMPANY);
         }
         return s;
     }
 
+    @Override
+    protected List<String> getParticipantExpressions() {
+        return Arrays.asList(SUPPLIER_ENDPOINT, SUPPLIER_COMPANY, CUSTOMER_ENDPOINT, CUSTOMER_COMPANY);
+    }
+
 }
@@ -22,9 +22,12 @@
 
 package network.oxalis.sniffer.document.parsers;
 
-import network.oxalis.sniffer.document.PlainUBLParser;
+import network.oxalis.sniffer.document.UBLParser;
 import network.oxalis.vefa.peppol.common.model.ParticipantIdentifier;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Parser to retrieves information from PEPPOL Order scenarios.
  * Should be able to decode Order and OrderResponse documents.
@@ -33,27 +36,36 @@ import network.oxalis.vefa.peppol.common.model.ParticipantIdentifier;
  */
 public class OrderDocumentParser extends AbstractDocumentParser {
 
-    public OrderDocumentParser(PlainUBLParser parser) {
+    private static final String BUYER = "//cac:BuyerCustomerParty/cac:Party/cbc:EndpointID";
+
+    private static final String SELLER = "//cac:SellerSupplierParty/cac:Party/cbc:EndpointID";
+
+    public OrderDocumentParser(UBLParser parser) {
         super(parser);
     }
 
     @Override
     public ParticipantIdentifier getSender() {
-        String xpath = "//cac:BuyerCustomerParty/cac:Party/cbc:EndpointID";
+        String xpath = BUYER;
         if (parser.localName().startsWith("OrderResponse")) {
             // Matches both OrderResponse and OrderResponseSimple
-            xpath = "//cac:SellerSupplierParty/cac:Party/cbc:EndpointID";
+            xpath = SELLER;
         }
         return participantId(xpath);
     }
 
     @Override
     public ParticipantIdentifier getReceiver() {
-        String xpath = "//cac:SellerSupplierParty/cac:Party/cbc:EndpointID";
+        String xpath = SELLER;
         if (parser.localName().startsWith("OrderResponse")) {
             // Matches both OrderResponse and OrderResponseSimple
-            xpath = "//cac:BuyerCustomerParty/cac:Party/cbc:EndpointID";
+            xpath = BUYER;
         }
         return participantId(xpath);
     }
+
+    @Override
+    protected List<String> getParticipantExpressions() {
+        return Arrays.asList(BUYER, SELLER);
+    }
 }
@@ -22,12 +22,15 @@
 
 package network.oxalis.sniffer.sbdh;
 
+import com.google.common.io.ByteStreams;
+import network.oxalis.commons.transformer.SbdhWrappingInputStream;
 import network.oxalis.vefa.peppol.common.model.Header;
 import network.oxalis.vefa.peppol.sbdh.SbdWriter;
 import network.oxalis.vefa.peppol.sbdh.util.XMLStreamUtils;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * Takes a document and wraps it together with headers into a StandardBusinessDocument.
@@ -44,19 +47,45 @@ public class SbdhWrapper {
     /**
      * Wraps payload + headers into a StandardBusinessDocument
      *
-     * @param inputStream the input stream to be wrapped
+     * @param inputStream the input stream to be wrapped, closed when wrapped
      * @param headers     the headers to use for sbdh
      * @return byte buffer with the resulting output in utf-8
      */
     public byte[] wrap(InputStream inputStream, Header headers) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (InputStream wrapped = newInputStream(inputStream, headers)) {
+            return ByteStreams.toByteArray(wrapped);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to wrap document inside SBD (SBDH). " + ex.getMessage(), ex);
+        }
+    }
 
-        try (SbdWriter sbdWriter = SbdWriter.newInstance(baos, headers)) {
-            XMLStreamUtils.copy(inputStream, sbdWriter.xmlWriter());
+    /**
+     * Wraps payload + headers into a StandardBusinessDocument created while the returned stream is read
+     *
+     * @param inputStream the input stream to be wrapped, closed when the returned stream is read or closed
+     * @param headers     the headers to use for sbdh
+     * @return stream providing the resulting output in utf-8
+     */
+    public InputStream newInputStream(InputStream inputStream, Header headers) {
+        try {
+            return new SbdhWrappingInputStream(inputStream, headers);
         } catch (Exception ex) {
             throw new IllegalStateException("Unable to wrap document inside SBD (SBDH). " + ex.getMessage(), ex);
         }
+    }
 
-        return baos.toByteArray();
+    /**
+     * Wraps payload + headers into a StandardBusinessDocument written to the given stream
+     *
+     * @param inputStream  the input stream to be wrapped
+     * @param headers      the headers to use for sbdh
+     * @param outputStream the output stream receiving the result in utf-8, not closed
+     */
+    public void wrap(InputStream inputStream, Header headers, OutputStream outputStream) {
+        try (SbdWriter sbdWriter = SbdWriter.newInstance(outputStream, headers)) {
+            XMLStreamUtils.copy(inputStream, sbdWriter.xmlWriter());
+        } catch (Exception ex) {
+            throw new IllegalStateException("Unable to wrap document inside SBD (SBDH). " + ex.getMessage(), ex);
+        }
     }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.sniffer.document;
+
+import network.oxalis.sniffer.PeppolStandardBusinessHeader;
+import network.oxalis.sniffer.document.parsers.PEPPOLDocumentParser;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class StreamingUBLHeaderParserTest {
+
+    private static final String ROOT = "<%s xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:%s-2\"" +
+            " xmlns:cac=\"urn:oasis:names:specification:ubl:schema:xsd:CommonAggregateComponents-2\"" +
+            " xmlns:cbc=\"urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2\">" +
+            "<cbc:UBLVersionID>2.1</cbc:UBLVersionID>" +
+            "<cbc:CustomizationID>urn:www.cenbii.eu:transaction:biitrns001:ver2.0</cbc:CustomizationID>" +
+            "<cbc:ProfileID>urn:www.cenbii.eu:profile:bii01:ver2.0</cbc:ProfileID>%s</%s>";
+
+    private static final String SENDER = "<cbc:EndpointID schemeID=\"GLN\">7080000985134</cbc:EndpointID>";
+
+    private static final String RECEIVER = "<cbc:EndpointID>0088:810017902</cbc:EndpointID>";
+
+    @DataProvider(name = "documents")
+    public Object[][] documents() {
+        return new Object[][]{
+                {document("Invoice", "<cac:AccountingSupplierParty><cac:Party>" + SENDER +
+                        "</cac:Party></cac:AccountingSupplierParty><cac:AccountingCustomerParty><cac:Party>" +
+                        "<cac:PartyLegalEntity><cbc:CompanyID schemeID=\"GLN\">810017902</cbc:CompanyID>" +
+                        "</cac:PartyLegalEntity></cac:Party></cac:AccountingCustomerParty>")},
+                {document("Order", "<cac:BuyerCustomerParty><cac:Party>" + SENDER + "</cac:Party>" +
+                        "</cac:BuyerCustomerParty><cac:SellerSupplierParty><cac:Party>" + RECEIVER +
+                        "</cac:Party></cac:SellerSupplierParty>")},
+                {document("OrderResponse", "<cac:SellerSupplierParty><cac:Party>" + SENDER + "</cac:Party>" +
+                        "</cac:SellerSupplierParty><cac:BuyerCustomerParty><cac:Party>" + RECEIVER +
+                        "</cac:Party></cac:BuyerCustomerParty>")},
+                {document("Catalogue", "<cac:ProviderParty>" + SENDER + "</cac:ProviderParty>" +
+                        "<cac:ReceiverParty>" + RECEIVER + "</cac:ReceiverParty>")},
+                {document("DespatchAdvice", "<cac:DespatchSupplierParty><cac:Party>" + SENDER + "</cac:Party>" +
+                        "</cac:DespatchSupplierParty><cac:DeliveryCustomerParty><cac:Party>" + RECEIVER +
+                        "</cac:Party></cac:DeliveryCustomerParty>")},
+                {document("ApplicationResponse", "<cac:SenderParty>" + SENDER + "</cac:SenderParty>" +
+                        "<cac:ReceiverParty>" + RECEIVER + "</cac:ReceiverParty>")},
+        };
+    }
+
+    @Test(dataProvider = "documents")
+    public void sameAsDom(byte[] document) throws Exception {
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        Document dom = documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(document));
+        XPath xPath = XPathFactory.newInstance().newXPath();
+        xPath.setNamespaceContext(new HardCodedNamespaceResolver());
+
+        PlainUBLHeaderParser expected = new PlainUBLHeaderParser(dom, xPath);
+        PEPPOLDocumentParser expectedDocumentParser = expected.createDocumentParser();
+
+        StreamingUBLHeaderParser actual = new StreamingUBLHeaderParser(
+                XMLInputFactory.newFactory().createXMLStreamReader(new ByteArrayInputStream(document)));
+        PEPPOLDocumentParser actualDocumentParser = actual.createDocumentParser();
+        actual.collect(actualDocumentParser);
+
+        Assert.assertEquals(actual.localName(), expected.localName());
+        Assert.assertEquals(actual.fetchDocumentTypeId().toString(), expected.fetchDocumentTypeId().toString());
+        Assert.assertEquals(actual.fetchProcessTypeId(), expected.fetchProcessTypeId());
+        Assert.assertEquals(actualDocumentParser.getSender(), expectedDocumentParser.getSender());
+        Assert.assertEquals(actualDocumentParser.getReceiver(), expectedDocumentParser.getReceiver());
+
+        Assert.assertEquals(actualDocumentParser.getSender().getIdentifier(), "0088:7080000985134");
+        Assert.assertEquals(actualDocumentParser.getReceiver().getIdentifier(), "0088:810017902");
+    }
+
+    @Test
+    public void attributeOfCollectedElement() throws Exception {
+        // only the second endpoint has a schemeID, which must not be paired with the first endpoint
+        byte[] document = document("Invoice", "<cac:AccountingSupplierParty><cac:Party>" + RECEIVER +
+                "</cac:Party><cac:Party>" + SENDER + "</cac:Party></cac:AccountingSupplierParty>");
+        String endpoint = "//cac:AccountingSupplierParty/cac:Party/cbc:EndpointID";
+
+        StreamingUBLHeaderParser parser = new StreamingUBLHeaderParser(
+                XMLInputFactory.newFactory().createXMLStreamReader(new ByteArrayInputStream(document)));
+        parser.collect(Arrays.asList(endpoint, endpoint + "/@schemeID"));
+
+        Assert.assertEquals(parser.retriveValueForXpath(endpoint), "0088:810017902");
+        Assert.assertEquals(parser.retriveValueForXpath(endpoint + "/@schemeID"), "");
+
+        parser = new StreamingUBLHeaderParser(
+                XMLInputFactory.newFactory().createXMLStreamReader(new ByteArrayInputStream(document)));
+        parser.collect(Collections.singletonList(endpoint + "/@schemeID"));
+
+        Assert.assertEquals(parser.retriveValueForXpath(endpoint + "/@schemeID"), "GLN");
+    }
+
+    @Test
+    public void parallel() throws Exception {
+        NoSbdhParser parser = new NoSbdhParser();
+        Object[][] documents = documents();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<PeppolStandardBusinessHeader>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                byte[] document = (byte[]) documents[i % documents.length][0];
+                futures.add(executorService.submit(() -> parser.originalParse(new ByteArrayInputStream(document))));
+            }
+
+            for (Future<PeppolStandardBusinessHeader> future : futures)
+                Assert.assertEquals(future.get().getSenderId().getIdentifier(), "0088:7080000985134");
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private static byte[] document(String type, String content) {
+        return String.format(ROOT, type, type, content, type).getBytes(StandardCharsets.UTF_8);
+    }
+}
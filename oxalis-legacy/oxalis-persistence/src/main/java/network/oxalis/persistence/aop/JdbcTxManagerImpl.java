@@ -30,6 +30,7 @@ import network.oxalis.persistence.api.JdbcTxManager;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implementation of a transaction manager, which is responsible
@@ -39,11 +40,15 @@ import java.sql.SQLException;
  * them up so that they can be transactional (autoCommit --&gt; false).
  * <p>
  * It also can be used to rollback programatically an existing transaction.
+ * <p>
+ * The ThreadLocal is safe to use from virtual threads, as the connection is set and removed within a single
+ * intercepted call on the same thread. No monitors are held while waiting for the DataSource or the database,
+ * so virtual threads are not pinned to their carrier thread.
  */
 @Slf4j
 public class JdbcTxManagerImpl implements JdbcTxManager {
 
-    private static int instances = 0;
+    private static final AtomicInteger instances = new AtomicInteger();
 
     /**
      * Used to track problems with multiple instances being created.
@@ -62,8 +67,7 @@ public class JdbcTxManagerImpl implements JdbcTxManager {
         if (dataSource == null) {
             throw new IllegalArgumentException("DataSource not supplied in constructor");
         }
-        this.id = instances;
-        instances++;
+        this.id = instances.getAndIncrement();
         trace("new instance");
         this.dataSource = dataSource;
     }
@@ -23,6 +23,7 @@
 package network.oxalis.statistics.api;
 
 import java.util.Date;
+import java.util.List;
 
 /**
  * Objects implementing this interface are capable of storing and retrieving raw data
@@ -39,6 +40,17 @@ public interface RawStatisticsRepository {
      */
     Integer persist(RawStatistics rawStatistics);
 
+    /**
+     * Persists a batch of raw statistics entries into table {@code raw_stats}.
+     * <p>
+     * Default implementation persists entries one by one, implementations are expected to do better.
+     *
+     * @since 6.5.1
+     */
+    default void persist(List<RawStatistics> rawStatistics) {
+        rawStatistics.forEach(this::persist);
+    }
+
     /**
      * Retrieves data from table <code>raw_stats</code> and transforms it into an appropriate XML document
      */
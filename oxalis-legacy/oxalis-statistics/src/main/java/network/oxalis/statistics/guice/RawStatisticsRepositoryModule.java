@@ -26,7 +26,10 @@ import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import com.google.inject.name.Names;
+import network.oxalis.api.settings.Settings;
+import network.oxalis.commons.guice.ImplLoader;
 import network.oxalis.commons.guice.OxalisModule;
 import network.oxalis.persistence.api.Platform;
 import network.oxalis.persistence.guice.AopJdbcTxManagerModule;
@@ -36,6 +39,8 @@ import network.oxalis.statistics.jdbc.RawStatisticsRepositoryMySqlImpl;
 import network.oxalis.statistics.api.RawStatisticsRepository;
 import network.oxalis.statistics.jdbc.RawStatisticsRepositoryMsSqlImpl;
 import network.oxalis.statistics.jdbc.RawStatisticsRepositoryOracleImpl;
+import network.oxalis.statistics.rollup.RollupConf;
+import network.oxalis.statistics.rollup.RollupStatisticsRepository;
 
 /**
  * Wires up the persistence component.
@@ -53,6 +58,11 @@ public class RawStatisticsRepositoryModule extends OxalisModule {
         // Includes the Aop based Tx manager, which needs a DataSource
         binder().install(new AopJdbcTxManagerModule());
 
+        bindSettings(StatisticsRepositoryConf.class);
+        bindSettings(RollupConf.class);
+
+        bindTyped(RawStatisticsRepository.class, RollupStatisticsRepository.class);
+
         bind(Key.get(RawStatisticsRepository.class, Names.named(H2Platform.IDENTIFIER)))
                 .to(RawStatisticsRepositoryMsSqlImpl.class);
 
@@ -71,7 +81,14 @@ public class RawStatisticsRepositoryModule extends OxalisModule {
 
     @Provides
     @Singleton
-    public RawStatisticsRepository get(Injector injector, Platform platform) {
+    @Named("raw")
+    public RawStatisticsRepository getRaw(Injector injector, Platform platform) {
         return injector.getInstance(Key.get(RawStatisticsRepository.class, platform.getNamed()));
     }
+
+    @Provides
+    @Singleton
+    public RawStatisticsRepository get(Injector injector, Settings<StatisticsRepositoryConf> settings) {
+        return ImplLoader.get(injector, RawStatisticsRepository.class, settings, StatisticsRepositoryConf.REPOSITORY);
+    }
 }
@@ -55,6 +55,11 @@ public class RawStatisticsRepositoryHSqlImpl extends RawStatisticsRepositoryJdbc
         return String.format("INSERT INTO %s (ap, tstamp,  direction, sender, receiver, doc_type, profile, channel) values(?,?,?,?,?,?,?,?)", RawStatisticsRepositoryJdbcImpl.RAW_STATS_TABLE_NAME);
     }
 
+    @Override
+    int getPersistBatchRows() {
+        return 100;
+    }
+
     /**
      * Composes the SQL query for retrieval of statistical data between a start and end data, with
      * a granularity as supplied.
@@ -22,6 +22,7 @@
 
 package network.oxalis.statistics.jdbc;
 
+import network.oxalis.persistence.annotation.Transactional;
 import network.oxalis.persistence.api.JdbcTxManager;
 import network.oxalis.statistics.util.DataSourceHelper;
 import network.oxalis.statistics.util.JdbcHelper;
@@ -31,7 +32,9 @@ import network.oxalis.statistics.api.StatisticsGranularity;
 import network.oxalis.statistics.api.StatisticsTransformer;
 
 import java.sql.*;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Basic JDBC implementation of StatisticsRepository component supplied with Oxalis.
@@ -44,6 +47,11 @@ public abstract class RawStatisticsRepositoryJdbcImpl implements RawStatisticsRe
 
     public static final String RAW_STATS_TABLE_NAME = "raw_stats";
 
+    /**
+     * Number of columns set when persisting a raw statistics entry.
+     */
+    static final int PERSIST_COLUMNS = 8;
+
     protected final JdbcTxManager jdbcTxManager;
 
     public RawStatisticsRepositoryJdbcImpl(JdbcTxManager jdbcTxManager) {
@@ -64,14 +72,7 @@ public abstract class RawStatisticsRepositoryJdbcImpl implements RawStatisticsRe
             con = jdbcTxManager.getConnection();
             ps = con.prepareStatement(sqlStatement, Statement.RETURN_GENERATED_KEYS);
 
-            ps.setString(1, rawStatistics.getAccessPointIdentifier().toString());
-            ps.setTimestamp(2, new Timestamp(rawStatistics.getDate().getTime()));
-            ps.setString(3, rawStatistics.getDirection().toString());
-            ps.setString(4, rawStatistics.getSender().getIdentifier());
-            ps.setString(5, rawStatistics.getReceiver().getIdentifier());
-            ps.setString(6, rawStatistics.getDocumentTypeIdentifier().toString());
-            ps.setString(7, rawStatistics.getProcessIdentifier().toString());
-            ps.setString(8, rawStatistics.getChannelId() == null ? null : rawStatistics.getChannelId().stringValue());
+            setPersistParameters(ps, 0, rawStatistics);
 
             ps.executeUpdate();
             ResultSet rs = ps.getGeneratedKeys();
@@ -88,6 +89,58 @@ public abstract class RawStatisticsRepositoryJdbcImpl implements RawStatisticsRe
         return result;
     }
 
+    /**
+     * Persists raw statistics into the DBMS via JDBC in a single transaction. Entries are inserted using
+     * multi-row statements of {@link #getPersistBatchRows()} rows each, sent to the DBMS as one JDBC batch,
+     * followed by a single statement holding any remaining entries.
+     */
+    @Override
+    @Transactional
+    public void persist(List<RawStatistics> rawStatistics) {
+        int rows = getPersistBatchRows();
+        int remaining = rawStatistics.size() % rows;
+        int full = rawStatistics.size() - remaining;
+
+        Connection con = jdbcTxManager.getConnection();
+        try {
+            if (full > 0) {
+                try (PreparedStatement ps = con.prepareStatement(getPersistSqlQueryText(rows))) {
+                    for (int i = 0; i < full; i += rows) {
+                        for (int row = 0; row < rows; row++)
+                            setPersistParameters(ps, row * PERSIST_COLUMNS, rawStatistics.get(i + row));
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+
+            if (remaining > 0) {
+                try (PreparedStatement ps = con.prepareStatement(getPersistSqlQueryText(remaining))) {
+                    for (int row = 0; row < remaining; row++)
+                        setPersistParameters(ps, row * PERSIST_COLUMNS, rawStatistics.get(full + row));
+                    ps.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to execute batch " + e, e);
+        }
+    }
+
+    /**
+     * Sets the parameters of a raw statistics entry, starting after the given parameter offset.
+     */
+    protected void setPersistParameters(PreparedStatement ps, int offset, RawStatistics rawStatistics)
+            throws SQLException {
+        ps.setString(offset + 1, rawStatistics.getAccessPointIdentifier().toString());
+        ps.setTimestamp(offset + 2, new Timestamp(rawStatistics.getDate().getTime()));
+        ps.setString(offset + 3, rawStatistics.getDirection().toString());
+        ps.setString(offset + 4, rawStatistics.getSender().getIdentifier());
+        ps.setString(offset + 5, rawStatistics.getReceiver().getIdentifier());
+        ps.setString(offset + 6, rawStatistics.getDocumentTypeIdentifier().toString());
+        ps.setString(offset + 7, rawStatistics.getProcessIdentifier().toString());
+        ps.setString(offset + 8, rawStatistics.getChannelId() == null ? null : rawStatistics.getChannelId().stringValue());
+    }
+
     /**
      * Retrieves statistics and transforms it using the supplied transformer.
      */
@@ -138,6 +191,22 @@ public abstract class RawStatisticsRepositoryJdbcImpl implements RawStatisticsRe
      */
     abstract String getPersistSqlQueryText();
 
+    /**
+     * Composes the SQL query to persist the given number of raw statistics entries in one statement. Default
+     * implementation uses a multi-row {@code VALUES} clause, supported by most DBMSes.
+     */
+    String getPersistSqlQueryText(int rows) {
+        return String.format("INSERT INTO %s (ap, tstamp, direction, sender, receiver, doc_type, profile, channel) " +
+                "values %s", RAW_STATS_TABLE_NAME, String.join(",", Collections.nCopies(rows, "(?,?,?,?,?,?,?,?)")));
+    }
+
+    /**
+     * Maximum number of raw statistics entries persisted in one statement.
+     */
+    int getPersistBatchRows() {
+        return 1;
+    }
+
     /**
      * Composes the SQL query for retrieval of statistical data between a start and end data,
      * with a granularity as supplied.
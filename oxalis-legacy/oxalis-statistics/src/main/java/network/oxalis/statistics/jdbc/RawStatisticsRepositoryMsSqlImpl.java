@@ -49,6 +49,14 @@ public class RawStatisticsRepositoryMsSqlImpl extends RawStatisticsRepositoryJdb
                 "values(?,?,?,?,?,?,?,?)", RawStatisticsRepositoryJdbcImpl.RAW_STATS_TABLE_NAME);
     }
 
+    /**
+     * SQL Server allows at most 2100 parameters in one statement.
+     */
+    @Override
+    int getPersistBatchRows() {
+        return 250;
+    }
+
     /**
      * Composes the SQL query for retrieval of statistical data between a start and end data, with
      * a granularity as supplied.
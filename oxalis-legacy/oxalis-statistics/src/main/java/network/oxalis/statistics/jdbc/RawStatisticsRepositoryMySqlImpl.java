@@ -51,6 +51,11 @@ public class RawStatisticsRepositoryMySqlImpl extends RawStatisticsRepositoryJdb
                 "values(?,?,?,?,?,?,?,?)", RawStatisticsRepositoryJdbcImpl.RAW_STATS_TABLE_NAME);
     }
 
+    @Override
+    int getPersistBatchRows() {
+        return 100;
+    }
+
     /**
      * Composes the SQL query for retrieval of statistical data between a start and end data, with
      * a granularity as supplied.
@@ -55,14 +55,7 @@ public class RawStatisticsRepositoryOracleImpl extends RawStatisticsRepositoryJd
 
             // Oracle does not support Statement.RETURN_GENERATED_KEYS, so return the trigger generated "id" column
             ps = con.prepareStatement(sqlStatement, new String[]{"id"});
-            ps.setString(1, rawStatistics.getAccessPointIdentifier().toString());
-            ps.setTimestamp(2, new Timestamp(rawStatistics.getDate().getTime()));
-            ps.setString(3, rawStatistics.getDirection().toString());
-            ps.setString(4, rawStatistics.getSender().getIdentifier());
-            ps.setString(5, rawStatistics.getReceiver().getIdentifier());
-            ps.setString(6, rawStatistics.getDocumentTypeIdentifier().toString());
-            ps.setString(7, rawStatistics.getProcessIdentifier().toString());
-            ps.setString(8, rawStatistics.getChannelId() == null ? null : rawStatistics.getChannelId().stringValue());
+            setPersistParameters(ps, 0, rawStatistics);
 
             ps.executeUpdate();
             ResultSet rs = ps.getGeneratedKeys();
@@ -83,6 +76,24 @@ public class RawStatisticsRepositoryOracleImpl extends RawStatisticsRepositoryJd
         return String.format("INSERT INTO %s (ap, tstamp,  direction, sender, receiver, doc_type, profile, channel) values (?,?,?,?,?,?,?,?)", RawStatisticsRepositoryJdbcImpl.RAW_STATS_TABLE_NAME);
     }
 
+    /**
+     * Oracle does not support multi-row {@code VALUES}, so a multi-table insert is used instead. Ids are
+     * still assigned by the trigger, as it fires for each inserted row.
+     */
+    @Override
+    String getPersistSqlQueryText(int rows) {
+        StringBuilder sql = new StringBuilder("INSERT ALL");
+        for (int row = 0; row < rows; row++)
+            sql.append(String.format(" INTO %s (ap, tstamp, direction, sender, receiver, doc_type, profile, channel) " +
+                    "values (?,?,?,?,?,?,?,?)", RawStatisticsRepositoryJdbcImpl.RAW_STATS_TABLE_NAME));
+        return sql.append(" SELECT 1 FROM DUAL").toString();
+    }
+
+    @Override
+    int getPersistBatchRows() {
+        return 100;
+    }
+
     @Override
     String getRawStatisticsSqlQueryText(StatisticsGranularity granularity) {
         String dateFormatWithSelectedGranularity = oracleDateFormat(granularity);
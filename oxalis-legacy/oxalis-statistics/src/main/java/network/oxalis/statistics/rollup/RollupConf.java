@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.statistics.rollup;
+
+import network.oxalis.api.settings.DefaultValue;
+import network.oxalis.api.settings.Path;
+import network.oxalis.api.settings.Title;
+
+/**
+ * Settings for {@link RollupStatisticsRepository}.
+ *
+ * @since 6.5.1
+ */
+@Title("Statistics rollup")
+public enum RollupConf {
+
+    /**
+     * Interval (milliseconds) between rollups of raw statistics.
+     */
+    @Path("oxalis.statistics.rollup.flush")
+    @DefaultValue("60000")
+    FLUSH,
+
+    /**
+     * Number of raw statistics entries rolled up in a single transaction.
+     */
+    @Path("oxalis.statistics.rollup.scan")
+    @DefaultValue("10000")
+    SCAN,
+
+    /**
+     * Maximum number of raw statistics entries not yet rolled up read when creating a report. Reports are refused
+     * when more raw statistics are waiting to be rolled up.
+     */
+    @Path("oxalis.statistics.rollup.backlog")
+    @DefaultValue("100000")
+    BACKLOG
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.statistics.rollup;
+
+import network.oxalis.statistics.api.RawStatistics;
+import network.oxalis.statistics.api.StatisticsGranularity;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Identifies a counter of rolled up statistics, i.e. a single entry of the statistics report.
+ * <p>
+ * Periods are formatted using the local time zone, as done by the DBMS for raw statistics, using the patterns
+ * {@code yyyy}, {@code yyyy-MM}, {@code yyyy-MM-dd} and {@code yyyy-MM-dd'T'HH}. These sort chronologically
+ * when compared as strings.
+ *
+ * @since 6.5.1
+ */
+class RollupKey {
+
+    static final Comparator<RollupKey> ORDER = Comparator
+            .comparing(RollupKey::getPeriod)
+            .thenComparing(RollupKey::getAccessPoint)
+            .thenComparing(RollupKey::getDirection)
+            .thenComparing(RollupKey::getParticipant)
+            .thenComparing(RollupKey::getDocumentType)
+            .thenComparing(RollupKey::getProfile, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(RollupKey::getChannel, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private static final Map<StatisticsGranularity, DateTimeFormatter> FORMATTERS =
+            new EnumMap<>(StatisticsGranularity.class);
+
+    static {
+        FORMATTERS.put(StatisticsGranularity.YEAR, DateTimeFormatter.ofPattern("yyyy"));
+        FORMATTERS.put(StatisticsGranularity.MONTH, DateTimeFormatter.ofPattern("yyyy-MM"));
+        FORMATTERS.put(StatisticsGranularity.DAY, DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+        FORMATTERS.put(StatisticsGranularity.HOUR, DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH"));
+    }
+
+    private final StatisticsGranularity granularity;
+
+    private final String period;
+
+    private final String accessPoint;
+
+    private final String direction;
+
+    private final String participant;
+
+    private final String documentType;
+
+    private final String profile;
+
+    private final String channel;
+
+    /**
+     * Formats the period containing the given date.
+     */
+    static String period(StatisticsGranularity granularity, Date date) {
+        return FORMATTERS.get(granularity).format(Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()));
+    }
+
+    /**
+     * Creates keys of all granularities for the given raw statistics. Participant is the sender for outbound
+     * messages and the receiver for inbound messages, as in the reports created from raw statistics.
+     */
+    static RollupKey[] of(RawStatistics rawStatistics) {
+        String direction = rawStatistics.getDirection().toString();
+        return of(rawStatistics.getDate(), rawStatistics.getAccessPointIdentifier().toString(), direction,
+                ("OUT".equals(direction) ? rawStatistics.getSender() : rawStatistics.getReceiver()).getIdentifier(),
+                rawStatistics.getDocumentTypeIdentifier().toString(),
+                rawStatistics.getProcessIdentifier() == null ? null : rawStatistics.getProcessIdentifier().toString(),
+                rawStatistics.getChannelId() == null ? null : rawStatistics.getChannelId().stringValue());
+    }
+
+    static RollupKey[] of(Date date, String accessPoint, String direction, String participant,
+                          String documentType, String profile, String channel) {
+        StatisticsGranularity[] granularities = StatisticsGranularity.values();
+        RollupKey[] keys = new RollupKey[granularities.length];
+        for (int i = 0; i < granularities.length; i++)
+            keys[i] = new RollupKey(granularities[i], period(granularities[i], date), accessPoint, direction,
+                    participant, documentType, profile, channel);
+        return keys;
+    }
+
+    RollupKey(StatisticsGranularity granularity, String period, String accessPoint, String direction,
+              String participant, String documentType, String profile, String channel) {
+        this.granularity = granularity;
+        this.period = period;
+        this.accessPoint = accessPoint;
+        this.direction = direction;
+        this.participant = participant;
+        this.documentType = documentType;
+        this.profile = profile;
+        this.channel = channel;
+    }
+
+    public StatisticsGranularity getGranularity() {
+        return granularity;
+    }
+
+    public String getPeriod() {
+        return period;
+    }
+
+    public String getAccessPoint() {
+        return accessPoint;
+    }
+
+    public String getDirection() {
+        return direction;
+    }
+
+    public String getParticipant() {
+        return participant;
+    }
+
+    public String getDocumentType() {
+        return documentType;
+    }
+
+    public String getProfile() {
+        return profile;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RollupKey rollupKey = (RollupKey) o;
+        return granularity == rollupKey.granularity &&
+                period.equals(rollupKey.period) &&
+                accessPoint.equals(rollupKey.accessPoint) &&
+                direction.equals(rollupKey.direction) &&
+                participant.equals(rollupKey.participant) &&
+                documentType.equals(rollupKey.documentType) &&
+                Objects.equals(profile, rollupKey.profile) &&
+                Objects.equals(channel, rollupKey.channel);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(granularity, period, accessPoint, direction, participant, documentType, profile, channel);
+    }
+
+    @Override
+    public String toString() {
+        return String.join(" ", granularity.getAbbreviation(), period, accessPoint, direction, participant,
+                documentType, String.valueOf(profile), String.valueOf(channel));
+    }
+}
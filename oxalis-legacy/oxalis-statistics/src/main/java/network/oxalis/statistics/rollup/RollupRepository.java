@@ -0,0 +1,275 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.statistics.rollup;
+
+import com.google.common.hash.Hashing;
+import network.oxalis.persistence.annotation.Repository;
+import network.oxalis.persistence.annotation.Transactional;
+import network.oxalis.persistence.api.JdbcTxManager;
+import network.oxalis.statistics.api.StatisticsGranularity;
+
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Reads and writes rolled up statistics in table {@code raw_stats_rollup}, using SQL supported by all platforms.
+ * <p>
+ * Raw statistics are rolled up in order of id, and the id of the last raw statistics entry rolled up is kept in
+ * table {@code raw_stats_rollup_mark}, updated in the same transaction as the counters. Updating the mark first
+ * locks its row, so access points sharing the database roll up each raw statistics entry once. Counters are
+ * updated in JDBC batches, inserting rows for the counters not found, each row being unique by a hash of its
+ * period and dimensions.
+ *
+ * @since 6.5.1
+ */
+@Repository
+class RollupRepository {
+
+    static final String ROLLUP_TABLE_NAME = "raw_stats_rollup";
+
+    static final String MARK_TABLE_NAME = "raw_stats_rollup_mark";
+
+    private static final String MARK_NAME = "raw_stats";
+
+    private final JdbcTxManager jdbcTxManager;
+
+    @Inject
+    public RollupRepository(JdbcTxManager jdbcTxManager) {
+        this.jdbcTxManager = jdbcTxManager;
+    }
+
+    /**
+     * Finds the largest id of raw statistics, 0 if none are persisted.
+     */
+    public long lastRawStatistics() {
+        try (Statement statement = jdbcTxManager.getConnection().createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MAX(id) FROM raw_stats")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw new IllegalStateException("SQL error:" + e, e);
+        }
+    }
+
+    /**
+     * Finds the id of the last raw statistics entry rolled up, 0 if none are rolled up yet.
+     */
+    public long mark() {
+        Connection con = jdbcTxManager.getConnection();
+
+        try (PreparedStatement ps = con.prepareStatement(String.format(
+                "SELECT last_id FROM %s WHERE name = ?", MARK_TABLE_NAME))) {
+            ps.setString(1, MARK_NAME);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next())
+                    return rs.getLong(1);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("SQL error:" + e, e);
+        }
+
+        try (PreparedStatement ps = con.prepareStatement(String.format(
+                "INSERT INTO %s (name, last_id) values (?, 0)", MARK_TABLE_NAME))) {
+            ps.setString(1, MARK_NAME);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            // Inserted by another access point in the meantime.
+            if (!isConstraintViolation(e))
+                throw new IllegalStateException("SQL error:" + e, e);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Rolls up raw statistics following the given mark in a single transaction.
+     *
+     * @param after Id of last raw statistics entry rolled up, as found using {@link #mark()}.
+     * @param last  Only raw statistics with id up to and including this value are rolled up.
+     * @param limit Maximum number of raw statistics rolled up.
+     * @return Whether the mark is moved, by this or another access point, {@code false} if no raw statistics
+     * are found.
+     */
+    @Transactional
+    public boolean rollup(long after, long last, int limit) {
+        Map<RollupKey, Long> counts = new HashMap<>();
+        long read = scan(after, last, limit, counts);
+        if (read == -1)
+            return false;
+
+        Connection con = jdbcTxManager.getConnection();
+
+        try (PreparedStatement ps = con.prepareStatement(String.format(
+                "UPDATE %s SET last_id = ? WHERE name = ? AND last_id = ?", MARK_TABLE_NAME))) {
+            ps.setLong(1, read);
+            ps.setString(2, MARK_NAME);
+            ps.setLong(3, after);
+
+            // Rolled up by another access point.
+            if (ps.executeUpdate() == 0)
+                return true;
+        } catch (SQLException e) {
+            throw new IllegalStateException("SQL error:" + e, e);
+        }
+
+        add(con, counts);
+        return true;
+    }
+
+    /**
+     * Reads raw statistics in order of id, counting them in the given map.
+     *
+     * @param after Only raw statistics with id larger than this value are read.
+     * @param last  Only raw statistics with id up to and including this value are read.
+     * @param limit Maximum number of raw statistics read.
+     * @return Id of last raw statistics entry read, or -1 if none was read.
+     */
+    public long scan(long after, long last, int limit, Map<RollupKey, Long> counts) {
+        String sql = "SELECT id, tstamp, ap, direction, sender, receiver, doc_type, profile, channel " +
+                "FROM raw_stats WHERE id > ? AND id <= ? ORDER BY id";
+
+        try (PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement(sql)) {
+            ps.setMaxRows(limit);
+            ps.setFetchSize(Math.min(limit, 1000));
+            ps.setLong(1, after);
+            ps.setLong(2, last);
+
+            long read = -1;
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    read = rs.getLong("id");
+                    String direction = rs.getString("direction");
+                    for (RollupKey key : RollupKey.of(rs.getTimestamp("tstamp"), rs.getString("ap"), direction,
+                            rs.getString("OUT".equals(direction) ? "sender" : "receiver"), rs.getString("doc_type"),
+                            rs.getString("profile"), rs.getString("channel")))
+                        counts.merge(key, 1L, Long::sum);
+                }
+            }
+            return read;
+        } catch (SQLException e) {
+            throw new IllegalStateException("SQL error:" + e, e);
+        }
+    }
+
+    /**
+     * Adds the given counts to the rolled up statistics, expected to be called holding the lock of the mark.
+     */
+    private void add(Connection con, Map<RollupKey, Long> counts) {
+        List<Map.Entry<RollupKey, Long>> entries = new ArrayList<>(counts.entrySet());
+
+        try (PreparedStatement update = con.prepareStatement(String.format(
+                "UPDATE %s SET total = total + ? WHERE key_hash = ?", ROLLUP_TABLE_NAME));
+             PreparedStatement exists = con.prepareStatement(String.format(
+                     "SELECT id FROM %s WHERE key_hash = ?", ROLLUP_TABLE_NAME));
+             PreparedStatement insert = con.prepareStatement(String.format(
+                     "INSERT INTO %s (granularity, period, ap, direction, ppid, doc_type, profile, channel, " +
+                             "key_hash, total) values (?,?,?,?,?,?,?,?,?,?)", ROLLUP_TABLE_NAME))) {
+            for (Map.Entry<RollupKey, Long> entry : entries) {
+                update.setLong(1, entry.getValue());
+                update.setString(2, hash(entry.getKey()));
+                update.addBatch();
+            }
+            int[] updated = entries.isEmpty() ? new int[0] : update.executeBatch();
+
+            boolean inserts = false;
+            for (int i = 0; i < entries.size(); i++) {
+                RollupKey key = entries.get(i).getKey();
+
+                if (updated[i] > 0 || (updated[i] == Statement.SUCCESS_NO_INFO && exists(exists, key)))
+                    continue;
+
+                insert.setString(1, key.getGranularity().getAbbreviation());
+                insert.setString(2, key.getPeriod());
+                insert.setString(3, key.getAccessPoint());
+                insert.setString(4, key.getDirection());
+                insert.setString(5, key.getParticipant());
+                insert.setString(6, key.getDocumentType());
+                insert.setString(7, key.getProfile());
+                insert.setString(8, key.getChannel());
+                insert.setString(9, hash(key));
+                insert.setLong(10, entries.get(i).getValue());
+                insert.addBatch();
+                inserts = true;
+            }
+
+            if (inserts)
+                insert.executeBatch();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to execute statement " + e, e);
+        }
+    }
+
+    /**
+     * Fetches rolled up statistics of the given granularity for the periods from and to the given periods, both
+     * inclusive.
+     */
+    public Map<RollupKey, Long> fetch(StatisticsGranularity granularity, String from, String to) {
+        String sql = String.format("SELECT period, ap, direction, ppid, doc_type, profile, channel, SUM(total) AS total " +
+                "FROM %s WHERE granularity = ? AND period BETWEEN ? AND ? " +
+                "GROUP BY period, ap, direction, ppid, doc_type, profile, channel", ROLLUP_TABLE_NAME);
+
+        Map<RollupKey, Long> result = new HashMap<>();
+        try (PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement(sql)) {
+            ps.setString(1, granularity.getAbbreviation());
+            ps.setString(2, from);
+            ps.setString(3, to);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next())
+                    result.merge(read(granularity, rs), rs.getLong("total"), Long::sum);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("SQL error:" + e, e);
+        }
+        return result;
+    }
+
+    private static RollupKey read(StatisticsGranularity granularity, ResultSet rs) throws SQLException {
+        return new RollupKey(granularity, rs.getString("period"), rs.getString("ap"), rs.getString("direction"),
+                rs.getString("ppid"), rs.getString("doc_type"), rs.getString("profile"), rs.getString("channel"));
+    }
+
+    private static boolean exists(PreparedStatement ps, RollupKey key) throws SQLException {
+        ps.setString(1, hash(key));
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Identifies a row by period and dimensions, as a unique constraint on all columns exceeds the size of an
+     * index on some platforms.
+     */
+    static String hash(RollupKey key) {
+        StringBuilder sb = new StringBuilder(key.getGranularity().getAbbreviation());
+        for (String value : new String[]{key.getPeriod(), key.getAccessPoint(), key.getDirection(),
+                key.getParticipant(), key.getDocumentType(), key.getProfile(), key.getChannel()})
+            sb.append(value == null ? "\u0000" : "\u0001" + value);
+        return Hashing.sha256().hashString(sb, StandardCharsets.UTF_8).toString();
+    }
+
+    private static boolean isConstraintViolation(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith("23");
+    }
+}
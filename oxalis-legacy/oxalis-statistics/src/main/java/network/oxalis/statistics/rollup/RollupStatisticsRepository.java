@@ -0,0 +1,216 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.statistics.rollup;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.settings.Settings;
+import network.oxalis.api.util.Type;
+import network.oxalis.statistics.api.RawStatistics;
+import network.oxalis.statistics.api.RawStatisticsRepository;
+import network.oxalis.statistics.api.StatisticsGranularity;
+import network.oxalis.statistics.api.StatisticsTransformer;
+import network.oxalis.statistics.util.JdbcHelper;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository keeping hourly, daily, monthly and yearly counters of raw statistics, allowing statistics to be
+ * reported without aggregating all raw statistics for each request.
+ * <p>
+ * Raw statistics are persisted by the repository for the platform in use, and rolled up into table
+ * {@code raw_stats_rollup} at a regular interval, continuing from the last raw statistics entry rolled up. As
+ * counters are derived from persisted raw statistics, nothing is lost when stopped, and access points sharing the
+ * database roll up each entry once. Existing raw statistics are rolled up the same way, a limited number of
+ * entries at a time. Reports are created from the rolled up statistics and the raw statistics not yet rolled up,
+ * read a limited number of entries at a time and refused when more entries than the configured backlog are waiting
+ * to be rolled up.
+ * <p>
+ * Only raw statistics persisted before the previous rollup are rolled up, giving transactions persisting raw
+ * statistics a full interval to complete, as their ids are not necessarily committed in order.
+ * <p>
+ * Periods are reported in full, i.e. the periods containing the start and end of the report are included
+ * with all their statistics.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+@Singleton
+@Type("rollup")
+public class RollupStatisticsRepository implements RawStatisticsRepository {
+
+    /**
+     * Number of times a report is read again when rolled up while reading.
+     */
+    private static final int RETRIES = 5;
+
+    private final RawStatisticsRepository rawStatisticsRepository;
+
+    private final RollupRepository rollupRepository;
+
+    private final int scan;
+
+    private final long backlog;
+
+    /**
+     * Largest id of raw statistics found at previous rollup.
+     */
+    private volatile long settled;
+
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("oxalis-statistics-rollup")
+                    .setDaemon(true)
+                    .build());
+
+    @Inject
+    public RollupStatisticsRepository(@Named("raw") RawStatisticsRepository rawStatisticsRepository,
+                                      RollupRepository rollupRepository, Settings<RollupConf> settings) {
+        this(rawStatisticsRepository, rollupRepository,
+                settings.getInt(RollupConf.FLUSH), settings.getInt(RollupConf.SCAN),
+                settings.getInt(RollupConf.BACKLOG));
+    }
+
+    RollupStatisticsRepository(RawStatisticsRepository rawStatisticsRepository, RollupRepository rollupRepository,
+                               int flush, int scan, long backlog) {
+        this.rawStatisticsRepository = rawStatisticsRepository;
+        this.rollupRepository = rollupRepository;
+        this.scan = scan;
+        this.backlog = backlog;
+
+        try {
+            settled = rollupRepository.lastRawStatistics();
+        } catch (Exception e) {
+            log.error("Unable to find raw statistics to roll up: {}", e.getMessage(), e);
+        }
+        executorService.scheduleWithFixedDelay(this::flush, flush, flush, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Integer persist(RawStatistics rawStatistics) {
+        return rawStatisticsRepository.persist(rawStatistics);
+    }
+
+    @Override
+    public void persist(List<RawStatistics> rawStatistics) {
+        rawStatisticsRepository.persist(rawStatistics);
+    }
+
+    /**
+     * Retrieves rolled up statistics and transforms it using the supplied transformer.
+     */
+    @Override
+    public void fetchAndTransformRawStatistics(StatisticsTransformer transformer, Date start, Date end,
+                                               StatisticsGranularity granularity) {
+        start = JdbcHelper.setStartDateIfNull(start);
+        end = JdbcHelper.setEndDateIfNull(end);
+
+        String from = RollupKey.period(granularity, start);
+        String to = RollupKey.period(granularity, end);
+
+        Map<RollupKey, Long> counts = null;
+        for (int attempt = 0; counts == null; attempt++) {
+            // Read again if rolled up in the meantime, as counters would otherwise be missing or counted twice.
+            if (attempt > RETRIES)
+                throw new IllegalStateException(String.format(
+                        "Statistics rolled up while creating report %s times, try again later.", attempt));
+
+            counts = fetch(granularity, from, to);
+        }
+
+        List<RollupKey> keys = new ArrayList<>(counts.keySet());
+        keys.sort(RollupKey.ORDER);
+
+        transformer.startStatistics(start, end);
+        for (RollupKey key : keys) {
+            transformer.startEntry();
+            transformer.writeAccessPointIdentifier(key.getAccessPoint());
+            transformer.writeDirection(key.getDirection());
+            transformer.writePeriod(key.getPeriod());
+            transformer.writeParticipantIdentifier(key.getParticipant());
+            transformer.writeDocumentType(key.getDocumentType());
+            transformer.writeProfileId(key.getProfile());
+            transformer.writeChannel(key.getChannel());
+            transformer.writeCount(Math.toIntExact(counts.get(key)));
+            transformer.endEntry();
+        }
+        transformer.endStatistics();
+    }
+
+    /**
+     * Reads rolled up statistics and raw statistics not yet rolled up, returning {@code null} when rolled up while
+     * reading.
+     */
+    private Map<RollupKey, Long> fetch(StatisticsGranularity granularity, String from, String to) {
+        long mark = rollupRepository.mark();
+        long last = rollupRepository.lastRawStatistics();
+
+        // Ids are assigned in increasing order, so the difference is the largest possible number of entries.
+        if (last - mark > backlog)
+            throw new IllegalStateException(String.format(
+                    "Up to %s raw statistics not rolled up, more than the backlog of %s allowed in reports.",
+                    last - mark, backlog));
+
+        Map<RollupKey, Long> counts = rollupRepository.fetch(granularity, from, to);
+
+        Map<RollupKey, Long> recent = new HashMap<>();
+        long read = mark;
+        while (read < last && (read = rollupRepository.scan(read, last, scan, recent)) != -1)
+            log.debug("Read raw statistics up to id {} for report.", read);
+
+        if (mark != rollupRepository.mark())
+            return null;
+
+        for (Map.Entry<RollupKey, Long> entry : recent.entrySet()) {
+            RollupKey key = entry.getKey();
+            if (key.getGranularity() == granularity
+                    && key.getPeriod().compareTo(from) >= 0 && key.getPeriod().compareTo(to) <= 0)
+                counts.merge(key, entry.getValue(), Long::sum);
+        }
+
+        return counts;
+    }
+
+    /**
+     * Rolls up raw statistics persisted before the previous rollup, a limited number at a time.
+     */
+    void flush() {
+        try {
+            long last = rollupRepository.lastRawStatistics();
+
+            long mark;
+            while ((mark = rollupRepository.mark()) < settled && rollupRepository.rollup(mark, settled, scan))
+                log.debug("Rolled up raw statistics after id {}.", mark);
+
+            settled = last;
+        } catch (Exception e) {
+            log.warn("Unable to roll up raw statistics: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.statistics.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.opentracing.Tracer;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.settings.Settings;
+import network.oxalis.api.util.Type;
+import network.oxalis.statistics.api.RawStatistics;
+import network.oxalis.statistics.api.RawStatisticsRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind implementation of {@link network.oxalis.api.statistics.StatisticsService}.
+ * <p>
+ * Raw statistics are placed in a bounded queue and written by a background writer in batches, whenever the
+ * configured batch size is reached or the oldest waiting entry has waited for the configured interval. Message
+ * exchange is thereby never delayed by the database. Entries are dropped when the queue is full, and a batch
+ * failing repeatedly is dropped to let later entries through.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+@Singleton
+@Type("batch")
+class BatchStatisticsService extends DefaultStatisticsService {
+
+    private static final int ATTEMPTS = 3;
+
+    private final BlockingQueue<RawStatistics> queue;
+
+    private final int size;
+
+    private final long interval;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("oxalis-statistics-writer")
+            .setDaemon(true)
+            .build());
+
+    @Inject
+    public BatchStatisticsService(RawStatisticsRepository rawStatisticsRepository, Tracer tracer,
+                                  Settings<StatisticsBatchConf> settings) {
+        this(rawStatisticsRepository, tracer, settings.getInt(StatisticsBatchConf.QUEUE),
+                settings.getInt(StatisticsBatchConf.SIZE), settings.getInt(StatisticsBatchConf.INTERVAL));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "oxalis-statistics-shutdown"));
+    }
+
+    BatchStatisticsService(RawStatisticsRepository rawStatisticsRepository, Tracer tracer,
+                           int queueSize, int size, int interval) {
+        super(rawStatisticsRepository, tracer);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.size = size;
+        this.interval = interval;
+
+        executorService.submit(this::work);
+        executorService.shutdown();
+    }
+
+    @Override
+    protected void persist(RawStatistics rawStatistics) {
+        if (!queue.offer(rawStatistics) && dropped.getAndIncrement() == 0)
+            log.warn("Statistics queue is full, dropping entries.");
+    }
+
+    /**
+     * Stops the writer, writing entries still waiting in the queue.
+     */
+    void stop() {
+        try {
+            executorService.shutdownNow();
+            if (!executorService.awaitTermination(interval * ATTEMPTS, TimeUnit.MILLISECONDS))
+                log.warn("Statistics writer did not stop in time.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<RawStatistics> batch = new ArrayList<>(size);
+        while (queue.drainTo(batch, size) > 0) {
+            if (!write(batch))
+                break;
+            batch.clear();
+        }
+    }
+
+    private void work() {
+        List<RawStatistics> batch = new ArrayList<>(size);
+        int attempt = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (batch.isEmpty()) {
+                    RawStatistics rawStatistics = queue.poll(interval, TimeUnit.MILLISECONDS);
+                    if (rawStatistics == null)
+                        continue;
+                    batch.add(rawStatistics);
+                }
+
+                // Collects entries until batch is full or the interval has passed.
+                long deadline = System.currentTimeMillis() + interval;
+                while (batch.size() < size) {
+                    queue.drainTo(batch, size - batch.size());
+
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (batch.size() >= size || remaining <= 0)
+                        break;
+
+                    RawStatistics rawStatistics = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (rawStatistics == null)
+                        break;
+                    batch.add(rawStatistics);
+                }
+
+                if (write(batch)) {
+                    batch.clear();
+                    attempt = 0;
+                } else if (++attempt >= ATTEMPTS) {
+                    log.error("Unable to write {} statistics entries after {} attempts, dropping entries.",
+                            batch.size(), attempt);
+                    batch.clear();
+                    attempt = 0;
+                } else {
+                    Thread.sleep(interval);
+                }
+
+                long count = dropped.getAndSet(0);
+                if (count > 0)
+                    log.warn("Dropped {} statistics entries as queue was full.", count);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Entries of an unfinished batch are written by stop().
+        batch.forEach(queue::offer);
+    }
+
+    private boolean write(List<RawStatistics> batch) {
+        try {
+            rawStatisticsRepository.persist(batch);
+            return true;
+        } catch (Exception e) {
+            log.warn("Unable to write {} statistics entries: {}", batch.size(), e.getMessage());
+            return false;
+        }
+    }
+}
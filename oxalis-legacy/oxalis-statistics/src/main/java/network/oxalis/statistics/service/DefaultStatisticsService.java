@@ -37,6 +37,7 @@ import network.oxalis.api.util.Type;
 import network.oxalis.commons.security.CertificateUtils;
 import network.oxalis.commons.tracing.Traceable;
 import network.oxalis.statistics.api.ChannelId;
+import network.oxalis.statistics.api.RawStatistics;
 import network.oxalis.statistics.api.RawStatisticsRepository;
 import network.oxalis.statistics.model.DefaultRawStatistics;
 
@@ -45,7 +46,7 @@ import network.oxalis.statistics.model.DefaultRawStatistics;
 @Type("default")
 class DefaultStatisticsService extends Traceable implements StatisticsService {
 
-    private final RawStatisticsRepository rawStatisticsRepository;
+    protected final RawStatisticsRepository rawStatisticsRepository;
 
     @Inject
     public DefaultStatisticsService(RawStatisticsRepository rawStatisticsRepository, Tracer tracer) {
@@ -72,7 +73,7 @@ class DefaultStatisticsService extends Traceable implements StatisticsService {
                     .date(transmissionResponse.getTimestamp())  // Time stamp of reception of the receipt
                     .build();
 
-            rawStatisticsRepository.persist(rawStatistics);
+            persist(rawStatistics);
         } catch (Exception ex) {
             span.setTag("exception", String.valueOf(ex.getMessage()));
             log.error("Persisting DefaultRawStatistics about outbound transmission failed : {}", ex.getMessage(), ex);
@@ -98,9 +99,13 @@ class DefaultStatisticsService extends Traceable implements StatisticsService {
                     .channel(new ChannelId(protocolName))
                     .build();
 
-            rawStatisticsRepository.persist(rawStatistics);
+            persist(rawStatistics);
         } catch (Exception e) {
             log.error("Unable to persist statistics for " + inboundMetadata.toString() + ";\n " + e.getMessage(), e);
         }
     }
+
+    protected void persist(RawStatistics rawStatistics) {
+        rawStatisticsRepository.persist(rawStatistics);
+    }
 }
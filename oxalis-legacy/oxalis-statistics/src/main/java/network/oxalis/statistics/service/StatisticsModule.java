@@ -29,6 +29,9 @@ public class StatisticsModule extends OxalisModule {
 
     @Override
     protected void configure() {
+        bindSettings(StatisticsBatchConf.class);
+
         bindTyped(StatisticsService.class, DefaultStatisticsService.class);
+        bindTyped(StatisticsService.class, BatchStatisticsService.class);
     }
 }
@@ -10,4 +10,30 @@ create table if not exists raw_stats(
         channel varchar(255)
 );
 
-grant all on raw_stats to skrue;
\ No newline at end of file
+grant all on raw_stats to skrue;
+
+create table if not exists raw_stats_rollup(
+        id integer generated by default as identity (start with 1) primary key,
+        granularity char(1) not null,
+        period varchar(13) not null,
+        ap varchar(35) not null,
+        direction varchar(8) not null,
+        ppid varchar(35) not null,
+        doc_type varchar(255) not null,
+        profile varchar(255),
+        channel varchar(255),
+        key_hash char(64) not null,
+        total bigint not null,
+        constraint raw_stats_rollup_key unique (key_hash)
+);
+
+create index raw_stats_rollup_period on raw_stats_rollup(granularity, period);
+
+grant all on raw_stats_rollup to skrue;
+
+create table if not exists raw_stats_rollup_mark(
+        name varchar(35) primary key,
+        last_id bigint not null
+);
+
+grant all on raw_stats_rollup_mark to skrue;
@@ -12,3 +12,31 @@ create table if not exists raw_stats(
   profile varchar(255) ,
   channel varchar(255)
 );
+
+/**
+ * Creates the table to hold statistics rolled up by period, used when oxalis.statistics.repository = rollup.
+ */
+create table if not exists raw_stats_rollup(
+  id integer auto_increment primary key,
+  granularity char(1) not null,
+  period varchar(13) not null,
+  ap varchar(35) not null,
+  direction varchar(8) not null,
+  ppid varchar(35) not null,
+  doc_type varchar(255) not null,
+  profile varchar(255),
+  channel varchar(255),
+  key_hash char(64) not null,
+  total bigint not null,
+  constraint raw_stats_rollup_key unique (key_hash)
+);
+
+create index raw_stats_rollup_period on raw_stats_rollup(granularity, period);
+
+/**
+ * Holds the id of the last raw statistics entry rolled up.
+ */
+create table if not exists raw_stats_rollup_mark(
+  name varchar(35) primary key,
+  last_id bigint not null
+);
@@ -28,6 +28,42 @@ BEGIN
     END IF;
 END;
 
+-- Holds statistics rolled up by period, used when oxalis.statistics.repository = rollup.
+
+create sequence raw_stats_rollup_seq start with 1 increment by 1 nocache;
+
+create table raw_stats_rollup (
+  id integer primary key,
+  granularity char(1) not null,
+  period varchar2(13) not null,
+  ap varchar2(35) not null,
+  direction varchar2(8) not null,
+  ppid varchar2(35) not null,
+  doc_type varchar2(255) not null,
+  profile varchar2(255),
+  channel varchar2(255),
+  key_hash char(64) not null,
+  total number(19) not null,
+  constraint raw_stats_rollup_key unique (key_hash)
+);
+
+create index raw_stats_rollup_period on raw_stats_rollup(granularity, period);
+
+CREATE OR REPLACE TRIGGER raw_stats_rollup_trg
+  BEFORE INSERT ON raw_stats_rollup FOR EACH ROW
+BEGIN
+    IF :NEW.id IS NULL THEN
+      SELECT raw_stats_rollup_seq.NEXTVAL INTO :NEW.id FROM DUAL;
+    END IF;
+END;
+
+-- Holds the id of the last raw statistics entry rolled up.
+
+create table raw_stats_rollup_mark (
+  name varchar2(35) primary key,
+  last_id number(19) not null
+);
+
 -- desc raw_stats;
 -- insert into raw_stats (ap, direction, sender, receiver, doc_type) values ('ap', 'OUT', 'sender', 'receiver', 'invoice');
 
@@ -25,6 +25,7 @@ package network.oxalis.statistics.jdbc;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import network.oxalis.statistics.api.ChannelId;
+import network.oxalis.statistics.api.RawStatistics;
 import network.oxalis.statistics.api.RawStatisticsRepository;
 import network.oxalis.statistics.api.StatisticsGranularity;
 import network.oxalis.statistics.guice.RawStatisticsRepositoryModule;
@@ -45,6 +46,11 @@ import org.testng.annotations.Test;
 import javax.sql.DataSource;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
@@ -93,6 +99,47 @@ public class RawStatisticsRepositoryMySqlMockTest {
         repository.persist(rawStatistics);
     }
 
+    @Test
+    public void testPersistBatch() throws Exception {
+        List<RawStatistics> batch = new ArrayList<>();
+        for (int i = 0; i < 250; i++)
+            batch.add(new DefaultRawStatistics.RawStatisticsBuilder()
+                    .accessPointIdentifier(new AccessPointIdentifier("AP_Batch"))
+                    .inbound()
+                    .sender(ParticipantIdentifier.of("9908:810017902"))
+                    .receiver(ParticipantIdentifier.of("9908:" + i))
+                    .channel(new ChannelId("CH01"))
+                    .documentType(PeppolDocumentTypeIdAcronym.INVOICE.toVefa())
+                    .profile(PeppolProcessTypeIdAcronym.INVOICE_ONLY.toVefa())
+                    .build());
+
+        // Two full statements of 100 rows and one statement of 50 rows.
+        repository.persist(batch);
+
+        assertEquals(count("AP_Batch"), 250);
+    }
+
+    @Test
+    public void testPersistSqlQueryText() {
+        RawStatisticsRepositoryMySqlImpl mySql = new RawStatisticsRepositoryMySqlImpl(null);
+        assertEquals(mySql.getPersistSqlQueryText(2), "INSERT INTO raw_stats " +
+                "(ap, tstamp, direction, sender, receiver, doc_type, profile, channel) " +
+                "values (?,?,?,?,?,?,?,?),(?,?,?,?,?,?,?,?)");
+
+        RawStatisticsRepositoryOracleImpl oracle = new RawStatisticsRepositoryOracleImpl(null);
+        assertTrue(oracle.getPersistSqlQueryText(2).startsWith("INSERT ALL INTO raw_stats"));
+        assertTrue(oracle.getPersistSqlQueryText(2).endsWith("SELECT 1 FROM DUAL"));
+    }
+
+    private int count(String accessPoint) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             ResultSet rs = connection.createStatement().executeQuery(
+                     "SELECT COUNT(*) FROM raw_stats WHERE ap = '" + accessPoint + "'")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
     @Test
     public void testMySqlDateFormatYear() throws Exception {
         String s = RawStatisticsRepositoryMySqlImpl.mySqlDateFormat(StatisticsGranularity.YEAR);
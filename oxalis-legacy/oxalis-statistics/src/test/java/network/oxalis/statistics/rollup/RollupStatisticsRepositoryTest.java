@@ -0,0 +1,275 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.statistics.rollup;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import network.oxalis.api.model.AccessPointIdentifier;
+import network.oxalis.persistence.platform.PlatformModule;
+import network.oxalis.persistence.testng.PersistenceModuleFactory;
+import network.oxalis.statistics.api.ChannelId;
+import network.oxalis.statistics.api.RawStatistics;
+import network.oxalis.statistics.api.RawStatisticsRepository;
+import network.oxalis.statistics.api.StatisticsGranularity;
+import network.oxalis.statistics.api.StatisticsTransformer;
+import network.oxalis.statistics.guice.RawStatisticsRepositoryModule;
+import network.oxalis.statistics.model.DefaultRawStatistics;
+import network.oxalis.test.identifier.PeppolDocumentTypeIdAcronym;
+import network.oxalis.test.identifier.PeppolProcessTypeIdAcronym;
+import network.oxalis.vefa.peppol.common.model.ParticipantIdentifier;
+import org.h2.tools.RunScript;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Guice;
+import org.testng.annotations.Test;
+
+import javax.sql.DataSource;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.*;
+
+import static org.testng.Assert.assertEquals;
+
+@Guice(moduleFactory = PersistenceModuleFactory.class,
+        modules = {RawStatisticsRepositoryModule.class, PlatformModule.class})
+public class RollupStatisticsRepositoryTest {
+
+    private static final Date DATE = new GregorianCalendar(2018, Calendar.MARCH, 14, 15, 9).getTime();
+
+    @Inject
+    @Named("raw")
+    private RawStatisticsRepository rawStatisticsRepository;
+
+    @Inject
+    private RollupRepository rollupRepository;
+
+    @Inject
+    private DataSource dataSource;
+
+    @BeforeMethod
+    public void beforeMethod() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            RunScript.execute(connection, new InputStreamReader(
+                    getClass().getResourceAsStream(PersistenceModuleFactory.CREATE_OXALIS_DBMS_H2_SQL),
+                    StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void period() {
+        assertEquals(RollupKey.period(StatisticsGranularity.YEAR, DATE), "2018");
+        assertEquals(RollupKey.period(StatisticsGranularity.MONTH, DATE), "2018-03");
+        assertEquals(RollupKey.period(StatisticsGranularity.DAY, DATE), "2018-03-14");
+        assertEquals(RollupKey.period(StatisticsGranularity.HOUR, DATE), "2018-03-14T15");
+    }
+
+    @Test
+    public void rollupExistingAndNew() throws Exception {
+        // Existing raw statistics, rolled up at first flush.
+        rawStatisticsRepository.persist(Arrays.asList(
+                rawStatistics("9908:810017902", DATE), rawStatistics("9908:810017902", DATE),
+                rawStatistics("9908:987654325", DATE)));
+
+        RollupStatisticsRepository repository =
+                new RollupStatisticsRepository(rawStatisticsRepository, rollupRepository, 3_600_000, 2, 100);
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("2018 9908:810017902", 2);
+        expected.put("2018 9908:987654325", 1);
+
+        // Raw statistics not yet rolled up are reported.
+        assertEquals(fetch(repository, StatisticsGranularity.YEAR, null, null), expected);
+        repository.flush();
+        assertEquals(rollupRepository.mark(), 3);
+        assertEquals(fetch(repository, StatisticsGranularity.YEAR, null, null), expected);
+
+        repository.persist(rawStatistics("9908:810017902", DATE));
+        repository.persist(Collections.singletonList(rawStatistics("9908:810017902",
+                new GregorianCalendar(2018, Calendar.APRIL, 1, 10, 0).getTime())));
+
+        expected.put("2018 9908:810017902", 4);
+        expected.put("2018 9908:987654325", 1);
+        assertEquals(fetch(repository, StatisticsGranularity.YEAR, null, null), expected);
+
+        // Another access point sharing the database, or a restart, continues from the same mark.
+        RollupStatisticsRepository other =
+                new RollupStatisticsRepository(rawStatisticsRepository, rollupRepository, 3_600_000, 2, 100);
+        other.flush();
+        repository.flush();
+        repository.flush();
+        assertEquals(rollupRepository.mark(), 5);
+        assertEquals(fetch(repository, StatisticsGranularity.YEAR, null, null), expected);
+        assertEquals(fetch(other, StatisticsGranularity.YEAR, null, null), expected);
+
+        expected.clear();
+        expected.put("2018-03-14T15 9908:810017902", 3);
+        expected.put("2018-03-14T15 9908:987654325", 1);
+        assertEquals(fetch(repository, StatisticsGranularity.HOUR, DATE, DATE), expected);
+
+        expected.clear();
+        expected.put("2018-04 9908:810017902", 1);
+        assertEquals(fetch(repository, StatisticsGranularity.MONTH,
+                new GregorianCalendar(2018, Calendar.APRIL, 1).getTime(), null), expected);
+
+        // All raw statistics are persisted, and counted once.
+        try (Connection connection = dataSource.getConnection()) {
+            assertEquals(count(connection, "SELECT COUNT(*) FROM raw_stats"), 5);
+            assertEquals(count(connection, "SELECT COUNT(*) FROM raw_stats_rollup WHERE granularity = 'Y'"), 2);
+            assertEquals(count(connection, "SELECT SUM(total) FROM raw_stats_rollup WHERE granularity = 'Y'"), 5);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void backlogExceeded() {
+        rawStatisticsRepository.persist(Arrays.asList(
+                rawStatistics("9908:810017902", DATE), rawStatistics("9908:810017902", DATE),
+                rawStatistics("9908:987654325", DATE)));
+
+        RollupStatisticsRepository repository =
+                new RollupStatisticsRepository(rawStatisticsRepository, rollupRepository, 3_600_000, 2, 2);
+
+        fetch(repository, StatisticsGranularity.YEAR, null, null);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void rolledUpWhileReading() {
+        // Mark moving at every read.
+        RollupRepository moving = new RollupRepository(null) {
+            private long mark;
+
+            @Override
+            public long lastRawStatistics() {
+                return mark;
+            }
+
+            @Override
+            public long mark() {
+                return mark++;
+            }
+
+            @Override
+            public Map<RollupKey, Long> fetch(StatisticsGranularity granularity, String from, String to) {
+                return new HashMap<>();
+            }
+
+            @Override
+            public long scan(long after, long last, int limit, Map<RollupKey, Long> counts) {
+                return -1;
+            }
+        };
+
+        RollupStatisticsRepository repository =
+                new RollupStatisticsRepository(rawStatisticsRepository, moving, 3_600_000, 2, 100);
+
+        fetch(repository, StatisticsGranularity.YEAR, null, null);
+    }
+
+    private static int count(Connection connection, String sql) throws Exception {
+        try (ResultSet rs = connection.createStatement().executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static RawStatistics rawStatistics(String sender, Date date) {
+        return new DefaultRawStatistics.RawStatisticsBuilder()
+                .accessPointIdentifier(new AccessPointIdentifier("AP_Rollup"))
+                .outbound()
+                .sender(ParticipantIdentifier.of(sender))
+                .receiver(ParticipantIdentifier.of("9908:810017902"))
+                .channel(new ChannelId("CH01"))
+                .documentType(PeppolDocumentTypeIdAcronym.INVOICE.toVefa())
+                .profile(PeppolProcessTypeIdAcronym.INVOICE_ONLY.toVefa())
+                .date(date)
+                .build();
+    }
+
+    /**
+     * Fetches counts per period and participant.
+     */
+    private static Map<String, Integer> fetch(RawStatisticsRepository repository, StatisticsGranularity granularity,
+                                              Date start, Date end) {
+        Map<String, Integer> result = new HashMap<>();
+
+        repository.fetchAndTransformRawStatistics(new StatisticsTransformer() {
+
+            private String period;
+
+            private String participant;
+
+            @Override
+            public void startStatistics(Date start, Date end) {
+            }
+
+            @Override
+            public void startEntry() {
+            }
+
+            @Override
+            public void writeAccessPointIdentifier(String accessPointIdentifier) {
+            }
+
+            @Override
+            public void writePeriod(String period) {
+                this.period = period;
+            }
+
+            @Override
+            public void writeDirection(String direction) {
+            }
+
+            @Override
+            public void writeParticipantIdentifier(String participantId) {
+                this.participant = participantId;
+            }
+
+            @Override
+            public void writeDocumentType(String documentType) {
+            }
+
+            @Override
+            public void writeProfileId(String profileId) {
+            }
+
+            @Override
+            public void writeChannel(String channel) {
+            }
+
+            @Override
+            public void writeCount(int count) {
+                result.merge(period + " " + participant, count, Integer::sum);
+            }
+
+            @Override
+            public void endEntry() {
+            }
+
+            @Override
+            public void endStatistics() {
+            }
+        }, start, end, granularity);
+
+        return result;
+    }
+}
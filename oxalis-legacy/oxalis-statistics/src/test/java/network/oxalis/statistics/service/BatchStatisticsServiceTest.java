@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.statistics.service;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.opentracing.noop.NoopTracerFactory;
+import network.oxalis.api.model.AccessPointIdentifier;
+import network.oxalis.statistics.api.ChannelId;
+import network.oxalis.statistics.api.RawStatistics;
+import network.oxalis.statistics.api.RawStatisticsRepository;
+import network.oxalis.statistics.api.StatisticsGranularity;
+import network.oxalis.statistics.api.StatisticsTransformer;
+import network.oxalis.statistics.model.DefaultRawStatistics;
+import network.oxalis.test.identifier.PeppolDocumentTypeIdAcronym;
+import network.oxalis.test.identifier.PeppolProcessTypeIdAcronym;
+import network.oxalis.vefa.peppol.common.model.ParticipantIdentifier;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class BatchStatisticsServiceTest {
+
+    @Test
+    public void writesInBatches() throws Exception {
+        BatchRepository repository = new BatchRepository(0);
+        BatchStatisticsService service = new BatchStatisticsService(
+                repository, NoopTracerFactory.create(), 100, 10, 100);
+
+        for (int i = 0; i < 25; i++)
+            service.persist(rawStatistics());
+
+        Thread.sleep(500);
+
+        assertEquals(repository.persisted(), 25);
+        assertTrue(repository.batches.stream().allMatch(b -> b <= 10));
+        assertTrue(repository.batches.contains(10));
+
+        service.stop();
+    }
+
+    @Test
+    public void retriesFailedBatch() throws Exception {
+        BatchRepository repository = new BatchRepository(2);
+        BatchStatisticsService service = new BatchStatisticsService(
+                repository, NoopTracerFactory.create(), 100, 10, 50);
+
+        for (int i = 0; i < 5; i++)
+            service.persist(rawStatistics());
+
+        Thread.sleep(500);
+
+        assertEquals(repository.attempts.get(), 3);
+        assertEquals(repository.persisted(), 5);
+
+        service.stop();
+    }
+
+    @Test
+    public void dropsWhenQueueIsFull() throws Exception {
+        BatchRepository repository = new BatchRepository(0);
+        repository.blocker = new CountDownLatch(1);
+        BatchStatisticsService service = new BatchStatisticsService(
+                repository, NoopTracerFactory.create(), 5, 1, 50);
+
+        // Writer is blocked while writing the first entry.
+        service.persist(rawStatistics());
+        assertTrue(repository.entered.await(5, TimeUnit.SECONDS));
+
+        // Only five entries fit in queue.
+        for (int i = 0; i < 20; i++)
+            service.persist(rawStatistics());
+
+        repository.blocker.countDown();
+        service.stop();
+
+        assertEquals(repository.persisted(), 6);
+    }
+
+    @Test
+    public void stopWritesWaitingEntries() throws Exception {
+        BatchRepository repository = new BatchRepository(0);
+        BatchStatisticsService service = new BatchStatisticsService(
+                repository, NoopTracerFactory.create(), 100, 10, 10_000);
+
+        for (int i = 0; i < 3; i++)
+            service.persist(rawStatistics());
+
+        service.stop();
+
+        assertEquals(repository.persisted(), 3);
+    }
+
+    private static RawStatistics rawStatistics() {
+        return new DefaultRawStatistics.RawStatisticsBuilder()
+                .accessPointIdentifier(new AccessPointIdentifier("AP_Batch"))
+                .inbound()
+                .sender(ParticipantIdentifier.of("9908:810017902"))
+                .receiver(ParticipantIdentifier.of("9908:810017902"))
+                .channel(new ChannelId("CH01"))
+                .documentType(PeppolDocumentTypeIdAcronym.INVOICE.toVefa())
+                .profile(PeppolProcessTypeIdAcronym.INVOICE_ONLY.toVefa())
+                .build();
+    }
+
+    private static class BatchRepository implements RawStatisticsRepository {
+
+        private final List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        private volatile int failures;
+
+        private volatile CountDownLatch blocker;
+
+        public BatchRepository(int failures) {
+            this.failures = failures;
+        }
+
+        public int persisted() {
+            return batches.stream().mapToInt(Integer::intValue).sum();
+        }
+
+        @Override
+        public Integer persist(RawStatistics rawStatistics) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void persist(List<RawStatistics> rawStatistics) {
+            entered.countDown();
+            if (blocker != null)
+                Uninterruptibles.awaitUninterruptibly(blocker);
+
+            if (attempts.incrementAndGet() <= failures)
+                throw new IllegalStateException("Database unavailable.");
+
+            batches.add(rawStatistics.size());
+        }
+
+        @Override
+        public void fetchAndTransformRawStatistics(StatisticsTransformer transformer, Date start, Date end,
+                                                   StatisticsGranularity granularity) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
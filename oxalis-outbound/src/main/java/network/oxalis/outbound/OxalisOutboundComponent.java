@@ -25,6 +25,7 @@ package network.oxalis.outbound;
 import com.google.inject.Injector;
 import network.oxalis.api.evidence.EvidenceFactory;
 import network.oxalis.api.lookup.LookupService;
+import network.oxalis.api.outbound.BulkTransmissionService;
 import network.oxalis.api.outbound.TransmissionService;
 import network.oxalis.api.outbound.Transmitter;
 import network.oxalis.commons.guice.GuiceModuleLoader;
@@ -90,4 +91,14 @@ public class OxalisOutboundComponent {
     public TransmissionService getTransmissionService() {
         return injector.getInstance(TransmissionService.class);
     }
+
+    /**
+     * Retrieves instance of BulkTransmissionService, for sending many documents concurrently.
+     *
+     * @return instance of BulkTransmissionService
+     * @since 6.5.1
+     */
+    public BulkTransmissionService getBulkTransmissionService() {
+        return injector.getInstance(BulkTransmissionService.class);
+    }
 }
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.outbound.lookup;
+
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.vefa.peppol.common.model.*;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only file of endpoints found using lookup, loaded at startup.
+ * <p>
+ * Each record contains the identifiers looked up, transport profile, address, certificate and time of expiry.
+ * An endpoint found again unchanged is only written when the expiry in the file is more than halfway passed.
+ * The file is compacted when loaded, and when most records are replaced, keeping only the last record of each
+ * lookup not yet expired.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+class EndpointStore implements Closeable {
+
+    private static final int VERSION = 1;
+
+    /**
+     * Records written before compaction is considered.
+     */
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final Map<CachedLookupService.HeaderStub, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Path path;
+
+    private DataOutputStream outputStream;
+
+    /**
+     * Records in file.
+     */
+    private int records;
+
+    /**
+     * Guards writing to the file, without pinning virtual threads while writing.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    public EndpointStore(Path path) throws IOException {
+        this.path = path;
+
+        if (Files.exists(path))
+            read(path);
+
+        compact();
+
+        log.info("Loaded {} endpoint(s) from '{}'.", entries.size(), path);
+    }
+
+    /**
+     * Returns endpoint stored for lookup, unless expired.
+     */
+    public Endpoint get(CachedLookupService.HeaderStub header) {
+        Entry entry = entries.get(header);
+
+        if (entry == null || entry.isExpired())
+            return null;
+
+        return entry.endpoint;
+    }
+
+    public void put(CachedLookupService.HeaderStub header, Endpoint endpoint, long expires)
+            throws IOException {
+        lock.lock();
+        try {
+            Entry previous = entries.get(header);
+            long now = System.currentTimeMillis();
+
+            if (previous != null && previous.endpoint.equals(endpoint)
+                    && previous.written - now > (expires - now) / 2) {
+                // Unchanged endpoint, expiry in file is still good enough.
+                entries.put(header, new Entry(endpoint, expires, previous.written));
+                return;
+            }
+
+            Entry entry = new Entry(endpoint, expires, expires);
+            write(outputStream, header, entry);
+            outputStream.flush();
+            records++;
+
+            entries.put(header, entry);
+
+            if (records > COMPACT_THRESHOLD && records > 2 * entries.size()) {
+                outputStream.close();
+                try {
+                    compact();
+                } catch (IOException e) {
+                    log.warn("Unable to compact '{}'.", path, e);
+                    outputStream = new DataOutputStream(new BufferedOutputStream(
+                            Files.newOutputStream(path, StandardOpenOption.APPEND)));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            outputStream.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites file keeping only current entries not expired, and opens file for appending.
+     */
+    private void compact() throws IOException {
+        entries.values().removeIf(Entry::isExpired);
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream outputStream = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            outputStream.writeInt(VERSION);
+            for (Map.Entry<CachedLookupService.HeaderStub, Entry> entry : entries.entrySet())
+                write(outputStream, entry.getKey(), entry.getValue());
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Expiry of each entry is now in file.
+        entries.replaceAll((header, entry) -> new Entry(entry.endpoint, entry.expires, entry.expires));
+        records = entries.size();
+
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path, StandardOpenOption.APPEND)));
+    }
+
+    private void read(Path path) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))) {
+            if (inputStream.readInt() != VERSION) {
+                log.warn("Unknown format of '{}', ignoring content.", path);
+                return;
+            }
+
+            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+
+            while (true) {
+                CachedLookupService.HeaderStub header = new CachedLookupService.HeaderStub(Header.newInstance()
+                        .receiver(ParticipantIdentifier.of(inputStream.readUTF(), Scheme.of(inputStream.readUTF())))
+                        .documentType(DocumentTypeIdentifier.of(inputStream.readUTF(),
+                                Scheme.of(inputStream.readUTF())))
+                        .process(ProcessIdentifier.of(inputStream.readUTF(), Scheme.of(inputStream.readUTF()))));
+
+                TransportProfile transportProfile = TransportProfile.of(inputStream.readUTF());
+                URI address = URI.create(inputStream.readUTF());
+
+                byte[] encoded = new byte[inputStream.readInt()];
+                inputStream.readFully(encoded);
+                X509Certificate certificate = encoded.length == 0 ? null : (X509Certificate)
+                        certificateFactory.generateCertificate(new ByteArrayInputStream(encoded));
+
+                long expires = inputStream.readLong();
+                Entry entry = new Entry(Endpoint.of(transportProfile, address, certificate), expires, expires);
+
+                if (entry.isExpired())
+                    entries.remove(header);
+                else
+                    entries.put(header, entry);
+            }
+        } catch (EOFException e) {
+            // End of file, including incomplete last record.
+        } catch (CertificateException | IllegalArgumentException e) {
+            log.warn("Unable to read all endpoints from '{}': {}", path, e.getMessage());
+        }
+    }
+
+    private static void write(DataOutputStream outputStream, CachedLookupService.HeaderStub header, Entry entry)
+            throws IOException {
+        // Written to buffer first to avoid incomplete records in file.
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (DataOutputStream record = new DataOutputStream(byteArrayOutputStream)) {
+            writeIdentifier(record, header.getReceiver());
+            writeIdentifier(record, header.getDocumentType());
+            writeIdentifier(record, header.getProcess());
+
+            record.writeUTF(entry.endpoint.getTransportProfile().getIdentifier());
+            record.writeUTF(entry.endpoint.getAddress().toString());
+
+            byte[] encoded = entry.endpoint.getCertificate() == null ?
+                    new byte[0] : entry.endpoint.getCertificate().getEncoded();
+            record.writeInt(encoded.length);
+            record.write(encoded);
+
+            record.writeLong(entry.expires);
+        } catch (CertificateEncodingException e) {
+            throw new IOException("Unable to encode certificate.", e);
+        }
+
+        byteArrayOutputStream.writeTo(outputStream);
+    }
+
+    private static void writeIdentifier(DataOutputStream outputStream, AbstractQualifiedIdentifier identifier)
+            throws IOException {
+        outputStream.writeUTF(identifier.getIdentifier());
+        outputStream.writeUTF(identifier.getScheme().getIdentifier());
+    }
+
+    private static class Entry {
+
+        private final Endpoint endpoint;
+
+        private final long expires;
+
+        /**
+         * Expiry written to file.
+         */
+        private final long written;
+
+        public Entry(Endpoint endpoint, long expires, long written) {
+            this.endpoint = endpoint;
+            this.expires = expires;
+            this.written = written;
+        }
+
+        public boolean isExpired() {
+            return expires < System.currentTimeMillis();
+        }
+    }
+}
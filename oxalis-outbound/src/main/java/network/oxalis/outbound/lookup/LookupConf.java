@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.outbound.lookup;
+
+import network.oxalis.api.settings.DefaultValue;
+import network.oxalis.api.settings.Path;
+import network.oxalis.api.settings.Title;
+
+/**
+ * Settings for caching of lookups. Durations are in seconds.
+ *
+ * @since 6.5.1
+ */
+@Title("Lookup")
+public enum LookupConf {
+
+    /**
+     * Maximum number of endpoints kept in cache.
+     */
+    @Path("oxalis.lookup.cache.size")
+    @DefaultValue("1000")
+    CACHE_SIZE,
+
+    /**
+     * Time before an endpoint is removed from cache, unless refreshed.
+     */
+    @Path("oxalis.lookup.cache.expire")
+    @DefaultValue("900")
+    CACHE_EXPIRE,
+
+    /**
+     * Time before an endpoint is refreshed in the background when requested.
+     */
+    @Path("oxalis.lookup.cache.refresh")
+    @DefaultValue("240")
+    CACHE_REFRESH,
+
+    /**
+     * Time failed lookups are kept in cache.
+     */
+    @Path("oxalis.lookup.cache.negative")
+    @DefaultValue("30")
+    CACHE_NEGATIVE,
+
+    /**
+     * File used by the persistent lookup service, relative to home folder.
+     */
+    @Path("oxalis.lookup.cache.file")
+    @DefaultValue("lookup.cache")
+    CACHE_FILE,
+
+    /**
+     * Time endpoints are kept in file used by the persistent lookup service.
+     */
+    @Path("oxalis.lookup.cache.file_expire")
+    @DefaultValue("86400")
+    CACHE_FILE_EXPIRE,
+
+    /**
+     * Interval between logging of cache statistics, zero to disable.
+     */
+    @Path("oxalis.lookup.cache.statistics")
+    @DefaultValue("3600")
+    CACHE_STATISTICS,
+}
@@ -46,6 +46,10 @@ public class LookupModule extends OxalisModule {
     protected void configure() {
         bindTyped(LookupService.class, CachedLookupService.class);
         bindTyped(LookupService.class, DefaultLookupService.class);
+        bindTyped(LookupService.class, PersistentLookupService.class);
+        bindTyped(LookupService.class, RefreshingLookupService.class);
+
+        bindSettings(LookupConf.class);
 
         bind(MetadataFetcher.class)
                 .to(OxalisApacheFetcher.class);
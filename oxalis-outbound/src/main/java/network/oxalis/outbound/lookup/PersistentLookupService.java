@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.outbound.lookup;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.settings.Settings;
+import network.oxalis.api.util.Type;
+import network.oxalis.vefa.peppol.common.model.TransportProfile;
+import network.oxalis.vefa.peppol.lookup.LookupClient;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extension of {@link RefreshingLookupService} keeping endpoints found in a file, making them available
+ * immediately after restart.
+ * <p>
+ * Endpoints loaded from file are used without lookup, and are looked up again in the background the first time
+ * they are used.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+@Singleton
+@Type("persistent")
+class PersistentLookupService extends RefreshingLookupService {
+
+    private final EndpointStore endpointStore;
+
+    private final long fileExpire;
+
+    @Inject
+    public PersistentLookupService(LookupClient lookupClient,
+                                   @Named("prioritized") List<TransportProfile> transportProfiles,
+                                   @Named("default") ExecutorService executor, Settings<LookupConf> settings,
+                                   @Named("home") Path homeFolder) throws IOException {
+        super(lookupClient, transportProfiles, executor, settings);
+
+        this.endpointStore = new EndpointStore(settings.getPath(LookupConf.CACHE_FILE, homeFolder));
+        this.fileExpire = TimeUnit.SECONDS.toMillis(settings.getInt(LookupConf.CACHE_FILE_EXPIRE));
+    }
+
+    @Override
+    public Result load(CachedLookupService.HeaderStub header) {
+        Result stored = new Result(endpointStore.get(header));
+
+        if (stored.getEndpoint() == null)
+            return fetch(header);
+
+        // Revalidates endpoint in the background, keeping stored endpoint if lookup fails.
+        executor.execute(() -> {
+            Result result = fetch(header);
+            if (result.isSuccess())
+                cache.put(header, result);
+        });
+
+        return stored;
+    }
+
+    @Override
+    protected Result fetch(CachedLookupService.HeaderStub header) {
+        Result result = super.fetch(header);
+
+        if (result.isSuccess()) {
+            try {
+                endpointStore.put(header, result.getEndpoint(), System.currentTimeMillis() + fileExpire);
+            } catch (IOException e) {
+                log.warn("Unable to store endpoint: {}", e.getMessage());
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.outbound.lookup;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import io.opentracing.Span;
+import lombok.extern.slf4j.Slf4j;
+import network.oxalis.api.lang.OxalisTransmissionException;
+import network.oxalis.api.lookup.LookupService;
+import network.oxalis.api.settings.Settings;
+import network.oxalis.api.util.Type;
+import network.oxalis.vefa.peppol.common.lang.EndpointNotFoundException;
+import network.oxalis.vefa.peppol.common.model.Endpoint;
+import network.oxalis.vefa.peppol.common.model.Header;
+import network.oxalis.vefa.peppol.common.model.TransportProfile;
+import network.oxalis.vefa.peppol.lookup.LookupClient;
+import network.oxalis.vefa.peppol.lookup.api.LookupException;
+import network.oxalis.vefa.peppol.security.lang.PeppolSecurityException;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caching implementation of {@link LookupService} refreshing endpoints in the background.
+ * <p>
+ * Endpoints requested after the refresh time are returned from cache while a new lookup is performed in the
+ * background, so frequently used endpoints are not looked up on the sending thread. Failed lookups are cached for
+ * a short time, and concurrent requests for the same endpoint share one lookup.
+ *
+ * @since 6.5.1
+ */
+@Slf4j
+@Singleton
+@Type("refreshing")
+class RefreshingLookupService extends CacheLoader<CachedLookupService.HeaderStub, RefreshingLookupService.Result>
+        implements LookupService {
+
+    private final LookupClient lookupClient;
+
+    private final TransportProfile[] transportProfiles;
+
+    protected final Executor executor;
+
+    private final long negativeNanos;
+
+    private final long statisticsNanos;
+
+    protected final LoadingCache<CachedLookupService.HeaderStub, Result> cache;
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private volatile long lastStatistics = System.nanoTime();
+
+    @Inject
+    public RefreshingLookupService(LookupClient lookupClient,
+                                   @Named("prioritized") List<TransportProfile> transportProfiles,
+                                   @Named("default") ExecutorService executor, Settings<LookupConf> settings) {
+        this.lookupClient = lookupClient;
+        this.transportProfiles = transportProfiles.toArray(new TransportProfile[transportProfiles.size()]);
+        this.executor = executor;
+        this.negativeNanos = TimeUnit.SECONDS.toNanos(settings.getInt(LookupConf.CACHE_NEGATIVE));
+        this.statisticsNanos = TimeUnit.SECONDS.toNanos(settings.getInt(LookupConf.CACHE_STATISTICS));
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(settings.getInt(LookupConf.CACHE_SIZE))
+                .expireAfterWrite(settings.getInt(LookupConf.CACHE_EXPIRE), TimeUnit.SECONDS)
+                .refreshAfterWrite(settings.getInt(LookupConf.CACHE_REFRESH), TimeUnit.SECONDS)
+                .recordStats()
+                .build(this);
+    }
+
+    @Override
+    public Endpoint lookup(Header header) throws OxalisTransmissionException {
+        return lookup(header, null);
+    }
+
+    @Override
+    public Endpoint lookup(Header header, Span root) throws OxalisTransmissionException {
+        CachedLookupService.HeaderStub key = new CachedLookupService.HeaderStub(header);
+
+        try {
+            if (root != null)
+                root.setTag("lookup cache", cache.asMap().containsKey(key) ? "hit" : "miss");
+
+            Result result = cache.get(key);
+
+            // Failed lookup no longer to be used, performs a new lookup.
+            if (result.isExpired() && cache.asMap().remove(key, result))
+                result = cache.get(key);
+
+            return result.get();
+        } catch (ExecutionException e) {
+            throw new OxalisTransmissionException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            logStatistics();
+        }
+    }
+
+    /**
+     * Statistics of the cache, including hits, misses and time spent performing lookups.
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public Result load(CachedLookupService.HeaderStub header) {
+        return fetch(header);
+    }
+
+    /**
+     * Performs lookup of endpoint.
+     */
+    protected Result fetch(CachedLookupService.HeaderStub header) {
+        try {
+            return new Result(lookupClient.getEndpoint(header.getReceiver(), header.getDocumentType(),
+                    header.getProcess(), transportProfiles));
+        } catch (LookupException | PeppolSecurityException | EndpointNotFoundException e) {
+            failures.incrementAndGet();
+            return new Result(e, System.nanoTime() + negativeNanos);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Result> reload(CachedLookupService.HeaderStub header, Result oldValue) {
+        ListenableFutureTask<Result> task = ListenableFutureTask.create(() -> {
+            Result result = fetch(header);
+
+            // Keeps the endpoint known until it expires if lookup fails during refresh.
+            if (oldValue.isSuccess() && !result.isSuccess())
+                throw result.cause;
+
+            return result;
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    private void logStatistics() {
+        long now = System.nanoTime();
+        long last = lastStatistics;
+
+        if (statisticsNanos > 0 && now - last > statisticsNanos && log.isInfoEnabled()) {
+            lastStatistics = now;
+
+            CacheStats stats = cache.stats();
+            log.info("Lookup cache: {} entries, {} hits, {} misses, {} failed lookups, {} ms average lookup.",
+                    cache.size(), stats.hitCount(), stats.missCount(), failures.get(),
+                    TimeUnit.NANOSECONDS.toMillis((long) stats.averageLoadPenalty()));
+        }
+    }
+
+    /**
+     * Result of lookup, either an endpoint or the cause of failed lookup.
+     */
+    static class Result {
+
+        private final Endpoint endpoint;
+
+        private final Exception cause;
+
+        private final long expires;
+
+        public Result(Endpoint endpoint) {
+            this.endpoint = endpoint;
+            this.cause = null;
+            this.expires = 0;
+        }
+
+        public Result(Exception cause, long expires) {
+            this.endpoint = null;
+            this.cause = cause;
+            this.expires = expires;
+        }
+
+        public boolean isSuccess() {
+            return cause == null;
+        }
+
+        Endpoint getEndpoint() {
+            return endpoint;
+        }
+
+        public boolean isExpired() {
+            return !isSuccess() && System.nanoTime() - expires > 0;
+        }
+
+        public Endpoint get() throws OxalisTransmissionException {
+            if (cause != null)
+                throw new OxalisTransmissionException(cause.getMessage(), cause);
+
+            return endpoint;
+        }
+    }
+}
@@ -25,15 +25,12 @@ package network.oxalis.outbound.transformer;
 import network.oxalis.api.lang.OxalisContentException;
 import network.oxalis.api.transformer.ContentWrapper;
 import network.oxalis.api.util.Type;
+import network.oxalis.commons.transformer.SbdhWrappingInputStream;
 import network.oxalis.vefa.peppol.common.model.Header;
-import network.oxalis.vefa.peppol.sbdh.SbdWriter;
 import network.oxalis.vefa.peppol.sbdh.lang.SbdhException;
-import network.oxalis.vefa.peppol.sbdh.util.XMLStreamUtils;
 
 import javax.inject.Singleton;
 import javax.xml.stream.XMLStreamException;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -45,15 +42,19 @@ import java.io.InputStream;
 @Type("xml")
 public class XmlContentWrapper implements ContentWrapper {
 
+    /**
+     * Returns content wrapped in SBDH, created while the returned stream is read. The given stream is closed when
+     * the returned stream is read or closed.
+     * <p>
+     * Only the prolog and start of the document element are validated here. Malformed content after that point is
+     * reported as an {@link IOException} while reading the returned stream.
+     */
     @Override
     public InputStream wrap(InputStream inputStream, Header header) throws IOException, OxalisContentException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        try (SbdWriter sbdWriter = SbdWriter.newInstance(outputStream, header)) {
-            XMLStreamUtils.copy(inputStream, sbdWriter.xmlWriter());
+        try {
+            return new SbdhWrappingInputStream(inputStream, header);
         } catch (SbdhException | XMLStreamException e) {
             throw new OxalisContentException("Unable to wrap content into SBDH.", e);
         }
-
-        return new ByteArrayInputStream(outputStream.toByteArray());
     }
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.outbound.transmission;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import network.oxalis.api.error.ErrorTracker;
+import network.oxalis.api.lang.OxalisTransmissionException;
+import network.oxalis.api.lookup.LookupService;
+import network.oxalis.api.model.Direction;
+import network.oxalis.api.outbound.*;
+import network.oxalis.api.settings.Settings;
+import network.oxalis.api.tag.Tag;
+import network.oxalis.commons.http.RouteLimits;
+import network.oxalis.commons.tracing.Traceable;
+import network.oxalis.vefa.peppol.common.model.Endpoint;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Default implementation of {@link BulkTransmissionService}.
+ * <p>
+ * Each document is read and looked up using the default executor, while transmissions are performed using the
+ * transmission executor, allowing lookup of the next documents while previous documents are transmitted.
+ * Transmissions are grouped by the address of the receiving access point, and each group is limited to
+ * the number of connections allowed per route in the HTTP connection pool.
+ *
+ * @since 6.5.1
+ */
+@Singleton
+class DefaultBulkTransmissionService extends Traceable implements BulkTransmissionService {
+
+    private final TransmissionRequestFactory transmissionRequestFactory;
+
+    private final LookupService lookupService;
+
+    private final Transmitter transmitter;
+
+    private final ErrorTracker errorTracker;
+
+    private final ExecutorService lookupExecutor;
+
+    private final ExecutorService transmissionExecutor;
+
+    private final RouteLimits routeLimits;
+
+    private final Semaphore queue;
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    @Inject
+    public DefaultBulkTransmissionService(TransmissionRequestFactory transmissionRequestFactory,
+                                          LookupService lookupService, Transmitter transmitter,
+                                          ErrorTracker errorTracker, Tracer tracer,
+                                          @Named("default") ExecutorService lookupExecutor,
+                                          @Named("transmission") ExecutorService transmissionExecutor,
+                                          RouteLimits routeLimits, Settings<BulkConf> settings) {
+        this(transmissionRequestFactory, lookupService, transmitter, errorTracker, tracer,
+                lookupExecutor, transmissionExecutor, routeLimits, settings.getInt(BulkConf.QUEUE));
+    }
+
+    DefaultBulkTransmissionService(TransmissionRequestFactory transmissionRequestFactory,
+                                   LookupService lookupService, Transmitter transmitter,
+                                   ErrorTracker errorTracker, Tracer tracer,
+                                   ExecutorService lookupExecutor, ExecutorService transmissionExecutor,
+                                   RouteLimits routeLimits, int queue) {
+        super(tracer);
+        this.transmissionRequestFactory = transmissionRequestFactory;
+        this.lookupService = lookupService;
+        this.transmitter = transmitter;
+        this.errorTracker = errorTracker;
+        this.lookupExecutor = lookupExecutor;
+        this.transmissionExecutor = transmissionExecutor;
+        this.routeLimits = routeLimits;
+        this.queue = new Semaphore(Math.max(1, queue));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<TransmissionResponse> send(InputStream inputStream, Tag tag) {
+        return submit(root -> {
+            try (InputStream content = inputStream) {
+                return transmissionRequestFactory.newInstance(content, tag, root);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<TransmissionResponse> send(TransmissionMessage transmissionMessage) {
+        return submit(root -> transmissionMessage);
+    }
+
+    private CompletableFuture<TransmissionResponse> submit(Preparer preparer) {
+        // Wait for room in queue.
+        try {
+            queue.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            CompletableFuture<TransmissionResponse> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        Span root = tracer.buildSpan("BulkTransmissionService").start();
+
+        try {
+            return CompletableFuture.supplyAsync(() -> prepare(preparer, root), lookupExecutor)
+                    .thenCompose(transmissionRequest -> getRoute(transmissionRequest.getEndpoint())
+                            .submit(() -> transmitter.transmit(transmissionRequest, root)))
+                    .whenComplete((transmissionResponse, throwable) -> {
+                        root.finish();
+                        queue.release();
+                    });
+        } catch (RejectedExecutionException e) {
+            root.finish();
+            queue.release();
+            throw e;
+        }
+    }
+
+    private TransmissionRequest prepare(Preparer preparer, Span root) {
+        try {
+            TransmissionMessage transmissionMessage = preparer.prepare(root);
+
+            if (transmissionMessage instanceof TransmissionRequest)
+                return (TransmissionRequest) transmissionMessage;
+
+            // Perform lookup using header.
+            Span span = tracer.buildSpan("Fetch endpoint information").asChildOf(root).start();
+            try {
+                Endpoint endpoint = lookupService.lookup(transmissionMessage.getHeader(), span);
+                span.setTag("transport profile", endpoint.getTransportProfile().getIdentifier());
+                return new DefaultTransmissionRequest(transmissionMessage, endpoint);
+            } catch (OxalisTransmissionException e) {
+                span.setTag("exception", e.getMessage());
+                errorTracker.track(Direction.OUT, e, true);
+                throw e;
+            } finally {
+                span.finish();
+            }
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private Route getRoute(Endpoint endpoint) {
+        URI address = endpoint.getAddress();
+        return routes.computeIfAbsent(
+                String.format("%s://%s:%s", address.getScheme(), address.getHost(), address.getPort()),
+                key -> new Route(address));
+    }
+
+    @FunctionalInterface
+    private interface Preparer {
+        TransmissionMessage prepare(Span root) throws Exception;
+    }
+
+    /**
+     * Transmissions towards a single receiving access point, of which only as many are active at the same time as
+     * the connection pool allows for the route. Transmissions above the limit wait in line without occupying a thread.
+     */
+    private class Route {
+
+        private final URI address;
+
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+
+        private int active;
+
+        public Route(URI address) {
+            this.address = address;
+        }
+
+        public CompletableFuture<TransmissionResponse> submit(Callable<TransmissionResponse> task) {
+            CompletableFuture<TransmissionResponse> future = new CompletableFuture<>();
+
+            Runnable runnable = () -> {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    next();
+                }
+            };
+
+            synchronized (this) {
+                if (active >= getLimit()) {
+                    waiting.add(runnable);
+                    routeLimits.waiting(address);
+                    return future;
+                }
+
+                active++;
+            }
+
+            execute(runnable);
+            return future;
+        }
+
+        private void next() {
+            List<Runnable> runnables = new ArrayList<>();
+
+            synchronized (this) {
+                active--;
+
+                // Limit may have been raised since transmissions were put in line.
+                int limit = getLimit();
+                while (active < limit && !waiting.isEmpty()) {
+                    runnables.add(waiting.poll());
+                    active++;
+                }
+            }
+
+            runnables.forEach(this::execute);
+        }
+
+        private int getLimit() {
+            return Math.max(1, routeLimits.getLimit(address));
+        }
+
+        private void execute(Runnable runnable) {
+            try {
+                transmissionExecutor.execute(runnable);
+            } catch (RejectedExecutionException e) {
+                // Executor is shut down, so the transmission is run by the current thread.
+                runnable.run();
+            }
+        }
+    }
+}
@@ -24,8 +24,10 @@ package network.oxalis.outbound.transmission;
 
 import network.oxalis.api.tag.Tag;
 import network.oxalis.api.outbound.TransmissionMessage;
+import network.oxalis.commons.io.RewindableContent;
 import network.oxalis.vefa.peppol.common.model.Header;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 
@@ -49,6 +51,14 @@ class DefaultTransmissionMessage implements TransmissionMessage, Serializable {
         this.payload = payload;
     }
 
+    /**
+     * Creates message reading payload from the given content. Content may be closed after the message is created, as
+     * the payload keeps content available until read or closed.
+     */
+    public DefaultTransmissionMessage(Header header, RewindableContent content, Tag tag) throws IOException {
+        this(header, content.newInputStream(), tag);
+    }
+
     @Override
     public Tag getTag() {
         return tag;
@@ -24,6 +24,7 @@ package network.oxalis.outbound.transmission;
 
 import com.google.inject.Provides;
 import com.google.inject.name.Named;
+import network.oxalis.api.outbound.BulkTransmissionService;
 import network.oxalis.api.outbound.TransmissionService;
 import network.oxalis.api.outbound.Transmitter;
 import network.oxalis.api.transformer.ContentWrapper;
@@ -56,6 +57,13 @@ public class TransmissionModule extends OxalisModule {
         bind(TransmissionService.class)
                 .to(DefaultTransmissionService.class);
 
+        bindSettings(BulkConf.class);
+
+        bindSettings(PayloadConf.class);
+
+        bind(BulkTransmissionService.class)
+                .to(DefaultBulkTransmissionService.class);
+
         bind(MessageSenderFactory.class)
                 .asEagerSingleton();
 
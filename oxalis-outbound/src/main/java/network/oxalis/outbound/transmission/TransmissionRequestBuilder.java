@@ -22,7 +22,6 @@
 
 package network.oxalis.outbound.transmission;
 
-import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import io.opentracing.Span;
 import io.opentracing.Tracer;
@@ -33,15 +32,17 @@ import network.oxalis.api.lang.OxalisTransmissionException;
 import network.oxalis.api.lookup.LookupService;
 import network.oxalis.api.model.Direction;
 import network.oxalis.api.outbound.TransmissionRequest;
+import network.oxalis.api.settings.Settings;
 import network.oxalis.api.tag.Tag;
 import network.oxalis.api.tag.TagGenerator;
 import network.oxalis.api.transformer.ContentDetector;
+import network.oxalis.commons.header.HeaderInputStream;
+import network.oxalis.commons.io.RewindableContent;
 import network.oxalis.sniffer.PeppolStandardBusinessHeader;
 import network.oxalis.sniffer.identifier.InstanceId;
 import network.oxalis.sniffer.sbdh.SbdhWrapper;
 import network.oxalis.vefa.peppol.common.model.*;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -71,10 +72,17 @@ public class TransmissionRequestBuilder {
 
     private boolean allowOverride;
 
+    private final int memory;
+
     /**
      * Will contain the payload PEPPOL document
      */
-    private byte[] payload;
+    private RewindableContent payload;
+
+    /**
+     * Header parsed from the payload while saving it, or null when the payload does not contain an SBDH
+     */
+    private Header parsedHeader;
 
     /**
      * The address of the endpoint either supplied by the caller or looked up in the SMP
@@ -96,17 +104,25 @@ public class TransmissionRequestBuilder {
 
     @Inject
     public TransmissionRequestBuilder(ContentDetector contentDetector, LookupService lookupService,
-                                      TagGenerator tagGenerator, HeaderParser headerParser, Tracer tracer) {
+                                      TagGenerator tagGenerator, HeaderParser headerParser, Tracer tracer,
+                                      Settings<PayloadConf> settings) {
         this.contentDetector = contentDetector;
         this.lookupService = lookupService;
         this.tagGenerator = tagGenerator;
         this.headerParser = headerParser;
         this.tracer = tracer;
+        this.memory = settings.getInt(PayloadConf.MEMORY);
     }
 
     public void reset() {
         suppliedHeaderFields = new PeppolStandardBusinessHeader();
         effectiveStandardBusinessHeader = null;
+
+        // Content of payload not handed out is released.
+        if (payload != null)
+            payload.close();
+        payload = null;
+        parsedHeader = null;
     }
 
     /**
@@ -182,19 +198,17 @@ public class TransmissionRequestBuilder {
      * and allow override if global "overrideAllowed" flag is set.</li>
      * </ol>
      *
+     * The payload is handed over to the transmission request, and must be provided again before building another
+     * request.
+     *
      * @return Prepared transmission request.
      */
     public TransmissionRequest build() throws OxalisTransmissionException, OxalisContentException {
-        if (payload.length < 2)
+        if (payload == null || payload.size() < 2)
             throw new OxalisTransmissionException("You have forgotten to provide payload");
 
-        PeppolStandardBusinessHeader optionalParsedSbdh = null;
-        try {
-            optionalParsedSbdh =
-                    new PeppolStandardBusinessHeader(headerParser.parse(new ByteArrayInputStream(payload)));
-        } catch (OxalisContentException e) {
-            // No action.
-        }
+        PeppolStandardBusinessHeader optionalParsedSbdh =
+                parsedHeader == null ? null : new PeppolStandardBusinessHeader(parsedHeader);
 
         // Calculates the effectiveStandardBusinessHeader to be used
         effectiveStandardBusinessHeader = makeEffectiveSbdh(
@@ -217,13 +231,23 @@ public class TransmissionRequestBuilder {
         // make sure payload is encapsulated in SBDH
         if (optionalParsedSbdh == null) {
             // Wraps the payload with an SBDH, as this is required for AS2
-            payload = wrapPayLoadWithSBDH(new ByteArrayInputStream(payload), effectiveStandardBusinessHeader);
+            RewindableContent wrapped = wrapPayLoadWithSBDH(effectiveStandardBusinessHeader);
+            payload.close();
+            payload = wrapped;
+            parsedHeader = effectiveStandardBusinessHeader.toVefa();
         }
 
         // Transfers all the properties of this object into the newly created TransmissionRequest
-        return new DefaultTransmissionRequest(
-                getEffectiveStandardBusinessHeader().toVefa(), getPayload(),
-                getEndpoint(), tagGenerator.generate(Direction.OUT, tag));
+        InputStream inputStream = getPayload();
+        try {
+            return new DefaultTransmissionRequest(
+                    getEffectiveStandardBusinessHeader().toVefa(), inputStream,
+                    getEndpoint(), tagGenerator.generate(Direction.OUT, tag));
+        } finally {
+            // Content is kept until the reader handed out is closed or read to the end.
+            payload.close();
+            payload = null;
+        }
     }
 
     /**
@@ -271,7 +295,11 @@ public class TransmissionRequestBuilder {
         if (optionallyParsedSbdh.isPresent())
             return optionallyParsedSbdh.get();
 
-        return new PeppolStandardBusinessHeader(contentDetector.parse(new ByteArrayInputStream(payload)));
+        try (InputStream inputStream = getPayload()) {
+            return new PeppolStandardBusinessHeader(contentDetector.parse(inputStream));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read the payload: " + e.getMessage(), e);
+        }
     }
 
     /**
@@ -346,15 +374,31 @@ public class TransmissionRequestBuilder {
     }
 
     protected void savePayLoad(InputStream inputStream) {
+        // Header is parsed from the first bytes while the payload is read.
+        HeaderInputStream headerInputStream = new HeaderInputStream(inputStream, headerParser);
         try {
-            payload = ByteStreams.toByteArray(inputStream);
+            try {
+                parsedHeader = headerInputStream.getHeader();
+            } catch (OxalisContentException e) {
+                parsedHeader = null;
+            }
+
+            // Content of previous payload is released.
+            if (payload != null)
+                payload.close();
+
+            payload = RewindableContent.of(headerInputStream, memory);
         } catch (IOException e) {
             throw new IllegalStateException("Unable to save the payload: " + e.getMessage(), e);
         }
     }
 
     protected InputStream getPayload() {
-        return new ByteArrayInputStream(payload);
+        try {
+            return payload.newInputStream();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read the payload: " + e.getMessage(), e);
+        }
     }
 
     public Endpoint getEndpoint() {
@@ -369,10 +413,15 @@ public class TransmissionRequestBuilder {
         return endpoint != null;
     }
 
-    private byte[] wrapPayLoadWithSBDH(ByteArrayInputStream byteArrayInputStream,
-                                       PeppolStandardBusinessHeader effectiveStandardBusinessHeader) {
+    private RewindableContent wrapPayLoadWithSBDH(PeppolStandardBusinessHeader effectiveStandardBusinessHeader) {
         SbdhWrapper sbdhWrapper = new SbdhWrapper();
-        return sbdhWrapper.wrap(byteArrayInputStream, effectiveStandardBusinessHeader.toVefa());
+        try (InputStream inputStream = getPayload();
+             RewindableContent.Output outputStream = RewindableContent.newOutput(memory)) {
+            sbdhWrapper.wrap(inputStream, effectiveStandardBusinessHeader.toVefa(), outputStream);
+            return outputStream.toContent();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to wrap the payload: " + e.getMessage(), e);
+        }
     }
 
     /**
@@ -28,16 +28,17 @@ import network.oxalis.api.header.HeaderParser;
 import network.oxalis.api.lang.OxalisContentException;
 import network.oxalis.api.model.Direction;
 import network.oxalis.api.outbound.TransmissionMessage;
+import network.oxalis.api.settings.Settings;
 import network.oxalis.api.tag.Tag;
 import network.oxalis.api.tag.TagGenerator;
 import network.oxalis.api.transformer.ContentDetector;
 import network.oxalis.api.transformer.ContentWrapper;
-import network.oxalis.commons.io.PeekingInputStream;
+import network.oxalis.commons.header.HeaderInputStream;
+import network.oxalis.commons.io.RewindableContent;
 import network.oxalis.commons.tracing.Traceable;
 import network.oxalis.vefa.peppol.common.model.Header;
 
 import javax.inject.Inject;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -55,14 +56,18 @@ public class TransmissionRequestFactory extends Traceable {
 
     private final HeaderParser headerParser;
 
+    private final int memory;
+
     @Inject
     public TransmissionRequestFactory(ContentDetector contentDetector, ContentWrapper contentWrapper,
-                                      TagGenerator tagGenerator, HeaderParser headerParser, Tracer tracer) {
+                                      TagGenerator tagGenerator, HeaderParser headerParser, Tracer tracer,
+                                      Settings<PayloadConf> settings) {
         super(tracer);
         this.contentDetector = contentDetector;
         this.contentWrapper = contentWrapper;
         this.tagGenerator = tagGenerator;
         this.headerParser = headerParser;
+        this.memory = settings.getInt(PayloadConf.MEMORY);
     }
 
     public TransmissionMessage newInstance(InputStream inputStream)
@@ -97,7 +102,7 @@ public class TransmissionRequestFactory extends Traceable {
 
     private TransmissionMessage perform(InputStream inputStream, Tag tag, Span root)
             throws IOException, OxalisContentException {
-        PeekingInputStream peekingInputStream = new PeekingInputStream(inputStream);
+        HeaderInputStream headerInputStream = new HeaderInputStream(inputStream, headerParser);
 
         // Read header from content to send.
         Header header;
@@ -105,7 +110,7 @@ public class TransmissionRequestFactory extends Traceable {
             // Read header from SBDH.
             Span span = tracer.buildSpan("Reading SBDH").asChildOf(root).start();
             try {
-                header = headerParser.parse(peekingInputStream);
+                header = headerInputStream.getHeader();
                 span.setTag("identifier", header.getIdentifier().getIdentifier());
             } catch (OxalisContentException e) {
                 span.setTag("exception", e.getMessage());
@@ -114,38 +119,42 @@ public class TransmissionRequestFactory extends Traceable {
                 span.finish();
             }
 
-            // Create transmission request.
-            return new DefaultTransmissionMessage(header, peekingInputStream.newInputStream(),
-                    tagGenerator.generate(Direction.OUT, tag));
-        } catch (OxalisContentException e) {
-            byte[] payload = peekingInputStream.getContent();
-
-            // Detect header from content.
-            Span span = tracer.buildSpan("Detect SBDH from content").asChildOf(root).start();
-            try {
-                header = contentDetector.parse(new ByteArrayInputStream(payload));
-                span.setTag("identifier", header.getIdentifier().getIdentifier());
-            } catch (OxalisContentException ex) {
-                span.setTag("exception", ex.getMessage());
-                throw new OxalisContentException(ex.getMessage(), ex);
-            } finally {
-                span.finish();
+            // Create transmission request, keeping content as the caller may close the stream after return.
+            try (RewindableContent content = RewindableContent.of(headerInputStream, memory)) {
+                return new DefaultTransmissionMessage(header, content, tagGenerator.generate(Direction.OUT, tag));
             }
-
-            // Wrap content in SBDH.
-            span = tracer.buildSpan("Wrap content in SBDH").asChildOf(root).start();
-            InputStream wrappedContent;
-            try {
-                wrappedContent = contentWrapper.wrap(new ByteArrayInputStream(payload), header);
-            } catch (OxalisContentException ex) {
-                span.setTag("exception", ex.getMessage());
-                throw ex;
-            } finally {
-                span.finish();
+        } catch (OxalisContentException e) {
+            try (RewindableContent payload = RewindableContent.of(headerInputStream, memory)) {
+                // Detect header from content.
+                Span span = tracer.buildSpan("Detect SBDH from content").asChildOf(root).start();
+                try (InputStream payloadInputStream = payload.newInputStream()) {
+                    header = contentDetector.parse(payloadInputStream);
+                    span.setTag("identifier", header.getIdentifier().getIdentifier());
+                } catch (OxalisContentException ex) {
+                    span.setTag("exception", ex.getMessage());
+                    throw new OxalisContentException(ex.getMessage(), ex);
+                } finally {
+                    span.finish();
+                }
+
+                // Wrap content in SBDH.
+                span = tracer.buildSpan("Wrap content in SBDH").asChildOf(root).start();
+                InputStream wrappedContent;
+                InputStream payloadInputStream = payload.newInputStream();
+                try {
+                    // Content is wrapped while read, so the reader of payload is handed over to the wrapped content.
+                    wrappedContent = contentWrapper.wrap(payloadInputStream, header);
+                } catch (OxalisContentException | IOException | RuntimeException ex) {
+                    span.setTag("exception", String.valueOf(ex.getMessage()));
+                    payloadInputStream.close();
+                    throw ex;
+                } finally {
+                    span.finish();
+                }
+
+                // Create transmission request.
+                return new DefaultTransmissionMessage(header, wrappedContent, tagGenerator.generate(Direction.OUT, tag));
             }
-
-            // Create transmission request.
-            return new DefaultTransmissionMessage(header, wrappedContent, tagGenerator.generate(Direction.OUT, tag));
         }
     }
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.outbound.lookup;
+
+import network.oxalis.api.settings.Settings;
+import network.oxalis.commons.guice.GuiceModuleLoader;
+import network.oxalis.vefa.peppol.common.lang.EndpointNotFoundException;
+import network.oxalis.vefa.peppol.common.model.*;
+import network.oxalis.vefa.peppol.lookup.LookupClient;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class PersistentLookupServiceTest {
+
+    private static final Header HEADER = Header.newInstance()
+            .receiver(ParticipantIdentifier.of("0192:923829644"))
+            .documentType(DocumentTypeIdentifier.of("urn:test:document", DocumentTypeIdentifier.BUSDOX_DOCID_QNS_SCHEME))
+            .process(ProcessIdentifier.of("urn:test:process"));
+
+    private ExecutorService executorService;
+
+    private Path file;
+
+    private Endpoint endpoint;
+
+    @BeforeMethod
+    public void beforeMethod() throws Exception {
+        executorService = Executors.newFixedThreadPool(2);
+        file = Files.createTempFile("oxalis-lookup", ".cache");
+        Files.delete(file);
+
+        endpoint = Endpoint.of(TransportProfile.PEPPOL_AS4_2_0, URI.create("https://ap.example.com/as4"),
+                GuiceModuleLoader.initiate().getInstance(X509Certificate.class));
+    }
+
+    @AfterMethod
+    public void afterMethod() throws Exception {
+        executorService.shutdownNow();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void endpointAvailableAfterRestart() throws Exception {
+        LookupClient lookupClient = Mockito.mock(LookupClient.class);
+        mockLookup(lookupClient).thenReturn(endpoint);
+
+        Assert.assertEquals(createLookupService(lookupClient).lookup(HEADER), endpoint);
+
+        // New instance using endpoint from file while lookup fails.
+        LookupClient failingLookupClient = Mockito.mock(LookupClient.class);
+        mockLookup(failingLookupClient).thenThrow(new EndpointNotFoundException("Not found."));
+
+        RefreshingLookupService lookupService = createLookupService(failingLookupClient);
+        Endpoint stored = lookupService.lookup(HEADER);
+        Assert.assertEquals(stored.getTransportProfile(), endpoint.getTransportProfile());
+        Assert.assertEquals(stored.getAddress(), endpoint.getAddress());
+        Assert.assertEquals(stored.getCertificate(), endpoint.getCertificate());
+
+        // Endpoint is revalidated in the background, and kept when lookup fails.
+        verifyLookups(failingLookupClient, 1);
+        Thread.sleep(100);
+        Assert.assertEquals(lookupService.lookup(HEADER).getAddress(), endpoint.getAddress());
+    }
+
+    @Test
+    public void incompleteFile() throws Exception {
+        LookupClient lookupClient = Mockito.mock(LookupClient.class);
+        mockLookup(lookupClient).thenReturn(endpoint);
+
+        createLookupService(lookupClient).lookup(HEADER);
+
+        // Simulates incomplete record at end of file.
+        Files.write(file, new byte[]{0, 5, 'a'}, StandardOpenOption.APPEND);
+
+        LookupClient failingLookupClient = Mockito.mock(LookupClient.class);
+        mockLookup(failingLookupClient).thenThrow(new EndpointNotFoundException("Not found."));
+
+        Assert.assertEquals(createLookupService(failingLookupClient).lookup(HEADER).getAddress(),
+                endpoint.getAddress());
+    }
+
+    @Test
+    public void unchangedEndpointNotRewritten() throws Exception {
+        CachedLookupService.HeaderStub header = new CachedLookupService.HeaderStub(HEADER);
+
+        try (EndpointStore endpointStore = new EndpointStore(file)) {
+            long expires = System.currentTimeMillis() + 3_600_000;
+            endpointStore.put(header, endpoint, expires);
+            long size = Files.size(file);
+
+            for (int i = 0; i < 10; i++)
+                endpointStore.put(header, endpoint, expires + i * 1000);
+            Assert.assertEquals(Files.size(file), size);
+
+            // Changed endpoint is written.
+            Endpoint changed = Endpoint.of(endpoint.getTransportProfile(), URI.create("https://ap2.example.com/as4"),
+                    endpoint.getCertificate());
+            endpointStore.put(header, changed, expires);
+            Assert.assertTrue(Files.size(file) > size);
+            Assert.assertEquals(endpointStore.get(header), changed);
+        }
+    }
+
+    @Test
+    public void compactedWhileRunning() throws Exception {
+        CachedLookupService.HeaderStub header = new CachedLookupService.HeaderStub(HEADER);
+
+        try (EndpointStore endpointStore = new EndpointStore(file)) {
+            long expires = System.currentTimeMillis() + 3_600_000;
+            long recordSize = 0;
+            for (int i = 0; i < 2000; i++) {
+                endpointStore.put(header, Endpoint.of(endpoint.getTransportProfile(),
+                        URI.create("https://ap.example.com/as4/" + i), endpoint.getCertificate()), expires);
+                if (i == 0)
+                    recordSize = Files.size(file);
+            }
+
+            // File holds fewer records than written.
+            Assert.assertTrue(Files.size(file) < 1100 * recordSize);
+            Assert.assertEquals(endpointStore.get(header).getAddress(), URI.create("https://ap.example.com/as4/1999"));
+        }
+
+        try (EndpointStore endpointStore = new EndpointStore(file)) {
+            Assert.assertEquals(endpointStore.get(header).getAddress(), URI.create("https://ap.example.com/as4/1999"));
+        }
+    }
+
+    private RefreshingLookupService createLookupService(LookupClient lookupClient) throws Exception {
+        @SuppressWarnings("unchecked")
+        Settings<LookupConf> settings = Mockito.mock(Settings.class);
+        Mockito.when(settings.getInt(LookupConf.CACHE_SIZE)).thenReturn(100);
+        Mockito.when(settings.getInt(LookupConf.CACHE_EXPIRE)).thenReturn(60);
+        Mockito.when(settings.getInt(LookupConf.CACHE_REFRESH)).thenReturn(60);
+        Mockito.when(settings.getInt(LookupConf.CACHE_NEGATIVE)).thenReturn(60);
+        Mockito.when(settings.getInt(LookupConf.CACHE_STATISTICS)).thenReturn(0);
+        Mockito.when(settings.getInt(LookupConf.CACHE_FILE_EXPIRE)).thenReturn(3600);
+        Mockito.when(settings.getPath(ArgumentMatchers.eq(LookupConf.CACHE_FILE), ArgumentMatchers.any()))
+                .thenReturn(file);
+
+        return new PersistentLookupService(lookupClient, Collections.singletonList(TransportProfile.PEPPOL_AS4_2_0),
+                executorService, settings, file.getParent());
+    }
+
+    private org.mockito.stubbing.OngoingStubbing<Endpoint> mockLookup(LookupClient lookupClient) throws Exception {
+        return Mockito.when(lookupClient.getEndpoint(ArgumentMatchers.any(ParticipantIdentifier.class),
+                ArgumentMatchers.any(DocumentTypeIdentifier.class), ArgumentMatchers.any(ProcessIdentifier.class),
+                ArgumentMatchers.<TransportProfile>any()));
+    }
+
+    private void verifyLookups(LookupClient lookupClient, int times) throws Exception {
+        Mockito.verify(lookupClient, Mockito.timeout(1000).times(times)).getEndpoint(
+                ArgumentMatchers.any(ParticipantIdentifier.class), ArgumentMatchers.any(DocumentTypeIdentifier.class),
+                ArgumentMatchers.any(ProcessIdentifier.class), ArgumentMatchers.<TransportProfile>any());
+    }
+}
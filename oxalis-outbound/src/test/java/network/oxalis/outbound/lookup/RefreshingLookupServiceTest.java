@@ -0,0 +1,198 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.outbound.lookup;
+
+import network.oxalis.api.lang.OxalisTransmissionException;
+import network.oxalis.api.settings.Settings;
+import network.oxalis.vefa.peppol.common.lang.EndpointNotFoundException;
+import network.oxalis.vefa.peppol.common.model.*;
+import network.oxalis.vefa.peppol.lookup.LookupClient;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RefreshingLookupServiceTest {
+
+    private static final Header HEADER = Header.newInstance()
+            .receiver(ParticipantIdentifier.of("0192:923829644"))
+            .documentType(DocumentTypeIdentifier.of("urn:test:document"))
+            .process(ProcessIdentifier.of("urn:test:process"));
+
+    private static final Endpoint ENDPOINT = Endpoint.of(TransportProfile.AS2_1_0,
+            URI.create("https://ap.example.com/as2"), null);
+
+    private LookupClient lookupClient;
+
+    private ExecutorService executorService;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        lookupClient = Mockito.mock(LookupClient.class);
+        executorService = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterMethod
+    public void afterMethod() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void cached() throws Exception {
+        mockLookup().thenReturn(ENDPOINT);
+
+        RefreshingLookupService lookupService = createLookupService(60, 60, 60);
+
+        Assert.assertSame(lookupService.lookup(HEADER), ENDPOINT);
+        Assert.assertSame(lookupService.lookup(HEADER), ENDPOINT);
+
+        verifyLookups(1);
+        Assert.assertEquals(lookupService.getStats().hitCount(), 1);
+        Assert.assertEquals(lookupService.getStats().missCount(), 1);
+    }
+
+    @Test
+    public void negativeCached() throws Exception {
+        mockLookup().thenThrow(new EndpointNotFoundException("Not found."));
+
+        RefreshingLookupService lookupService = createLookupService(60, 60, 60);
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                lookupService.lookup(HEADER);
+                Assert.fail("Expected exception.");
+            } catch (OxalisTransmissionException e) {
+                Assert.assertEquals(e.getMessage(), "Not found.");
+                Assert.assertTrue(e.getCause() instanceof EndpointNotFoundException);
+            }
+        }
+
+        verifyLookups(1);
+    }
+
+    @Test
+    public void negativeExpired() throws Exception {
+        mockLookup()
+                .thenThrow(new EndpointNotFoundException("Not found."))
+                .thenReturn(ENDPOINT);
+
+        RefreshingLookupService lookupService = createLookupService(60, 60, 1);
+
+        try {
+            lookupService.lookup(HEADER);
+            Assert.fail("Expected exception.");
+        } catch (OxalisTransmissionException e) {
+            // Expected
+        }
+
+        Thread.sleep(1100);
+        Assert.assertSame(lookupService.lookup(HEADER), ENDPOINT);
+
+        verifyLookups(2);
+    }
+
+    @Test
+    public void singleLookup() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger counter = new AtomicInteger();
+        mockLookup().thenAnswer(invocation -> {
+            counter.incrementAndGet();
+            latch.await();
+            return ENDPOINT;
+        });
+
+        RefreshingLookupService lookupService = createLookupService(60, 60, 60);
+
+        List<Future<Endpoint>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            futures.add(executorService.submit(() -> lookupService.lookup(HEADER)));
+
+        Thread.sleep(100);
+        latch.countDown();
+
+        for (Future<Endpoint> future : futures)
+            Assert.assertSame(future.get(5, TimeUnit.SECONDS), ENDPOINT);
+
+        Assert.assertEquals(counter.get(), 1);
+    }
+
+    @Test
+    public void refreshKeepsEndpointOnFailure() throws Exception {
+        Endpoint refreshed = Endpoint.of(TransportProfile.AS2_1_0, URI.create("https://ap2.example.com/as2"), null);
+
+        mockLookup()
+                .thenReturn(ENDPOINT)
+                .thenThrow(new EndpointNotFoundException("Not found."))
+                .thenReturn(refreshed);
+
+        RefreshingLookupService lookupService = createLookupService(60, 1, 60);
+
+        Assert.assertSame(lookupService.lookup(HEADER), ENDPOINT);
+
+        // Refresh failing in the background, known endpoint is kept.
+        Thread.sleep(1100);
+        Assert.assertSame(lookupService.lookup(HEADER), ENDPOINT);
+        verifyLookups(2);
+        Thread.sleep(100);
+
+        // Successful refresh in the background replaces endpoint.
+        Assert.assertSame(lookupService.lookup(HEADER), ENDPOINT);
+        verifyLookups(3);
+        Thread.sleep(100);
+        Assert.assertSame(lookupService.lookup(HEADER), refreshed);
+    }
+
+    private RefreshingLookupService createLookupService(int expire, int refresh, int negative) {
+        @SuppressWarnings("unchecked")
+        Settings<LookupConf> settings = Mockito.mock(Settings.class);
+        Mockito.when(settings.getInt(LookupConf.CACHE_SIZE)).thenReturn(100);
+        Mockito.when(settings.getInt(LookupConf.CACHE_EXPIRE)).thenReturn(expire);
+        Mockito.when(settings.getInt(LookupConf.CACHE_REFRESH)).thenReturn(refresh);
+        Mockito.when(settings.getInt(LookupConf.CACHE_NEGATIVE)).thenReturn(negative);
+        Mockito.when(settings.getInt(LookupConf.CACHE_STATISTICS)).thenReturn(0);
+
+        return new RefreshingLookupService(lookupClient, Collections.singletonList(TransportProfile.AS2_1_0),
+                executorService, settings);
+    }
+
+    private org.mockito.stubbing.OngoingStubbing<Endpoint> mockLookup() throws Exception {
+        return Mockito.when(lookupClient.getEndpoint(ArgumentMatchers.any(ParticipantIdentifier.class),
+                ArgumentMatchers.any(DocumentTypeIdentifier.class), ArgumentMatchers.any(ProcessIdentifier.class),
+                ArgumentMatchers.<TransportProfile>any()));
+    }
+
+    private void verifyLookups(int times) throws Exception {
+        Mockito.verify(lookupClient, Mockito.timeout(1000).times(times)).getEndpoint(
+                ArgumentMatchers.any(ParticipantIdentifier.class), ArgumentMatchers.any(DocumentTypeIdentifier.class),
+                ArgumentMatchers.any(ProcessIdentifier.class), ArgumentMatchers.<TransportProfile>any());
+    }
+}
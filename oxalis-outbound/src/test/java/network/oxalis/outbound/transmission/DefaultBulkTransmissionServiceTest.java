@@ -0,0 +1,201 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.outbound.transmission;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.util.Modules;
+import io.opentracing.noop.NoopTracerFactory;
+import network.oxalis.api.outbound.BulkTransmissionService;
+import network.oxalis.api.outbound.TransmissionRequest;
+import network.oxalis.api.outbound.TransmissionResponse;
+import network.oxalis.api.outbound.Transmitter;
+import network.oxalis.commons.error.SilentErrorTracker;
+import network.oxalis.commons.guice.GuiceModuleLoader;
+import network.oxalis.commons.http.RouteLimits;
+import network.oxalis.test.asd.AsdTransmissionResponse;
+import network.oxalis.test.lookup.MockLookupModule;
+import network.oxalis.vefa.peppol.common.model.Endpoint;
+import network.oxalis.vefa.peppol.common.model.TransportProfile;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DefaultBulkTransmissionServiceTest {
+
+    private ExecutorService lookupExecutor;
+
+    private ExecutorService transmissionExecutor;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        lookupExecutor = Executors.newFixedThreadPool(4);
+        transmissionExecutor = Executors.newFixedThreadPool(10);
+    }
+
+    @AfterMethod
+    public void afterMethod() {
+        lookupExecutor.shutdownNow();
+        transmissionExecutor.shutdownNow();
+    }
+
+    @Test
+    public void simple() throws Exception {
+        Injector injector = Guice.createInjector(
+                Modules.override(new GuiceModuleLoader()).with(new MockLookupModule()));
+        MockLookupModule.resetService();
+
+        BulkTransmissionService bulkTransmissionService = injector.getInstance(BulkTransmissionService.class);
+
+        List<InputStream> inputStreams = Arrays.asList(
+                getClass().getResourceAsStream("/peppol-bis-invoice-sbdh.xml"),
+                getClass().getResourceAsStream("/peppol-bis-invoice-sbdh.xml"),
+                getClass().getResourceAsStream("/peppol-bis-invoice-sbdh.xml"));
+
+        List<CompletableFuture<TransmissionResponse>> futures = bulkTransmissionService.send(inputStreams);
+
+        Assert.assertEquals(futures.size(), 3);
+        for (CompletableFuture<TransmissionResponse> future : futures) {
+            TransmissionResponse transmissionResponse = future.get(30, TimeUnit.SECONDS);
+            Assert.assertTrue(transmissionResponse instanceof AsdTransmissionResponse);
+            Assert.assertEquals(transmissionResponse.getProtocol(), TransportProfile.of("bdx-transport-asd"));
+        }
+    }
+
+    @Test
+    public void concurrencyIsLimitedPerRoute() throws Exception {
+        AtomicInteger activeA = new AtomicInteger();
+        AtomicInteger maxA = new AtomicInteger();
+        AtomicInteger activeB = new AtomicInteger();
+        AtomicInteger maxB = new AtomicInteger();
+
+        Transmitter transmitter = transmissionMessage -> {
+            boolean routeA = ((TransmissionRequest) transmissionMessage).getEndpoint().getAddress().getHost()
+                    .equals("a.example.com");
+            AtomicInteger active = routeA ? activeA : activeB;
+            AtomicInteger max = routeA ? maxA : maxB;
+
+            max.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+
+            return Mockito.mock(TransmissionResponse.class);
+        };
+
+        DefaultBulkTransmissionService bulkTransmissionService = newService(transmitter, 2, 100);
+
+        List<CompletableFuture<TransmissionResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(bulkTransmissionService.send(request("http://a.example.com/as2")));
+            futures.add(bulkTransmissionService.send(request("http://b.example.com:8080/as4")));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        Assert.assertEquals(maxA.get(), 2);
+        Assert.assertEquals(maxB.get(), 2);
+    }
+
+    @Test
+    public void queueAppliesBackpressure() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+
+        Transmitter transmitter = transmissionMessage -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Mockito.mock(TransmissionResponse.class);
+        };
+
+        DefaultBulkTransmissionService bulkTransmissionService = newService(transmitter, 10, 2);
+
+        bulkTransmissionService.send(request("http://a.example.com/as2"));
+        bulkTransmissionService.send(request("http://a.example.com/as2"));
+
+        // Third document must wait for room in queue.
+        ExecutorService sender = Executors.newSingleThreadExecutor();
+        Future<CompletableFuture<TransmissionResponse>> third =
+                sender.submit(() -> bulkTransmissionService.send(request("http://a.example.com/as2")));
+
+        Assert.assertThrows(TimeoutException.class, () -> third.get(200, TimeUnit.MILLISECONDS));
+
+        blocker.countDown();
+
+        Assert.assertNotNull(third.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+
+        sender.shutdown();
+    }
+
+    @Test
+    public void failureCompletesExceptionally() throws Exception {
+        Transmitter transmitter = transmissionMessage -> {
+            throw new IllegalStateException("From unit test.");
+        };
+
+        DefaultBulkTransmissionService bulkTransmissionService = newService(transmitter, 2, 2);
+
+        CompletableFuture<TransmissionResponse> first = bulkTransmissionService.send(request("http://a.example.com/"));
+        CompletableFuture<TransmissionResponse> second = bulkTransmissionService.send(request("http://a.example.com/"));
+        CompletableFuture<TransmissionResponse> third = bulkTransmissionService.send(request("http://a.example.com/"));
+
+        for (CompletableFuture<TransmissionResponse> future : Arrays.asList(first, second, third)) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected exception.");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+
+    private DefaultBulkTransmissionService newService(Transmitter transmitter, int maxRoute, int queue) {
+        RouteLimits routeLimits = Mockito.mock(RouteLimits.class);
+        Mockito.when(routeLimits.getLimit(Mockito.any())).thenReturn(maxRoute);
+
+        return new DefaultBulkTransmissionService(null, null, transmitter, new SilentErrorTracker(),
+                NoopTracerFactory.create(), lookupExecutor, transmissionExecutor, routeLimits, queue);
+    }
+
+    private TransmissionRequest request(String address) {
+        TransmissionRequest transmissionRequest = Mockito.mock(TransmissionRequest.class);
+        Mockito.when(transmissionRequest.getEndpoint())
+                .thenReturn(Endpoint.of(TransportProfile.AS2_1_0, URI.create(address), null));
+        return transmissionRequest;
+    }
+}
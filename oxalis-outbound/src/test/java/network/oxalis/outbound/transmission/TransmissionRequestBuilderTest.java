@@ -22,6 +22,7 @@
 
 package network.oxalis.outbound.transmission;
 
+import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import network.oxalis.test.identifier.CountryIdentifierExample;
@@ -29,6 +30,7 @@ import network.oxalis.test.identifier.PeppolDocumentTypeIdAcronym;
 import network.oxalis.test.identifier.PeppolProcessTypeIdAcronym;
 import network.oxalis.test.identifier.WellKnownParticipant;
 import network.oxalis.api.lang.OxalisException;
+import network.oxalis.api.lang.OxalisTransmissionException;
 import network.oxalis.api.model.TransmissionIdentifier;
 import network.oxalis.api.outbound.TransmissionRequest;
 import network.oxalis.commons.guice.GuiceModuleLoader;
@@ -183,6 +185,27 @@ public class TransmissionRequestBuilderTest {
         assertEquals(request.getEndpoint().getAddress(), url);
     }
 
+    @Test
+    public void payloadHandedOverToRequest() throws Exception {
+        URI url = URI.create("http://localhost:8080/oxalis/as2");
+        TransmissionRequest request = transmissionRequestBuilder
+                .payLoad(inputStreamWithSBDH)
+                .overrideAs2Endpoint(Endpoint.of(TransportProfile.AS2_1_0, url, certificate))
+                .build();
+
+        // Payload is still readable from request after builder released it.
+        try (InputStream inputStream = request.getPayload()) {
+            assertTrue(ByteStreams.toByteArray(inputStream).length > 2);
+        }
+
+        try {
+            transmissionRequestBuilder.build();
+            fail("Payload must be provided for each request.");
+        } catch (OxalisTransmissionException e) {
+            // Expected
+        }
+    }
+
     @Test
     public void testOverrideOfAllValues() throws Exception {
         TransmissionIdentifier transmissionIdentifier = TransmissionIdentifier.of("messageid");
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2010-2018 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package network.oxalis.test.filesystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Locates the fake home folder on the classpath. When packaged inside a jar, the fake home is copied
+ * to a temporary folder, as the folder is expected to be on the default file system.
+ *
+ * @since 6.5.1
+ */
+public class FakeHome {
+
+    private static final String RESOURCE = "/oxalis_home/fake-oxalis.conf";
+
+    private static Path extracted;
+
+    private FakeHome() {
+        // No action.
+    }
+
+    public static synchronized Path get() throws Exception {
+        URI uri = FakeHome.class.getResource(RESOURCE).toURI();
+
+        if ("file".equals(uri.getScheme()))
+            return Paths.get(uri).getParent();
+
+        if (extracted == null)
+            extracted = extract();
+
+        return extracted;
+    }
+
+    private static Path extract() throws IOException {
+        Path folder = Files.createTempDirectory("oxalis_home");
+        folder.toFile().deleteOnExit();
+
+        Path file = folder.resolve("fake-oxalis.conf");
+        try (InputStream inputStream = FakeHome.class.getResourceAsStream(RESOURCE)) {
+            Files.copy(inputStream, file);
+        }
+        file.toFile().deleteOnExit();
+
+        return folder;
+    }
+}
@@ -4,7 +4,6 @@ import network.oxalis.api.filesystem.HomeDetector;
 import org.kohsuke.MetaInfServices;
 
 import java.io.File;
-import java.nio.file.Paths;
 
 /**
  * @author erlend
@@ -15,7 +14,7 @@ public class FakeHomeDetector implements HomeDetector {
     @Override
     public File detect() {
         try {
-            return Paths.get(getClass().getResource("/oxalis_home/fake-oxalis.conf").toURI()).getParent().toFile();
+            return FakeHome.get().toFile();
         } catch (Exception e) {
             throw new IllegalStateException(e.getMessage(), e);
         }
@@ -28,9 +28,7 @@ import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import network.oxalis.api.lang.OxalisLoadingException;
 
-import java.net.URISyntaxException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 
 /**
  * @author erlend
@@ -47,8 +45,8 @@ public class TestFileSystemModule extends AbstractModule {
     @Named("home")
     protected Path getHomeFolder() {
         try {
-            return Paths.get(getClass().getResource("/oxalis_home/fake-oxalis.conf").toURI()).getParent();
-        } catch (URISyntaxException e) {
+            return FakeHome.get();
+        } catch (Exception e) {
             throw new OxalisLoadingException(e.getMessage(), e);
         }
     }